@@ -1,11 +1,17 @@
 package com.acertainbookstore.business;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
  * {@link BookStoreBook} implements all parts of the book. Only parts of it are
  * available in the bookstore client and stock manager, cf. the {@link Book} and
  * {@link StockBook} interfaces.
+ * <p>
+ * The ratings are updated lock-free: the total rating and the number of times
+ * rated are replaced together by a compare-and-set, so concurrent raters never
+ * need the lock of the store and readers always see a consistent average.
  * 
  * @see Book
  * @see StockBook
@@ -16,11 +22,8 @@ public class BookStoreBook extends ImmutableBook {
 	/** The number of copies. */
 	private int numCopies;
 
-	/** The total rating. */
-	private long totalRating;
-
-	/** The number of times rated. */
-	private long numTimesRated;
+	/** The total rating and the number of times rated. */
+	private final AtomicReference<Ratings> ratings = new AtomicReference<>(Ratings.NONE);
 
 	/** The number of sale misses. */
 	private long numSaleMisses;
@@ -46,9 +49,7 @@ public class BookStoreBook extends ImmutableBook {
 		super(isbn, title, author, price);
 
 		this.setNumSaleMisses(0);
-		this.setNumTimesRated(0);
 		this.setNumCopies(numCopies);
-		this.setTotalRating(0);
 		this.setEditorPick(false);
 	}
 
@@ -63,9 +64,8 @@ public class BookStoreBook extends ImmutableBook {
 		super(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy.getAuthor(), bookToCopy.getPrice());
 
 		this.setNumSaleMisses(bookToCopy.getNumSaleMisses());
-		this.setNumTimesRated(bookToCopy.getNumTimesRated());
+		this.setRatings(bookToCopy.getTotalRating(), bookToCopy.getNumTimesRated());
 		this.setNumCopies(bookToCopy.getNumCopies());
-		this.setTotalRating(bookToCopy.getTotalRating());
 		this.setEditorPick(bookToCopy.isEditorPick());
 	}
 
@@ -75,7 +75,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the total rating
 	 */
 	public long getTotalRating() {
-		return totalRating;
+		return ratings.get().totalRating;
 	}
 
 	/**
@@ -84,7 +84,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the number of times rated
 	 */
 	public long getNumTimesRated() {
-		return numTimesRated;
+		return ratings.get().numTimesRated;
 	}
 
 	/**
@@ -112,7 +112,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the average rating
 	 */
 	public float getAverageRating() {
-		return (numTimesRated == 0 ? -1.0f : (float) totalRating / numTimesRated);
+		return ratings.get().averageRating();
 	}
 
 	/**
@@ -125,23 +125,16 @@ public class BookStoreBook extends ImmutableBook {
 	}
 
 	/**
-	 * Sets the total rating of the book.
+	 * Sets the total rating of the book and the number of times that it was
+	 * rated.
 	 *
 	 * @param totalRating
 	 *            the new total rating
-	 */
-	private void setTotalRating(long totalRating) {
-		this.totalRating = totalRating;
-	}
-
-	/**
-	 * Sets the number of times that the book was rated.
-	 *
 	 * @param numTimesRated
 	 *            the new number of times rated
 	 */
-	private void setNumTimesRated(long numTimesRated) {
-		this.numTimesRated = numTimesRated;
+	private void setRatings(long totalRating, long numTimesRated) {
+		this.ratings.set(new Ratings(totalRating, numTimesRated));
 	}
 
 	/**
@@ -234,8 +227,12 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addRating(int rating) {
 		if (!BookStoreUtility.isInvalidRating(rating)) {
-			this.totalRating += rating;
-			this.numTimesRated++;
+			Ratings current;
+
+			do {
+				current = ratings.get();
+			} while (!ratings.compareAndSet(current,
+					new Ratings(current.totalRating + rating, current.numTimesRated + 1)));
 		}
 	}
 
@@ -276,9 +273,26 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the stock book
 	 */
 	public StockBook immutableStockBook() {
+		Ratings currentRatings = ratings.get();
 		return new ImmutableStockBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating,
-				this.editorPick);
+				this.getPrice(), this.numCopies, this.numSaleMisses, currentRatings.numTimesRated,
+				currentRatings.totalRating, this.editorPick);
+	}
+
+	/**
+	 * Returns a copy of a {@link StockBook} snapshot of the book with its
+	 * current ratings, which change without the lock of the store, so that a
+	 * snapshot taken under the lock need not be taken again on every rating.
+	 *
+	 * @param snapshot
+	 *            the snapshot of the book
+	 * @return the stock book
+	 */
+	public StockBook withCurrentRatings(StockBook snapshot) {
+		Ratings currentRatings = ratings.get();
+		return new ImmutableStockBook(snapshot.getISBN(), snapshot.getTitle(), snapshot.getAuthor(),
+				snapshot.getPrice(), snapshot.getNumCopies(), snapshot.getNumSaleMisses(),
+				currentRatings.numTimesRated, currentRatings.totalRating, snapshot.isEditorPick());
 	}
 
 	/**
@@ -290,4 +304,42 @@ public class BookStoreBook extends ImmutableBook {
 		return new BookStoreBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
 				this.getPrice(), this.numCopies);
 	}
+
+	/**
+	 * {@link Ratings} is an immutable pair of the total rating of a book and
+	 * the number of times it was rated, replaced as a whole on every rating.
+	 */
+	private static final class Ratings {
+
+		/** The ratings of a book that was never rated. */
+		private static final Ratings NONE = new Ratings(0, 0);
+
+		/** The total rating. */
+		private final long totalRating;
+
+		/** The number of times rated. */
+		private final long numTimesRated;
+
+		/**
+		 * Instantiates new {@link Ratings}.
+		 *
+		 * @param totalRating
+		 *            the total rating
+		 * @param numTimesRated
+		 *            the number of times rated
+		 */
+		private Ratings(long totalRating, long numTimesRated) {
+			this.totalRating = totalRating;
+			this.numTimesRated = numTimesRated;
+		}
+
+		/**
+		 * Gets the average rating.
+		 *
+		 * @return the average rating, or -1 if the book was never rated
+		 */
+		private float averageRating() {
+			return (numTimesRated == 0 ? -1.0f : (float) totalRating / numTimesRated);
+		}
+	}
 }
@@ -2,6 +2,8 @@ package com.acertainbookstore.business;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -20,16 +22,48 @@ import com.acertainbookstore.utils.BookStoreUtility;
  */
 public class CertainBookStore implements BookStore, StockManager {
 
-	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	/**
+	 * The mapping of books from ISBN to {@link BookStoreBook}. The map is only
+	 * modified under the store monitor, but it is concurrent so that
+	 * {@link #rateBooks(Set)} can look books up without the monitor.
+	 */
 	private Map<Integer, BookStoreBook> bookMap = null;
 
+	/** The books that are editor picks. */
+	private EditorPickIndex<BookStoreBook> editorPicks = null;
+
+	/**
+	 * The books ranked by their average rating, guarded by its own monitor
+	 * rather than the store monitor, since ratings do not take the latter.
+	 */
+	private TopRatedIndex topRated = null;
+
+	/**
+	 * The ISBNs of the books rated since they were last ranked. Ratings only
+	 * add to this set, and the ranking is brought up to date when it is read,
+	 * so rating a book takes no lock.
+	 */
+	private Set<Integer> unrankedBooks = null;
+
+	/**
+	 * The snapshots of the books that had a sale miss. The map is only
+	 * modified under the store monitor, but it is read without it, so that
+	 * polling the books in demand never waits for purchases. The ratings of
+	 * the snapshots are replaced by the current ones when they are read.
+	 */
+	private ConcurrentMap<Integer, StockBook> booksInDemand = null;
+
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
 	public CertainBookStore() {
 
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
+		bookMap = new ConcurrentHashMap<>();
+		editorPicks = new EditorPickIndex<>();
+		topRated = new TopRatedIndex();
+		unrankedBooks = ConcurrentHashMap.newKeySet();
+		booksInDemand = new ConcurrentHashMap<>();
 	}
 
 	private synchronized void validate(StockBook book) throws BookStoreException {
@@ -80,13 +114,18 @@ public class CertainBookStore implements BookStore, StockManager {
 		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 	}
 
-	private synchronized void validateISBNInStock(Integer ISBN) throws BookStoreException {
+	private BookStoreBook validateISBNInStock(Integer ISBN) throws BookStoreException {
 		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 		}
-		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
+
+		BookStoreBook book = bookMap.get(ISBN);
+
+		if (book == null) {// Check if the book is in stock
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
 		}
+
+		return book;
 	}
 
 	/*
@@ -99,15 +138,32 @@ public class CertainBookStore implements BookStore, StockManager {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check that all books are there first.
+		// Check that all books are there first, each once.
+		Set<Integer> isbnsToAdd = new HashSet<>();
+
 		for (StockBook book : bookSet) {
 			validate(book);
+
+			if (!isbnsToAdd.add(book.getISBN())) {// Check if the book is not in the set twice
+				throw new BookStoreException(BookStoreConstants.ISBN + book.getISBN() + BookStoreConstants.DUPLICATED);
+			}
 		}
 
 		// Then add these books to the store.
 		for (StockBook book : bookSet) {
 			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
+			BookStoreBook bookStoreBook = new BookStoreBook(book);
+			bookMap.put(isbn, bookStoreBook);
+
+			synchronized (topRated) {
+				topRated.update(bookStoreBook);
+			}
+
+			updateInDemand(bookStoreBook);
+
+			if (bookStoreBook.isEditorPick()) {
+				editorPicks.add(bookStoreBook);
+			}
 		}
 
 	}
@@ -138,6 +194,7 @@ public class CertainBookStore implements BookStore, StockManager {
 			numCopies = bookCopy.getNumCopies();
 			book = bookMap.get(isbn);
 			book.addCopies(numCopies);
+			updateInDemand(book);
 		}
 
 	}
@@ -173,7 +230,16 @@ public class CertainBookStore implements BookStore, StockManager {
 
 		// Then set the editor pick.
 		for (BookEditorPick editorPickArg : editorPicks) {
-			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+			book.setEditorPick(editorPickArg.isEditorPick());
+
+			if (editorPickArg.isEditorPick()) {
+				this.editorPicks.add(book);
+			} else {
+				this.editorPicks.remove(book.getISBN());
+			}
+
+			updateInDemand(book);
 		}
 	}
 
@@ -213,6 +279,7 @@ public class CertainBookStore implements BookStore, StockManager {
 			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
 				book = bookMap.get(saleMissEntry.getKey());
 				book.addSaleMiss(saleMissEntry.getValue());
+				updateInDemand(book);
 			}
 			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 		}
@@ -221,6 +288,7 @@ public class CertainBookStore implements BookStore, StockManager {
 		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
 			book = bookMap.get(bookCopyToBuy.getISBN());
 			book.buyCopies(bookCopyToBuy.getNumCopies());
+			updateInDemand(book);
 		}
 	}
 
@@ -271,34 +339,9 @@ public class CertainBookStore implements BookStore, StockManager {
 			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 		}
 
-		// Get all books that are editor picks.
-		List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream().map(pair -> pair.getValue())
-				.filter(book -> book.isEditorPick()).collect(Collectors.toList());
-
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
-
-		if (rangePicks <= numBooks) {
-
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
-			}
-		} else {
-
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
-
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
-			}
-		}
-
-		// Return all the books by the randomly chosen indices.
-		return tobePicked.stream().map(index -> listAllEditorPicks.get(index).immutableBook())
+		// Draw numBooks random books from the editor picks index.
+		return editorPicks.sample(numBooks).stream()
+				.map(book -> book.immutableBook())
 				.collect(Collectors.toList());
 	}
 
@@ -308,25 +351,22 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
 	 */
 	@Override
-	public synchronized List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
 		if (numBooks < 1) {
 			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 		}
 
-		List<BookStoreBook> sortedRatings = new ArrayList<BookStoreBook>(this.bookMap.values());
-		sortedRatings.sort(Comparator.comparing(BookStoreBook::getAverageRating));
-		Collections.reverse(sortedRatings);
-
-		List<BookStoreBook> topRated;
+		// Walk the ranking from the top instead of sorting the whole catalog.
+		List<BookStoreBook> topRatedBooks;
 
-		if (bookMap.size() < numBooks) {
-			topRated = sortedRatings;
-		} else {
-			topRated = sortedRatings.subList(0, numBooks);
+		synchronized (topRated) {
+			rankRatedBooks();
+			topRatedBooks = topRated.getTopRated(numBooks);
 		}
 
-		return topRated.stream()
-				.map(bookRating -> this.bookMap.get(bookRating.getISBN()).immutableBook())
+		// Only the immutable part of the books is returned.
+		return topRatedBooks.stream()
+				.map(BookStoreBook::immutableBook)
 				.collect(Collectors.toList());
 	}
 
@@ -336,13 +376,16 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
 	 */
 	@Override
-	public synchronized List<StockBook> getBooksInDemand() {
-		Collection<BookStoreBook> bookMapValues = bookMap.values();
+	public List<StockBook> getBooksInDemand() {
+		// Not synchronized: the index only holds immutable snapshots.
+		List<StockBook> books = new ArrayList<>(booksInDemand.size());
 
-		return bookMapValues.stream()
-				.filter(BookStoreBook::hadSaleMiss)
-				.map(BookStoreBook::immutableStockBook)
-				.collect(Collectors.toList());
+		for (StockBook snapshot : booksInDemand.values()) {
+			BookStoreBook book = bookMap.get(snapshot.getISBN());
+			books.add(book != null ? book.withCurrentRatings(snapshot) : snapshot);
+		}
+
+		return books;
 	}
 
 	/*
@@ -351,14 +394,19 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
 	 */
 	@Override
-	public synchronized void rateBooks(Set<BookRating> bookRatings) throws BookStoreException {
+	public void rateBooks(Set<BookRating> bookRatings) throws BookStoreException {
 		if (bookRatings == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
+		// Not synchronized: the ratings of a book are updated lock-free, and
+		// the ranking catches up when it is read, so ratings never wait for
+		// purchases or for each other.
+		List<BookStoreBook> booksToRate = new ArrayList<>(bookRatings.size());
+
 		for (BookRating bookToRate : bookRatings) {
 			// Validate that the ISBN is valid and in stock
-			validateISBNInStock(bookToRate.getISBN());
+			booksToRate.add(validateISBNInStock(bookToRate.getISBN()));
 			int rating = bookToRate.getRating();
 
 			if(BookStoreUtility.isInvalidRating(rating)) {
@@ -366,11 +414,16 @@ public class CertainBookStore implements BookStore, StockManager {
 			}
 		}
 
+		Iterator<BookStoreBook> bookIterator = booksToRate.iterator();
+
 		for (BookRating bookToRate : bookRatings) {
-			BookStoreBook book = bookMap.get(bookToRate.getISBN());
+			BookStoreBook book = bookIterator.next();
 			book.addRating(bookToRate.getRating());
-		}
 
+			// The book is ranked by its latest average when the ranking is
+			// read next.
+			unrankedBooks.add(book.getISBN());
+		}
 	}
 
 	/*
@@ -380,6 +433,12 @@ public class CertainBookStore implements BookStore, StockManager {
 	 */
 	public synchronized void removeAllBooks() throws BookStoreException {
 		bookMap.clear();
+		editorPicks.clear();
+		booksInDemand.clear();
+
+		synchronized (topRated) {
+			topRated.clear();
+		}
 	}
 
 	/*
@@ -404,6 +463,49 @@ public class CertainBookStore implements BookStore, StockManager {
 
 		for (int isbn : isbnSet) {
 			bookMap.remove(isbn);
+			editorPicks.remove(isbn);
+			booksInDemand.remove(isbn);
+
+			synchronized (topRated) {
+				topRated.remove(isbn);
+			}
+		}
+	}
+
+	/**
+	 * Moves the books rated since they were last ranked to the position of
+	 * their current average rating. A book is taken out of the set before it
+	 * is ranked, so a rating added meanwhile ranks it again next time. Must be
+	 * called under the monitor of the ranking.
+	 */
+	private void rankRatedBooks() {
+		Iterator<Integer> isbns = unrankedBooks.iterator();
+
+		while (isbns.hasNext()) {
+			int isbn = isbns.next();
+			isbns.remove();
+
+			// The books removed since they were rated are not ranked.
+			BookStoreBook book = bookMap.get(isbn);
+
+			if (book != null) {
+				topRated.update(book);
+			}
+		}
+	}
+
+	/**
+	 * Refreshes the snapshot of the book in the books in demand after it was
+	 * modified, or drops the book if it has no sale misses anymore.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private void updateInDemand(BookStoreBook book) {
+		if (book.hadSaleMiss()) {
+			booksInDemand.put(book.getISBN(), book.immutableStockBook());
+		} else {
+			booksInDemand.remove(book.getISBN());
 		}
 	}
 }
@@ -0,0 +1,635 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link ColumnarCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities with the books stored column by column.
+ * <p>
+ * Every book occupies a slot, and the mutable counters of all the books are
+ * kept in one primitive array per counter, indexed by slot. The immutable
+ * title, author and price are kept apart as {@link ImmutableBook}s, so scans
+ * over the counters (books in demand, editor picks, top-rated books) only
+ * touch contiguous memory and no {@link BookStoreBook} is allocated per book.
+ * The used slots are always 0 to numBooks - 1: removing a book moves the book
+ * of the last slot into its slot.
+ *
+ * @see BookStore
+ * @see StockManager
+ * @see CertainBookStore
+ */
+public class ColumnarCertainBookStore implements BookStore, StockManager {
+
+	/** The initial number of slots. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The mapping of books from ISBN to slot. */
+	private ISBNSlotTable slotTable = null;
+
+	/** The number of books, which is also the first free slot. */
+	private int numBooks;
+
+	/** The immutable part of the books, by slot. */
+	private ImmutableBook[] books = null;
+
+	/** The number of copies of the books, by slot. */
+	private int[] numCopies = null;
+
+	/** The total rating of the books, by slot. */
+	private long[] totalRating = null;
+
+	/** The number of times the books were rated, by slot. */
+	private long[] numTimesRated = null;
+
+	/** The number of sale misses of the books, by slot. */
+	private long[] numSaleMisses = null;
+
+	/** Whether the books are editor picks, by slot. */
+	private boolean[] editorPick = null;
+
+	/**
+	 * Instantiates a new {@link ColumnarCertainBookStore}.
+	 */
+	public ColumnarCertainBookStore() {
+
+		// Constructors are not synchronized
+		slotTable = new ISBNSlotTable();
+		allocate(INITIAL_CAPACITY);
+	}
+
+	private synchronized void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (slotTable.get(isbn) >= 0) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private synchronized int validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		int slot = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return slot;
+	}
+
+	private synchronized int validateISBNInStock(int ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		int slot = slotTable.get(ISBN);
+
+		if (slot < 0) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return slot;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public synchronized void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check that all books are there first, each once.
+		Set<Integer> isbnsToAdd = new HashSet<>();
+
+		for (StockBook book : bookSet) {
+			validate(book);
+
+			if (!isbnsToAdd.add(book.getISBN())) {// Check if the book is not in the set twice
+				throw new BookStoreException(BookStoreConstants.ISBN + book.getISBN() + BookStoreConstants.DUPLICATED);
+			}
+		}
+
+		ensureCapacity(numBooks + bookSet.size());
+
+		// Then add these books to the store.
+		for (StockBook book : bookSet) {
+			int slot = numBooks++;
+
+			books[slot] = new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice());
+			numCopies[slot] = book.getNumCopies();
+			totalRating[slot] = book.getTotalRating();
+			numTimesRated[slot] = book.getNumTimesRated();
+			numSaleMisses[slot] = book.getNumSaleMisses();
+			editorPick[slot] = book.isEditorPick();
+			slotTable.put(book.getISBN(), slot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public synchronized void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check that all books are there first.
+		for (BookCopy bookCopy : bookCopiesSet) {
+			validate(bookCopy);
+		}
+
+		// Then update the number of copies, which also clears the sale misses.
+		for (BookCopy bookCopy : bookCopiesSet) {
+			int slot = slotTable.get(bookCopy.getISBN());
+			numCopies[slot] += bookCopy.getNumCopies();
+			numSaleMisses[slot] = 0;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public synchronized List<StockBook> getBooks() {
+		List<StockBook> stockBooks = new ArrayList<>(numBooks);
+
+		for (int slot = 0; slot < numBooks; slot++) {
+			stockBooks.add(stockBook(slot));
+		}
+
+		return stockBooks;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public synchronized void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check that all books are there first.
+		for (BookEditorPick editorPickArg : editorPicks) {
+			validateISBNInStock(editorPickArg.getISBN());
+		}
+
+		// Then set the editor pick.
+		for (BookEditorPick editorPickArg : editorPicks) {
+			editorPick[slotTable.get(editorPickArg.getISBN())] = editorPickArg.isEditorPick();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public synchronized void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		boolean saleMiss = false;
+
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			// Check whether the book is in stock.
+			int slot = validate(bookCopyToBuy);
+
+			// Check whether the number of book copy is enough for the request.
+			if (numCopies[slot] < bookCopyToBuy.getNumCopies()) {
+				saleMiss = true;
+			}
+		}
+
+		// We throw exception now since we want to see how many books in the
+		// order incurred misses which is used by books in demand.
+		if (saleMiss) {
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				int slot = slotTable.get(bookCopyToBuy.getISBN());
+
+				if (numCopies[slot] < bookCopyToBuy.getNumCopies()) {
+					numSaleMisses[slot] += bookCopyToBuy.getNumCopies() - numCopies[slot];
+				}
+			}
+
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		// Then make the purchase.
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			numCopies[slotTable.get(bookCopyToBuy.getISBN())] -= bookCopyToBuy.getNumCopies();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public synchronized List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (int ISBN : isbnSet) {
+			validateISBNInStock(ISBN);
+		}
+
+		List<StockBook> stockBooks = new ArrayList<>(isbnSet.size());
+
+		for (int isbn : isbnSet) {
+			stockBooks.add(stockBook(slotTable.get(isbn)));
+		}
+
+		return stockBooks;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public synchronized List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (int ISBN : isbnSet) {
+			validateISBNInStock(ISBN);
+		}
+
+		List<Book> result = new ArrayList<>(isbnSet.size());
+
+		// The immutable part of a book can be handed out as it is.
+		for (int isbn : isbnSet) {
+			result.add(books[slotTable.get(isbn)]);
+		}
+
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public synchronized List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Collect the slots of all the editor picks.
+		int[] pickedSlots = new int[this.numBooks];
+		int numPicks = 0;
+
+		for (int slot = 0; slot < this.numBooks; slot++) {
+			if (editorPick[slot]) {
+				pickedSlots[numPicks++] = slot;
+			}
+		}
+
+		// Move numBooks random editor picks to the front of the slots.
+		int numResults = Math.min(numBooks, numPicks);
+		Random rand = ThreadLocalRandom.current();
+
+		if (numResults < numPicks) {
+			for (int i = 0; i < numResults; i++) {
+				int j = i + rand.nextInt(numPicks - i);
+				int slot = pickedSlots[j];
+				pickedSlots[j] = pickedSlots[i];
+				pickedSlots[i] = slot;
+			}
+		}
+
+		List<Book> result = new ArrayList<>(numResults);
+
+		for (int i = 0; i < numResults; i++) {
+			result.add(books[pickedSlots[i]]);
+		}
+
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public synchronized List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 1) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Keep the best numBooks slots seen so far in a heap whose root is the
+		// worst of them, so the scan costs O(n log numBooks).
+		int[] heap = new int[Math.min(numBooks, this.numBooks)];
+		int heapSize = 0;
+
+		for (int slot = 0; slot < this.numBooks; slot++) {
+			if (heapSize < heap.length) {
+				heap[heapSize] = slot;
+				siftUp(heap, heapSize++);
+			} else if (ranksBefore(slot, heap[0])) {
+				heap[0] = slot;
+				siftDown(heap, heapSize);
+			}
+		}
+
+		// Drain the heap from the worst to the best book.
+		Book[] topRated = new Book[heapSize];
+
+		while (heapSize > 0) {
+			topRated[--heapSize] = books[heap[0]];
+			heap[0] = heap[heapSize];
+			siftDown(heap, heapSize);
+		}
+
+		return Arrays.asList(topRated);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public synchronized List<StockBook> getBooksInDemand() {
+		List<StockBook> booksInDemand = new ArrayList<>();
+
+		for (int slot = 0; slot < numBooks; slot++) {
+			if (numSaleMisses[slot] > 0) {
+				booksInDemand.add(stockBook(slot));
+			}
+		}
+
+		return booksInDemand;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public synchronized void rateBooks(Set<BookRating> bookRatings) throws BookStoreException {
+		if (bookRatings == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (BookRating bookToRate : bookRatings) {
+			// Validate that the ISBN is valid and in stock
+			validateISBNInStock(bookToRate.getISBN());
+			int rating = bookToRate.getRating();
+
+			if (BookStoreUtility.isInvalidRating(rating)) {
+				throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+			}
+		}
+
+		for (BookRating bookToRate : bookRatings) {
+			int slot = slotTable.get(bookToRate.getISBN());
+			totalRating[slot] += bookToRate.getRating();
+			numTimesRated[slot]++;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public synchronized void removeAllBooks() throws BookStoreException {
+		slotTable.clear();
+		numBooks = 0;
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public synchronized void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (int ISBN : isbnSet) {
+			validateISBNInStock(ISBN);
+		}
+
+		for (int isbn : isbnSet) {
+			int slot = slotTable.get(isbn);
+			int lastSlot = --numBooks;
+			slotTable.remove(isbn);
+
+			// Move the last book into the freed slot to keep the columns dense.
+			if (slot != lastSlot) {
+				books[slot] = books[lastSlot];
+				numCopies[slot] = numCopies[lastSlot];
+				totalRating[slot] = totalRating[lastSlot];
+				numTimesRated[slot] = numTimesRated[lastSlot];
+				numSaleMisses[slot] = numSaleMisses[lastSlot];
+				editorPick[slot] = editorPick[lastSlot];
+				slotTable.put(books[slot].getISBN(), slot);
+			}
+
+			books[lastSlot] = null;
+		}
+	}
+
+	/**
+	 * Returns a {@link StockBook} copy of the book in the slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the stock book
+	 */
+	private StockBook stockBook(int slot) {
+		ImmutableBook book = books[slot];
+		return new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(),
+				numCopies[slot], numSaleMisses[slot], numTimesRated[slot], totalRating[slot], editorPick[slot]);
+	}
+
+	/**
+	 * Checks if the book in the first slot ranks before the book in the second
+	 * slot among the top-rated books: by average rating, then by ascending
+	 * ISBN.
+	 *
+	 * @param slot
+	 *            the first slot
+	 * @param otherSlot
+	 *            the second slot
+	 * @return true, if the first book ranks before the second one
+	 */
+	private boolean ranksBefore(int slot, int otherSlot) {
+		int byRating = Float.compare(averageRating(slot), averageRating(otherSlot));
+
+		if (byRating != 0) {
+			return byRating > 0;
+		}
+
+		return books[slot].getISBN() < books[otherSlot].getISBN();
+	}
+
+	/**
+	 * Gets the average rating of the book in the slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the average rating, or -1 if the book was never rated
+	 */
+	private float averageRating(int slot) {
+		return numTimesRated[slot] == 0 ? -1.0f : (float) totalRating[slot] / numTimesRated[slot];
+	}
+
+	/**
+	 * Restores the heap of top-rated slots after the slot at the given
+	 * position was added.
+	 *
+	 * @param heap
+	 *            the heap, worst ranked slot first
+	 * @param position
+	 *            the position of the added slot
+	 */
+	private void siftUp(int[] heap, int position) {
+		int slot = heap[position];
+
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+
+			if (!ranksBefore(heap[parent], slot)) {
+				break;
+			}
+
+			heap[position] = heap[parent];
+			position = parent;
+		}
+
+		heap[position] = slot;
+	}
+
+	/**
+	 * Restores the heap of top-rated slots after its root was replaced.
+	 *
+	 * @param heap
+	 *            the heap, worst ranked slot first
+	 * @param heapSize
+	 *            the number of slots in the heap
+	 */
+	private void siftDown(int[] heap, int heapSize) {
+		if (heapSize == 0) {
+			return;
+		}
+
+		int slot = heap[0];
+		int position = 0;
+
+		while (true) {
+			int child = (position << 1) + 1;
+
+			if (child >= heapSize) {
+				break;
+			}
+
+			// Pick the worse ranked of the two children.
+			if (child + 1 < heapSize && ranksBefore(heap[child], heap[child + 1])) {
+				child++;
+			}
+
+			if (!ranksBefore(slot, heap[child])) {
+				break;
+			}
+
+			heap[position] = heap[child];
+			position = child;
+		}
+
+		heap[position] = slot;
+	}
+
+	/**
+	 * Makes sure that the columns have at least the given number of slots.
+	 *
+	 * @param capacity
+	 *            the number of slots
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity <= books.length) {
+			return;
+		}
+
+		int newCapacity = Math.max(capacity, books.length << 1);
+		books = Arrays.copyOf(books, newCapacity);
+		numCopies = Arrays.copyOf(numCopies, newCapacity);
+		totalRating = Arrays.copyOf(totalRating, newCapacity);
+		numTimesRated = Arrays.copyOf(numTimesRated, newCapacity);
+		numSaleMisses = Arrays.copyOf(numSaleMisses, newCapacity);
+		editorPick = Arrays.copyOf(editorPick, newCapacity);
+	}
+
+	/**
+	 * Allocates empty columns with the given number of slots.
+	 *
+	 * @param capacity
+	 *            the number of slots
+	 */
+	private void allocate(int capacity) {
+		books = new ImmutableBook[capacity];
+		numCopies = new int[capacity];
+		totalRating = new long[capacity];
+		numTimesRated = new long[capacity];
+		numSaleMisses = new long[capacity];
+		editorPick = new boolean[capacity];
+	}
+}
@@ -0,0 +1,173 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link EditorPickIndex} keeps the books that are editor picks in a dense
+ * list, so that numBooks random editor picks can be drawn in O(numBooks) time
+ * regardless of the size of the catalog.
+ * <p>
+ * The index is not synchronized: the store must only modify it while holding
+ * the exclusive lock of the editor picks, while {@link #sample(int)} may be
+ * called concurrently by several readers.
+ *
+ * @param <B>
+ *            the type of the indexed books
+ */
+public class EditorPickIndex<B extends Book> {
+
+	/** The editor picks, without holes. */
+	private final List<B> books;
+
+	/** The mapping of editor picks from ISBN to their position in books. */
+	private final Map<Integer, Integer> positions;
+
+	/**
+	 * Instantiates a new, empty {@link EditorPickIndex}.
+	 */
+	public EditorPickIndex() {
+		books = new ArrayList<>();
+		positions = new HashMap<>();
+	}
+
+	/**
+	 * Instantiates a new {@link EditorPickIndex} holding the same books as
+	 * another one.
+	 *
+	 * @param indexToCopy
+	 *            the index to copy
+	 */
+	public EditorPickIndex(EditorPickIndex<B> indexToCopy) {
+		books = new ArrayList<>(indexToCopy.books);
+		positions = new HashMap<>(indexToCopy.positions);
+	}
+
+	/**
+	 * Gets the number of editor picks.
+	 *
+	 * @return the number of editor picks
+	 */
+	public int size() {
+		return books.size();
+	}
+
+	/**
+	 * Adds the book to the editor picks, or replaces the book with the same
+	 * ISBN if it is already an editor pick.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public void add(B book) {
+		Integer position = positions.get(book.getISBN());
+
+		if (position != null) {
+			books.set(position, book);
+		} else {
+			positions.put(book.getISBN(), books.size());
+			books.add(book);
+		}
+	}
+
+	/**
+	 * Removes the book from the editor picks, if it is one.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	public void remove(int isbn) {
+		Integer position = positions.remove(isbn);
+
+		if (position == null) {
+			return;
+		}
+
+		// Move the last editor pick into the hole to keep the list dense.
+		B last = books.remove(books.size() - 1);
+
+		if (position < books.size()) {
+			books.set(position, last);
+			positions.put(last.getISBN(), position);
+		}
+	}
+
+	/**
+	 * Removes all the editor picks.
+	 */
+	public void clear() {
+		books.clear();
+		positions.clear();
+	}
+
+	/**
+	 * Draws numBooks distinct editor picks uniformly at random, or returns all
+	 * of them if there are not more than numBooks.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the editor picks
+	 */
+	public List<B> sample(int numBooks) {
+		int size = books.size();
+
+		if (size <= numBooks) {
+			return new ArrayList<>(books);
+		}
+
+		// Floyd's algorithm draws numBooks distinct positions with exactly
+		// numBooks random numbers; the drawn positions are tracked in a small
+		// open addressing table instead of a set of boxed integers.
+		Random rand = ThreadLocalRandom.current();
+		int[] drawn = new int[Integer.highestOneBit(numBooks) << 2];
+		int mask = drawn.length - 1;
+		Arrays.fill(drawn, -1);
+
+		List<B> picks = new ArrayList<>(numBooks);
+
+		for (int bound = size - numBooks; bound < size; bound++) {
+			int position = rand.nextInt(bound + 1);
+
+			if (!markDrawn(drawn, mask, position)) {
+				// The position was already drawn, but bound never was.
+				position = bound;
+				markDrawn(drawn, mask, position);
+			}
+
+			picks.add(books.get(position));
+		}
+
+		return picks;
+	}
+
+	/**
+	 * Marks the position as drawn.
+	 *
+	 * @param drawn
+	 *            the table of drawn positions
+	 * @param mask
+	 *            the mask of the table size
+	 * @param position
+	 *            the position
+	 * @return true, if the position was not drawn before
+	 */
+	private static boolean markDrawn(int[] drawn, int mask, int position) {
+		int slot = (position * 0x9E3779B9) & mask;
+
+		while (drawn[slot] != -1) {
+			if (drawn[slot] == position) {
+				return false;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		drawn[slot] = position;
+		return true;
+	}
+}
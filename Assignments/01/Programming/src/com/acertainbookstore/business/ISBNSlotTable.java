@@ -0,0 +1,169 @@
+package com.acertainbookstore.business;
+
+import java.util.Arrays;
+
+/**
+ * {@link ISBNSlotTable} maps ISBNs to the slots of the
+ * {@link ColumnarCertainBookStore}, using open addressing over two int arrays
+ * so that neither the ISBNs nor the slots are boxed.
+ * <p>
+ * Valid ISBNs are positive, so 0 marks a free entry of the table. Entries are
+ * removed by shifting the following entries of the probe sequence back. The
+ * table is not synchronized.
+ */
+class ISBNSlotTable {
+
+	/** The marker of a free entry. */
+	private static final int FREE = 0;
+
+	/** The initial capacity, must be a power of two. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The ISBNs of the entries, {@link #FREE} for free entries. */
+	private int[] isbns;
+
+	/** The slots of the entries. */
+	private int[] slots;
+
+	/** The number of entries. */
+	private int size;
+
+	/**
+	 * Instantiates a new, empty {@link ISBNSlotTable}.
+	 */
+	ISBNSlotTable() {
+		isbns = new int[INITIAL_CAPACITY];
+		slots = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Gets the slot of the ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN, must be positive
+	 * @return the slot, or -1 if the ISBN is not in the table
+	 */
+	int get(int isbn) {
+		int index = indexOf(isbn);
+		return isbns[index] == FREE ? -1 : slots[index];
+	}
+
+	/**
+	 * Associates the slot with the ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN, must be positive
+	 * @param slot
+	 *            the slot
+	 */
+	void put(int isbn, int slot) {
+		int index = indexOf(isbn);
+
+		if (isbns[index] == FREE) {
+			// Keep at most half of the entries used so probes stay short.
+			if ((size + 1) << 1 > isbns.length) {
+				resize(isbns.length << 1);
+				index = indexOf(isbn);
+			}
+
+			isbns[index] = isbn;
+			size++;
+		}
+
+		slots[index] = slot;
+	}
+
+	/**
+	 * Removes the ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN, must be positive
+	 */
+	void remove(int isbn) {
+		int index = indexOf(isbn);
+
+		if (isbns[index] == FREE) {
+			return;
+		}
+
+		int mask = isbns.length - 1;
+		int hole = index;
+		int next = (hole + 1) & mask;
+
+		while (isbns[next] != FREE) {
+			int home = hash(isbns[next]) & mask;
+
+			// Move the entry if its home is not between the hole and it.
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				isbns[hole] = isbns[next];
+				slots[hole] = slots[next];
+				hole = next;
+			}
+
+			next = (next + 1) & mask;
+		}
+
+		isbns[hole] = FREE;
+		size--;
+	}
+
+	/**
+	 * Removes all the entries.
+	 */
+	void clear() {
+		Arrays.fill(isbns, FREE);
+		size = 0;
+	}
+
+	/**
+	 * Finds the index of the ISBN, which is either the entry holding it or the
+	 * free entry where it would be inserted.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the index
+	 */
+	private int indexOf(int isbn) {
+		int mask = isbns.length - 1;
+		int index = hash(isbn) & mask;
+
+		while (isbns[index] != FREE && isbns[index] != isbn) {
+			index = (index + 1) & mask;
+		}
+
+		return index;
+	}
+
+	/**
+	 * Rehashes all the entries into tables of the given capacity.
+	 *
+	 * @param capacity
+	 *            the new capacity, must be a power of two
+	 */
+	private void resize(int capacity) {
+		int[] oldISBNs = isbns;
+		int[] oldSlots = slots;
+		isbns = new int[capacity];
+		slots = new int[capacity];
+
+		for (int i = 0; i < oldISBNs.length; i++) {
+			if (oldISBNs[i] != FREE) {
+				int index = indexOf(oldISBNs[i]);
+				isbns[index] = oldISBNs[i];
+				slots[index] = oldSlots[i];
+			}
+		}
+	}
+
+	/**
+	 * Spreads the bits of the ISBN, since ISBNs are often consecutive.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the hash
+	 */
+	private static int hash(int isbn) {
+		int h = isbn * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
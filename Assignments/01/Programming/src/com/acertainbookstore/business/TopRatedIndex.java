@@ -0,0 +1,135 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * {@link TopRatedIndex} keeps the books of the store ranked by their average
+ * rating, so that the numBooks top-rated books can be read in O(numBooks)
+ * time instead of sorting the whole catalog on every request.
+ * <p>
+ * The ranking holds a snapshot of the average rating of every book, so the
+ * store must call {@link #update(BookStoreBook)} whenever a rating changes.
+ * Books with the same average rating are ranked by ascending ISBN. The index
+ * is not synchronized and must only be used under the lock that guards it.
+ */
+public class TopRatedIndex {
+
+	/** The ranking of the books, best rated first. */
+	private final NavigableSet<RankedBook> ranking;
+
+	/** The mapping of books from ISBN to their entry in the ranking. */
+	private final Map<Integer, RankedBook> rankedBooks;
+
+	/**
+	 * Instantiates a new, empty {@link TopRatedIndex}.
+	 */
+	public TopRatedIndex() {
+		ranking = new TreeSet<>();
+		rankedBooks = new HashMap<>();
+	}
+
+	/**
+	 * Adds the book to the ranking, or moves it to the position matching its
+	 * current average rating if it is already ranked.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public void update(BookStoreBook book) {
+		RankedBook rankedBook = new RankedBook(book);
+		RankedBook previous = rankedBooks.put(book.getISBN(), rankedBook);
+
+		if (previous != null) {
+			ranking.remove(previous);
+		}
+
+		ranking.add(rankedBook);
+	}
+
+	/**
+	 * Removes the book from the ranking, if it is ranked.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	public void remove(int isbn) {
+		RankedBook previous = rankedBooks.remove(isbn);
+
+		if (previous != null) {
+			ranking.remove(previous);
+		}
+	}
+
+	/**
+	 * Removes all the books from the ranking.
+	 */
+	public void clear() {
+		ranking.clear();
+		rankedBooks.clear();
+	}
+
+	/**
+	 * Gets the numBooks best rated books, best rated first, or all of them if
+	 * there are not more than numBooks.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the top-rated books
+	 */
+	public List<BookStoreBook> getTopRated(int numBooks) {
+		List<BookStoreBook> topRated = new ArrayList<>(Math.min(numBooks, ranking.size()));
+		Iterator<RankedBook> it = ranking.iterator();
+
+		while (topRated.size() < numBooks && it.hasNext()) {
+			topRated.add(it.next().book);
+		}
+
+		return topRated;
+	}
+
+	/**
+	 * {@link RankedBook} is the entry of a book in the ranking. The average
+	 * rating is copied, so the order of the entry never changes while it is in
+	 * the ranking.
+	 */
+	private static final class RankedBook implements Comparable<RankedBook> {
+
+		/** The book. */
+		private final BookStoreBook book;
+
+		/** The ISBN of the book. */
+		private final int isbn;
+
+		/** The average rating of the book when it was ranked. */
+		private final float averageRating;
+
+		/**
+		 * Instantiates a new {@link RankedBook}.
+		 *
+		 * @param book
+		 *            the book
+		 */
+		private RankedBook(BookStoreBook book) {
+			this.book = book;
+			this.isbn = book.getISBN();
+			this.averageRating = book.getAverageRating();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		@Override
+		public int compareTo(RankedBook other) {
+			int byRating = Float.compare(other.averageRating, averageRating);
+			return byRating != 0 ? byRating : Integer.compare(isbn, other.isbn);
+		}
+	}
+}
@@ -37,6 +37,9 @@ public class BookStoreTest {
 	/** The local test. */
 	private static boolean localTest = false;
 
+	/** Columnar store test */
+	private static boolean columnar = false;
+
 	/** The store manager. */
 	private static StockManager storeManager;
 
@@ -52,10 +55,19 @@ public class BookStoreTest {
 			String localTestProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCAL_TEST);
 			localTest = (localTestProperty != null) ? Boolean.parseBoolean(localTestProperty) : localTest;
 
+			String columnarProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_COLUMNAR);
+			columnar = (columnarProperty != null) ? Boolean.parseBoolean(columnarProperty) : columnar;
+
 			if (localTest) {
-				CertainBookStore store = new CertainBookStore();
-				storeManager = store;
-				client = store;
+				if (columnar) {
+					ColumnarCertainBookStore store = new ColumnarCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else {
+					CertainBookStore store = new CertainBookStore();
+					storeManager = store;
+					client = store;
+				}
 			} else {
 				storeManager = new StockManagerHTTPProxy("http://localhost:8081/stock");
 				client = new BookStoreHTTPProxy("http://localhost:8081");
@@ -301,17 +313,59 @@ public class BookStoreTest {
 		// Try to rate the books
 		client.rateBooks(ratings);
 
+		// The order of getBooks is not specified, so look the books up by ISBN.
 		List<StockBook> listBooks = storeManager.getBooks();
-		StockBook defaultBook = listBooks.get(0);
-		StockBook addedBook = listBooks.get(1);
+		StockBook defaultBook = listBooks.get(0).getISBN() == TEST_ISBN ? listBooks.get(0) : listBooks.get(1);
+		StockBook addedBook = listBooks.get(0).getISBN() == 1 ? listBooks.get(0) : listBooks.get(1);
 
-		assertTrue(defaultBook.getTotalRating() == 0
+		assertTrue(addedBook.getTotalRating() == 0
+				&& addedBook.getNumTimesRated() == 1
+				&& addedBook.getAverageRating() == 0);
+
+		assertTrue(defaultBook.getTotalRating() == 3
 				&& defaultBook.getNumTimesRated() == 1
-				&& defaultBook.getAverageRating() == 0);
+				&& defaultBook.getAverageRating() == 3);
+	}
 
-		assertTrue(addedBook.getTotalRating() == 3
-				&& addedBook.getNumTimesRated() == 1
-				&& addedBook.getAverageRating() == 3);
+	/**
+	 * Tests that no rating is lost when several clients rate the same book
+	 * concurrently.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConcurrentRateBooks() throws Exception {
+		final int numThreads = 4;
+		final int numRatingsPerThread = 100;
+		Thread[] threads = new Thread[numThreads];
+		List<Exception> failures = new ArrayList<Exception>();
+
+		for (int i = 0; i < numThreads; i++) {
+			threads[i] = new Thread(() -> {
+				try {
+					for (int j = 0; j < numRatingsPerThread; j++) {
+						rateBook(TEST_ISBN, 4);
+					}
+				} catch (BookStoreException ex) {
+					synchronized (failures) {
+						failures.add(ex);
+					}
+				}
+			});
+			threads[i].start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue(failures.isEmpty());
+
+		StockBook book = storeManager.getBooks().get(0);
+		assertEquals(numThreads * numRatingsPerThread, book.getNumTimesRated());
+		assertEquals(4L * numThreads * numRatingsPerThread, book.getTotalRating());
+		assertEquals(TEST_ISBN, client.getTopRatedBooks(1).get(0).getISBN());
 	}
 
 	/**
@@ -595,6 +649,28 @@ public class BookStoreTest {
 		);
 	}
 
+	/**
+	 * Tests that removed books are no longer ranked among the top-rated books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetTopRatedBooksAfterRemove() throws BookStoreException {
+		addRatedBooks();
+
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN + 1);
+		storeManager.removeBooks(isbnSet);
+
+		// The unrated default book is ranked last.
+		List<Book> listBooks = client.getTopRatedBooks(3);
+
+		assertEquals(2, listBooks.size());
+		assertEquals(TEST_ISBN + 2, listBooks.get(0).getISBN());
+		assertEquals(TEST_ISBN, listBooks.get(1).getISBN());
+	}
+
 	/**
 	 * Test editor picks can be retrieved.
 	 *
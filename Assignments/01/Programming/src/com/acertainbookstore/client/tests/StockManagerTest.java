@@ -3,6 +3,7 @@ package com.acertainbookstore.client.tests;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -16,7 +17,9 @@ import org.junit.Test;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ColumnarCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
@@ -42,6 +45,9 @@ public class StockManagerTest {
 	/** The local test. */
 	private static boolean localTest = false;
 
+	/** Columnar store test */
+	private static boolean columnar = false;
+
 	/** The store manager. */
 	private static StockManager storeManager;
 
@@ -56,11 +62,20 @@ public class StockManagerTest {
 		try {
 			String localTestProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCAL_TEST);
 			localTest = (localTestProperty != null) ? Boolean.parseBoolean(localTestProperty) : localTest;
+
+			String columnarProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_COLUMNAR);
+			columnar = (columnarProperty != null) ? Boolean.parseBoolean(columnarProperty) : columnar;
 			
 			if (localTest) {
-				CertainBookStore store = new CertainBookStore();
-				storeManager = store;
-				client = store;
+				if (columnar) {
+					ColumnarCertainBookStore store = new ColumnarCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else {
+					CertainBookStore store = new CertainBookStore();
+					storeManager = store;
+					client = store;
+				}
 			} else {
 				storeManager = new StockManagerHTTPProxy("http://localhost:8081/stock");
 				client = new BookStoreHTTPProxy("http://localhost:8081");
@@ -219,6 +234,44 @@ public class StockManagerTest {
 				&& booksInStorePreTest.size() == booksInStorePostTest.size());
 	}
 
+	/**
+	 * Checks whether a set holding two books with the same ISBN is rejected,
+	 * and that removing the other books afterwards leaves the store consistent.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testAddBookDuplicateISBNInSet() throws BookStoreException {
+		List<StockBook> booksInStorePreTest = storeManager.getBooks();
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Harry Potter and Vivek", "JUnit Rowling", (float) 100, 5,
+				0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Harry Potter and Marcos", "JUnit Rowling", (float) 100, 5,
+				0, 0, 0, false)); // same ISBN, different title
+		assertEquals(2, booksToAdd.size());
+
+		try {
+			storeManager.addBooks(booksToAdd);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		List<StockBook> booksInStorePostTest = storeManager.getBooks();
+
+		// Check pre and post state are same.
+		assertTrue(booksInStorePreTest.containsAll(booksInStorePostTest)
+				&& booksInStorePreTest.size() == booksInStorePostTest.size());
+
+		// The ISBN can still be added once, and removed without a ghost book.
+		booksToAdd.remove(booksToAdd.iterator().next());
+		storeManager.addBooks(booksToAdd);
+		storeManager.removeBooks(new HashSet<Integer>(Arrays.asList(TEST_ISBN + 1)));
+		assertEquals(booksInStorePreTest.size(), storeManager.getBooks().size());
+	}
+
 	/**
 	 * Tests adding copies of a book with correct parameters.
 	 *
@@ -592,6 +645,70 @@ public class StockManagerTest {
 		assertEquals((int) TEST_ISBN, booksInDemand.get(0).getISBN());
 	}
 
+	/**
+	 * Tests that the books in demand reflect later sale misses and that
+	 * restocking a book removes it from the books in demand.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksInDemandAfterRestock() throws BookStoreException {
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 1));
+
+		// Miss the sale twice
+		for (int i = 0; i < 2; i++) {
+			try {
+				client.buyBooks(booksToBuy);
+				fail();
+			} catch (BookStoreException e) {
+				;
+			}
+		}
+
+		List<StockBook> booksInDemand = storeManager.getBooksInDemand();
+		assertEquals(1, booksInDemand.size());
+		assertEquals(2, booksInDemand.get(0).getNumSaleMisses());
+
+		Set<BookCopy> booksToAdd = new HashSet<>();
+		booksToAdd.add(new BookCopy(TEST_ISBN, 1));
+		storeManager.addCopies(booksToAdd);
+
+		booksInDemand = storeManager.getBooksInDemand();
+		assertEquals(0, booksInDemand.size());
+	}
+
+	/**
+	 * Tests that the books in demand reflect the ratings given after their
+	 * sale misses.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksInDemandAfterRating() throws BookStoreException {
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 1));
+
+		try {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException e) {
+			;
+		}
+
+		Set<BookRating> ratings = new HashSet<>();
+		ratings.add(new BookRating(TEST_ISBN, 4));
+		client.rateBooks(ratings);
+
+		List<StockBook> booksInDemand = storeManager.getBooksInDemand();
+		assertEquals(1, booksInDemand.size());
+		assertEquals(1, booksInDemand.get(0).getNumSaleMisses());
+		assertEquals(1, booksInDemand.get(0).getNumTimesRated());
+		assertEquals(4, booksInDemand.get(0).getTotalRating());
+	}
+
 	/**
 	 * Tear down after class.
 	 *
@@ -14,7 +14,9 @@ import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
@@ -36,7 +38,10 @@ import com.esotericsoftware.kryo.io.Input;
 public class BookStoreHTTPMessageHandler extends AbstractHandler {
 
 	/** The book store. */
-	private CertainBookStore myBookStore = null;
+	private BookStore myBookStore = null;
+
+	/** The stock manager. */
+	private StockManager myStockManager = null;
 
 	/** The serializer. */
 	private static ThreadLocal<BookStoreSerializer> serializer;
@@ -46,9 +51,12 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 *
 	 * @param bookStore
 	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
 	 */
-	public BookStoreHTTPMessageHandler(CertainBookStore bookStore) {
+	public BookStoreHTTPMessageHandler(BookStore bookStore, StockManager stockManager) {
 		myBookStore = bookStore;
+		myStockManager = stockManager;
 
 		// Setup the type of serializer.
 		if (BookStoreConstants.BINARY_SERIALIZATION) {
@@ -167,7 +175,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			bookStoreResponse.setList(myBookStore.getBooksByISBN(isbnSet));
+			bookStoreResponse.setList(myStockManager.getBooksByISBN(isbnSet));
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
@@ -291,7 +299,11 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	@SuppressWarnings("unchecked")
 	private void getBooksInDemand(HttpServletResponse response) throws IOException {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
-		bookStoreResponse.setList(myBookStore.getBooksInDemand());
+		try {
+			bookStoreResponse.setList(myStockManager.getBooksInDemand());
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
 
 		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
 		response.getOutputStream().write(serializedResponseContent);
@@ -343,7 +355,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.updateEditorPicks(mapEditorPicksValues);
+			myStockManager.updateEditorPicks(mapEditorPicksValues);
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
@@ -362,7 +374,11 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	private void listBooks(HttpServletResponse response) throws IOException {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
-		bookStoreResponse.setList(myBookStore.getBooks());
+		try {
+			bookStoreResponse.setList(myStockManager.getBooks());
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
 
 		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
 		response.getOutputStream().write(serializedResponseContent);
@@ -386,7 +402,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.addCopies(listBookCopies);
+			myStockManager.addCopies(listBookCopies);
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
@@ -413,7 +429,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.addBooks(newBooks);
+			myStockManager.addBooks(newBooks);
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
@@ -434,7 +450,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.removeAllBooks();
+			myStockManager.removeAllBooks();
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
@@ -461,7 +477,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.removeBooks(bookSet);
+			myStockManager.removeBooks(bookSet);
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
@@ -3,6 +3,7 @@ package com.acertainbookstore.server;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ColumnarCertainBookStore;
 import com.acertainbookstore.utils.BookStoreConstants;
 
 /**
@@ -30,10 +31,18 @@ public class BookStoreHTTPServer {
 	 *            the arguments
 	 */
 	public static void main(String[] args) {
-		CertainBookStore bookStore = new CertainBookStore();
 		int listenOnPort = DEFAULT_PORT;
 
-		BookStoreHTTPMessageHandler handler = new BookStoreHTTPMessageHandler(bookStore);
+		BookStoreHTTPMessageHandler handler = null;
+
+		if (Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_COLUMNAR)) {
+			ColumnarCertainBookStore bookStore = new ColumnarCertainBookStore();
+			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+		} else {
+			CertainBookStore bookStore = new CertainBookStore();
+			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+		}
+
 		String serverPortString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
 
 		if (serverPortString != null) {
@@ -57,6 +57,9 @@ public final class BookStoreConstants {
 	/** The Constant PROPERTY_KEY_LOCAL_TEST. */
 	public static final String PROPERTY_KEY_LOCAL_TEST = "localtest";
 
+	/** The Constant PROPERTY_KEY_COLUMNAR. */
+	public static final String PROPERTY_KEY_COLUMNAR = "columnar";
+
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
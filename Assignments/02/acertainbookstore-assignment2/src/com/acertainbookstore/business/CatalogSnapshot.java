@@ -0,0 +1,305 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.acertainbookstore.utils.IntHashMap;
+
+/**
+ * {@link CatalogSnapshot} is an immutable, versioned view of the whole catalog
+ * used by the {@link MultiVersionConcurrentCertainBookStore} and the
+ * {@link SingleWriterConcurrentCertainBookStore}.
+ * <p>
+ * The books are split into a fixed number of segments by ISBN. A committed
+ * snapshot never changes, so a new version only copies the segments touched by
+ * the transaction and shares all the others with the previous version.
+ *
+ * @see MultiVersionConcurrentCertainBookStore
+ * @see SingleWriterConcurrentCertainBookStore
+ * @see ImmutableStockBook
+ */
+final class CatalogSnapshot {
+
+	/** The number of segments, must be a power of two. */
+	private static final int NUM_SEGMENTS = 1024;
+
+	/** The snapshot of the empty catalog. */
+	static final CatalogSnapshot EMPTY = new CatalogSnapshot(0, newSegmentArray(), 0, new EditorPickIndex<>());
+
+	/** The version of the snapshot. */
+	private final long version;
+
+	/** The segments mapping ISBNs to books, null for empty segments. */
+	private final IntHashMap<ImmutableStockBook>[] segments;
+
+	/** The number of books in the snapshot. */
+	private final int size;
+
+	/**
+	 * The editor picks of the snapshot. Only the immutable parts of the books
+	 * are indexed, so the index is shared by all the versions until the set of
+	 * editor picks changes.
+	 */
+	private final EditorPickIndex<ImmutableBook> editorPicks;
+
+	/**
+	 * Instantiates a new {@link CatalogSnapshot}.
+	 *
+	 * @param version
+	 *            the version
+	 * @param segments
+	 *            the segments
+	 * @param size
+	 *            the number of books
+	 * @param editorPicks
+	 *            the editor picks
+	 */
+	private CatalogSnapshot(long version, IntHashMap<ImmutableStockBook>[] segments, int size,
+			EditorPickIndex<ImmutableBook> editorPicks) {
+		this.version = version;
+		this.segments = segments;
+		this.size = size;
+		this.editorPicks = editorPicks;
+	}
+
+	/**
+	 * Gets the version of the snapshot.
+	 *
+	 * @return the version
+	 */
+	long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the number of books in the snapshot.
+	 *
+	 * @return the number of books
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the book with the given ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if the book is not in the snapshot
+	 */
+	ImmutableStockBook get(int isbn) {
+		IntHashMap<ImmutableStockBook> segment = segments[segmentOf(isbn)];
+		return segment == null ? null : segment.get(isbn);
+	}
+
+	/**
+	 * Checks if the book with the given ISBN is in the snapshot.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return true, if the book is in the snapshot
+	 */
+	boolean contains(int isbn) {
+		return get(isbn) != null;
+	}
+
+	/**
+	 * Gets all the books of the snapshot.
+	 *
+	 * @return the books
+	 */
+	List<StockBook> books() {
+		List<StockBook> books = new ArrayList<>(size);
+
+		for (IntHashMap<ImmutableStockBook> segment : segments) {
+			if (segment != null) {
+				books.addAll(segment.values());
+			}
+		}
+
+		return books;
+	}
+
+	/**
+	 * Draws numBooks random editor picks of the snapshot.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the editor picks
+	 */
+	List<ImmutableBook> sampleEditorPicks(int numBooks) {
+		return editorPicks.sample(numBooks);
+	}
+
+	/**
+	 * Starts a new version on top of this snapshot.
+	 *
+	 * @return the builder of the next version
+	 */
+	Builder newVersion() {
+		return new Builder(this);
+	}
+
+	/**
+	 * Creates the next version with an empty catalog.
+	 *
+	 * @return the new snapshot
+	 */
+	CatalogSnapshot nextEmptyVersion() {
+		return new CatalogSnapshot(version + 1, newSegmentArray(), 0, new EditorPickIndex<>());
+	}
+
+	/**
+	 * Gets the segment of the ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the segment index
+	 */
+	private static int segmentOf(int isbn) {
+		return isbn & (NUM_SEGMENTS - 1);
+	}
+
+	/**
+	 * Allocates an array of empty segments.
+	 *
+	 * @return the segments
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static IntHashMap<ImmutableStockBook>[] newSegmentArray() {
+		return new IntHashMap[NUM_SEGMENTS];
+	}
+
+	/**
+	 * {@link Builder} collects the changes of one write transaction and copies
+	 * each touched segment at most once. It must only be used by the writer
+	 * that holds the write lock of the store.
+	 */
+	static final class Builder {
+
+		/** The snapshot the new version is based on. */
+		private final CatalogSnapshot base;
+
+		/** The segments of the new version. */
+		private final IntHashMap<ImmutableStockBook>[] segments;
+
+		/** Whether a segment was already copied by this builder. */
+		private final boolean[] copied = new boolean[NUM_SEGMENTS];
+
+		/** The number of books in the new version. */
+		private int size;
+
+		/** The editor picks of the new version, copied on the first change. */
+		private EditorPickIndex<ImmutableBook> editorPicks;
+
+		/** Whether the editor picks were already copied by this builder. */
+		private boolean editorPicksCopied = false;
+
+		/**
+		 * Instantiates a new {@link Builder}.
+		 *
+		 * @param base
+		 *            the snapshot the new version is based on
+		 */
+		private Builder(CatalogSnapshot base) {
+			this.base = base;
+			this.segments = Arrays.copyOf(base.segments, NUM_SEGMENTS);
+			this.size = base.size;
+			this.editorPicks = base.editorPicks;
+		}
+
+		/**
+		 * Gets the book with the given ISBN as seen by the new version.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @return the book, or null if the book is not in the new version
+		 */
+		ImmutableStockBook get(int isbn) {
+			IntHashMap<ImmutableStockBook> segment = segments[segmentOf(isbn)];
+			return segment == null ? null : segment.get(isbn);
+		}
+
+		/**
+		 * Adds or replaces a book.
+		 *
+		 * @param book
+		 *            the book
+		 */
+		void put(ImmutableStockBook book) {
+			ImmutableStockBook previous = writableSegment(book.getISBN()).put(book.getISBN(), book);
+
+			if (previous == null) {
+				size++;
+			}
+
+			if (book.isEditorPick() && (previous == null || !previous.isEditorPick())) {
+				writableEditorPicks().add(
+						new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice()));
+			} else if (!book.isEditorPick() && previous != null && previous.isEditorPick()) {
+				writableEditorPicks().remove(book.getISBN());
+			}
+		}
+
+		/**
+		 * Removes a book.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 */
+		void remove(int isbn) {
+			ImmutableStockBook previous = writableSegment(isbn).remove(isbn);
+
+			if (previous != null) {
+				size--;
+
+				if (previous.isEditorPick()) {
+					writableEditorPicks().remove(isbn);
+				}
+			}
+		}
+
+		/**
+		 * Builds the new version. The builder must not be used afterwards.
+		 *
+		 * @return the new snapshot
+		 */
+		CatalogSnapshot build() {
+			return new CatalogSnapshot(base.version + 1, segments, size, editorPicks);
+		}
+
+		/**
+		 * Gets a private copy of the segment of the ISBN.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @return the segment
+		 */
+		private IntHashMap<ImmutableStockBook> writableSegment(int isbn) {
+			int index = segmentOf(isbn);
+
+			if (!copied[index]) {
+				IntHashMap<ImmutableStockBook> segment = segments[index];
+				segments[index] = (segment == null) ? new IntHashMap<>() : new IntHashMap<>(segment);
+				copied[index] = true;
+			}
+
+			return segments[index];
+		}
+
+		/**
+		 * Gets a private copy of the editor picks.
+		 *
+		 * @return the editor picks
+		 */
+		private EditorPickIndex<ImmutableBook> writableEditorPicks() {
+			if (!editorPicksCopied) {
+				editorPicks = new EditorPickIndex<>(editorPicks);
+				editorPicksCopied = true;
+			}
+
+			return editorPicks;
+		}
+	}
+}
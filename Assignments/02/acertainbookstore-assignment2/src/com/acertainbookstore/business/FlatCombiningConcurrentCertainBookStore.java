@@ -0,0 +1,630 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntHashMap;
+import com.acertainbookstore.utils.IntList;
+
+/**
+ * {@link FlatCombiningConcurrentCertainBookStore} implements the
+ * {@link BookStore} and {@link StockManager} functionalities using flat
+ * combining for the writes.
+ * <p>
+ * A thread writing to the store publishes its request in a slot of its own and
+ * tries to take the write lock. The thread that gets it becomes the combiner:
+ * it applies every request published in the slots, one after the other, before
+ * releasing the lock, while the other writers wait for their request to be
+ * applied instead of waiting for the lock. A burst of purchases of the same
+ * books then takes and releases the lock once per batch rather than once per
+ * purchase, and the catalog stays in the cache of the combiner.
+ * <p>
+ * A waiting writer spins on its slot for a while, then parks until the
+ * combiner applied its request. It never blocks on the lock: it only tries to
+ * take it, and a combiner or reader releasing the lock wakes a parked writer
+ * whose request is still pending, so that it combines next.
+ * <p>
+ * Every request is applied as a whole or not at all, in the same way as by
+ * {@link SingleLockConcurrentCertainBookStore}, and a failed request only fails
+ * its own caller. Reads share the lock as readers and are not combined.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class FlatCombiningConcurrentCertainBookStore implements BookStore, StockManager {
+
+	/** The times a writer checks its slot before parking. */
+	private static final int MAX_SPINS = 1 << 10;
+
+	/** The combining passes after which an unused slot is dropped. */
+	private static final int MAX_IDLE_PASSES = 1 << 10;
+
+	/**
+	 * {@link Write} is a request to change the store, applied by the combiner
+	 * while it holds the write lock.
+	 */
+	@FunctionalInterface
+	private interface Write {
+
+		/**
+		 * Applies the request.
+		 *
+		 * @throws BookStoreException
+		 *             if the request is invalid, in which case it changed
+		 *             nothing but its sale misses
+		 */
+		void apply() throws BookStoreException;
+	}
+
+	/** The request of a slot dropped from the publication list. */
+	private static final Write DROPPED = () -> {
+	};
+
+	/**
+	 * {@link Slot} holds the pending request of a thread and, once applied, its
+	 * outcome.
+	 */
+	private static final class Slot {
+
+		/**
+		 * The pending request, null once applied, and {@link #DROPPED} once
+		 * the slot is dropped from the publication list.
+		 */
+		private final AtomicReference<Write> write = new AtomicReference<>(DROPPED);
+
+		/** The exception of the last request, published by clearing it. */
+		private BookStoreException exception = null;
+
+		/** The unexpected failure of the last request, published the same way. */
+		private Throwable failure = null;
+
+		/** The thread owning the slot. */
+		private final Thread owner = Thread.currentThread();
+
+		/** Whether the owner is about to park waiting for its request. */
+		private volatile boolean parked = false;
+
+		/** The last combining pass which applied a request of the slot. */
+		private long lastPass = 0;
+
+		/**
+		 * Checks whether the request of the slot waits to be applied.
+		 *
+		 * @return true, if the request is pending
+		 */
+		private boolean isPending() {
+			Write pending = write.get();
+			return pending != null && pending != DROPPED;
+		}
+	}
+
+	/** The lock of the catalog, whose write lock is held by the combiner. */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/** The slots of the threads which wrote recently. */
+	private final Queue<Slot> publications = new ConcurrentLinkedQueue<>();
+
+	/** The slot of every thread. */
+	private final ThreadLocal<Slot> slots = ThreadLocal.withInitial(Slot::new);
+
+	/** The number of writers which parked or are about to park. */
+	private final AtomicInteger parkedWriters = new AtomicInteger();
+
+	/** The number of combining passes, only changed by the combiner. */
+	private long passes = 0;
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	private IntHashMap<BookStoreBook> bookMap = null;
+
+	/** The books that are editor picks. */
+	private EditorPickIndex<BookStoreBook> editorPicks = null;
+
+	/**
+	 * Instantiates a new {@link FlatCombiningConcurrentCertainBookStore}.
+	 */
+	public FlatCombiningConcurrentCertainBookStore() {
+		// Constructors are not synchronized
+		bookMap = new IntHashMap<>();
+		editorPicks = new EditorPickIndex<>();
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validateISBNInStock(int ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/**
+	 * Publishes a request in the slot of the calling thread and returns once
+	 * it is applied, either by the current combiner or by the calling thread
+	 * becoming the combiner.
+	 *
+	 * @param write
+	 *            the request
+	 * @throws BookStoreException
+	 *             if the request failed
+	 */
+	private void combine(Write write) throws BookStoreException {
+		Slot slot = slots.get();
+
+		// A slot dropped by a combiner meanwhile is published again.
+		if (slot.write.getAndSet(write) == DROPPED) {
+			publications.add(slot);
+		}
+
+		Lock writeLock = lock.writeLock();
+		boolean spun = false;
+
+		while (slot.isPending()) {
+			if (spun && !slot.parked) {
+				// A thread releasing the lock after this flag is set wakes a
+				// parked writer, so the request is never left behind.
+				slot.parked = true;
+				parkedWriters.incrementAndGet();
+			}
+
+			if (writeLock.tryLock()) {
+				try {
+					applyPublications();
+				} finally {
+					unlock(writeLock);
+				}
+			} else if (!spun) {
+				for (int spins = 0; spins < MAX_SPINS && slot.isPending(); spins++) {
+					// Only read the slot, which stays in the cache of this core
+					// until the combiner writes it.
+				}
+
+				spun = true;
+			} else if (slot.isPending()) {
+				LockSupport.park(this);
+			}
+		}
+
+		if (slot.parked) {
+			slot.parked = false;
+			parkedWriters.decrementAndGet();
+		}
+
+		if (slot.failure != null) {
+			Throwable failure = slot.failure;
+			slot.failure = null;
+
+			if (failure instanceof Error) {
+				throw (Error) failure;
+			}
+
+			throw (RuntimeException) failure;
+		}
+
+		if (slot.exception != null) {
+			BookStoreException exception = slot.exception;
+			slot.exception = null;
+			throw exception;
+		}
+	}
+
+	/**
+	 * Applies the requests of every slot, as the combiner.
+	 */
+	private void applyPublications() {
+		passes++;
+
+		for (Iterator<Slot> it = publications.iterator(); it.hasNext();) {
+			Slot slot = it.next();
+
+			if (slot.isPending()) {
+				apply(slot);
+			} else if (passes - slot.lastPass > MAX_IDLE_PASSES && slot.write.compareAndSet(null, DROPPED)) {
+				// The owner publishes again if it writes later.
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Applies the request of a slot and hands its outcome to the owner. Any
+	 * failure of the request is handed over, so that its owner never waits for
+	 * a request that will not complete.
+	 *
+	 * @param slot
+	 *            the slot
+	 */
+	private void apply(Slot slot) {
+		try {
+			slot.write.get().apply();
+		} catch (BookStoreException ex) {
+			slot.exception = ex;
+		} catch (Throwable ex) {
+			slot.failure = ex;
+		}
+
+		slot.lastPass = passes;
+		slot.write.set(null);
+
+		if (slot.parked) {
+			LockSupport.unpark(slot.owner);
+		}
+	}
+
+	/**
+	 * Releases the read or write lock, and wakes a parked writer whose request
+	 * is still pending, since it failed to take the lock and was not applied
+	 * by the combiner. The writer takes the lock and combines the pending
+	 * requests, or waits for the combiner which took it first.
+	 *
+	 * @param heldLock
+	 *            the lock held by the calling thread
+	 */
+	private void unlock(Lock heldLock) {
+		heldLock.unlock();
+
+		if (parkedWriters.get() == 0) {
+			return;
+		}
+
+		for (Slot slot : publications) {
+			if (slot.parked && slot.isPending()) {
+				LockSupport.unpark(slot.owner);
+				return;
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		combine(() -> {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			for (StockBook book : bookSet) {
+				int isbn = book.getISBN();
+				BookStoreBook bookStoreBook = new BookStoreBook(book);
+				bookMap.put(isbn, bookStoreBook);
+
+				if (bookStoreBook.isEditorPick()) {
+					editorPicks.add(bookStoreBook);
+				}
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		combine(() -> {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				bookMap.get(bookCopy.getISBN()).addCopies(bookCopy.getNumCopies());
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		lock.readLock().lock();
+
+		try {
+			List<BookStoreBook> bookMapValues = bookMap.values();
+			List<StockBook> books = new ArrayList<>(bookMapValues.size());
+
+			for (BookStoreBook book : bookMapValues) {
+				books.add(book.immutableStockBook());
+			}
+
+			return books;
+		} finally {
+			unlock(lock.readLock());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		combine(() -> {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validateISBNInStock(editorPickArg.getISBN()); // Check if the book has valid ISBN and in stock
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+				book.setEditorPick(editorPickArg.isEditorPick());
+
+				if (editorPickArg.isEditorPick()) {
+					this.editorPicks.add(book);
+				} else {
+					this.editorPicks.remove(book.getISBN());
+				}
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		combine(() -> {
+			IntList missedISBNs = new IntList();
+			IntList missedCopies = new IntList();
+
+			// Check that all ISBNs that we buy are there first.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				validate(bookCopyToBuy);
+
+				BookStoreBook book = bookMap.get(bookCopyToBuy.getISBN());
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					missedISBNs.add(book.getISBN());
+					missedCopies.add(bookCopyToBuy.getNumCopies() - book.getNumCopies());
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (missedISBNs.size() > 0) {
+				for (int i = 0; i < missedISBNs.size(); i++) {
+					bookMap.get(missedISBNs.get(i)).addSaleMiss(missedCopies.get(i));
+				}
+
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				bookMap.get(bookCopyToBuy.getISBN()).buyCopies(bookCopyToBuy.getNumCopies());
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.readLock().lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(isbnSet.size());
+
+			for (int ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+				books.add(bookMap.get(ISBN).immutableStockBook());
+			}
+
+			return books;
+		} finally {
+			unlock(lock.readLock());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.readLock().lock();
+
+		try {
+			List<Book> books = new ArrayList<>(isbnSet.size());
+
+			// Check that all ISBNs that we rate are there to start with.
+			for (int ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+				books.add(bookMap.get(ISBN).immutableBook());
+			}
+
+			return books;
+		} finally {
+			unlock(lock.readLock());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		lock.readLock().lock();
+
+		try {
+			// Draw numBooks random books from the editor picks index.
+			List<BookStoreBook> sample = this.editorPicks.sample(numBooks);
+			List<Book> editorPicks = new ArrayList<>(sample.size());
+
+			for (BookStoreBook book : sample) {
+				editorPicks.add(book.immutableBook());
+			}
+
+			return editorPicks;
+		} finally {
+			unlock(lock.readLock());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		combine(() -> {
+			bookMap.clear();
+			editorPicks.clear();
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		combine(() -> {
+			for (int ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			for (int isbn : isbnSet) {
+				bookMap.remove(isbn);
+				editorPicks.remove(isbn);
+			}
+		});
+	}
+}
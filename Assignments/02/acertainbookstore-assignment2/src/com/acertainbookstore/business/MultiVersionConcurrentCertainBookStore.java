@@ -0,0 +1,54 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link MultiVersionConcurrentCertainBookStore} implements the
+ * {@link BookStore} and {@link StockManager} functionalities using multiversion
+ * concurrency control.
+ * <p>
+ * Every write transaction builds a new immutable {@link CatalogSnapshot} and
+ * publishes it atomically once it commits. Readers only dereference the latest
+ * published snapshot, so they never take a lock, always see a consistent state
+ * of the catalog and are never blocked by writers. Writers are serialized by a
+ * single lock that readers never touch.
+ *
+ * @see BookStore
+ * @see StockManager
+ * @see CatalogSnapshot
+ */
+public class MultiVersionConcurrentCertainBookStore extends SnapshotCertainBookStore {
+
+	/** The lock serializing the write transactions. */
+	private final Lock writeLock = new ReentrantLock(true);
+
+	/**
+	 * Instantiates a new {@link MultiVersionConcurrentCertainBookStore}.
+	 */
+	public MultiVersionConcurrentCertainBookStore() {
+		// Constructors are not synchronized
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.SnapshotCertainBookStore#execute(com.
+	 * acertainbookstore.business.SnapshotCertainBookStore.Write)
+	 */
+	@Override
+	protected void execute(Write write) throws BookStoreException {
+		writeLock.lock();
+
+		try {
+			write.apply();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+}
@@ -1,14 +1,8 @@
 package com.acertainbookstore.business;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -19,6 +13,8 @@ import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntHashMap;
+import com.acertainbookstore.utils.IntList;
 
 /** {@link SingleLockConcurrentCertainBookStore} implements the {@link BookStore} and
  * {@link StockManager} functionalities.
@@ -31,14 +27,18 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	private static final ReadWriteLock lock = new ReentrantReadWriteLock(true);
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
+	private IntHashMap<BookStoreBook> bookMap = null;
+
+	/** The books that are editor picks. */
+	private EditorPickIndex<BookStoreBook> editorPicks = null;
 
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
 	public SingleLockConcurrentCertainBookStore() {
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
+		bookMap = new IntHashMap<>();
+		editorPicks = new EditorPickIndex<>();
 	}
 
 	private void validate(StockBook book) throws BookStoreException {
@@ -89,7 +89,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 	}
 	
-	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+	private void validateISBNInStock(int ISBN) throws BookStoreException {
 		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 		}
@@ -118,7 +118,12 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 
 		for (StockBook book : bookSet) {
 			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
+			BookStoreBook bookStoreBook = new BookStoreBook(book);
+			bookMap.put(isbn, bookStoreBook);
+
+			if (bookStoreBook.isEditorPick()) {
+				editorPicks.add(bookStoreBook);
+			}
 		}
 		lock.writeLock().unlock();
 	}
@@ -161,7 +166,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 */
 	public List<StockBook> getBooks() {
 		lock.readLock().lock();
-		Collection<BookStoreBook> bookMapValues = bookMap.values();
+		List<BookStoreBook> bookMapValues = bookMap.values();
 
 		List<StockBook> books = bookMapValues.stream()
 				.map(book -> book.immutableStockBook())
@@ -190,7 +195,14 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		}
 
 		for (BookEditorPick editorPickArg : editorPicks) {
-			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+			book.setEditorPick(editorPickArg.isEditorPick());
+
+			if (editorPickArg.isEditorPick()) {
+				this.editorPicks.add(book);
+			} else {
+				this.editorPicks.remove(book.getISBN());
+			}
 		}
 
 		lock.writeLock().unlock();
@@ -211,7 +223,8 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		BookStoreBook book;
 		Boolean saleMiss = false;
 
-		Map<Integer, Integer> salesMisses = new HashMap<>();
+		IntList missedISBNs = new IntList();
+		IntList missedCopies = new IntList();
 
 		lock.writeLock().lock();
 		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
@@ -223,7 +236,8 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 
 			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
 				// If we cannot sell the copies of the book, it is a miss.
-				salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+				missedISBNs.add(isbn);
+				missedCopies.add(bookCopyToBuy.getNumCopies() - book.getNumCopies());
 				saleMiss = true;
 			}
 		}
@@ -231,9 +245,9 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		// We throw exception now since we want to see how many books in the
 		// order incurred misses which is used by books in demand
 		if (saleMiss) {
-			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-				book = bookMap.get(saleMissEntry.getKey());
-				book.addSaleMiss(saleMissEntry.getValue());
+			for (int i = 0; i < missedISBNs.size(); i++) {
+				book = bookMap.get(missedISBNs.get(i));
+				book.addSaleMiss(missedCopies.get(i));
 			}
 			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 		}
@@ -259,7 +273,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		}
 
 		lock.readLock().lock();
-		for (Integer ISBN : isbnSet) {
+		for (int ISBN : isbnSet) {
 			validateISBNInStock(ISBN);
 		}
 		List<StockBook> books = isbnSet.stream()
@@ -282,7 +296,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 
 		lock.readLock().lock();
 		// Check that all ISBNs that we rate are there to start with.
-		for (Integer ISBN : isbnSet) {
+		for (int ISBN : isbnSet) {
 			validateISBNInStock(ISBN);
 		}
 
@@ -306,37 +320,10 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 
 		lock.readLock().lock();
 
-		List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-                .map(pair -> pair.getValue())
-				.filter(book -> book.isEditorPick())
-                .collect(Collectors.toList());
-
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
-
-		if (rangePicks <= numBooks) {
-
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
-			}
-		} else {
-
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
-
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
-			}
-		}
-
-        // Return all the books by the randomly chosen indices.
-        List<Book> editorPicks = tobePicked.stream()
-                .map(index -> listAllEditorPicks.get(index).immutableBook())
-                .collect(Collectors.toList());
+		// Draw numBooks random books from the editor picks index.
+		List<Book> editorPicks = this.editorPicks.sample(numBooks).stream()
+				.map(book -> book.immutableBook())
+				.collect(Collectors.toList());
 		lock.readLock().unlock();
 		return editorPicks;
 	}
@@ -379,6 +366,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	public void removeAllBooks() throws BookStoreException {
 		lock.writeLock().lock();
 		bookMap.clear();
+		editorPicks.clear();
 		lock.writeLock().unlock();
 	}
 
@@ -393,7 +381,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 		lock.writeLock().lock();
-		for (Integer ISBN : isbnSet) {
+		for (int ISBN : isbnSet) {
 			if (BookStoreUtility.isInvalidISBN(ISBN)) {
 				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 			}
@@ -405,6 +393,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 
 		for (int isbn : isbnSet) {
 			bookMap.remove(isbn);
+			editorPicks.remove(isbn);
 		}
 		lock.writeLock().unlock();
 	}
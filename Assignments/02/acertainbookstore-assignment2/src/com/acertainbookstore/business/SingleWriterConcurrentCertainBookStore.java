@@ -0,0 +1,330 @@
+package com.acertainbookstore.business;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link SingleWriterConcurrentCertainBookStore} implements the
+ * {@link BookStore} and {@link StockManager} functionalities with a single
+ * writer thread.
+ * <p>
+ * Every write is put in a ring buffer allocated once, in the order in which the
+ * callers claimed its entries, and a dedicated writer thread applies the writes
+ * one after the other in that order. The writer builds a new immutable
+ * {@link CatalogSnapshot} per write and publishes it before completing the
+ * write, so readers, as in {@link MultiVersionConcurrentCertainBookStore}, only
+ * dereference the latest snapshot. No lock is taken on the way of a write: a
+ * caller waits for its write on a completion handle of its own, and the writer
+ * waits for the next entry of the ring. Only a caller finding the ring full
+ * takes a lock: it spins briefly, then waits on a condition of its entry,
+ * which the writer signals when it takes the write out of the entry.
+ * <p>
+ * A write failing unexpectedly fails its caller only, and the writer goes on
+ * with the next write. Closing the store stops the writer once the writes
+ * claimed before are applied, and later writes are rejected.
+ *
+ * @see BookStore
+ * @see StockManager
+ * @see CatalogSnapshot
+ */
+public class SingleWriterConcurrentCertainBookStore extends SnapshotCertainBookStore implements Closeable {
+
+	/** The number of entries of the ring, must be a power of two. */
+	private static final int RING_SIZE = 1024;
+
+	/** The times a waiting thread checks its condition before parking. */
+	private static final int MAX_SPINS = 1 << 10;
+
+	/**
+	 * The amount added to the sequence of the next write when the store is
+	 * closed, so that the writes claiming a sequence afterwards see it.
+	 */
+	private static final long CLOSED = 1L << 62;
+
+	/** The write stopping the writer thread. */
+	private static final Write STOP = () -> {
+	};
+
+	/**
+	 * {@link Completion} is the handle on which a caller waits for its write.
+	 * Every thread reuses its own, since it waits for one write at a time.
+	 */
+	private static final class Completion {
+
+		/** The waiting thread. */
+		private final Thread waiter = Thread.currentThread();
+
+		/** Whether the write was applied. */
+		private volatile boolean done = false;
+
+		/** The exception of the write, published by setting done. */
+		private BookStoreException exception = null;
+
+		/** The unexpected failure of the write, published the same way. */
+		private Throwable failure = null;
+	}
+
+	/**
+	 * {@link Entry} is an entry of the ring, reused every {@link #RING_SIZE}
+	 * writes.
+	 */
+	private static final class Entry {
+
+		/** The sequence of the write last put in the entry. */
+		private volatile long sequence = -1;
+
+		/** The write, published by setting the sequence. */
+		private Write write = null;
+
+		/** The completion of the write, published the same way. */
+		private Completion completion = null;
+
+		/** The condition on which callers wait for the entry to be taken. */
+		private Condition taken = null;
+	}
+
+	/** The entries of the ring. */
+	private final Entry[] ring = new Entry[RING_SIZE];
+
+	/** The sequence of the next write to claim an entry. */
+	private final AtomicLong nextSequence = new AtomicLong();
+
+	/** The number of writes taken out of the ring by the writer. */
+	private volatile long consumed = 0;
+
+	/** Whether the writer is about to park waiting for a write. */
+	private volatile boolean writerWaiting = false;
+
+	/** The lock of the callers waiting for room in the ring. */
+	private final ReentrantLock producerLock = new ReentrantLock();
+
+	/** The number of callers waiting for room in the ring. */
+	private volatile int waitingProducers = 0;
+
+	/** The completion handle of every thread. */
+	private final ThreadLocal<Completion> completions = ThreadLocal.withInitial(Completion::new);
+
+	/** The writer thread. */
+	private final Thread writer;
+
+	/**
+	 * Instantiates a new {@link SingleWriterConcurrentCertainBookStore} and
+	 * starts its writer thread, which does not keep the JVM alive.
+	 */
+	public SingleWriterConcurrentCertainBookStore() {
+		for (int i = 0; i < RING_SIZE; i++) {
+			ring[i] = new Entry();
+			ring[i].taken = producerLock.newCondition();
+		}
+
+		writer = new Thread(this::runWriter, "bookstore-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Closes the store: the writes claimed before are applied, then the writer
+	 * thread stops and later writes are rejected. Reads go on serving the last
+	 * published snapshot.
+	 */
+	@Override
+	public void close() {
+		long sequence = nextSequence.getAndAdd(CLOSED);
+
+		if (sequence >= CLOSED) {
+			return;
+		}
+
+		try {
+			execute(sequence, STOP);
+		} catch (BookStoreException ex) {
+			// The stop write cannot fail.
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.SnapshotCertainBookStore#execute(com.
+	 * acertainbookstore.business.SnapshotCertainBookStore.Write)
+	 */
+	@Override
+	protected void execute(Write write) throws BookStoreException {
+		long sequence = nextSequence.getAndIncrement();
+
+		if (sequence >= CLOSED) {
+			throw new BookStoreException(BookStoreConstants.CLOSED);
+		}
+
+		execute(sequence, write);
+	}
+
+	/**
+	 * Puts a write in the ring at its sequence and waits until the writer
+	 * applied it.
+	 *
+	 * @param sequence
+	 *            the sequence claimed by the write
+	 * @param write
+	 *            the write
+	 * @throws BookStoreException
+	 *             if the write failed
+	 */
+	private void execute(long sequence, Write write) throws BookStoreException {
+		Completion completion = completions.get();
+		completion.done = false;
+
+		Entry entry = ring[(int) sequence & (RING_SIZE - 1)];
+
+		// Wait for the writer to take the write last put in the entry.
+		for (int spins = 0; sequence - consumed >= RING_SIZE; spins++) {
+			if (spins >= MAX_SPINS) {
+				awaitRoom(entry, sequence);
+			}
+		}
+
+		entry.write = write;
+		entry.completion = completion;
+		entry.sequence = sequence;
+
+		if (writerWaiting) {
+			LockSupport.unpark(writer);
+		}
+
+		for (int spins = 0; !completion.done; spins++) {
+			if (spins >= MAX_SPINS) {
+				LockSupport.park(this);
+			}
+		}
+
+		if (completion.failure != null) {
+			Throwable failure = completion.failure;
+			completion.failure = null;
+
+			if (failure instanceof Error) {
+				throw (Error) failure;
+			}
+
+			throw (RuntimeException) failure;
+		}
+
+		if (completion.exception != null) {
+			BookStoreException exception = completion.exception;
+			completion.exception = null;
+			throw exception;
+		}
+	}
+
+	/**
+	 * Applies the writes of the ring in the order of their sequences, until the
+	 * store is closed. A write failing unexpectedly, even with an error, fails
+	 * its caller only.
+	 */
+	private void runWriter() {
+		for (long sequence = 0;; sequence++) {
+			Entry entry = ring[(int) sequence & (RING_SIZE - 1)];
+			awaitEntry(entry, sequence);
+
+			Write write = entry.write;
+			Completion completion = entry.completion;
+			entry.write = null;
+			entry.completion = null;
+			consumed = sequence + 1;
+
+			if (waitingProducers > 0) {
+				signalRoom(entry);
+			}
+
+			try {
+				write.apply();
+			} catch (BookStoreException ex) {
+				completion.exception = ex;
+			} catch (Throwable ex) {
+				completion.failure = ex;
+			}
+
+			completion.done = true;
+			LockSupport.unpark(completion.waiter);
+
+			if (write == STOP) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Waits, as a caller, until the writer took the write last put in the
+	 * entry of the sequence.
+	 *
+	 * @param entry
+	 *            the entry
+	 * @param sequence
+	 *            the sequence of the write of the caller
+	 */
+	private void awaitRoom(Entry entry, long sequence) {
+		producerLock.lock();
+
+		try {
+			// The writer taking a write after this count sees it and signals
+			// the entry under the lock.
+			waitingProducers++;
+
+			while (sequence - consumed >= RING_SIZE) {
+				entry.taken.awaitUninterruptibly();
+			}
+		} finally {
+			waitingProducers--;
+			producerLock.unlock();
+		}
+	}
+
+	/**
+	 * Wakes, as the writer, the callers waiting for the write last put in the
+	 * entry to be taken.
+	 *
+	 * @param entry
+	 *            the entry
+	 */
+	private void signalRoom(Entry entry) {
+		producerLock.lock();
+
+		try {
+			entry.taken.signalAll();
+		} finally {
+			producerLock.unlock();
+		}
+	}
+
+	/**
+	 * Waits, as the writer, for a write to be put in an entry of the ring.
+	 *
+	 * @param entry
+	 *            the entry
+	 * @param sequence
+	 *            the sequence of the write
+	 */
+	private void awaitEntry(Entry entry, long sequence) {
+		for (int spins = 0; entry.sequence != sequence; spins++) {
+			if (spins >= MAX_SPINS) {
+				// A caller putting a write after this check sees the flag and
+				// unparks the writer.
+				writerWaiting = true;
+
+				if (entry.sequence != sequence) {
+					LockSupport.park(this);
+				}
+
+				writerWaiting = false;
+			}
+		}
+	}
+}
@@ -0,0 +1,415 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntList;
+
+/**
+ * {@link SnapshotCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities over immutable {@link CatalogSnapshot}s.
+ * <p>
+ * Every write transaction builds a new snapshot and publishes it once it
+ * commits, and readers only dereference the latest published snapshot, so they
+ * never take a lock and always see a consistent state of the catalog.
+ * Subclasses decide how the write transactions are serialized.
+ *
+ * @see BookStore
+ * @see StockManager
+ * @see CatalogSnapshot
+ */
+public abstract class SnapshotCertainBookStore implements BookStore, StockManager {
+
+	/**
+	 * {@link Write} is a write transaction, building and publishing a new
+	 * snapshot of the catalog.
+	 */
+	@FunctionalInterface
+	protected interface Write {
+
+		/**
+		 * Applies the transaction and publishes its snapshot.
+		 *
+		 * @throws BookStoreException
+		 *             if the transaction is invalid, in which case it published
+		 *             nothing but its sale misses
+		 */
+		void apply() throws BookStoreException;
+	}
+
+	/** The latest published snapshot of the catalog. */
+	private volatile CatalogSnapshot snapshot = CatalogSnapshot.EMPTY;
+
+	/**
+	 * Gets the version of the latest published snapshot of the catalog.
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return snapshot.getVersion();
+	}
+
+	/**
+	 * Applies a write transaction, after every write transaction applied
+	 * before it and before any applied after it.
+	 *
+	 * @param write
+	 *            the write transaction
+	 * @throws BookStoreException
+	 *             if the write transaction failed
+	 */
+	protected abstract void execute(Write write) throws BookStoreException;
+
+	private void validate(StockBook book, CatalogSnapshot.Builder catalog) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (catalog.get(isbn) != null) {// Check if the book is already added
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private ImmutableStockBook validate(BookCopy bookCopy, CatalogSnapshot.Builder catalog)
+			throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		ImmutableStockBook book = validateISBNInStock(isbn, catalog.get(isbn)); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+
+	private ImmutableStockBook validateISBNInStock(int ISBN, ImmutableStockBook book) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (book == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+		return book;
+	}
+
+	/**
+	 * Returns a copy of the book with the given mutable state.
+	 *
+	 * @param book
+	 *            the book
+	 * @param numCopies
+	 *            the new number of copies
+	 * @param numSaleMisses
+	 *            the new number of sale misses
+	 * @param editorPick
+	 *            whether the book is editor picked
+	 * @return the new version of the book
+	 */
+	private static ImmutableStockBook newVersion(ImmutableStockBook book, int numCopies, long numSaleMisses,
+			boolean editorPick) {
+		return new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(), numCopies,
+				numSaleMisses, book.getNumTimesRated(), book.getTotalRating(), editorPick);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(() -> {
+			CatalogSnapshot.Builder catalog = snapshot.newVersion();
+
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book, catalog);
+			}
+
+			for (StockBook book : bookSet) {
+				catalog.put(new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(),
+						book.getPrice(), book.getNumCopies(), book.getNumSaleMisses(), book.getNumTimesRated(),
+						book.getTotalRating(), book.isEditorPick()));
+			}
+
+			snapshot = catalog.build();
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(() -> {
+			CatalogSnapshot.Builder catalog = snapshot.newVersion();
+
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy, catalog);
+			}
+
+			// Update the number of copies, which also clears the sale misses
+			for (BookCopy bookCopy : bookCopiesSet) {
+				ImmutableStockBook book = catalog.get(bookCopy.getISBN());
+				catalog.put(newVersion(book, book.getNumCopies() + bookCopy.getNumCopies(), 0,
+						book.isEditorPick()));
+			}
+
+			snapshot = catalog.build();
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		return snapshot.books();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(() -> {
+			CatalogSnapshot.Builder catalog = snapshot.newVersion();
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				int isbn = editorPickArg.getISBN();
+				validateISBNInStock(isbn, catalog.get(isbn)); // Check if the book has valid ISBN and in stock
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				ImmutableStockBook book = catalog.get(editorPickArg.getISBN());
+				catalog.put(newVersion(book, book.getNumCopies(), book.getNumSaleMisses(),
+						editorPickArg.isEditorPick()));
+			}
+
+			snapshot = catalog.build();
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(() -> {
+			CatalogSnapshot.Builder catalog = snapshot.newVersion();
+			IntList missedISBNs = new IntList();
+			IntList missedCopies = new IntList();
+
+			// Check that all ISBNs that we buy are there first.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				ImmutableStockBook book = validate(bookCopyToBuy, catalog);
+
+				if (book.getNumCopies() < bookCopyToBuy.getNumCopies()) {
+					// If we cannot sell the copies of the book, it is a miss.
+					missedISBNs.add(book.getISBN());
+					missedCopies.add(bookCopyToBuy.getNumCopies() - book.getNumCopies());
+				}
+			}
+
+			// We commit the sale misses and throw the exception now since we want
+			// to see how many books in the order incurred misses which is used by
+			// books in demand
+			if (missedISBNs.size() > 0) {
+				for (int i = 0; i < missedISBNs.size(); i++) {
+					ImmutableStockBook book = catalog.get(missedISBNs.get(i));
+					catalog.put(newVersion(book, book.getNumCopies(),
+							book.getNumSaleMisses() + missedCopies.get(i), book.isEditorPick()));
+				}
+
+				snapshot = catalog.build();
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				ImmutableStockBook book = catalog.get(bookCopyToBuy.getISBN());
+				catalog.put(newVersion(book, book.getNumCopies() - bookCopyToBuy.getNumCopies(),
+						book.getNumSaleMisses(), book.isEditorPick()));
+			}
+
+			snapshot = catalog.build();
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		CatalogSnapshot catalog = snapshot;
+		List<StockBook> books = new ArrayList<>(isbnSet.size());
+
+		for (int ISBN : isbnSet) {
+			books.add(validateISBNInStock(ISBN, catalog.get(ISBN)));
+		}
+
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		CatalogSnapshot catalog = snapshot;
+		List<Book> books = new ArrayList<>(isbnSet.size());
+
+		// Check that all ISBNs that we rate are there to start with.
+		for (int ISBN : isbnSet) {
+			ImmutableStockBook book = validateISBNInStock(ISBN, catalog.get(ISBN));
+			books.add(new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice()));
+		}
+
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// The indexed books are immutable, so they can be returned as they are.
+		return new ArrayList<>(snapshot.sampleEditorPicks(numBooks));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		execute(() -> snapshot = snapshot.nextEmptyVersion());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(() -> {
+			CatalogSnapshot.Builder catalog = snapshot.newVersion();
+
+			for (int ISBN : isbnSet) {
+				validateISBNInStock(ISBN, catalog.get(ISBN));
+			}
+
+			for (int isbn : isbnSet) {
+				catalog.remove(isbn);
+			}
+
+			snapshot = catalog.build();
+		});
+	}
+}
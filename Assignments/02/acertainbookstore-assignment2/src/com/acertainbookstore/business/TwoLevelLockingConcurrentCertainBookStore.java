@@ -1,12 +1,6 @@
 package com.acertainbookstore.business;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -16,8 +10,10 @@ import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
-import com.acertainbookstore.utils.BookStoreLockMap;
+import com.acertainbookstore.utils.BookStoreLockManager;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntHashMap;
+import com.acertainbookstore.utils.IntList;
 
 /** {@link TwoLevelLockingConcurrentCertainBookStore} implements the {@link BookStore} and
  * {@link StockManager} functionalities.
@@ -30,17 +26,20 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	private static final ReadWriteLock dbLock = new ReentrantReadWriteLock(true);
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap;
-	private BookStoreLockMap lockMap;
+	private IntHashMap<BookStoreBook> bookMap;
+	private BookStoreLockManager lockManager;
 
+	/** The books that are editor picks, only modified under the database write lock. */
+	private EditorPickIndex<BookStoreBook> editorPicks;
 
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
 	public TwoLevelLockingConcurrentCertainBookStore() {
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
-		lockMap = new BookStoreLockMap();
+		bookMap = new IntHashMap<>();
+		lockManager = new BookStoreLockManager();
+		editorPicks = new EditorPickIndex<>();
 	}
 	
 	private void validate(StockBook book) throws BookStoreException {
@@ -91,7 +90,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 	}
 	
-	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+	private void validateISBNInStock(int ISBN) throws BookStoreException {
 		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 		}
@@ -122,13 +121,20 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			}
 		}
 
+		IntList isbns = new IntList(bookSet.size());
+
 		for (StockBook book : bookSet) {
 			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
+			BookStoreBook bookStoreBook = new BookStoreBook(book);
+			bookMap.put(isbn, bookStoreBook);
+			isbns.add(isbn);
+
+			if (bookStoreBook.isEditorPick()) {
+				editorPicks.add(bookStoreBook);
+			}
 		}
 
-		List<Integer> isbns = bookSet.stream().map(StockBook::getISBN).collect(Collectors.toList());
-		lockMap.addLocks(isbns);
+		lockManager.addLocks(isbns);
 		dbLock.writeLock().unlock();
 	}
 
@@ -147,6 +153,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		}
 
 		dbLock.readLock().lock();
+		IntList isbns = new IntList(bookCopiesSet.size());
 
 		for (BookCopy bookCopy : bookCopiesSet) {
 			try {
@@ -155,10 +162,11 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 				dbLock.readLock().unlock();
 				throw e;
 			}
+
+			isbns.add(bookCopy.getISBN());
 		}
 
-		List<Integer> isbns = bookCopiesSet.stream().map(BookCopy::getISBN).collect(Collectors.toList());
-		lockMap.writeLock(isbns);
+		lockManager.writeLock(isbns);
 
 		// Update the number of copies
 		for (BookCopy bookCopy : bookCopiesSet) {
@@ -169,7 +177,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			book.addCopies(numCopies);
 		}
 
-		lockMap.writeUnlock(isbns);
+		lockManager.writeUnlock(isbns);
 		dbLock.readLock().unlock();
 	}
 
@@ -180,16 +188,16 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
 	public List<StockBook> getBooks() {
 		dbLock.readLock().lock();
-		Collection<BookStoreBook> bookMapValues = bookMap.values();
+		List<BookStoreBook> bookMapValues = bookMap.values();
 
-		List<Integer> isbns = bookMapValues.stream().map(BookStoreBook::getISBN).collect(Collectors.toList());
-		lockMap.readLock(isbns);
+		IntList isbns = bookMap.keys();
+		lockManager.readLock(isbns);
 
 		List<StockBook> books = bookMapValues.stream()
 				.map(book -> book.immutableStockBook())
 				.collect(Collectors.toList());
 
-		lockMap.readUnlock(isbns);
+		lockManager.readUnlock(isbns);
 		dbLock.readLock().unlock();
 		return books;
 	}
@@ -207,25 +215,31 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		dbLock.readLock().lock();
+		// The editor picks index is shared by all the books, so updating it
+		// needs the database write lock; this keeps getEditorPicks free of
+		// per-book locks.
+		dbLock.writeLock().lock();
 		for (BookEditorPick editorPickArg : editorPicks) {
 			try {
 				validate(editorPickArg);
 			} catch (BookStoreException e) {
-				dbLock.readLock().unlock();
+				dbLock.writeLock().unlock();
 				throw e;
 			}
 		}
 
-		List<Integer> isbns = editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList());
-		lockMap.writeLock(isbns);
-
 		for (BookEditorPick editorPickArg : editorPicks) {
-			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+			book.setEditorPick(editorPickArg.isEditorPick());
+
+			if (editorPickArg.isEditorPick()) {
+				this.editorPicks.add(book);
+			} else {
+				this.editorPicks.remove(book.getISBN());
+			}
 		}
 
-		lockMap.writeUnlock(isbns);
-		dbLock.readLock().unlock();
+		dbLock.writeLock().unlock();
 	}
 
 	/*
@@ -238,6 +252,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 		dbLock.readLock().lock();
+		IntList isbns = new IntList(bookCopiesToBuy.size());
 
 		for (BookCopy bookCopy : bookCopiesToBuy) {
 			try {
@@ -246,12 +261,14 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 				dbLock.readLock().unlock();
 				throw e;
 			}
+
+			isbns.add(bookCopy.getISBN());
 		}
 
-		List<Integer> isbns = bookCopiesToBuy.stream().map(BookCopy::getISBN).collect(Collectors.toList());
-		lockMap.writeLock(isbns);
+		lockManager.writeLock(isbns);
 
-		Map<Integer, Integer> salesMisses = new HashMap<>();
+		IntList missedISBNs = new IntList();
+		IntList missedCopies = new IntList();
 		// Check that all ISBNs that we buy are there first.
 		int isbn;
 		BookStoreBook book;
@@ -263,7 +280,8 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 
 			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
 				// If we cannot sell the copies of the book, it is a miss.
-				salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+				missedISBNs.add(isbn);
+				missedCopies.add(bookCopyToBuy.getNumCopies() - book.getNumCopies());
 				saleMiss = true;
 			}
 		}
@@ -271,12 +289,12 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		// We throw exception now since we want to see how many books in the
 		// order incurred misses which is used by books in demand
 		if (saleMiss) {
-			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-				book = bookMap.get(saleMissEntry.getKey());
-				book.addSaleMiss(saleMissEntry.getValue());
+			for (int i = 0; i < missedISBNs.size(); i++) {
+				book = bookMap.get(missedISBNs.get(i));
+				book.addSaleMiss(missedCopies.get(i));
 			}
 
-			lockMap.writeUnlock(isbns);
+			lockManager.writeUnlock(isbns);
 			dbLock.readLock().unlock();
 			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 		}
@@ -287,7 +305,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			book.buyCopies(bookCopyToBuy.getNumCopies());
 		}
 
-		lockMap.writeUnlock(isbns);
+		lockManager.writeUnlock(isbns);
 		dbLock.readLock().unlock();
 	}
 
@@ -305,7 +323,9 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 
 		dbLock.readLock().lock();
 
-		for (Integer ISBN : isbnSet) {
+		IntList isbns = new IntList(isbnSet.size());
+
+		for (int ISBN : isbnSet) {
 			try {
 				validateISBNInStock(ISBN);
 			}
@@ -313,16 +333,17 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 				dbLock.readLock().unlock();
 				throw e;
 			}
+
+			isbns.add(ISBN);
 		}
 
-		List<Integer> isbns = new ArrayList<>(isbnSet);
-		lockMap.readLock(isbns);
+		lockManager.readLock(isbns);
 
 		List <StockBook> books = isbnSet.stream()
 				.map(isbn -> bookMap.get(isbn).immutableStockBook())
 				.collect(Collectors.toList());
 
-		lockMap.readUnlock(isbns);
+		lockManager.readUnlock(isbns);
 		dbLock.readLock().unlock();
 
 		return books;
@@ -341,23 +362,26 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		dbLock.readLock().lock();
 
 		// Check that all ISBNs that we rate are there to start with.
-		for (Integer ISBN : isbnSet) {
+		IntList isbns = new IntList(isbnSet.size());
+
+		for (int ISBN : isbnSet) {
 			try {
 				validateISBNInStock(ISBN);
 			} catch (BookStoreException e) {
 				dbLock.readLock().unlock();
 				throw e;
 			}
+
+			isbns.add(ISBN);
 		}
 
-		List<Integer> isbns = new ArrayList<>(isbnSet);
-		lockMap.readLock(isbns);
+		lockManager.readLock(isbns);
 
 		List<Book> books = isbnSet.stream()
 				.map(isbn -> bookMap.get(isbn).immutableBook())
 				.collect(Collectors.toList());
 
-		lockMap.readUnlock(isbns);
+		lockManager.readUnlock(isbns);
 		dbLock.readLock().unlock();
 
 		return books;
@@ -373,43 +397,16 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 		}
 
+		// The editor picks only change under the database write lock and the
+		// returned fields of a book are immutable, so no book lock is needed.
 		dbLock.readLock().lock();
-		List<Integer> isbns = bookMap.values().stream().map(BookStoreBook::getISBN).collect(Collectors.toList());
-		lockMap.readLock(isbns);
 
-		List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-				.map(pair -> pair.getValue())
-				.filter(book -> book.isEditorPick())
+		List<Book> books = editorPicks.sample(numBooks).stream()
+				.map(book -> book.immutableBook())
 				.collect(Collectors.toList());
 
-		lockMap.readUnlock(isbns);
 		dbLock.readLock().unlock();
-
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
-
-		if (rangePicks <= numBooks) {
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
-			}
-		} else {
-
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
-
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
-			}
-		}
-
-		// Return all the books by the randomly chosen indices.
-		return tobePicked.stream()
-				.map(index -> listAllEditorPicks.get(index).immutableBook())
-				.collect(Collectors.toList());
+		return books;
 	}
 
 	/*
@@ -449,9 +446,10 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
 	public void removeAllBooks() throws BookStoreException {
 		dbLock.writeLock().lock();
-		lockMap.deleteAllLocks();
+		lockManager.deleteAllLocks();
 
 		bookMap.clear();
+		editorPicks.clear();
 
 		dbLock.writeLock().unlock();
 	}
@@ -468,21 +466,24 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		}
 		dbLock.writeLock().lock();
 
-		for (Integer ISBN : isbnSet) {
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
-			}
+		IntList isbns = new IntList(isbnSet.size());
 
-			if (!bookMap.containsKey(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		for (int ISBN : isbnSet) {
+			try {
+				validateISBNInStock(ISBN);
+			} catch (BookStoreException e) {
+				dbLock.writeLock().unlock();
+				throw e;
 			}
+
+			isbns.add(ISBN);
 		}
 
-		List<Integer> isbnList = new ArrayList<>(isbnSet);
-		lockMap.deleteLocks(isbnList);
+		lockManager.deleteLocks(isbns);
 
-		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
+		for (int i = 0; i < isbns.size(); i++) {
+			bookMap.remove(isbns.get(i));
+			editorPicks.remove(isbns.get(i));
 		}
 
 		dbLock.writeLock().unlock();
@@ -14,8 +14,11 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.FlatCombiningConcurrentCertainBookStore;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.SingleWriterConcurrentCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.MultiVersionConcurrentCertainBookStore;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
@@ -44,6 +47,15 @@ public class BookStoreTest {
 	/** Single lock test */
 	private static boolean singleLock = true;
 
+	/** Multiversion concurrency control test */
+	private static boolean multiVersion = false;
+
+	/** Flat combining test */
+	private static boolean flatCombining = false;
+
+	/** Single writer test */
+	private static boolean singleWriter = false;
+
 	
 	/** The store manager. */
 	private static StockManager storeManager;
@@ -63,8 +75,29 @@ public class BookStoreTest {
 			String singleLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK);
 			singleLock = (singleLockProperty != null) ? Boolean.parseBoolean(singleLockProperty) : singleLock;
 
+			String multiVersionProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_MULTI_VERSION);
+			multiVersion = (multiVersionProperty != null) ? Boolean.parseBoolean(multiVersionProperty) : multiVersion;
+
+			String flatCombiningProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_FLAT_COMBINING);
+			flatCombining = (flatCombiningProperty != null) ? Boolean.parseBoolean(flatCombiningProperty) : flatCombining;
+
+			String singleWriterProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_WRITER);
+			singleWriter = (singleWriterProperty != null) ? Boolean.parseBoolean(singleWriterProperty) : singleWriter;
+
 			if (localTest) {
-				if (singleLock) {
+				if (multiVersion) {
+					MultiVersionConcurrentCertainBookStore store = new MultiVersionConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (flatCombining) {
+					FlatCombiningConcurrentCertainBookStore store = new FlatCombiningConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (singleWriter) {
+					SingleWriterConcurrentCertainBookStore store = new SingleWriterConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (singleLock) {
 					SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
 					storeManager = store;
 					client = store;
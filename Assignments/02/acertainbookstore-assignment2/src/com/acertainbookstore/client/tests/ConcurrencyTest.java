@@ -39,6 +39,15 @@ public class ConcurrencyTest {
     /** Single lock test */
     private static boolean singleLock = false;
 
+    /** Multiversion concurrency control test */
+    private static boolean multiVersion = false;
+
+    /** Flat combining test */
+    private static boolean flatCombining = false;
+
+    /** Single writer test */
+    private static boolean singleWriter = false;
+
     /** The store manager. */
     private static StockManager storeManager;
 
@@ -57,8 +66,29 @@ public class ConcurrencyTest {
             String singleLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK);
             singleLock = (singleLockProperty != null) ? Boolean.parseBoolean(singleLockProperty) : singleLock;
 
+            String multiVersionProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_MULTI_VERSION);
+            multiVersion = (multiVersionProperty != null) ? Boolean.parseBoolean(multiVersionProperty) : multiVersion;
+
+            String flatCombiningProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_FLAT_COMBINING);
+            flatCombining = (flatCombiningProperty != null) ? Boolean.parseBoolean(flatCombiningProperty) : flatCombining;
+
+            String singleWriterProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_WRITER);
+            singleWriter = (singleWriterProperty != null) ? Boolean.parseBoolean(singleWriterProperty) : singleWriter;
+
             if (localTest) {
-                if (singleLock) {
+                if (multiVersion) {
+                    MultiVersionConcurrentCertainBookStore store = new MultiVersionConcurrentCertainBookStore();
+                    storeManager = store;
+                    client = store;
+                } else if (flatCombining) {
+                    FlatCombiningConcurrentCertainBookStore store = new FlatCombiningConcurrentCertainBookStore();
+                    storeManager = store;
+                    client = store;
+                } else if (singleWriter) {
+                    SingleWriterConcurrentCertainBookStore store = new SingleWriterConcurrentCertainBookStore();
+                    storeManager = store;
+                    client = store;
+                } else if (singleLock) {
                     SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
                     storeManager = store;
                     client = store;
@@ -322,6 +352,45 @@ public class ConcurrencyTest {
 
 
 
+    /**
+     * Test a burst of purchases of one book. Checks that every copy is sold
+     * exactly once and that every failed purchase counts as a sale miss
+     *
+     * @throws BookStoreException
+     *             the book store exception
+     */
+    @Test
+    public void testConcurrentBuyBurst() throws InterruptedException, BookStoreException {
+        int numClients = 8;
+        int numCalls = 50;
+        int[] numBought = new int[numClients];
+
+        List<Runnable> clients = new ArrayList<>();
+        for (int c = 0; c < numClients; c++) {
+            int clientIndex = c;
+            clients.add(() -> {
+                Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+                booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+
+                for (int i = 0; i < numCalls; i++) {
+                    try {
+                        client.buyBooks(booksToBuy);
+                        numBought[clientIndex]++;
+                    } catch (BookStoreException ignored) {
+                    }
+                }
+            });
+        }
+
+        runClients(clients);
+
+        int totalBought = Arrays.stream(numBought).sum();
+        StockBook book = storeManager.getBooks().get(0);
+        assertEquals(NUM_COPIES, totalBought);
+        assertEquals(0, book.getNumCopies());
+        assertEquals(numClients * numCalls - NUM_COPIES, book.getNumSaleMisses());
+    }
+
     /**
      * Test for deadlocks
      *
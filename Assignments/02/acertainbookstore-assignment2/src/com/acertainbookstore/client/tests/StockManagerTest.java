@@ -4,8 +4,12 @@ import static org.junit.Assert.*;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -16,7 +20,9 @@ import org.junit.Test;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.FlatCombiningConcurrentCertainBookStore;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.SingleWriterConcurrentCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
@@ -384,6 +390,46 @@ public class StockManagerTest {
 		assertTrue(editorPick.equals(defaultBookAdded));
 	}
 
+	/**
+	 * Tests that editor picks reflect picks, unpicks and removed books, and that
+	 * a random sample never returns the same book twice.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testEditorPicksAfterUnpickAndRemove() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 1; i <= 10; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "The Art of Computer Programming", "Donald Knuth",
+					(float) 300, NUM_COPIES, 0, 0, 0, true));
+		}
+
+		storeManager.addBooks(booksToAdd);
+
+		// Unpick one book and remove another one.
+		addEditorPick(TEST_ISBN + 1, false);
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+		isbnsToRemove.add(TEST_ISBN + 2);
+		storeManager.removeBooks(isbnsToRemove);
+
+		// Only the eight remaining picks can be returned, each at most once.
+		assertEquals(8, client.getEditorPicks(20).size());
+
+		for (int i = 0; i < 20; i++) {
+			List<Book> editorPicks = client.getEditorPicks(5);
+			Set<Integer> isbns = new HashSet<Integer>();
+
+			for (Book book : editorPicks) {
+				assertTrue(book.getISBN() > TEST_ISBN + 2 && book.getISBN() <= TEST_ISBN + 10);
+				isbns.add(book.getISBN());
+			}
+
+			assertEquals(5, isbns.size());
+		}
+	}
+
 	/**
 	 * Checks that a book can be removed.
 	 *
@@ -475,6 +521,200 @@ public class StockManagerTest {
 		assertTrue(booksInStoreList.size() == 0);
 	}
 
+	/**
+	 * Tests that a write failing with an error fails its caller only, and that
+	 * a closed single-writer store rejects writes but still serves reads.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSingleWriterFailureAndClose() throws BookStoreException {
+		SingleWriterConcurrentCertainBookStore store = new SingleWriterConcurrentCertainBookStore();
+
+		try {
+			Set<StockBook> failingBooks = new HashSet<StockBook>() {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public Iterator<StockBook> iterator() {
+					throw new AssertionError("The writer must survive this");
+				}
+			};
+
+			try {
+				store.addBooks(failingBooks);
+				fail();
+			} catch (AssertionError ex) {
+				assertEquals("The writer must survive this", ex.getMessage());
+			}
+
+			// The writer goes on with the next writes.
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+			booksToAdd.add(getDefaultBook());
+			store.addBooks(booksToAdd);
+			assertEquals(1, store.getBooks().size());
+		} finally {
+			store.close();
+		}
+
+		Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+		copiesToAdd.add(new BookCopy(TEST_ISBN, 1));
+
+		try {
+			store.addCopies(copiesToAdd);
+			fail();
+		} catch (BookStoreException ex) {
+			assertEquals(BookStoreConstants.CLOSED, ex.getMessage());
+		}
+
+		assertEquals((int) NUM_COPIES, store.getBooks().get(0).getNumCopies());
+
+		// Closing again does nothing.
+		store.close();
+	}
+
+	/**
+	 * Tests that callers waiting for room in the ring of a single-writer store
+	 * all complete once the writer goes on.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSingleWriterFullRingWakesProducers() throws Exception {
+		SingleWriterConcurrentCertainBookStore store = new SingleWriterConcurrentCertainBookStore();
+
+		try {
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+			booksToAdd.add(getDefaultBook());
+			store.addBooks(booksToAdd);
+
+			// The writer is held by the first write while the others fill the
+			// ring, which holds 1024 writes.
+			CountDownLatch release = new CountDownLatch(1);
+			Set<BookCopy> blockingCopies = new HashSet<BookCopy>() {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public Iterator<BookCopy> iterator() {
+					try {
+						release.await();
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+
+					return super.iterator();
+				}
+			};
+			blockingCopies.add(new BookCopy(TEST_ISBN, 1));
+
+			Thread blocked = new Thread(() -> {
+				try {
+					store.addCopies(blockingCopies);
+				} catch (BookStoreException ex) {
+					throw new IllegalStateException(ex);
+				}
+			});
+			blocked.start();
+
+			int numThreads = 1500;
+			List<Thread> writers = new ArrayList<>();
+			Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+			copiesToAdd.add(new BookCopy(TEST_ISBN, 1));
+
+			for (int i = 0; i < numThreads; i++) {
+				Thread writer = new Thread(() -> {
+					try {
+						store.addCopies(copiesToAdd);
+					} catch (BookStoreException ex) {
+						throw new IllegalStateException(ex);
+					}
+				});
+
+				writers.add(writer);
+				writer.start();
+			}
+
+			release.countDown();
+			blocked.join(TimeUnit.SECONDS.toMillis(30));
+			assertFalse(blocked.isAlive());
+
+			for (Thread writer : writers) {
+				writer.join(TimeUnit.SECONDS.toMillis(30));
+				assertFalse(writer.isAlive());
+			}
+
+			assertEquals(NUM_COPIES + numThreads + 1, store.getBooks().get(0).getNumCopies());
+		} finally {
+			store.close();
+		}
+	}
+
+	/**
+	 * Tests that flat-combining writers waiting on their slots all complete,
+	 * while the combiners apply writes failing with an error alongside them.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testFlatCombiningFailuresWakeWriters() throws Exception {
+		FlatCombiningConcurrentCertainBookStore store = new FlatCombiningConcurrentCertainBookStore();
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getDefaultBook());
+		store.addBooks(booksToAdd);
+
+		int numThreads = 8;
+		int numWrites = 2000;
+		AtomicInteger errors = new AtomicInteger();
+		List<Thread> writers = new ArrayList<>();
+
+		Set<StockBook> failingBooks = new HashSet<StockBook>() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public Iterator<StockBook> iterator() {
+				throw new AssertionError("The combiner must survive this");
+			}
+		};
+
+		Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+		copiesToAdd.add(new BookCopy(TEST_ISBN, 1));
+
+		for (int i = 0; i < numThreads; i++) {
+			Thread writer = new Thread(() -> {
+				for (int j = 0; j < numWrites; j++) {
+					try {
+						if (j % 2 == 0) {
+							store.addBooks(failingBooks);
+						} else {
+							store.addCopies(copiesToAdd);
+						}
+					} catch (AssertionError ex) {
+						errors.incrementAndGet();
+					} catch (BookStoreException ex) {
+						throw new IllegalStateException(ex);
+					}
+				}
+			});
+
+			writers.add(writer);
+			writer.start();
+		}
+
+		for (Thread writer : writers) {
+			writer.join(TimeUnit.SECONDS.toMillis(30));
+			assertFalse(writer.isAlive());
+		}
+
+		assertEquals(numThreads * numWrites / 2, errors.get());
+		assertEquals(NUM_COPIES + numThreads * numWrites / 2, store.getBooks().get(0).getNumCopies());
+	}
+
 	/**
 	 * Tear down after class.
 	 *
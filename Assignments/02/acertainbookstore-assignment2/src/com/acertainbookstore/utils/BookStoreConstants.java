@@ -54,12 +54,24 @@ public final class BookStoreConstants {
 	/** The Constant NULL_INPUT. */
 	public static final String NULL_INPUT = "null input parameters";
 
+	/** The Constant CLOSED when a write is sent to a closed store. */
+	public static final String CLOSED = "The store is closed";
+
 	/** The Constant PROPERTY_KEY_LOCAL_TEST. */
 	public static final String PROPERTY_KEY_LOCAL_TEST = "localtest";
 	
 	/** The Constant PROPERTY_KEY_SINGLE_LOCK. */
 	public static final String PROPERTY_KEY_SINGLE_LOCK = "singlelock";
 
+	/** The Constant PROPERTY_KEY_MULTI_VERSION. */
+	public static final String PROPERTY_KEY_MULTI_VERSION = "multiversion";
+
+	/** The Constant PROPERTY_KEY_FLAT_COMBINING. */
+	public static final String PROPERTY_KEY_FLAT_COMBINING = "flatcombining";
+
+	/** The Constant PROPERTY_KEY_SINGLE_WRITER. */
+	public static final String PROPERTY_KEY_SINGLE_WRITER = "singlewriter";
+
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
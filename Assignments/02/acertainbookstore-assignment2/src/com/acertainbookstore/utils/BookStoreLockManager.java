@@ -0,0 +1,131 @@
+package com.acertainbookstore.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link BookStoreLockManager} manages the per-ISBN read/write locks used by
+ * the two-level locking bookstore.
+ * <p>
+ * The lock table is a {@link ConcurrentMap}, so looking up the lock of a book
+ * never goes through a global critical section. Locks on a set of ISBNs are
+ * always acquired in ascending ISBN order, which rules out deadlocks between
+ * transactions that lock overlapping sets of books.
+ * <p>
+ * The ISBNs are passed as an {@link IntList}, which the lock methods sort in
+ * place into the acquisition order, so locking a set of books does not box
+ * or copy its ISBNs.
+ */
+public class BookStoreLockManager {
+
+	/** The mapping of books from ISBN to their {@link ReadWriteLock}. */
+	private final ConcurrentMap<Integer, ReadWriteLock> lockTable = new ConcurrentHashMap<>();
+
+	/**
+	 * Acquires the read locks of the given ISBNs in ascending ISBN order. The
+	 * ISBNs are sorted and made distinct in place.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 */
+	public void readLock(IntList isbns) {
+		isbns.sortDistinct();
+
+		for (int i = 0; i < isbns.size(); i++) {
+			getLock(isbns.get(i)).readLock().lock();
+		}
+	}
+
+	/**
+	 * Releases the read locks of the given ISBNs, which must be the list
+	 * passed to {@link #readLock(IntList)}.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 */
+	public void readUnlock(IntList isbns) {
+		for (int i = isbns.size() - 1; i >= 0; i--) {
+			getLock(isbns.get(i)).readLock().unlock();
+		}
+	}
+
+	/**
+	 * Acquires the write locks of the given ISBNs in ascending ISBN order. The
+	 * ISBNs are sorted and made distinct in place.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 */
+	public void writeLock(IntList isbns) {
+		isbns.sortDistinct();
+
+		for (int i = 0; i < isbns.size(); i++) {
+			getLock(isbns.get(i)).writeLock().lock();
+		}
+	}
+
+	/**
+	 * Releases the write locks of the given ISBNs, which must be the list
+	 * passed to {@link #writeLock(IntList)}.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 */
+	public void writeUnlock(IntList isbns) {
+		for (int i = isbns.size() - 1; i >= 0; i--) {
+			getLock(isbns.get(i)).writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Creates the locks of newly added books.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 */
+	public void addLocks(IntList isbns) {
+		for (int i = 0; i < isbns.size(); i++) {
+			lockTable.putIfAbsent(isbns.get(i), new ReentrantReadWriteLock(true));
+		}
+	}
+
+	/**
+	 * Deletes the locks of removed books. The caller must make sure that no
+	 * other transaction holds or waits for these locks.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 */
+	public void deleteLocks(IntList isbns) {
+		for (int i = 0; i < isbns.size(); i++) {
+			lockTable.remove(isbns.get(i));
+		}
+	}
+
+	/**
+	 * Deletes all the locks. The caller must make sure that no other
+	 * transaction holds or waits for any lock.
+	 */
+	public void deleteAllLocks() {
+		lockTable.clear();
+	}
+
+	/**
+	 * Gets the lock of the book, creating it if the book has none yet.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the lock
+	 */
+	private ReadWriteLock getLock(int isbn) {
+		ReadWriteLock lock = lockTable.get(isbn);
+
+		if (lock == null) {
+			lock = lockTable.computeIfAbsent(isbn, key -> new ReentrantReadWriteLock(true));
+		}
+
+		return lock;
+	}
+}
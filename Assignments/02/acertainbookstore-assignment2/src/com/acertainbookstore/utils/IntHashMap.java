@@ -0,0 +1,299 @@
+package com.acertainbookstore.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link IntHashMap} is a hash map from primitive int keys to objects, used
+ * for the book catalog so that looking up an ISBN never boxes it.
+ * <p>
+ * The map uses open addressing with linear probing over two parallel arrays,
+ * and removes entries by shifting the following entries back, so lookups
+ * never walk over deleted slots. Null values are not allowed. The map is not
+ * synchronized.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public class IntHashMap<V> {
+
+	/** The default initial capacity, must be a power of two. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** The keys of the occupied slots. */
+	private int[] keys;
+
+	/** The values of the slots, null for free slots. */
+	private Object[] values;
+
+	/** The number of entries. */
+	private int size;
+
+	/**
+	 * Instantiates a new, empty {@link IntHashMap}.
+	 */
+	public IntHashMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link IntHashMap} that holds the expected number of
+	 * entries without resizing.
+	 *
+	 * @param expectedSize
+	 *            the expected number of entries
+	 */
+	public IntHashMap(int expectedSize) {
+		allocate(capacityFor(expectedSize));
+	}
+
+	/**
+	 * Instantiates a new {@link IntHashMap} holding the same entries as
+	 * another one.
+	 *
+	 * @param mapToCopy
+	 *            the map to copy
+	 */
+	public IntHashMap(IntHashMap<V> mapToCopy) {
+		keys = mapToCopy.keys.clone();
+		values = mapToCopy.values.clone();
+		size = mapToCopy.size;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 *
+	 * @return true, if the map is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Checks if the map contains the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the map contains the key
+	 */
+	public boolean containsKey(int key) {
+		return values[slotOf(key)] != null;
+	}
+
+	/**
+	 * Gets the value of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the map does not contain the key
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		return (V) values[slotOf(key)];
+	}
+
+	/**
+	 * Associates the value with the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, must not be null
+	 * @return the previous value of the key, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException("value");
+		}
+
+		int slot = slotOf(key);
+		V previous = (V) values[slot];
+
+		if (previous == null) {
+			// Keep at most half of the slots occupied so probes stay short.
+			if ((size + 1) << 1 > keys.length) {
+				resize(keys.length << 1);
+				slot = slotOf(key);
+			}
+
+			keys[slot] = key;
+			size++;
+		}
+
+		values[slot] = value;
+		return previous;
+	}
+
+	/**
+	 * Removes the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value of the key, or null if the map did not contain it
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int slot = slotOf(key);
+		V previous = (V) values[slot];
+
+		if (previous == null) {
+			return null;
+		}
+
+		// Shift back the entries of the probe sequence that follow the hole.
+		int mask = keys.length - 1;
+		int hole = slot;
+		int next = (hole + 1) & mask;
+
+		while (values[next] != null) {
+			int home = hash(keys[next]) & mask;
+
+			// Move the entry if its home slot is not between the hole and it.
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+
+			next = (next + 1) & mask;
+		}
+
+		values[hole] = null;
+		size--;
+		return previous;
+	}
+
+	/**
+	 * Removes all the entries.
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/**
+	 * Gets the keys of the map, in no particular order.
+	 *
+	 * @return the keys
+	 */
+	public IntList keys() {
+		IntList keyList = new IntList(size);
+
+		for (int slot = 0; slot < values.length; slot++) {
+			if (values[slot] != null) {
+				keyList.add(keys[slot]);
+			}
+		}
+
+		return keyList;
+	}
+
+	/**
+	 * Gets the values of the map, in no particular order.
+	 *
+	 * @return the values
+	 */
+	@SuppressWarnings("unchecked")
+	public List<V> values() {
+		List<V> valueList = new ArrayList<>(size);
+
+		for (Object value : values) {
+			if (value != null) {
+				valueList.add((V) value);
+			}
+		}
+
+		return valueList;
+	}
+
+	/**
+	 * Finds the slot of the key, which is either the slot holding the key or
+	 * the free slot where it would be inserted.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the slot
+	 */
+	private int slotOf(int key) {
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+
+		while (values[slot] != null && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Rehashes all the entries into new arrays of the given capacity.
+	 *
+	 * @param capacity
+	 *            the new capacity, must be a power of two
+	 */
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+
+		for (int slot = 0; slot < oldValues.length; slot++) {
+			if (oldValues[slot] != null) {
+				int newSlot = slotOf(oldKeys[slot]);
+				keys[newSlot] = oldKeys[slot];
+				values[newSlot] = oldValues[slot];
+			}
+		}
+	}
+
+	/**
+	 * Allocates empty arrays of the given capacity.
+	 *
+	 * @param capacity
+	 *            the capacity, must be a power of two
+	 */
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+	}
+
+	/**
+	 * Gets the smallest power of two capacity that holds the expected number
+	 * of entries at the maximum load.
+	 *
+	 * @param expectedSize
+	 *            the expected number of entries
+	 * @return the capacity
+	 */
+	private static int capacityFor(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+
+		while (capacity < expectedSize << 1) {
+			capacity <<= 1;
+		}
+
+		return capacity;
+	}
+
+	/**
+	 * Spreads the bits of the key, since ISBNs are often consecutive.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the hash
+	 */
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,92 @@
+package com.acertainbookstore.utils;
+
+import java.util.Arrays;
+
+/**
+ * {@link IntList} is a growable list of primitive ints, used to collect the
+ * ISBNs of a request without boxing them. The list is not synchronized.
+ */
+public class IntList {
+
+	/** The default initial capacity. */
+	private static final int DEFAULT_CAPACITY = 8;
+
+	/** The elements, only the first size of which are used. */
+	private int[] elements;
+
+	/** The number of elements. */
+	private int size;
+
+	/**
+	 * Instantiates a new, empty {@link IntList}.
+	 */
+	public IntList() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new, empty {@link IntList} that holds the expected number
+	 * of elements without growing.
+	 *
+	 * @param expectedSize
+	 *            the expected number of elements
+	 */
+	public IntList(int expectedSize) {
+		elements = new int[Math.max(expectedSize, 1)];
+	}
+
+	/**
+	 * Gets the number of elements.
+	 *
+	 * @return the number of elements
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the element at the given index.
+	 *
+	 * @param index
+	 *            the index
+	 * @return the element
+	 */
+	public int get(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("index = " + index + ", size = " + size);
+		}
+
+		return elements[index];
+	}
+
+	/**
+	 * Appends the element.
+	 *
+	 * @param element
+	 *            the element
+	 */
+	public void add(int element) {
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, size << 1);
+		}
+
+		elements[size++] = element;
+	}
+
+	/**
+	 * Sorts the elements in ascending order and drops the duplicates.
+	 */
+	public void sortDistinct() {
+		Arrays.sort(elements, 0, size);
+
+		int distinct = 0;
+
+		for (int i = 0; i < size; i++) {
+			if (distinct == 0 || elements[distinct - 1] != elements[i]) {
+				elements[distinct++] = elements[i];
+			}
+		}
+
+		size = distinct;
+	}
+}
@@ -215,6 +215,20 @@ public class BookStoreBook extends ImmutableBook {
 		}
 	}
 
+	/**
+	 * Returns reserved copies to the stock. Unlike
+	 * {@link #addCopies(int)}, the sale misses are kept, since the copies
+	 * were never sold.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	public void releaseCopies(int numCopies) {
+		if (!BookStoreUtility.isInvalidNoCopies(numCopies)) {
+			this.numCopies += numCopies;
+		}
+	}
+
 	/**
 	 * Increments the amount of missed sales of the book.
 	 * 
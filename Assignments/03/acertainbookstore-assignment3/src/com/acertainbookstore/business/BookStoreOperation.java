@@ -0,0 +1,131 @@
+package com.acertainbookstore.business;
+
+import java.util.Set;
+
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link BookStoreOperation} is one operation of a batch executed atomically
+ * by a bookstore server in a single request. It is named by the
+ * {@link BookStoreMessageTag} of the equivalent request, and carries the same
+ * argument.
+ */
+public final class BookStoreOperation {
+
+	/** The tag of the operation. */
+	private final BookStoreMessageTag tag;
+
+	/** The argument of the operation. */
+	private final Object argument;
+
+	/**
+	 * Instantiates a new {@link BookStoreOperation}.
+	 *
+	 * @param tag
+	 *            the tag of the operation
+	 * @param argument
+	 *            the argument of the operation
+	 */
+	public BookStoreOperation(BookStoreMessageTag tag, Object argument) {
+		this.tag = tag;
+		this.argument = argument;
+	}
+
+	/**
+	 * Creates an operation getting books.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs of the books
+	 * @return the operation
+	 */
+	public static BookStoreOperation getBooks(Set<Integer> isbnSet) {
+		return new BookStoreOperation(BookStoreMessageTag.GETBOOKS, isbnSet);
+	}
+
+	/**
+	 * Creates an operation getting stock books.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs of the books
+	 * @return the operation
+	 */
+	public static BookStoreOperation getBooksByISBN(Set<Integer> isbnSet) {
+		return new BookStoreOperation(BookStoreMessageTag.GETSTOCKBOOKSBYISBN, isbnSet);
+	}
+
+	/**
+	 * Creates an operation getting random editor picks.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the operation
+	 */
+	public static BookStoreOperation getEditorPicks(int numBooks) {
+		return new BookStoreOperation(BookStoreMessageTag.GETEDITORPICKS, numBooks);
+	}
+
+	/**
+	 * Creates an operation buying books.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the copies to buy
+	 * @return the operation
+	 */
+	public static BookStoreOperation buyBooks(Set<BookCopy> bookCopiesToBuy) {
+		return new BookStoreOperation(BookStoreMessageTag.BUYBOOKS, bookCopiesToBuy);
+	}
+
+	/**
+	 * Creates an operation buying copies of books drawn at random from the
+	 * books returned by the previous operation of the batch.
+	 *
+	 * @param numBooks
+	 *            the number of books to draw
+	 * @param numCopies
+	 *            the number of copies to buy of every book
+	 * @return the operation
+	 */
+	public static BookStoreOperation buyBooksFromPrevious(int numBooks, int numCopies) {
+		return new BookStoreOperation(BookStoreMessageTag.BUYBOOKS, new SampledPurchase(numBooks, numCopies));
+	}
+
+	/**
+	 * Creates an operation adding copies of books.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies to add
+	 * @return the operation
+	 */
+	public static BookStoreOperation addCopies(Set<BookCopy> bookCopiesSet) {
+		return new BookStoreOperation(BookStoreMessageTag.ADDCOPIES, bookCopiesSet);
+	}
+
+	/**
+	 * Creates an operation updating editor picks.
+	 *
+	 * @param editorPicks
+	 *            the editor picks
+	 * @return the operation
+	 */
+	public static BookStoreOperation updateEditorPicks(Set<BookEditorPick> editorPicks) {
+		return new BookStoreOperation(BookStoreMessageTag.UPDATEEDITORPICKS, editorPicks);
+	}
+
+	/**
+	 * Gets the tag of the operation.
+	 *
+	 * @return the tag
+	 */
+	public BookStoreMessageTag getTag() {
+		return tag;
+	}
+
+	/**
+	 * Gets the argument of the operation.
+	 *
+	 * @return the argument
+	 */
+	public Object getArgument() {
+		return argument;
+	}
+}
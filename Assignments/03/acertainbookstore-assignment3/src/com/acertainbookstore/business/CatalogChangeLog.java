@@ -0,0 +1,130 @@
+package com.acertainbookstore.business;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link CatalogChangeLog} numbers the changes of the books of a store with a
+ * version, so that a client holding a copy of the catalog at some version can
+ * fetch only the books changed since then.
+ * <p>
+ * Every change of a book takes the next version and writes the ISBN of the
+ * book in a ring of the last {@link BookStoreConstants#CHANGE_LOG_CAPACITY}
+ * changes, in constant time. A version older than the ring, or older than the
+ * last reset of the log, is no longer covered and its client must reload the
+ * whole catalog. Versions are tokens carrying the random epoch of the log, so
+ * that a token of another store, or of an earlier run of the same store, is
+ * never mistaken for a version of this one.
+ * <p>
+ * The log is not synchronized: the store must only use it while holding its
+ * lock.
+ */
+public class CatalogChangeLog {
+
+	/** The mask of the positions in the ring, whose size is a power of two. */
+	private static final int MASK = BookStoreConstants.CHANGE_LOG_CAPACITY - 1;
+
+	/** The ISBNs of the last changes, indexed by version. */
+	private final int[] changedISBNs = new int[BookStoreConstants.CHANGE_LOG_CAPACITY];
+
+	/** The epoch of the log. */
+	private final long epoch = ThreadLocalRandom.current().nextLong();
+
+	/** The version of the last change, read without the lock of the store. */
+	private volatile long version = 0;
+
+	/** The version of the last reset, before which no change is kept. */
+	private long resetVersion = 0;
+
+	/**
+	 * Records a change of a book, added, updated or removed.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	public void record(int isbn) {
+		version++;
+		changedISBNs[(int) version & MASK] = isbn;
+	}
+
+	/**
+	 * Forgets the changes, when every book of the store changes at once.
+	 */
+	public void reset() {
+		version++;
+		resetVersion = version;
+	}
+
+	/**
+	 * Gets the current version, which only grows.
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the token of the current version.
+	 *
+	 * @return the token
+	 */
+	public String getToken() {
+		return Long.toHexString(epoch) + ":" + version;
+	}
+
+	/**
+	 * Gets the version of a token, if the changes since that version are still
+	 * kept.
+	 *
+	 * @param token
+	 *            the token, null if the client has no copy of the catalog
+	 * @return the version, or -1 if the client must reload the catalog
+	 * @throws BookStoreException
+	 *             if the token was not returned by a change log
+	 */
+	public long versionOf(String token) throws BookStoreException {
+		if (token == null) {
+			return -1;
+		}
+
+		int separator = token.indexOf(':');
+		long tokenEpoch;
+		long tokenVersion;
+
+		try {
+			tokenEpoch = Long.parseUnsignedLong(token.substring(0, Math.max(separator, 0)), 16);
+			tokenVersion = Long.parseLong(token.substring(separator + 1));
+		} catch (NumberFormatException ex) {
+			throw new BookStoreException(BookStoreConstants.CHANGES_TOKEN + token + BookStoreConstants.INVALID, ex);
+		}
+
+		if (tokenEpoch != epoch || tokenVersion < resetVersion
+				|| tokenVersion < version - BookStoreConstants.CHANGE_LOG_CAPACITY || tokenVersion > version) {
+			return -1;
+		}
+
+		return tokenVersion;
+	}
+
+	/**
+	 * Gets the ISBNs of the books changed since a version covered by the log.
+	 *
+	 * @param sinceVersion
+	 *            the version, as returned by {@link #versionOf(String)}
+	 * @return the ISBNs, each once, in the order of their first change
+	 */
+	public Set<Integer> changedSince(long sinceVersion) {
+		Set<Integer> isbns = new LinkedHashSet<>();
+
+		for (long changeVersion = sinceVersion + 1; changeVersion <= version; changeVersion++) {
+			isbns.add(changedISBNs[(int) changeVersion & MASK]);
+		}
+
+		return isbns;
+	}
+}
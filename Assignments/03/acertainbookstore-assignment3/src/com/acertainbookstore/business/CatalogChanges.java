@@ -0,0 +1,84 @@
+package com.acertainbookstore.business;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link CatalogChanges} is the delta bringing a copy of the catalog of a store
+ * from a version to the current one: the books added or updated since then,
+ * and the ISBNs of the books removed since then.
+ * <p>
+ * When the store no longer keeps the changes since the version of the client,
+ * the delta is a reset holding the whole catalog, which replaces the copy of
+ * the client.
+ */
+public final class CatalogChanges {
+
+	/** The books added or updated, or every book for a reset. */
+	private final List<StockBook> books;
+
+	/** The ISBNs of the books removed, empty for a reset. */
+	private final Set<Integer> removedISBNs;
+
+	/** Whether the books replace the copy of the client. */
+	private final boolean reset;
+
+	/** The token of the version reached by the delta. */
+	private final String token;
+
+	/**
+	 * Instantiates a new {@link CatalogChanges}.
+	 *
+	 * @param books
+	 *            the books added or updated, or every book for a reset
+	 * @param removedISBNs
+	 *            the ISBNs of the books removed
+	 * @param reset
+	 *            whether the books replace the copy of the client
+	 * @param token
+	 *            the token of the version reached by the delta
+	 */
+	public CatalogChanges(List<StockBook> books, Set<Integer> removedISBNs, boolean reset, String token) {
+		this.books = books;
+		this.removedISBNs = removedISBNs;
+		this.reset = reset;
+		this.token = token;
+	}
+
+	/**
+	 * Gets the books added or updated, or every book for a reset.
+	 *
+	 * @return the books
+	 */
+	public List<StockBook> getBooks() {
+		return books;
+	}
+
+	/**
+	 * Gets the ISBNs of the books removed.
+	 *
+	 * @return the ISBNs
+	 */
+	public Set<Integer> getRemovedISBNs() {
+		return removedISBNs;
+	}
+
+	/**
+	 * Checks whether the books replace the copy of the client.
+	 *
+	 * @return true, if the delta is a reset
+	 */
+	public boolean isReset() {
+		return reset;
+	}
+
+	/**
+	 * Gets the token of the version reached by the delta, to pass to the next
+	 * request for changes.
+	 *
+	 * @return the token
+	 */
+	public String getToken() {
+		return token;
+	}
+}
@@ -0,0 +1,364 @@
+package com.acertainbookstore.business;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * {@link CatalogCheckpoint} is a compact binary image of the catalog of a book
+ * store, with the copies, ratings, sale misses and editor-pick flag of every
+ * book and the purchases waiting for the decision of their coordinator,
+ * together with the position in the {@link WriteAheadLog} where replay
+ * continues after the image is loaded.
+ * <p>
+ * Checkpoints are written and read through memory-mapped files, so the books
+ * are copied straight between the page cache and the heap. A checkpoint is
+ * written to a temporary file, forced to disk and then renamed over the
+ * previous one, so a crash while writing leaves the previous checkpoint
+ * intact. The directory is forced after the rename, so the new checkpoint
+ * survives a crash once it is written. The header holds a CRC32 checksum of
+ * the books, which is verified when the checkpoint is read.
+ */
+public final class CatalogCheckpoint {
+
+	/** The magic number at the start of a checkpoint file. */
+	private static final int MAGIC = 0x42534350;
+
+	/** The version of the file format. */
+	private static final int VERSION = 2;
+
+	/**
+	 * The size of the header: the magic number, the version, the log position,
+	 * the number of books and the checksum.
+	 */
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+
+	/**
+	 * The size of the fixed fields of a book: the ISBN, the price, the number
+	 * of copies, the sale misses, the ratings, the editor-pick flag and the
+	 * lengths of the title and author.
+	 */
+	private static final int BOOK_FIXED_SIZE = 4 + 4 + 4 + 8 + 8 + 8 + 1 + 4 + 4;
+
+	/**
+	 * The size of the fixed fields of a prepared purchase: the length of the
+	 * identifier and the numbers of reserved and missing copies.
+	 */
+	private static final int PURCHASE_FIXED_SIZE = 4 + 4 + 4;
+
+	/** The size of a copy: the ISBN and the number of copies. */
+	private static final int COPY_SIZE = 4 + 4;
+
+	/** The position in the write-ahead log. */
+	private final long logPosition;
+
+	/** The books. */
+	private final List<StockBook> books;
+
+	/** The prepared purchases. */
+	private final List<PreparedPurchase> preparedPurchases;
+
+	/**
+	 * Instantiates a new {@link CatalogCheckpoint}.
+	 *
+	 * @param logPosition
+	 *            the position in the write-ahead log
+	 * @param books
+	 *            the books
+	 * @param preparedPurchases
+	 *            the prepared purchases
+	 */
+	private CatalogCheckpoint(long logPosition, List<StockBook> books, List<PreparedPurchase> preparedPurchases) {
+		this.logPosition = logPosition;
+		this.books = books;
+		this.preparedPurchases = preparedPurchases;
+	}
+
+	/**
+	 * Gets the position in the write-ahead log where replay continues.
+	 *
+	 * @return the log position
+	 */
+	public long getLogPosition() {
+		return logPosition;
+	}
+
+	/**
+	 * Gets the books.
+	 *
+	 * @return the books
+	 */
+	public List<StockBook> getBooks() {
+		return books;
+	}
+
+	/**
+	 * Gets the purchases waiting for a decision.
+	 *
+	 * @return the prepared purchases
+	 */
+	List<PreparedPurchase> getPreparedPurchases() {
+		return preparedPurchases;
+	}
+
+	/**
+	 * Writes a checkpoint of the books, replacing the previous checkpoint in
+	 * the file.
+	 *
+	 * @param file
+	 *            the checkpoint file
+	 * @param logPosition
+	 *            the position in the write-ahead log after the last mutation
+	 *            included in the books
+	 * @param books
+	 *            the books
+	 * @param preparedPurchases
+	 *            the purchases waiting for a decision
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static void write(Path file, long logPosition, List<StockBook> books, List<PreparedPurchase> preparedPurchases)
+			throws IOException {
+		int numBooks = books.size();
+		byte[][] titles = new byte[numBooks][];
+		byte[][] authors = new byte[numBooks][];
+		long size = HEADER_SIZE;
+
+		for (int i = 0; i < numBooks; i++) {
+			StockBook book = books.get(i);
+			titles[i] = book.getTitle().getBytes(StandardCharsets.UTF_8);
+			authors[i] = book.getAuthor().getBytes(StandardCharsets.UTF_8);
+			size += BOOK_FIXED_SIZE + titles[i].length + authors[i].length;
+		}
+
+		int numPurchases = preparedPurchases.size();
+		byte[][] transactionIds = new byte[numPurchases][];
+		size += 4;
+
+		for (int i = 0; i < numPurchases; i++) {
+			PreparedPurchase purchase = preparedPurchases.get(i);
+			transactionIds[i] = purchase.getTransactionId().getBytes(StandardCharsets.UTF_8);
+			size += PURCHASE_FIXED_SIZE + transactionIds[i].length
+					+ COPY_SIZE * (purchase.getReservedCopies().size() + purchase.getMissingCopies().size());
+		}
+
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("The catalog is too large for a checkpoint: " + size + " bytes");
+		}
+
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.position(HEADER_SIZE);
+
+			for (int i = 0; i < numBooks; i++) {
+				StockBook book = books.get(i);
+				buffer.putInt(book.getISBN());
+				buffer.putFloat(book.getPrice());
+				buffer.putInt(book.getNumCopies());
+				buffer.putLong(book.getNumSaleMisses());
+				buffer.putLong(book.getNumTimesRated());
+				buffer.putLong(book.getTotalRating());
+				buffer.put(book.isEditorPick() ? (byte) 1 : (byte) 0);
+				buffer.putInt(titles[i].length);
+				buffer.put(titles[i]);
+				buffer.putInt(authors[i].length);
+				buffer.put(authors[i]);
+			}
+
+			buffer.putInt(numPurchases);
+
+			for (int i = 0; i < numPurchases; i++) {
+				PreparedPurchase purchase = preparedPurchases.get(i);
+				buffer.putInt(transactionIds[i].length);
+				buffer.put(transactionIds[i]);
+				writeCopies(buffer, purchase.getReservedCopies());
+				writeCopies(buffer, purchase.getMissingCopies());
+			}
+
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putLong(8, logPosition);
+			buffer.putInt(16, numBooks);
+			buffer.putInt(20, checksum(buffer));
+			buffer.force();
+		}
+
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		// The rename is only durable once the directory entry is on disk.
+		try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+			directory.force(true);
+		}
+	}
+
+	/**
+	 * Reads the checkpoint in the file.
+	 *
+	 * @param file
+	 *            the checkpoint file
+	 * @return the checkpoint
+	 * @throws IOException
+	 *             if the file cannot be read or is not a valid checkpoint
+	 */
+	static CatalogCheckpoint read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+
+			if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+				throw new IOException("Invalid checkpoint " + file);
+			}
+
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), file.toString());
+		}
+	}
+
+	/**
+	 * Reads a checkpoint from the content of a checkpoint file, such as the
+	 * one a backup receives from its primary in a {@link LogSegment}.
+	 *
+	 * @param image
+	 *            the content of the checkpoint file
+	 * @return the checkpoint
+	 * @throws IOException
+	 *             if the content is not a valid checkpoint
+	 */
+	static CatalogCheckpoint read(byte[] image) throws IOException {
+		if (image.length < HEADER_SIZE) {
+			throw new IOException("Invalid checkpoint image");
+		}
+
+		try {
+			return read(ByteBuffer.wrap(image), "image");
+		} catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException ex) {
+			throw new IOException("Invalid checkpoint image", ex);
+		}
+	}
+
+	/**
+	 * Reads a checkpoint from a buffer.
+	 *
+	 * @param buffer
+	 *            the buffer holding the checkpoint
+	 * @param name
+	 *            the name of the checkpoint, for the error messages
+	 * @return the checkpoint
+	 * @throws IOException
+	 *             if the buffer does not hold a valid checkpoint
+	 */
+	private static CatalogCheckpoint read(ByteBuffer buffer, String name) throws IOException {
+		int version = buffer.getInt(4);
+
+		if (buffer.getInt(0) != MAGIC || version != VERSION || buffer.getInt(20) != checksum(buffer)) {
+			throw new IOException("Invalid checkpoint " + name);
+		}
+
+		long logPosition = buffer.getLong(8);
+		int numBooks = buffer.getInt(16);
+		List<StockBook> books = new ArrayList<>(numBooks);
+		buffer.position(HEADER_SIZE);
+
+		for (int i = 0; i < numBooks; i++) {
+			int isbn = buffer.getInt();
+			float price = buffer.getFloat();
+			int numCopies = buffer.getInt();
+			long numSaleMisses = buffer.getLong();
+			long numTimesRated = buffer.getLong();
+			long totalRating = buffer.getLong();
+			boolean editorPick = buffer.get() != 0;
+			String title = readString(buffer);
+			String author = readString(buffer);
+
+			books.add(new ImmutableStockBook(isbn, title, author, price, numCopies, numSaleMisses, numTimesRated,
+					totalRating, editorPick));
+		}
+
+		int numPurchases = buffer.getInt();
+		List<PreparedPurchase> preparedPurchases = new ArrayList<>(numPurchases);
+
+		for (int i = 0; i < numPurchases; i++) {
+			String transactionId = readString(buffer);
+			List<BookCopy> reservedCopies = readCopies(buffer);
+			List<BookCopy> missingCopies = readCopies(buffer);
+			preparedPurchases.add(new PreparedPurchase(transactionId, reservedCopies, missingCopies));
+		}
+
+		return new CatalogCheckpoint(logPosition, books, preparedPurchases);
+	}
+
+	/**
+	 * Computes the checksum of the books in the buffer.
+	 *
+	 * @param buffer
+	 *            the buffer holding the checkpoint
+	 * @return the checksum
+	 */
+	private static int checksum(ByteBuffer buffer) {
+		CRC32 crc = new CRC32();
+		ByteBuffer body = buffer.duplicate();
+		body.position(HEADER_SIZE);
+		crc.update(body);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Writes a list of copies prefixed by its size.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param copies
+	 *            the copies
+	 */
+	private static void writeCopies(MappedByteBuffer buffer, List<BookCopy> copies) {
+		buffer.putInt(copies.size());
+
+		for (BookCopy copy : copies) {
+			buffer.putInt(copy.getISBN());
+			buffer.putInt(copy.getNumCopies());
+		}
+	}
+
+	/**
+	 * Reads a list of copies prefixed by its size.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @return the copies
+	 */
+	private static List<BookCopy> readCopies(ByteBuffer buffer) {
+		int numCopies = buffer.getInt();
+		List<BookCopy> copies = new ArrayList<>(numCopies);
+
+		for (int i = 0; i < numCopies; i++) {
+			int isbn = buffer.getInt();
+			copies.add(new BookCopy(isbn, buffer.getInt()));
+		}
+
+		return copies;
+	}
+
+	/**
+	 * Reads a string prefixed by its length in bytes.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @return the string
+	 */
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,92 @@
+package com.acertainbookstore.business;
+
+import java.util.List;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link CatalogPage} is a page of the books of a store, in ISBN order, with
+ * the token continuing the listing after its last book.
+ * <p>
+ * The token names the last ISBN of the page rather than an offset, so that a
+ * walk over the catalog neither skips nor repeats books that stay in the store
+ * while other books are added or removed between its pages.
+ */
+public final class CatalogPage {
+
+	/** The books of the page, in ISBN order. */
+	private final List<StockBook> books;
+
+	/** The token of the next page, null if this page is the last one. */
+	private final String nextPageToken;
+
+	/**
+	 * Instantiates a new {@link CatalogPage}.
+	 *
+	 * @param books
+	 *            the books, in ISBN order
+	 * @param nextPageToken
+	 *            the token of the next page, null if this page is the last one
+	 */
+	public CatalogPage(List<StockBook> books, String nextPageToken) {
+		this.books = books;
+		this.nextPageToken = nextPageToken;
+	}
+
+	/**
+	 * Gets the books of the page, in ISBN order.
+	 *
+	 * @return the books
+	 */
+	public List<StockBook> getBooks() {
+		return books;
+	}
+
+	/**
+	 * Gets the token of the next page.
+	 *
+	 * @return the token, null if this page is the last one
+	 */
+	public String getNextPageToken() {
+		return nextPageToken;
+	}
+
+	/**
+	 * Gets the token of the page starting after a book.
+	 *
+	 * @param isbn
+	 *            the ISBN of the last book of the previous page
+	 * @return the token
+	 */
+	public static String tokenAfter(int isbn) {
+		return Integer.toString(isbn);
+	}
+
+	/**
+	 * Gets the ISBN after which the page of a token starts.
+	 *
+	 * @param pageToken
+	 *            the token, null for the first page
+	 * @return the ISBN, 0 for the first page
+	 * @throws BookStoreException
+	 *             if the token was not returned by a page
+	 */
+	public static int isbnBefore(String pageToken) throws BookStoreException {
+		if (pageToken == null) {
+			return 0;
+		}
+
+		try {
+			int isbn = Integer.parseInt(pageToken);
+
+			if (isbn >= 0) {
+				return isbn;
+			}
+		} catch (NumberFormatException ex) {
+			// Reported below, as any other malformed token
+		}
+
+		throw new BookStoreException(BookStoreConstants.PAGE_TOKEN + pageToken + BookStoreConstants.INVALID);
+	}
+}
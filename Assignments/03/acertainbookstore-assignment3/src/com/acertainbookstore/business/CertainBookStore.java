@@ -1,35 +1,92 @@
 package com.acertainbookstore.business;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.OperationExecutor;
+import com.acertainbookstore.interfaces.PurchaseParticipant;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
- * {@link CertainBookStore} implements the {@link BookStore} and
- * {@link StockManager} functionalities.
+ * {@link CertainBookStore} implements the {@link BookStore},
+ * {@link StockManager}, {@link PurchaseParticipant} and
+ * {@link OperationExecutor} functionalities.
  * 
  * @see BookStore
  * @see StockManager
+ * @see PurchaseParticipant
+ * @see OperationExecutor
  */
-public class CertainBookStore implements BookStore, StockManager {
+public class CertainBookStore implements BookStore, StockManager, PurchaseParticipant, OperationExecutor {
+
+	/**
+	 * The number of books a snapshot copies each time it takes the monitor of
+	 * the store.
+	 */
+	private static final int SNAPSHOT_CHUNK_SIZE = 1024;
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
 	private Map<Integer, BookStoreBook> bookMap = null;
 
+	/**
+	 * The ISBNs of the books, in order, for listing the catalog page by page
+	 * while lookups stay on the hash map.
+	 */
+	private NavigableSet<Integer> isbnIndex = null;
+
+	/** The versions of the changes of the books. */
+	private CatalogChangeLog changeLog = null;
+
+	/** The books ordered by number of copies. */
+	private StockLevelIndex stockLevels = null;
+
+	/**
+	 * The version of the titles, authors and prices of the books, which only
+	 * change when books are added or removed. It starts at a random value so
+	 * that a version of an earlier run of the store is not mistaken for the
+	 * current one.
+	 */
+	private long catalogVersion = ThreadLocalRandom.current().nextLong();
+
+	/** The books that are editor picks. */
+	private EditorPickIndex<BookStoreBook> editorPicks = null;
+
+	/** The purchases waiting for the decision of their coordinator. */
+	private Map<String, PreparedPurchase> preparedPurchases = null;
+
+	/** Whether a record of a write-ahead log is being applied. */
+	private boolean applyingLog = false;
+
+	/**
+	 * The books of the snapshot being taken that changed since it started, as
+	 * they were when it started, or null for the books added since. It is null
+	 * when no snapshot is being taken.
+	 */
+	private Map<Integer, StockBook> snapshotBooks = null;
+
+	/** The last ISBN copied by the snapshot being taken. */
+	private int snapshotISBN = Integer.MIN_VALUE;
+
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
@@ -37,6 +94,41 @@ public class CertainBookStore implements BookStore, StockManager {
 
 		// Constructors are not synchronized
 		bookMap = new HashMap<>();
+		isbnIndex = new TreeSet<>();
+		changeLog = new CatalogChangeLog();
+		stockLevels = new StockLevelIndex();
+		editorPicks = new EditorPickIndex<>();
+		preparedPurchases = new HashMap<>();
+	}
+
+	/**
+	 * Replaces the books of the store with the given books, keeping their
+	 * copies, ratings, sale misses and editor-pick flags. The books are not
+	 * validated, so they must come from a consistent image of a store, such as
+	 * a {@link CatalogCheckpoint}.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	protected synchronized void loadBooks(Collection<StockBook> books) {
+		// Size the map up front so the bulk load never rehashes.
+		bookMap = new HashMap<>((int) (books.size() / 0.75f) + 1);
+		editorPicks.clear();
+		stockLevels.clear();
+
+		for (StockBook book : books) {
+			BookStoreBook bookStoreBook = new BookStoreBook(book);
+			bookMap.put(book.getISBN(), bookStoreBook);
+			stockLevels.add(book.getISBN(), book.getNumCopies());
+
+			if (bookStoreBook.isEditorPick()) {
+				editorPicks.add(bookStoreBook);
+			}
+		}
+
+		isbnIndex = new TreeSet<>(bookMap.keySet());
+		changeLog.reset();
+		catalogVersion++;
 	}
 	private synchronized void validate(StockBook book) throws BookStoreException {
 		int isbn = book.getISBN();
@@ -112,7 +204,17 @@ public class CertainBookStore implements BookStore, StockManager {
 
 		for (StockBook book : bookSet) {
 			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
+			BookStoreBook bookStoreBook = new BookStoreBook(book);
+			saveForSnapshot(isbn);
+			bookMap.put(isbn, bookStoreBook);
+			isbnIndex.add(isbn);
+			stockLevels.add(isbn, bookStoreBook.getNumCopies());
+			changeLog.record(isbn);
+			catalogVersion++;
+
+			if (bookStoreBook.isEditorPick()) {
+				editorPicks.add(bookStoreBook);
+			}
 		}
 	}
 
@@ -141,7 +243,11 @@ public class CertainBookStore implements BookStore, StockManager {
 			isbn = bookCopy.getISBN();
 			numCopies = bookCopy.getNumCopies();
 			book = bookMap.get(isbn);
+			saveForSnapshot(isbn);
+			int previousNumCopies = book.getNumCopies();
 			book.addCopies(numCopies);
+			stockLevels.update(isbn, previousNumCopies, book.getNumCopies());
+			changeLog.record(isbn);
 		}
 	}
 
@@ -150,7 +256,7 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
 	 */
-	public synchronized List<StockBook> getBooks() {
+	public synchronized List<StockBook> getBooks() throws BookStoreException {
 		Collection<BookStoreBook> bookMapValues = bookMap.values();
 
 		return bookMapValues.stream()
@@ -158,6 +264,86 @@ public class CertainBookStore implements BookStore, StockManager {
 				.collect(Collectors.toList());
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksPage(java.lang.
+	 * String, int)
+	 */
+	public synchronized CatalogPage getBooksPage(String pageToken, int pageSize) throws BookStoreException {
+		if (pageSize <= 0) {
+			throw new BookStoreException(BookStoreConstants.PAGE_SIZE + pageSize + BookStoreConstants.INVALID);
+		}
+
+		int afterISBN = CatalogPage.isbnBefore(pageToken);
+		int size = Math.min(pageSize, BookStoreConstants.MAX_CATALOG_PAGE_SIZE);
+		Iterator<Integer> isbns = isbnIndex.tailSet(afterISBN, false).iterator();
+		List<StockBook> books = new ArrayList<>(Math.min(size, isbnIndex.size()));
+
+		while (books.size() < size && isbns.hasNext()) {
+			books.add(bookMap.get(isbns.next()).immutableStockBook());
+		}
+
+		String nextPageToken = isbns.hasNext() ? CatalogPage.tokenAfter(books.get(books.size() - 1).getISBN()) : null;
+		return new CatalogPage(books, nextPageToken);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBookChanges(java.lang.
+	 * String)
+	 */
+	public synchronized CatalogChanges getBookChanges(String token) throws BookStoreException {
+		long sinceVersion = changeLog.versionOf(token);
+
+		if (sinceVersion < 0) {
+			return new CatalogChanges(getBooks(), new HashSet<>(), true, changeLog.getToken());
+		}
+
+		List<StockBook> books = new ArrayList<>();
+		Set<Integer> removedISBNs = new HashSet<>();
+
+		for (int isbn : changeLog.changedSince(sinceVersion)) {
+			BookStoreBook book = bookMap.get(isbn);
+
+			if (book != null) {
+				books.add(book.immutableStockBook());
+			} else {
+				removedISBNs.add(isbn);
+			}
+		}
+
+		return new CatalogChanges(books, removedISBNs, false, changeLog.getToken());
+	}
+
+	/**
+	 * Gets the version of the titles, authors and prices of the books, which
+	 * changes whenever books are added or removed, so that clients caching
+	 * books know when to drop them.
+	 *
+	 * @return the catalog version
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public synchronized long getCatalogVersion() throws BookStoreException {
+		return catalogVersion;
+	}
+
+	/**
+	 * Gets the version of the store, which changes at every write to a book,
+	 * without taking the lock of the store, so that responses computed at a
+	 * version can be reused until the next write.
+	 *
+	 * @return the store version
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public long getStoreVersion() throws BookStoreException {
+		return changeLog.getVersion();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -179,7 +365,16 @@ public class CertainBookStore implements BookStore, StockManager {
 		}
 
 		for (BookEditorPick editorPickArg : editorPicks) {
-			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+			saveForSnapshot(book.getISBN());
+			book.setEditorPick(editorPickArg.isEditorPick());
+			changeLog.record(book.getISBN());
+
+			if (editorPickArg.isEditorPick()) {
+				this.editorPicks.add(book);
+			} else {
+				this.editorPicks.remove(book.getISBN());
+			}
 		}
 	}
 
@@ -219,7 +414,9 @@ public class CertainBookStore implements BookStore, StockManager {
 		if (saleMiss) {
 			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
 				book = bookMap.get(saleMissEntry.getKey());
+				saveForSnapshot(book.getISBN());
 				book.addSaleMiss(saleMissEntry.getValue());
+				changeLog.record(book.getISBN());
 			}
 			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 		}
@@ -227,7 +424,11 @@ public class CertainBookStore implements BookStore, StockManager {
 		// Then make the purchase.
 		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
 			book = bookMap.get(bookCopyToBuy.getISBN());
+			saveForSnapshot(book.getISBN());
+			int previousNumCopies = book.getNumCopies();
 			book.buyCopies(bookCopyToBuy.getNumCopies());
+			stockLevels.update(book.getISBN(), previousNumCopies, book.getNumCopies());
+			changeLog.record(book.getISBN());
 		}
 	}
 
@@ -283,37 +484,37 @@ public class CertainBookStore implements BookStore, StockManager {
 			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 		}
 
-		// Query for all books with the Editor Pick boolean set.
-		List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-				.map(pair -> pair.getValue())
-				.filter(book -> book.isEditorPick())
+		// Draw numBooks random books from the editor picks index.
+		return editorPicks.sample(numBooks).stream()
+				.map(book -> book.immutableBook())
 				.collect(Collectors.toList());
+	}
 
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
-
-		if (rangePicks <= numBooks) {
-
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
-			}
-		} else {
-
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
+	/**
+	 * Gets the number of editor picks, so that a client sampling the picks of
+	 * several stores can draw from every store in proportion to its picks.
+	 *
+	 * @return the number of editor picks
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public synchronized int getNumEditorPicks() throws BookStoreException {
+		return editorPicks.size();
+	}
 
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
-			}
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getLeastStockedBooks(int)
+	 */
+	public synchronized List<StockBook> getLeastStockedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 		}
 
-		// Return all the books by the randomly chosen indices.
-		return tobePicked.stream()
-				.map(index -> listAllEditorPicks.get(index).immutableBook())
+		return stockLevels.leastStocked(numBooks).stream()
+				.map(isbn -> bookMap.get(isbn).immutableStockBook())
 				.collect(Collectors.toList());
 	}
 
@@ -347,13 +548,591 @@ public class CertainBookStore implements BookStore, StockManager {
 		throw new BookStoreException();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.PurchaseParticipant#preparePurchase(com.
+	 * acertainbookstore.business.PurchaseTransaction)
+	 */
+	@Override
+	public synchronized List<BookCopy> preparePurchase(PurchaseTransaction transaction) throws BookStoreException {
+		if (transaction == null || transaction.getTransactionId() == null || transaction.getBookCopies() == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		String transactionId = transaction.getTransactionId();
+
+		if (preparedPurchases.containsKey(transactionId)) {
+			throw new BookStoreException(BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.DUPLICATED);
+		}
+
+		// Validate and look for sale misses exactly like buyBooks does.
+		List<BookCopy> missingCopies = new ArrayList<>();
+
+		for (BookCopy bookCopyToBuy : transaction.getBookCopies()) {
+			validate(bookCopyToBuy);
+			BookStoreBook book = bookMap.get(bookCopyToBuy.getISBN());
+
+			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+				missingCopies.add(new BookCopy(book.getISBN(), bookCopyToBuy.getNumCopies() - book.getNumCopies()));
+			}
+		}
+
+		List<BookCopy> reservedCopies = new ArrayList<>();
+
+		if (missingCopies.isEmpty()) {
+			// Reserve the copies by taking them out of the stock.
+			for (BookCopy bookCopyToBuy : transaction.getBookCopies()) {
+				BookStoreBook book = bookMap.get(bookCopyToBuy.getISBN());
+				saveForSnapshot(book.getISBN());
+				int previousNumCopies = book.getNumCopies();
+				book.buyCopies(bookCopyToBuy.getNumCopies());
+				stockLevels.update(book.getISBN(), previousNumCopies, book.getNumCopies());
+				changeLog.record(bookCopyToBuy.getISBN());
+				reservedCopies.add(bookCopyToBuy);
+			}
+		}
+
+		preparedPurchases.put(transactionId, new PreparedPurchase(transactionId, reservedCopies, missingCopies));
+		return missingCopies;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.PurchaseParticipant#decidePurchase(com.
+	 * acertainbookstore.business.PurchaseDecision)
+	 */
+	@Override
+	public synchronized void decidePurchase(PurchaseDecision decision) throws BookStoreException {
+		if (decision == null || decision.getTransactionId() == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		String transactionId = decision.getTransactionId();
+		PreparedPurchase purchase = preparedPurchases.get(transactionId);
+
+		if (purchase == null) {
+			// A purchase with reserved copies is only forgotten once it is
+			// decided, so a commit sent again was already applied, and an abort
+			// is for a purchase that was aborted or never prepared.
+			return;
+		}
+
+		if (decision.isCommit() && !purchase.getMissingCopies().isEmpty()) {
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		preparedPurchases.remove(transactionId);
+
+		if (decision.isCommit()) {
+			// The reserved copies are already out of the stock.
+			return;
+		}
+
+		for (BookCopy reservedCopy : purchase.getReservedCopies()) {
+			BookStoreBook book = bookMap.get(reservedCopy.getISBN());
+
+			if (book != null) {
+				saveForSnapshot(book.getISBN());
+				int previousNumCopies = book.getNumCopies();
+				book.releaseCopies(reservedCopy.getNumCopies());
+				stockLevels.update(book.getISBN(), previousNumCopies, book.getNumCopies());
+				changeLog.record(book.getISBN());
+			}
+		}
+
+		if (decision.isRecordSaleMisses()) {
+			for (BookCopy missingCopy : purchase.getMissingCopies()) {
+				BookStoreBook book = bookMap.get(missingCopy.getISBN());
+
+				if (book != null) {
+					saveForSnapshot(book.getISBN());
+					book.addSaleMiss(missingCopy.getNumCopies());
+					changeLog.record(book.getISBN());
+				}
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.OperationExecutor#executeOperations(java.
+	 * util.List)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public synchronized List<List<?>> executeOperations(List<BookStoreOperation> operations)
+			throws BookStoreException {
+		if (operations == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<List<?>> results = new ArrayList<>(operations.size());
+
+		// The books as they were before the batch first changed them, to undo
+		// the batch if an operation fails.
+		Map<Integer, StockBook> undoBooks = new HashMap<>();
+
+		// The sale misses recorded by a failed purchase, kept when the batch is
+		// undone.
+		Map<Integer, Long> saleMisses = Collections.emptyMap();
+		BookStoreMessageTag tag = null;
+
+		try {
+			for (BookStoreOperation operation : operations) {
+				if (operation == null || operation.getTag() == null) {
+					throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+				}
+
+				Object argument = operation.getArgument();
+				tag = operation.getTag();
+
+				switch (operation.getTag()) {
+				case GETBOOKS:
+					results.add(getBooks((Set<Integer>) argument));
+					break;
+
+				case GETSTOCKBOOKSBYISBN:
+					results.add(getBooksByISBN((Set<Integer>) argument));
+					break;
+
+				case GETEDITORPICKS:
+					results.add(getEditorPicks(argument == null ? -1 : (Integer) argument));
+					break;
+
+				case BUYBOOKS:
+					Set<BookCopy> bookCopiesToBuy = argument instanceof SampledPurchase
+							? samplePurchase((SampledPurchase) argument, results)
+							: (Set<BookCopy>) argument;
+					saveBooks(undoBooks, bookCopiesToBuy, BookCopy::getISBN);
+
+					try {
+						buyBooks(bookCopiesToBuy);
+					} catch (BookStoreException ex) {
+						saleMisses = newSaleMisses(undoBooks, bookCopiesToBuy);
+						throw ex;
+					}
+
+					results.add(Collections.emptyList());
+					break;
+
+				case ADDCOPIES:
+					saveBooks(undoBooks, (Set<BookCopy>) argument, BookCopy::getISBN);
+					addCopies((Set<BookCopy>) argument);
+					results.add(Collections.emptyList());
+					break;
+
+				case UPDATEEDITORPICKS:
+					saveBooks(undoBooks, (Set<BookEditorPick>) argument, BookEditorPick::getISBN);
+					updateEditorPicks((Set<BookEditorPick>) argument);
+					results.add(Collections.emptyList());
+					break;
+
+				default:
+					throw new BookStoreException(operation.getTag() + " cannot be executed in a batch");
+				}
+			}
+		} catch (BookStoreException | ClassCastException ex) {
+			restoreBooks(undoBooks);
+
+			for (Entry<Integer, Long> saleMiss : saleMisses.entrySet()) {
+				BookStoreBook book = bookMap.get(saleMiss.getKey());
+				saveForSnapshot(book.getISBN());
+				book.addSaleMiss(saleMiss.getValue().intValue());
+				changeLog.record(book.getISBN());
+			}
+
+			if (ex instanceof BookStoreException) {
+				throw (BookStoreException) ex;
+			}
+
+			throw new BookStoreException(tag + BookStoreConstants.MALFORMED_OPERATION, ex);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Draws the copies of a sampled purchase from the books returned by the
+	 * previous operation of a batch.
+	 *
+	 * @param purchase
+	 *            the sampled purchase
+	 * @param results
+	 *            the results of the operations executed so far
+	 * @return the copies to buy
+	 * @throws BookStoreException
+	 *             if there is no previous read
+	 */
+	private Set<BookCopy> samplePurchase(SampledPurchase purchase, List<List<?>> results)
+			throws BookStoreException {
+		if (results.isEmpty()) {
+			throw new BookStoreException("A sampled purchase must follow a read");
+		}
+
+		List<Object> books = new ArrayList<>(results.get(results.size() - 1));
+		Collections.shuffle(books);
+		Set<BookCopy> bookCopiesToBuy = new HashSet<>();
+
+		for (Object book : books.subList(0, Math.min(Math.max(purchase.getNumBooks(), 0), books.size()))) {
+			bookCopiesToBuy.add(new BookCopy(((Book) book).getISBN(), purchase.getNumCopies()));
+		}
+
+		return bookCopiesToBuy;
+	}
+
+	/**
+	 * Saves the books an operation of a batch is about to change, unless they
+	 * are already saved.
+	 *
+	 * @param <T>
+	 *            the type of the items of the operation
+	 * @param undoBooks
+	 *            the saved books
+	 * @param items
+	 *            the items of the operation
+	 * @param isbnOf
+	 *            the function giving the ISBN of an item
+	 */
+	private <T> void saveBooks(Map<Integer, StockBook> undoBooks, Set<T> items, ToIntFunction<T> isbnOf) {
+		if (items == null) {
+			return;
+		}
+
+		for (T item : items) {
+			int isbn = isbnOf.applyAsInt(item);
+			BookStoreBook book = bookMap.get(isbn);
+
+			if (book != null && !undoBooks.containsKey(isbn)) {
+				undoBooks.put(isbn, book.immutableStockBook());
+			}
+		}
+	}
+
+	/**
+	 * Gets the sale misses a failed purchase of a batch recorded, by comparing
+	 * the books with the ones saved before the batch changed them.
+	 *
+	 * @param undoBooks
+	 *            the saved books
+	 * @param bookCopiesToBuy
+	 *            the copies of the failed purchase
+	 * @return the sale misses recorded by the purchase, by ISBN
+	 */
+	private Map<Integer, Long> newSaleMisses(Map<Integer, StockBook> undoBooks, Set<BookCopy> bookCopiesToBuy) {
+		Map<Integer, Long> saleMisses = new HashMap<>();
+
+		if (bookCopiesToBuy == null) {
+			return saleMisses;
+		}
+
+		for (BookCopy bookCopy : bookCopiesToBuy) {
+			if (bookCopy == null) {
+				continue;
+			}
+
+			BookStoreBook book = bookMap.get(bookCopy.getISBN());
+			StockBook savedBook = undoBooks.get(bookCopy.getISBN());
+
+			if (book != null && savedBook != null && book.getNumSaleMisses() > savedBook.getNumSaleMisses()) {
+				saleMisses.put(book.getISBN(), book.getNumSaleMisses() - savedBook.getNumSaleMisses());
+			}
+		}
+
+		return saleMisses;
+	}
+
+	/**
+	 * Restores the books saved before a batch changed them.
+	 *
+	 * @param undoBooks
+	 *            the saved books
+	 */
+	private void restoreBooks(Map<Integer, StockBook> undoBooks) {
+		for (StockBook savedBook : undoBooks.values()) {
+			BookStoreBook book = new BookStoreBook(savedBook);
+			saveForSnapshot(book.getISBN());
+			BookStoreBook changedBook = bookMap.put(book.getISBN(), book);
+
+			if (changedBook != null) {
+				stockLevels.remove(changedBook.getISBN(), changedBook.getNumCopies());
+			}
+
+			stockLevels.add(book.getISBN(), book.getNumCopies());
+			isbnIndex.add(book.getISBN());
+			changeLog.record(book.getISBN());
+			editorPicks.remove(book.getISBN());
+
+			if (book.isEditorPick()) {
+				editorPicks.add(book);
+			}
+		}
+	}
+
+	/**
+	 * Aborts the prepared purchases that are missing copies and received no
+	 * decision within the timeout. Such a purchase reserved nothing and can
+	 * never commit, so aborting it only drops its sale misses. A purchase with
+	 * reserved copies voted to commit, and stays prepared until its
+	 * coordinator decides, since the coordinator may have committed it. The
+	 * purchases are aborted through {@link #decidePurchase(PurchaseDecision)},
+	 * outside the monitor of the store.
+	 *
+	 * @param timeout
+	 *            the timeout
+	 * @param unit
+	 *            the time unit of the timeout
+	 */
+	public void abortExpiredPurchases(long timeout, TimeUnit unit) {
+		List<String> expiredPurchases = new ArrayList<>();
+		long now = System.nanoTime();
+
+		synchronized (this) {
+			for (PreparedPurchase purchase : preparedPurchases.values()) {
+				if (!purchase.getMissingCopies().isEmpty() && now - purchase.getPreparedAt() > unit.toNanos(timeout)) {
+					expiredPurchases.add(purchase.getTransactionId());
+				}
+			}
+		}
+
+		for (String transactionId : expiredPurchases) {
+			try {
+				decidePurchase(new PurchaseDecision(transactionId, false, false));
+			} catch (BookStoreException ex) {
+				System.err.println("Could not abort the purchase " + transactionId + ": " + ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Gets the purchases waiting for a decision.
+	 *
+	 * @return the prepared purchases
+	 */
+	protected synchronized List<PreparedPurchase> getPreparedPurchases() {
+		return new ArrayList<>(preparedPurchases.values());
+	}
+
+	/**
+	 * Starts a snapshot of the books as they are now, to be copied by
+	 * {@link #finishSnapshot()}. Until then, every book is saved before its
+	 * first change, so the copy does not need to stop the mutations. Only one
+	 * snapshot is taken at a time.
+	 */
+	protected synchronized void startSnapshot() {
+		if (snapshotBooks != null) {
+			throw new IllegalStateException("A snapshot is already being taken");
+		}
+
+		snapshotBooks = new HashMap<>();
+		snapshotISBN = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Copies the books of the snapshot started by {@link #startSnapshot()}. The
+	 * books are copied in order of ISBN, a chunk at a time under the monitor of
+	 * the store, so mutations only wait for the copy of a chunk. The books
+	 * changed since the snapshot started are taken from the saved ones.
+	 *
+	 * @return the books as they were when the snapshot started
+	 */
+	protected List<StockBook> finishSnapshot() {
+		List<StockBook> books = new ArrayList<>();
+
+		while (true) {
+			synchronized (this) {
+				if (snapshotBooks == null) {
+					throw new IllegalStateException("No snapshot is being taken");
+				}
+
+				Iterator<Integer> isbns = isbnIndex.tailSet(snapshotISBN, false).iterator();
+
+				for (int i = 0; i < SNAPSHOT_CHUNK_SIZE && isbns.hasNext(); i++) {
+					int isbn = isbns.next();
+					snapshotISBN = isbn;
+
+					if (!snapshotBooks.containsKey(isbn)) {
+						books.add(bookMap.get(isbn).immutableStockBook());
+					}
+				}
+
+				if (!isbns.hasNext()) {
+					for (StockBook book : snapshotBooks.values()) {
+						if (book != null) {
+							books.add(book);
+						}
+					}
+
+					snapshotBooks = null;
+					return books;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves a book for the snapshot being taken before it changes, unless the
+	 * snapshot already copied or saved it. A book that does not exist is saved
+	 * as null, so that the snapshot leaves it out.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	private void saveForSnapshot(int isbn) {
+		if (snapshotBooks != null && isbn > snapshotISBN && !snapshotBooks.containsKey(isbn)) {
+			BookStoreBook book = bookMap.get(isbn);
+			snapshotBooks.put(isbn, book != null ? book.immutableStockBook() : null);
+		}
+	}
+
+	/**
+	 * Replaces the purchases waiting for a decision, which must come from the
+	 * same image of a store as the books.
+	 *
+	 * @param purchases
+	 *            the prepared purchases
+	 */
+	protected synchronized void loadPreparedPurchases(Collection<PreparedPurchase> purchases) {
+		preparedPurchases.clear();
+
+		for (PreparedPurchase purchase : purchases) {
+			preparedPurchases.put(purchase.getTransactionId(), purchase);
+		}
+	}
+
+	/**
+	 * Applies a mutation recorded in a {@link WriteAheadLog}, by calling the
+	 * method of the store matching its tag. While the mutation is applied,
+	 * {@link #isApplyingLog()} is true in the calling thread, so that
+	 * subclasses apply it as is rather than logging or rejecting it. A record
+	 * that cannot be applied fails, since the store would otherwise differ from
+	 * the one that wrote the log; only purchases, and batches failing in a
+	 * purchase, fail as they did when they were logged for their sale misses.
+	 *
+	 * @param tag
+	 *            the tag of the mutation
+	 * @param argument
+	 *            the argument of the mutation
+	 * @throws IOException
+	 *             if the record cannot be applied
+	 */
+	protected synchronized void applyLogRecord(BookStoreMessageTag tag, Object argument) throws IOException {
+		applyingLog = true;
+
+		try {
+			applyMutation(tag, argument);
+		} catch (BookStoreException | ClassCastException ex) {
+			throw new IOException("Cannot apply the record " + tag + " of the write-ahead log", ex);
+		} finally {
+			applyingLog = false;
+		}
+	}
+
+	/**
+	 * Checks whether the calling thread is applying a record of a write-ahead
+	 * log.
+	 *
+	 * @return true, if a record is being applied
+	 */
+	protected boolean isApplyingLog() {
+		return Thread.holdsLock(this) && applyingLog;
+	}
+
+	/**
+	 * Applies a mutation recorded in a write-ahead log.
+	 *
+	 * @param tag
+	 *            the tag of the mutation
+	 * @param argument
+	 *            the argument of the mutation
+	 * @throws BookStoreException
+	 *             if the mutation fails
+	 * @throws IOException
+	 *             if the record is not a mutation
+	 */
+	@SuppressWarnings("unchecked")
+	private void applyMutation(BookStoreMessageTag tag, Object argument) throws BookStoreException, IOException {
+		switch (tag) {
+		case EXECUTEOPERATIONS:
+			try {
+				executeOperations((List<BookStoreOperation>) argument);
+			} catch (BookStoreException ex) {
+				// Batches failing in a purchase are logged for its sale misses,
+				// and fail again when they are applied.
+			}
+
+			break;
+
+		case ADDBOOKS:
+			addBooks((Set<StockBook>) argument);
+			break;
+
+		case ADDCOPIES:
+			addCopies((Set<BookCopy>) argument);
+			break;
+
+		case UPDATEEDITORPICKS:
+			updateEditorPicks((Set<BookEditorPick>) argument);
+			break;
+
+		case BUYBOOKS:
+			try {
+				buyBooks((Set<BookCopy>) argument);
+			} catch (BookStoreException ex) {
+				// Failed purchases are logged for their sale misses, and fail
+				// again when they are applied.
+			}
+
+			break;
+
+		case RATEBOOKS:
+			rateBooks((Set<BookRating>) argument);
+			break;
+
+		case REMOVEALLBOOKS:
+			removeAllBooks();
+			break;
+
+		case REMOVEBOOKS:
+			removeBooks((Set<Integer>) argument);
+			break;
+
+		case PREPAREPURCHASE:
+			preparePurchase((PurchaseTransaction) argument);
+			break;
+
+		case DECIDEPURCHASE:
+			decidePurchase((PurchaseDecision) argument);
+			break;
+
+		default:
+			throw new IOException("Unsupported record in the write-ahead log: " + tag);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
 	 */
 	public synchronized void removeAllBooks() throws BookStoreException {
+		if (snapshotBooks != null) {
+			for (int isbn : isbnIndex.tailSet(snapshotISBN, false)) {
+				saveForSnapshot(isbn);
+			}
+		}
+
 		bookMap.clear();
+		isbnIndex.clear();
+		stockLevels.clear();
+		changeLog.reset();
+		catalogVersion++;
+		editorPicks.clear();
 	}
 
 	/*
@@ -378,7 +1157,13 @@ public class CertainBookStore implements BookStore, StockManager {
 		}
 
 		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
+			saveForSnapshot(isbn);
+			BookStoreBook book = bookMap.remove(isbn);
+			stockLevels.remove(isbn, book.getNumCopies());
+			isbnIndex.remove(isbn);
+			changeLog.record(isbn);
+			catalogVersion++;
+			editorPicks.remove(isbn);
 		}
 	}
 }
@@ -0,0 +1,671 @@
+package com.acertainbookstore.business;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link DurableCertainBookStore} is a {@link CertainBookStore} that records
+ * every mutation in a {@link WriteAheadLog}, and rebuilds its state from the
+ * log when it is created.
+ * <p>
+ * A mutation is applied in memory and appended to the log under the monitor of
+ * the store, so the log holds the mutations in the order they were applied.
+ * The caller then waits outside the monitor until the record is on disk, so
+ * concurrent mutations are flushed together. Mutations are logged when they
+ * succeed, and purchases also when they fail, since a failed purchase records
+ * its sale misses. Replaying the log therefore repeats exactly the mutations
+ * that changed the store, in the same order. The mutations of a batch executed
+ * by {@link #executeOperations(List)} are logged together in a single record
+ * once the whole batch succeeded. A batch that is undone is only logged when
+ * it failed in a purchase, since the sale misses of the purchase are kept; it
+ * fails again in the same purchase when it is replayed.
+ * <p>
+ * A mutation is applied in memory before it is on disk, so if the log fails
+ * the store holds a mutation that may be lost. The store then stops: every
+ * later call fails, and the state is rebuilt from the log by a restart.
+ * Replaying the log fails on a record that cannot be applied, rather than
+ * recovering a store that differs from the one that wrote the log.
+ * <p>
+ * The store also writes {@link CatalogCheckpoint}s next to the log, so that a
+ * restart loads the latest checkpoint and only replays the mutations logged
+ * after it. A checkpoint is a snapshot of the books as they were at a
+ * position of the log, copied a chunk at a time while the books changed since
+ * are saved as they were, so mutations continue while a checkpoint is taken
+ * and written. Once a checkpoint is on disk, the log is compacted to the
+ * records after it.
+ * <p>
+ * Backups replicate the store by reading the durable part of the log with
+ * {@link #readLog(long, int)}, and applying it to a
+ * {@link ReplicaCertainBookStore}. A backup behind the compacted records
+ * receives the latest checkpoint instead.
+ */
+public class DurableCertainBookStore extends CertainBookStore implements Closeable {
+
+	/** The suffix appended to the name of the log file to name the checkpoint. */
+	private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+	/** The write-ahead log. */
+	private final WriteAheadLog log;
+
+	/** The checkpoint file. */
+	private final Path checkpointFile;
+
+	/** The lock that orders the checkpoints. */
+	private final Object checkpointLock = new Object();
+
+	/** The position in the log of the latest checkpoint, guarded by the checkpoint lock. */
+	private long checkpointPosition = 0;
+
+	/** The scheduler of the periodic checkpoints, if they are started. */
+	private ScheduledExecutorService checkpointScheduler = null;
+
+	/** The mutations of the batch being executed, if any. */
+	private List<BookStoreOperation> batchMutations = null;
+
+	/** The purchase that failed in the batch being executed, if any. */
+	private BookStoreOperation failedBatchPurchase = null;
+
+	/** The failure of the log that stopped the store, if any. */
+	private volatile BookStoreException logError = null;
+
+	/**
+	 * Instantiates a new {@link DurableCertainBookStore}, loading the latest
+	 * checkpoint and replaying the mutations recorded in the log file after it.
+	 *
+	 * @param logFile
+	 *            the log file, created if it does not exist
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public DurableCertainBookStore(Path logFile) throws IOException {
+		super();
+		checkpointFile = logFile.resolveSibling(logFile.getFileName() + CHECKPOINT_SUFFIX);
+		long logPosition = 0;
+
+		if (Files.exists(checkpointFile)) {
+			CatalogCheckpoint checkpoint = CatalogCheckpoint.read(checkpointFile);
+			loadBooks(checkpoint.getBooks());
+			loadPreparedPurchases(checkpoint.getPreparedPurchases());
+			logPosition = checkpoint.getLogPosition();
+			checkpointPosition = logPosition;
+		}
+
+		log = new WriteAheadLog(logFile);
+
+		try {
+			log.replay(logPosition, this::applyLogRecord);
+		} catch (IOException ex) {
+			log.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Writes a checkpoint of the store, replacing the previous one, and drops
+	 * the records of the log it holds.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void checkpoint() throws IOException {
+		synchronized (checkpointLock) {
+			List<StockBook> books;
+			List<PreparedPurchase> preparedPurchases;
+			long logPosition;
+			long sequenceNumber;
+
+			// Start the snapshot at the matching log position atomically.
+			synchronized (this) {
+				if (logError != null) {
+					throw new IOException(logError);
+				}
+
+				preparedPurchases = getPreparedPurchases();
+				logPosition = log.getAppendedPosition();
+				sequenceNumber = log.getLastAppended();
+				startSnapshot();
+			}
+
+			books = finishSnapshot();
+
+			// The log must reach the checkpoint position before the checkpoint
+			// replaces the previous one.
+			try {
+				awaitDurable(sequenceNumber);
+			} catch (BookStoreException ex) {
+				throw new IOException(ex);
+			}
+
+			CatalogCheckpoint.write(checkpointFile, logPosition, books, preparedPurchases);
+			checkpointPosition = logPosition;
+			log.compact(logPosition);
+		}
+	}
+
+	/**
+	 * Reads the durable mutations logged from the given position, for a backup
+	 * replicating the store. If the log was compacted past the position, the
+	 * segment starts with the latest checkpoint instead.
+	 *
+	 * @param position
+	 *            the position in the log of the first mutation
+	 * @param maxBytes
+	 *            the maximum number of bytes to read
+	 * @return the segment of the log
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public LogSegment readLog(long position, int maxBytes) throws IOException {
+		if (logError != null) {
+			throw new IOException(logError);
+		}
+
+		if (position < log.getStartPosition()) {
+			// The latest checkpoint always starts at or after the start of the log.
+			synchronized (checkpointLock) {
+				byte[] checkpoint = Files.readAllBytes(checkpointFile);
+				return new LogSegment(checkpointPosition, new byte[0], log.getDurablePosition(), checkpoint);
+			}
+		}
+
+		byte[] records = log.readRecords(position, maxBytes);
+		return new LogSegment(position, records, log.getDurablePosition());
+	}
+
+	/**
+	 * Starts writing a checkpoint periodically, in a background thread.
+	 *
+	 * @param period
+	 *            the period between checkpoints
+	 * @param unit
+	 *            the time unit of the period
+	 */
+	public synchronized void startCheckpoints(long period, TimeUnit unit) {
+		if (checkpointScheduler != null) {
+			return;
+		}
+
+		checkpointScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "DurableCertainBookStore-checkpointer");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		checkpointScheduler.scheduleWithFixedDelay(() -> {
+			try {
+				checkpoint();
+			} catch (IOException ex) {
+				System.err.println("Could not write the checkpoint " + checkpointFile + ": " + ex.getMessage());
+			}
+		}, period, period, unit);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#addBooks(java.util.Set)
+	 */
+	@Override
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		logged(BookStoreMessageTag.ADDBOOKS, bookSet, false, () -> super.addBooks(bookSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#addCopies(java.util.Set)
+	 */
+	@Override
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		logged(BookStoreMessageTag.ADDCOPIES, bookCopiesSet, false, () -> super.addCopies(bookCopiesSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#updateEditorPicks(java.
+	 * util.Set)
+	 */
+	@Override
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		logged(BookStoreMessageTag.UPDATEEDITORPICKS, editorPicks, false, () -> super.updateEditorPicks(editorPicks));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#buyBooks(java.util.Set)
+	 */
+	@Override
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		logged(BookStoreMessageTag.BUYBOOKS, bookCopiesToBuy, true, () -> super.buyBooks(bookCopiesToBuy));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		logged(BookStoreMessageTag.RATEBOOKS, bookRating, false, () -> super.rateBooks(bookRating));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#preparePurchase(com.
+	 * acertainbookstore.business.PurchaseTransaction)
+	 */
+	@Override
+	public List<BookCopy> preparePurchase(PurchaseTransaction transaction) throws BookStoreException {
+		List<List<BookCopy>> missingCopies = new ArrayList<>(1);
+		logged(BookStoreMessageTag.PREPAREPURCHASE, transaction, false,
+				() -> missingCopies.add(super.preparePurchase(transaction)));
+		return missingCopies.get(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#decidePurchase(com.
+	 * acertainbookstore.business.PurchaseDecision)
+	 */
+	@Override
+	public void decidePurchase(PurchaseDecision decision) throws BookStoreException {
+		logged(BookStoreMessageTag.DECIDEPURCHASE, decision, false, () -> super.decidePurchase(decision));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#executeOperations(java.
+	 * util.List)
+	 */
+	@Override
+	public List<List<?>> executeOperations(List<BookStoreOperation> operations) throws BookStoreException {
+		List<List<?>> results = null;
+		BookStoreException failure = null;
+		long sequenceNumber = 0;
+
+		synchronized (this) {
+			if (isApplyingLog()) {
+				// The batch is replayed from the log.
+				return super.executeOperations(operations);
+			}
+
+			checkAvailable();
+			batchMutations = new ArrayList<>();
+
+			try {
+				try {
+					results = super.executeOperations(operations);
+				} catch (BookStoreException ex) {
+					if (failedBatchPurchase == null) {
+						throw ex;
+					}
+
+					// The failed purchase kept its sale misses.
+					batchMutations.add(failedBatchPurchase);
+					failure = ex;
+				}
+
+				if (!batchMutations.isEmpty()) {
+					sequenceNumber = append(log.encode(BookStoreMessageTag.EXECUTEOPERATIONS, batchMutations));
+				}
+			} finally {
+				batchMutations = null;
+				failedBatchPurchase = null;
+			}
+		}
+
+		awaitDurable(sequenceNumber);
+
+		if (failure != null) {
+			throw failure;
+		}
+
+		return results;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.CertainBookStore#removeAllBooks()
+	 */
+	@Override
+	public void removeAllBooks() throws BookStoreException {
+		logged(BookStoreMessageTag.REMOVEALLBOOKS, null, false, () -> super.removeAllBooks());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#removeBooks(java.util.Set)
+	 */
+	@Override
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		logged(BookStoreMessageTag.REMOVEBOOKS, isbnSet, false, () -> super.removeBooks(isbnSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.CertainBookStore#getBooks()
+	 */
+	@Override
+	public List<StockBook> getBooks() throws BookStoreException {
+		checkAvailable();
+		return super.getBooks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#getBooksPage(java.lang.
+	 * String, int)
+	 */
+	@Override
+	public CatalogPage getBooksPage(String pageToken, int pageSize) throws BookStoreException {
+		checkAvailable();
+		return super.getBooksPage(pageToken, pageSize);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#getBookChanges(java.lang.
+	 * String)
+	 */
+	@Override
+	public CatalogChanges getBookChanges(String token) throws BookStoreException {
+		checkAvailable();
+		return super.getBookChanges(token);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.CertainBookStore#getCatalogVersion()
+	 */
+	@Override
+	public long getCatalogVersion() throws BookStoreException {
+		checkAvailable();
+		return super.getCatalogVersion();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.CertainBookStore#getStoreVersion()
+	 */
+	@Override
+	public long getStoreVersion() throws BookStoreException {
+		checkAvailable();
+		return super.getStoreVersion();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	@Override
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		checkAvailable();
+		return super.getBooksByISBN(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#getBooks(java.util.Set)
+	 */
+	@Override
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		checkAvailable();
+		return super.getBooks(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.CertainBookStore#getEditorPicks(int)
+	 */
+	@Override
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		checkAvailable();
+		return super.getEditorPicks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.CertainBookStore#getNumEditorPicks()
+	 */
+	@Override
+	public int getNumEditorPicks() throws BookStoreException {
+		checkAvailable();
+		return super.getNumEditorPicks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#getLeastStockedBooks(int)
+	 */
+	@Override
+	public List<StockBook> getLeastStockedBooks(int numBooks) throws BookStoreException {
+		checkAvailable();
+		return super.getLeastStockedBooks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.CertainBookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		checkAvailable();
+		return super.getTopRatedBooks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.CertainBookStore#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		checkAvailable();
+		return super.getBooksInDemand();
+	}
+
+	/**
+	 * Stops the periodic checkpoints, writes the mutations that are still
+	 * buffered and closes the log.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void close() throws IOException {
+		ScheduledExecutorService scheduler;
+
+		synchronized (this) {
+			scheduler = checkpointScheduler;
+			checkpointScheduler = null;
+		}
+
+		if (scheduler != null) {
+			scheduler.shutdown();
+
+			try {
+				scheduler.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		log.close();
+	}
+
+	/**
+	 * Applies a mutation, records it in the log and waits until the record is
+	 * on disk.
+	 *
+	 * @param tag
+	 *            the tag of the mutation
+	 * @param argument
+	 *            the argument of the mutation
+	 * @param logFailure
+	 *            whether the mutation is also logged when it fails
+	 * @param mutation
+	 *            the mutation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void logged(BookStoreMessageTag tag, Object argument, boolean logFailure, Mutation mutation)
+			throws BookStoreException {
+		if (isApplyingLog()) {
+			// The mutation is replayed from the log.
+			mutation.apply();
+			return;
+		}
+
+		if (Thread.holdsLock(this) && batchMutations != null) {
+			// The batch is logged as a whole once it succeeds, or once it
+			// fails in a mutation also logged when it fails.
+			try {
+				mutation.apply();
+			} catch (BookStoreException ex) {
+				if (logFailure) {
+					failedBatchPurchase = new BookStoreOperation(tag, argument);
+				}
+
+				throw ex;
+			}
+
+			batchMutations.add(new BookStoreOperation(tag, argument));
+			return;
+		}
+
+		byte[] record = log.encode(tag, argument);
+		BookStoreException failure = null;
+		long sequenceNumber = 0;
+
+		synchronized (this) {
+			checkAvailable();
+
+			try {
+				mutation.apply();
+			} catch (BookStoreException ex) {
+				if (!logFailure) {
+					throw ex;
+				}
+
+				failure = ex;
+			}
+
+			sequenceNumber = append(record);
+		}
+
+		awaitDurable(sequenceNumber);
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Appends a record to the log, stopping the store if the log fails. The
+	 * caller holds the monitor of the store.
+	 *
+	 * @param record
+	 *            the record
+	 * @return the sequence number of the record
+	 * @throws BookStoreException
+	 *             if the log failed
+	 */
+	private long append(byte[] record) throws BookStoreException {
+		try {
+			return log.append(record);
+		} catch (BookStoreException ex) {
+			logError = ex;
+			throw ex;
+		}
+	}
+
+	/**
+	 * Waits until a record is on disk, stopping the store if the log fails.
+	 *
+	 * @param sequenceNumber
+	 *            the sequence number of the record
+	 * @throws BookStoreException
+	 *             if the log failed
+	 */
+	private void awaitDurable(long sequenceNumber) throws BookStoreException {
+		try {
+			log.awaitDurable(sequenceNumber);
+		} catch (BookStoreException ex) {
+			logError = ex;
+			throw ex;
+		}
+	}
+
+	/**
+	 * Checks that the log has not failed.
+	 *
+	 * @throws BookStoreException
+	 *             if the store is stopped
+	 */
+	private void checkAvailable() throws BookStoreException {
+		BookStoreException error = logError;
+
+		if (error != null) {
+			throw new BookStoreException("The store stopped after a failure of the write-ahead log", error);
+		}
+	}
+
+	/**
+	 * {@link Mutation} is a mutation of the underlying store.
+	 */
+	@FunctionalInterface
+	private interface Mutation {
+
+		/**
+		 * Applies the mutation.
+		 *
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void apply() throws BookStoreException;
+	}
+}
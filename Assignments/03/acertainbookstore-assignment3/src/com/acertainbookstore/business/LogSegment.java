@@ -0,0 +1,115 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link LogSegment} is a run of whole records of the {@link WriteAheadLog} of
+ * a primary server, shipped to a backup so that it applies the same mutations
+ * in the same order.
+ * <p>
+ * A backup behind the first record kept in the log of the primary receives
+ * the latest {@link CatalogCheckpoint} of the primary instead, which it loads
+ * before applying the records after the checkpoint.
+ */
+public final class LogSegment {
+
+	/** The position in the log of the first record. */
+	private final long position;
+
+	/** The records, as they are framed in the log. */
+	private final byte[] records;
+
+	/** The position after the last durable record of the primary. */
+	private final long durablePosition;
+
+	/** The content of the checkpoint to load before the records, if any. */
+	private final byte[] checkpoint;
+
+	/**
+	 * Instantiates a new {@link LogSegment}.
+	 *
+	 * @param position
+	 *            the position in the log of the first record
+	 * @param records
+	 *            the records
+	 * @param durablePosition
+	 *            the position after the last durable record of the primary
+	 */
+	public LogSegment(long position, byte[] records, long durablePosition) {
+		this(position, records, durablePosition, null);
+	}
+
+	/**
+	 * Instantiates a new {@link LogSegment} starting with a checkpoint.
+	 *
+	 * @param position
+	 *            the position in the log of the first record, where the
+	 *            checkpoint continues
+	 * @param records
+	 *            the records
+	 * @param durablePosition
+	 *            the position after the last durable record of the primary
+	 * @param checkpoint
+	 *            the content of the checkpoint file, or null
+	 */
+	public LogSegment(long position, byte[] records, long durablePosition, byte[] checkpoint) {
+		this.position = position;
+		this.records = records;
+		this.durablePosition = durablePosition;
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Gets the position in the log of the first record.
+	 *
+	 * @return the position
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Gets the records.
+	 *
+	 * @return the records
+	 */
+	public byte[] getRecords() {
+		return records;
+	}
+
+	/**
+	 * Gets the content of the checkpoint to load before the records.
+	 *
+	 * @return the checkpoint, null if the records continue the log already
+	 *         applied by the backup
+	 */
+	public byte[] getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * Gets the position in the log after the last record of the segment.
+	 *
+	 * @return the position
+	 */
+	public long getEndPosition() {
+		return position + records.length;
+	}
+
+	/**
+	 * Gets the position after the last durable record of the primary when the
+	 * segment was read.
+	 *
+	 * @return the position
+	 */
+	public long getDurablePosition() {
+		return durablePosition;
+	}
+
+	/**
+	 * Checks whether the segment reaches the end of the log of the primary.
+	 *
+	 * @return true, if the backup is caught up after applying the segment
+	 */
+	public boolean isCaughtUp() {
+		return getEndPosition() >= durablePosition;
+	}
+}
@@ -0,0 +1,76 @@
+package com.acertainbookstore.business;
+
+import java.util.List;
+
+/**
+ * {@link PreparedPurchase} is a purchase prepared by a bookstore server and
+ * waiting for the decision of its coordinator. It holds either the reserved
+ * copies, or the missing copies if the purchase could not be reserved.
+ */
+final class PreparedPurchase {
+
+	/** The transaction identifier. */
+	private final String transactionId;
+
+	/** The reserved copies. */
+	private final List<BookCopy> reservedCopies;
+
+	/** The missing copies. */
+	private final List<BookCopy> missingCopies;
+
+	/** The time the purchase was prepared, in nanoseconds. */
+	private final long preparedAt;
+
+	/**
+	 * Instantiates a new {@link PreparedPurchase}, prepared now.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @param reservedCopies
+	 *            the reserved copies
+	 * @param missingCopies
+	 *            the missing copies
+	 */
+	PreparedPurchase(String transactionId, List<BookCopy> reservedCopies, List<BookCopy> missingCopies) {
+		this.transactionId = transactionId;
+		this.reservedCopies = reservedCopies;
+		this.missingCopies = missingCopies;
+		this.preparedAt = System.nanoTime();
+	}
+
+	/**
+	 * Gets the transaction identifier.
+	 *
+	 * @return the transaction identifier
+	 */
+	String getTransactionId() {
+		return transactionId;
+	}
+
+	/**
+	 * Gets the reserved copies.
+	 *
+	 * @return the reserved copies
+	 */
+	List<BookCopy> getReservedCopies() {
+		return reservedCopies;
+	}
+
+	/**
+	 * Gets the missing copies.
+	 *
+	 * @return the missing copies
+	 */
+	List<BookCopy> getMissingCopies() {
+		return missingCopies;
+	}
+
+	/**
+	 * Gets the time the purchase was prepared.
+	 *
+	 * @return the time, in nanoseconds
+	 */
+	long getPreparedAt() {
+		return preparedAt;
+	}
+}
@@ -0,0 +1,62 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link PurchaseDecision} is the outcome of a purchase spanning several
+ * bookstore servers, sent to the servers that prepared it. An aborted purchase
+ * records the sale misses found while preparing it only if every server could
+ * validate its part, like a purchase on a single server does.
+ */
+public final class PurchaseDecision {
+
+	/** The transaction identifier. */
+	private final String transactionId;
+
+	/** Whether the purchase commits. */
+	private final boolean commit;
+
+	/** Whether an aborted purchase records its sale misses. */
+	private final boolean recordSaleMisses;
+
+	/**
+	 * Instantiates a new {@link PurchaseDecision}.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @param commit
+	 *            whether the purchase commits
+	 * @param recordSaleMisses
+	 *            whether an aborted purchase records its sale misses
+	 */
+	public PurchaseDecision(String transactionId, boolean commit, boolean recordSaleMisses) {
+		this.transactionId = transactionId;
+		this.commit = commit;
+		this.recordSaleMisses = recordSaleMisses;
+	}
+
+	/**
+	 * Gets the transaction identifier.
+	 *
+	 * @return the transaction identifier
+	 */
+	public String getTransactionId() {
+		return transactionId;
+	}
+
+	/**
+	 * Checks whether the purchase commits.
+	 *
+	 * @return true, if the purchase commits
+	 */
+	public boolean isCommit() {
+		return commit;
+	}
+
+	/**
+	 * Checks whether an aborted purchase records its sale misses.
+	 *
+	 * @return true, if the sale misses are recorded
+	 */
+	public boolean isRecordSaleMisses() {
+		return recordSaleMisses;
+	}
+}
@@ -0,0 +1,48 @@
+package com.acertainbookstore.business;
+
+import java.util.Set;
+
+/**
+ * {@link PurchaseTransaction} is the part of a purchase spanning several
+ * bookstore servers that one server is asked to prepare, i.e. the copies of the
+ * books it owns, under the identifier of the purchase.
+ */
+public final class PurchaseTransaction {
+
+	/** The transaction identifier. */
+	private final String transactionId;
+
+	/** The copies to buy. */
+	private final Set<BookCopy> bookCopies;
+
+	/**
+	 * Instantiates a new {@link PurchaseTransaction}.
+	 *
+	 * @param transactionId
+	 *            the transaction identifier
+	 * @param bookCopies
+	 *            the copies to buy
+	 */
+	public PurchaseTransaction(String transactionId, Set<BookCopy> bookCopies) {
+		this.transactionId = transactionId;
+		this.bookCopies = bookCopies;
+	}
+
+	/**
+	 * Gets the transaction identifier.
+	 *
+	 * @return the transaction identifier
+	 */
+	public String getTransactionId() {
+		return transactionId;
+	}
+
+	/**
+	 * Gets the copies to buy.
+	 *
+	 * @return the copies
+	 */
+	public Set<BookCopy> getBookCopies() {
+		return bookCopies;
+	}
+}
@@ -0,0 +1,231 @@
+package com.acertainbookstore.business;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ReplicaCertainBookStore} is a read-only backup of a
+ * {@link DurableCertainBookStore}, kept up to date by applying the segments of
+ * the write-ahead log of the primary in order.
+ * <p>
+ * The backup serves the reads of the clients and rejects their mutations.
+ * Since the log holds the mutations in the order the primary applied them, the
+ * backup always holds a state the primary went through. How far it lags behind
+ * is measured from the last time it applied the whole log of the primary, and
+ * clients may bound it with {@link #checkStaleness(long)}.
+ */
+public class ReplicaCertainBookStore extends CertainBookStore {
+
+	/** The position in the log of the primary after the applied mutations. */
+	private long appliedPosition = 0;
+
+	/** The time the backup last applied the whole log, -1 if it never did. */
+	private long caughtUpAt = -1;
+
+	/** The failure that stopped the backup, if a record could not be applied. */
+	private IOException failure = null;
+
+	/**
+	 * Applies a segment of the log of the primary. Segments that do not start
+	 * at the position already reached are ignored, unless they start with a
+	 * checkpoint of the primary after that position, which replaces the books
+	 * of the backup. A record that cannot be applied stops the backup, since it
+	 * may have applied part of the segment.
+	 *
+	 * @param segment
+	 *            the segment
+	 * @throws IOException
+	 *             if the segment is corrupted or cannot be applied, or the
+	 *             backup is stopped
+	 */
+	public synchronized void applyLogSegment(LogSegment segment) throws IOException {
+		if (failure != null) {
+			throw new IOException("The backup stopped after a failure to apply the log", failure);
+		}
+
+		if (segment.getCheckpoint() != null ? segment.getPosition() < appliedPosition
+				: segment.getPosition() != appliedPosition) {
+			return;
+		}
+
+		try {
+			if (segment.getCheckpoint() != null) {
+				CatalogCheckpoint checkpoint = CatalogCheckpoint.read(segment.getCheckpoint());
+
+				if (checkpoint.getLogPosition() != segment.getPosition()) {
+					throw new IOException("The checkpoint does not start the segment");
+				}
+
+				loadBooks(checkpoint.getBooks());
+				loadPreparedPurchases(checkpoint.getPreparedPurchases());
+				appliedPosition = segment.getPosition();
+			}
+
+			WriteAheadLog.decodeRecords(segment.getRecords(), this::applyLogRecord);
+		} catch (IOException ex) {
+			failure = ex;
+			caughtUpAt = -1;
+			throw ex;
+		}
+
+		appliedPosition = segment.getEndPosition();
+
+		if (segment.isCaughtUp()) {
+			caughtUpAt = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Gets the position in the log of the primary after the applied mutations,
+	 * where the next segment starts.
+	 *
+	 * @return the position
+	 */
+	public synchronized long getAppliedPosition() {
+		return appliedPosition;
+	}
+
+	/**
+	 * Checks that the backup applied the whole log of the primary within the
+	 * given number of milliseconds.
+	 *
+	 * @param maxStalenessMillis
+	 *            the maximum staleness, in milliseconds
+	 * @throws BookStoreException
+	 *             if the backup is staler
+	 */
+	public synchronized void checkStaleness(long maxStalenessMillis) throws BookStoreException {
+		if (failure != null || caughtUpAt < 0
+				|| TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - caughtUpAt) > maxStalenessMillis) {
+			throw new BookStoreException(BookStoreConstants.STALE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#addBooks(java.util.Set)
+	 */
+	@Override
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		checkApplyingLog();
+		super.addBooks(bookSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#addCopies(java.util.Set)
+	 */
+	@Override
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		checkApplyingLog();
+		super.addCopies(bookCopiesSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#updateEditorPicks(java.
+	 * util.Set)
+	 */
+	@Override
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		checkApplyingLog();
+		super.updateEditorPicks(editorPicks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#buyBooks(java.util.Set)
+	 */
+	@Override
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		checkApplyingLog();
+		super.buyBooks(bookCopiesToBuy);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		checkApplyingLog();
+		super.rateBooks(bookRating);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#preparePurchase(com.
+	 * acertainbookstore.business.PurchaseTransaction)
+	 */
+	@Override
+	public List<BookCopy> preparePurchase(PurchaseTransaction transaction) throws BookStoreException {
+		checkApplyingLog();
+		return super.preparePurchase(transaction);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#decidePurchase(com.
+	 * acertainbookstore.business.PurchaseDecision)
+	 */
+	@Override
+	public void decidePurchase(PurchaseDecision decision) throws BookStoreException {
+		checkApplyingLog();
+		super.decidePurchase(decision);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.CertainBookStore#removeAllBooks()
+	 */
+	@Override
+	public void removeAllBooks() throws BookStoreException {
+		checkApplyingLog();
+		super.removeAllBooks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.CertainBookStore#removeBooks(java.util.Set)
+	 */
+	@Override
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		checkApplyingLog();
+		super.removeBooks(isbnSet);
+	}
+
+	/**
+	 * Checks that a mutation comes from the log of the primary, since the
+	 * backup rejects the mutations of the clients.
+	 *
+	 * @throws BookStoreException
+	 *             if the mutation comes from a client
+	 */
+	private void checkApplyingLog() throws BookStoreException {
+		if (!isApplyingLog()) {
+			throw new BookStoreException(BookStoreConstants.READ_ONLY);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link SampledPurchase} is the argument of a {@link BookStoreOperation}
+ * buying copies of books drawn at random from the books returned by the
+ * previous operation of its batch, such as editor picks, so that a customer
+ * browses and buys in a single request.
+ */
+public final class SampledPurchase {
+
+	/** The number of books to draw. */
+	private final int numBooks;
+
+	/** The number of copies to buy of every book. */
+	private final int numCopies;
+
+	/**
+	 * Instantiates a new {@link SampledPurchase}.
+	 *
+	 * @param numBooks
+	 *            the number of books to draw
+	 * @param numCopies
+	 *            the number of copies to buy of every book
+	 */
+	public SampledPurchase(int numBooks, int numCopies) {
+		this.numBooks = numBooks;
+		this.numCopies = numCopies;
+	}
+
+	/**
+	 * Gets the number of books to draw.
+	 *
+	 * @return the number of books
+	 */
+	public int getNumBooks() {
+		return numBooks;
+	}
+
+	/**
+	 * Gets the number of copies to buy of every book.
+	 *
+	 * @return the number of copies
+	 */
+	public int getNumCopies() {
+		return numCopies;
+	}
+}
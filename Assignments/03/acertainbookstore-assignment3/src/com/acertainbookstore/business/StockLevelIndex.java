@@ -0,0 +1,104 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * {@link StockLevelIndex} keeps the books of a store ordered by their number of
+ * copies, so that the numBooks books with the fewest copies are found in
+ * O(numBooks) time after an O(log n) update of every change of stock.
+ * <p>
+ * A book is a single long holding its number of copies in the high half and
+ * its ISBN in the low half, so that books with as many copies are ordered by
+ * ISBN and no entry object is allocated beyond the boxed key.
+ * <p>
+ * The index is not synchronized: the store must only use it while holding its
+ * lock.
+ */
+public class StockLevelIndex {
+
+	/** The books, as keys ordered by number of copies and then ISBN. */
+	private final NavigableSet<Long> books = new TreeSet<>();
+
+	/**
+	 * Adds a book.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @param numCopies
+	 *            the number of copies of the book
+	 */
+	public void add(int isbn, int numCopies) {
+		books.add(keyOf(isbn, numCopies));
+	}
+
+	/**
+	 * Removes a book.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @param numCopies
+	 *            the number of copies of the book, as last added or updated
+	 */
+	public void remove(int isbn, int numCopies) {
+		books.remove(keyOf(isbn, numCopies));
+	}
+
+	/**
+	 * Moves a book whose number of copies changed.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @param previousNumCopies
+	 *            the number of copies before the change
+	 * @param numCopies
+	 *            the number of copies after the change
+	 */
+	public void update(int isbn, int previousNumCopies, int numCopies) {
+		if (previousNumCopies != numCopies) {
+			books.remove(keyOf(isbn, previousNumCopies));
+			books.add(keyOf(isbn, numCopies));
+		}
+	}
+
+	/**
+	 * Removes every book.
+	 */
+	public void clear() {
+		books.clear();
+	}
+
+	/**
+	 * Gets the ISBNs of the books with the fewest copies.
+	 *
+	 * @param numBooks
+	 *            the largest number of books
+	 * @return the ISBNs, from the fewest copies up
+	 */
+	public List<Integer> leastStocked(int numBooks) {
+		List<Integer> isbns = new ArrayList<>(Math.min(numBooks, books.size()));
+		Iterator<Long> keys = books.iterator();
+
+		while (isbns.size() < numBooks && keys.hasNext()) {
+			isbns.add((int) keys.next().longValue());
+		}
+
+		return isbns;
+	}
+
+	/**
+	 * Gets the key of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @param numCopies
+	 *            the number of copies of the book
+	 * @return the key
+	 */
+	private static long keyOf(int isbn, int numCopies) {
+		return (long) numCopies << 32 | isbn;
+	}
+}
@@ -0,0 +1,769 @@
+package com.acertainbookstore.business;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link WriteAheadLog} is an append-only log of the mutations applied to a
+ * book store, used to rebuild the store after a restart.
+ * <p>
+ * Every record holds the {@link BookStoreMessageTag} of the mutation and its
+ * argument, framed by its length and a CRC32 checksum so that a record torn by
+ * a crash is detected and dropped on recovery. Appending a record only copies
+ * it into a memory buffer; a committer thread writes the buffered records and
+ * forces them to disk with a single flush, so concurrent callers waiting in
+ * {@link #awaitDurable(long)} share the cost of one flush per batch (group
+ * commit).
+ * <p>
+ * Positions in the log grow with every record and are never reused. The file
+ * starts with a header holding the position of its first record, so that
+ * {@link #compact(long)} can drop the records before a checkpoint by copying
+ * the remaining ones into a new file, without changing their positions.
+ */
+public class WriteAheadLog implements Closeable {
+
+	/** The size of the record header, the length and the checksum. */
+	private static final int HEADER_SIZE = 8;
+
+	/** The magic number at the start of a log file. */
+	private static final int MAGIC = 0x4253574C;
+
+	/**
+	 * The size of the file header, the magic number and the position of the
+	 * first record.
+	 */
+	private static final int FILE_HEADER_SIZE = 4 + 8;
+
+	/** The serializer of the arguments. */
+	private static final ThreadLocal<BookStoreSerializer> serializer = ThreadLocal
+			.withInitial(BookStoreKryoSerializer::new);
+
+	/** The log file. */
+	private final Path file;
+
+	/**
+	 * The lock that keeps the log file from being replaced while records are
+	 * read from it.
+	 */
+	private final ReentrantReadWriteLock fileLock = new ReentrantReadWriteLock();
+
+	/** The channel of the log file. */
+	private FileChannel channel;
+
+	/** The position of the first record in the log file. */
+	private long startPosition = 0;
+
+	/** The lock guarding the buffers, the positions and the sequence numbers. */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Signalled when records are appended or the log is closed. */
+	private final Condition appended = lock.newCondition();
+
+	/** Signalled when a batch of records is durable. */
+	private final Condition committed = lock.newCondition();
+
+	/** The records appended since the last batch was taken. */
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+	/** The buffer reused for the next batch. */
+	private ByteArrayOutputStream spare = new ByteArrayOutputStream();
+
+	/** The sequence number of the last appended record. */
+	private long lastAppended = 0;
+
+	/** The position in the log file after the last appended record. */
+	private long appendedPosition = 0;
+
+	/** The sequence number of the last durable record. */
+	private long lastDurable = 0;
+
+	/** The position in the log file after the last durable record. */
+	private long durablePosition = 0;
+
+	/** The position before which the committer drops the records, -1 if none. */
+	private long compactPosition = -1;
+
+	/** The error of the last compaction, if it failed. */
+	private IOException compactionFailure = null;
+
+	/** The error that stopped the committer, if any. */
+	private IOException failure = null;
+
+	/** Whether the log is closed. */
+	private boolean closed = false;
+
+	/** The committer thread. */
+	private Thread committer = null;
+
+	/**
+	 * Opens the log file, creating it if it does not exist. The records already
+	 * in the file must be read with {@link #replay(long, RecordHandler)} before
+	 * new records are appended.
+	 *
+	 * @param file
+	 *            the log file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public WriteAheadLog(Path file) throws IOException {
+		this.file = file;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		try {
+			if (channel.size() == 0) {
+				writeFileHeader(channel, 0);
+				channel.force(true);
+			} else {
+				ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+
+				while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+					;
+				}
+
+				if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+					throw new IOException("Invalid write-ahead log " + file);
+				}
+
+				startPosition = header.getLong(4);
+			}
+		} catch (IOException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Passes the records of the log file from the given position to the
+	 * handler, in the order they were appended, and starts the committer so new
+	 * records can be appended. The log is truncated after the last complete
+	 * record, dropping a record that was torn by a crash.
+	 *
+	 * @param position
+	 *            the position of the first record to replay, 0 to replay the
+	 *            whole log
+	 * @param handler
+	 *            the handler of the records
+	 * @return the number of records replayed
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public long replay(long position, RecordHandler handler) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		long size = startPosition + channel.size() - FILE_HEADER_SIZE;
+		long numRecords = 0;
+
+		if (position < startPosition) {
+			throw new IOException("The write-ahead log starts after position " + position);
+		}
+
+		if (position > size) {
+			throw new IOException("The write-ahead log ends before position " + position);
+		}
+
+		while (position + HEADER_SIZE <= size) {
+			header.clear();
+			readFully(header, position);
+			int length = header.getInt(0);
+			int checksum = header.getInt(4);
+
+			if (length <= 0 || position + HEADER_SIZE + length > size) {
+				break;
+			}
+
+			ByteBuffer payload = ByteBuffer.allocate(length);
+			readFully(payload, position + HEADER_SIZE);
+			crc.reset();
+			crc.update(payload.array(), 0, length);
+
+			if ((int) crc.getValue() != checksum) {
+				break;
+			}
+
+			decode(payload.array(), handler);
+			position += HEADER_SIZE + length;
+			numRecords++;
+		}
+
+		channel.truncate(position - startPosition + FILE_HEADER_SIZE);
+		channel.position(position - startPosition + FILE_HEADER_SIZE);
+		appendedPosition = position;
+		durablePosition = position;
+		startCommitter();
+		return numRecords;
+	}
+
+	/**
+	 * Encodes a mutation into a record. Encoding does not touch the log, so it
+	 * should be done before entering the critical section of the mutation.
+	 *
+	 * @param tag
+	 *            the tag of the mutation
+	 * @param argument
+	 *            the argument of the mutation
+	 * @return the record
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public byte[] encode(BookStoreMessageTag tag, Object argument) throws BookStoreException {
+		try {
+			byte[] name = tag.name().getBytes(StandardCharsets.UTF_8);
+			byte[] value = serializer.get().serialize(argument);
+			int length = 1 + name.length + value.length;
+
+			ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+			record.putInt(length).putInt(0).put((byte) name.length).put(name).put(value);
+
+			CRC32 crc = new CRC32();
+			crc.update(record.array(), HEADER_SIZE, length);
+			record.putInt(4, (int) crc.getValue());
+			return record.array();
+		} catch (IOException ex) {
+			throw new BookStoreException("Serialization error", ex);
+		}
+	}
+
+	/**
+	 * Appends an encoded record to the log. The records are written in the
+	 * order of the calls, so the caller must append under the same lock that
+	 * orders the mutations.
+	 *
+	 * @param record
+	 *            the record, as returned by
+	 *            {@link #encode(BookStoreMessageTag, Object)}
+	 * @return the sequence number of the record
+	 * @throws BookStoreException
+	 *             if the log is closed or failed
+	 */
+	public long append(byte[] record) throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (closed || failure != null) {
+				throw new BookStoreException("The write-ahead log is not available", failure);
+			}
+
+			pending.write(record, 0, record.length);
+			appendedPosition += record.length;
+			lastAppended++;
+			appended.signal();
+			return lastAppended;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the sequence number of the last appended record.
+	 *
+	 * @return the sequence number
+	 */
+	public long getLastAppended() {
+		lock.lock();
+
+		try {
+			return lastAppended;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the position in the log file after the last appended record, which
+	 * is where replay must start to skip the records appended so far.
+	 *
+	 * @return the position
+	 */
+	public long getAppendedPosition() {
+		lock.lock();
+
+		try {
+			return appendedPosition;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the position in the log file after the last durable record. The
+	 * records before it are never rewritten, so they can be read while records
+	 * are appended.
+	 *
+	 * @return the position
+	 */
+	public long getDurablePosition() {
+		lock.lock();
+
+		try {
+			return durablePosition;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the position of the first record kept in the log file, which only
+	 * grows when the log is compacted.
+	 *
+	 * @return the position
+	 */
+	public long getStartPosition() {
+		fileLock.readLock().lock();
+
+		try {
+			return startPosition;
+		} finally {
+			fileLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Reads the durable records from the given position, as they are framed in
+	 * the log file. Only whole records are read, at most maxBytes of them unless
+	 * the first record alone is larger.
+	 *
+	 * @param position
+	 *            the position of the first record, which must be the end of a
+	 *            record
+	 * @param maxBytes
+	 *            the maximum number of bytes to read
+	 * @return the records, empty if no record is durable after the position
+	 * @throws IOException
+	 *             if the records before the position were compacted, or an
+	 *             I/O exception has occurred
+	 */
+	public byte[] readRecords(long position, int maxBytes) throws IOException {
+		fileLock.readLock().lock();
+
+		try {
+			long end = getDurablePosition();
+
+			if (position < startPosition || position > end) {
+				throw new IOException("The write-ahead log has no record at position " + position);
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			long limit = position;
+
+			while (limit + HEADER_SIZE <= end) {
+				header.clear();
+				readFully(header, limit);
+				long next = limit + HEADER_SIZE + header.getInt(0);
+
+				if (next > end || (next - position > maxBytes && limit > position)) {
+					break;
+				}
+
+				limit = next;
+			}
+
+			ByteBuffer records = ByteBuffer.allocate((int) (limit - position));
+			readFully(records, position);
+			return records.array();
+		} finally {
+			fileLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Drops the records before the given position, once a checkpoint holds
+	 * their mutations. The committer copies the records after the position
+	 * into a new log file and renames it over the current one, between two
+	 * batches, so records are still appended meanwhile. A crash leaves either
+	 * file, and both replay from the position.
+	 *
+	 * @param position
+	 *            the position of the first record to keep, which must be
+	 *            durable and the end of a record
+	 * @throws IOException
+	 *             if the log could not be compacted
+	 */
+	public void compact(long position) throws IOException {
+		lock.lock();
+
+		try {
+			if (position > durablePosition) {
+				throw new IOException("The write-ahead log is not durable up to position " + position);
+			}
+
+			if (position <= startPosition) {
+				return;
+			}
+
+			compactPosition = Math.max(compactPosition, position);
+			compactionFailure = null;
+			appended.signal();
+
+			while (startPosition < position && compactionFailure == null && failure == null
+					&& (committer != null && committer.isAlive())) {
+				committed.awaitUninterruptibly();
+			}
+
+			if (startPosition < position) {
+				throw new IOException("The write-ahead log could not be compacted",
+						compactionFailure != null ? compactionFailure : failure);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Passes records read with {@link #readRecords(long, int)} to the handler,
+	 * in order.
+	 *
+	 * @param records
+	 *            the records
+	 * @param handler
+	 *            the handler of the records
+	 * @return the number of records
+	 * @throws IOException
+	 *             if a record is torn or corrupted
+	 */
+	public static long decodeRecords(byte[] records, RecordHandler handler) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(records);
+		CRC32 crc = new CRC32();
+		long numRecords = 0;
+
+		while (buffer.hasRemaining()) {
+			if (buffer.remaining() < HEADER_SIZE) {
+				throw new IOException("Torn record in the write-ahead log");
+			}
+
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+
+			if (length <= 0 || length > buffer.remaining()) {
+				throw new IOException("Torn record in the write-ahead log");
+			}
+
+			byte[] payload = new byte[length];
+			buffer.get(payload);
+			crc.reset();
+			crc.update(payload, 0, length);
+
+			if ((int) crc.getValue() != checksum) {
+				throw new IOException("Corrupted record in the write-ahead log");
+			}
+
+			decode(payload, handler);
+			numRecords++;
+		}
+
+		return numRecords;
+	}
+
+	/**
+	 * Waits until the record with the given sequence number is on disk.
+	 *
+	 * @param sequenceNumber
+	 *            the sequence number
+	 * @throws BookStoreException
+	 *             if the record could not be written
+	 */
+	public void awaitDurable(long sequenceNumber) throws BookStoreException {
+		lock.lock();
+
+		try {
+			while (lastDurable < sequenceNumber && failure == null) {
+				committed.awaitUninterruptibly();
+			}
+
+			if (lastDurable < sequenceNumber) {
+				throw new BookStoreException("The write-ahead log could not be written", failure);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the records that are still buffered and closes the log.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+
+		try {
+			closed = true;
+			appended.signal();
+		} finally {
+			lock.unlock();
+		}
+
+		if (committer != null) {
+			try {
+				committer.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		channel.close();
+	}
+
+	/**
+	 * Starts the committer thread.
+	 */
+	private void startCommitter() {
+		committer = new Thread(this::commitBatches, "WriteAheadLog-committer");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	/**
+	 * Writes the buffered records in batches, forcing every batch to disk,
+	 * until the log is closed and all records are written.
+	 */
+	private void commitBatches() {
+		while (true) {
+			ByteArrayOutputStream batch;
+			long batchEnd;
+			long batchEndPosition;
+
+			lock.lock();
+
+			try {
+				while (pending.size() == 0 && compactPosition < 0 && !closed) {
+					appended.awaitUninterruptibly();
+				}
+
+				if (compactPosition >= 0) {
+					long position = compactPosition;
+					long end = durablePosition;
+					IOException error = null;
+					compactPosition = -1;
+					lock.unlock();
+
+					try {
+						compactFile(position, end);
+					} catch (IOException ex) {
+						error = ex;
+					} finally {
+						lock.lock();
+					}
+
+					compactionFailure = error;
+					committed.signalAll();
+					continue;
+				}
+
+				if (pending.size() == 0) {
+					committed.signalAll();
+					return;
+				}
+
+				// Swap the buffers so appends continue while the batch is written.
+				batch = pending;
+				pending = spare;
+				spare = null;
+				batchEnd = lastAppended;
+				batchEndPosition = appendedPosition;
+			} finally {
+				lock.unlock();
+			}
+
+			IOException error = null;
+
+			try {
+				OutputStream out = Channels.newOutputStream(channel);
+				batch.writeTo(out);
+				channel.force(false);
+			} catch (IOException ex) {
+				error = ex;
+			}
+
+			batch.reset();
+			lock.lock();
+
+			try {
+				spare = batch;
+
+				if (error != null) {
+					failure = error;
+				} else {
+					lastDurable = batchEnd;
+					durablePosition = batchEndPosition;
+				}
+
+				committed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+
+			if (error != null) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Copies the records between the given positions into a new log file
+	 * starting at the first one, and replaces the log file with it. Only the
+	 * committer writes to the log file, so the records are not appended to
+	 * while they are copied.
+	 *
+	 * @param position
+	 *            the position of the first record to keep
+	 * @param end
+	 *            the position after the last durable record
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void compactFile(long position, long end) throws IOException {
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		FileChannel compacted = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			writeFileHeader(compacted, position);
+			long offset = position - startPosition + FILE_HEADER_SIZE;
+			long remaining = end - position;
+
+			while (remaining > 0) {
+				long copied = channel.transferTo(offset, remaining, compacted);
+				offset += copied;
+				remaining -= copied;
+			}
+
+			compacted.force(true);
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			// The rename is only durable once the directory entry is on disk.
+			try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(),
+					StandardOpenOption.READ)) {
+				directory.force(true);
+			}
+		} catch (IOException ex) {
+			compacted.close();
+			Files.deleteIfExists(tempFile);
+			throw ex;
+		}
+
+		FileChannel previous = channel;
+		compacted.position(compacted.size());
+		fileLock.writeLock().lock();
+
+		try {
+			channel = compacted;
+			startPosition = position;
+		} finally {
+			fileLock.writeLock().unlock();
+		}
+
+		previous.close();
+	}
+
+	/**
+	 * Writes the file header at the start of a log file.
+	 *
+	 * @param channel
+	 *            the channel of the log file
+	 * @param startPosition
+	 *            the position of the first record of the file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void writeFileHeader(FileChannel channel, long startPosition) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+		header.putInt(MAGIC).putLong(startPosition).flip();
+
+		while (header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+
+		channel.position(FILE_HEADER_SIZE);
+	}
+
+	/**
+	 * Reads bytes from the log file until the buffer is full.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param position
+	 *            the position in the log of the first byte
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		long offset = position - startPosition + FILE_HEADER_SIZE;
+
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, offset + buffer.position());
+
+			if (read < 0) {
+				throw new IOException("Unexpected end of the write-ahead log");
+			}
+		}
+	}
+
+	/**
+	 * Decodes a record payload and passes it to the handler.
+	 *
+	 * @param payload
+	 *            the payload
+	 * @param handler
+	 *            the handler
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void decode(byte[] payload, RecordHandler handler) throws IOException {
+		int nameLength = payload[0] & 0xFF;
+		String name = new String(payload, 1, nameLength, StandardCharsets.UTF_8);
+		int offset = 1 + nameLength;
+
+		BookStoreMessageTag tag;
+
+		try {
+			tag = BookStoreMessageTag.valueOf(name);
+		} catch (IllegalArgumentException ex) {
+			throw new IOException("Unknown record in the write-ahead log: " + name, ex);
+		}
+
+		handler.handle(tag,
+				serializer.get().deserialize(new ByteArrayInputStream(payload, offset, payload.length - offset)));
+	}
+
+	/**
+	 * {@link RecordHandler} receives the records of the log during replay.
+	 */
+	@FunctionalInterface
+	public interface RecordHandler {
+
+		/**
+		 * Handles a record.
+		 *
+		 * @param tag
+		 *            the tag of the mutation
+		 * @param argument
+		 *            the argument of the mutation
+		 * @throws IOException
+		 *             if the record cannot be applied
+		 */
+		void handle(BookStoreMessageTag tag, Object argument) throws IOException;
+	}
+}
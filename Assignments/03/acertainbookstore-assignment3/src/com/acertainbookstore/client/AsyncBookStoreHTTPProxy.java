@@ -0,0 +1,225 @@
+package com.acertainbookstore.client;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.interfaces.AsyncBookStore;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHTTP2Client;
+import com.acertainbookstore.utils.BookStoreCompactSerializer;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+
+/**
+ * {@link AsyncBookStoreHTTPProxy} implements the client level asynchronous
+ * {@link AsyncBookStore} API. Requests are sent with the non-blocking send
+ * path of the HTTP client, so the calling thread is never blocked and a few
+ * client threads serve any number of requests in flight.
+ *
+ * @see AsyncBookStore
+ * @see BookStoreHTTPProxy
+ */
+public class AsyncBookStoreHTTPProxy implements AsyncBookStore {
+
+	/** The client. */
+	protected HttpClient client;
+
+	/** The HTTP/2 client, null if the proxy uses HTTP/1.1. */
+	private BookStoreHTTP2Client http2Client;
+
+	/** The server address. */
+	protected String serverAddress;
+
+	/** The serializer. */
+	private static ThreadLocal<BookStoreSerializer> serializer;
+
+	/**
+	 * Initializes a new {@link AsyncBookStoreHTTPProxy}, over HTTP/2 if the
+	 * {@link BookStoreConstants#PROPERTY_KEY_HTTP2} property is true.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @throws Exception
+	 *             the exception
+	 */
+	public AsyncBookStoreHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_HTTP2));
+	}
+
+	/**
+	 * Initializes a new {@link AsyncBookStoreHTTPProxy}.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param http2
+	 *            whether the requests are multiplexed over a single HTTP/2
+	 *            connection rather than sent over HTTP/1.1 connections
+	 * @throws Exception
+	 *             the exception
+	 */
+	public AsyncBookStoreHTTPProxy(String serverAddress, boolean http2) throws Exception {
+
+		// Setup the type of serializer.
+		if (BookStoreConstants.BINARY_SERIALIZATION && BookStoreConstants.COMPACT_SERIALIZATION) {
+			serializer = ThreadLocal.withInitial(BookStoreCompactSerializer::new);
+		} else if (BookStoreConstants.BINARY_SERIALIZATION) {
+			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
+		} else {
+			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
+		}
+
+		this.serverAddress = serverAddress;
+
+		if (http2) {
+			http2Client = new BookStoreHTTP2Client(BookStoreClientConstants.CLIENT_ASYNC_THREADSPOOL_THREADS);
+			return;
+		}
+
+		client = new HttpClient();
+
+		// Max concurrent connections to every address, and the requests
+		// waiting for one.
+		client.setMaxConnectionsPerDestination(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS);
+		client.setMaxRequestsQueuedPerDestination(BookStoreClientConstants.CLIENT_MAX_QUEUED_REQUESTS_ADDRESS);
+
+		// A few threads complete every request.
+		client.setExecutor(new QueuedThreadPool(BookStoreClientConstants.CLIENT_ASYNC_THREADSPOOL_THREADS));
+
+		// Seconds timeout; if no server reply, the request expires.
+		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+
+		client.start();
+	}
+
+	/**
+	 * Gets the server address.
+	 *
+	 * @return the server address
+	 */
+	public String getServerAddress() {
+		return serverAddress;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncBookStore#buyBooks(java.util.Set)
+	 */
+	@Override
+	public CompletableFuture<Void> buyBooks(Set<BookCopy> booksToBuy) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.BUYBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, booksToBuy);
+		return performHttpExchangeAsync(bookStoreRequest)
+				.thenApply(bookStoreResponse -> null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncBookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public CompletableFuture<Void> rateBooks(Set<BookRating> bookRating) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		future.completeExceptionally(new BookStoreException());
+		return future;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncBookStore#getBooks(java.util.Set)
+	 */
+	@Override
+	public CompletableFuture<List<Book>> getBooks(Set<Integer> isbnSet) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
+		return performHttpExchangeAsync(bookStoreRequest)
+				.thenApply(AsyncBookStoreHTTPProxy::toBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncBookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public CompletableFuture<List<Book>> getTopRatedBooks(int numBooks) {
+		CompletableFuture<List<Book>> future = new CompletableFuture<>();
+		future.completeExceptionally(new BookStoreException());
+		return future;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.AsyncBookStore#getEditorPicks(int)
+	 */
+	@Override
+	public CompletableFuture<List<Book>> getEditorPicks(int numBooks) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETEDITORPICKS + "?"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + numBooks;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		return performHttpExchangeAsync(bookStoreRequest)
+				.thenApply(AsyncBookStoreHTTPProxy::toBooks);
+	}
+
+	/**
+	 * Perform HTTP exchange on the transport of the proxy without blocking.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @return the future book store response
+	 */
+	private CompletableFuture<BookStoreResponse> performHttpExchangeAsync(BookStoreRequest bookStoreRequest) {
+		if (http2Client != null) {
+			return http2Client.performHttpExchangeAsync(bookStoreRequest, serializer::get);
+		}
+
+		return BookStoreUtility.performHttpExchangeAsync(client, bookStoreRequest, serializer::get);
+	}
+
+	/**
+	 * Stops the proxy.
+	 */
+	public void stop() {
+		try {
+			if (http2Client != null) {
+				http2Client.stop();
+			} else {
+				client.stop();
+			}
+		} catch (Exception ex) {
+			System.err.println("Could not stop the client: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Gets the books carried by a response.
+	 *
+	 * @param bookStoreResponse
+	 *            the response
+	 * @return the books
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Book> toBooks(BookStoreResponse bookStoreResponse) {
+		return (List<Book>) bookStoreResponse.getList();
+	}
+}
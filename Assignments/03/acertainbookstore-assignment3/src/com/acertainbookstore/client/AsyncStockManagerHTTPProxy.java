@@ -0,0 +1,271 @@
+package com.acertainbookstore.client;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.AsyncStockManager;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHTTP2Client;
+import com.acertainbookstore.utils.BookStoreCompactSerializer;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+
+/**
+ * {@link AsyncStockManagerHTTPProxy} implements the client level asynchronous
+ * {@link AsyncStockManager} API. Requests are sent with the non-blocking send
+ * path of the HTTP client, so the calling thread is never blocked and a few
+ * client threads serve any number of requests in flight.
+ *
+ * @see AsyncStockManager
+ * @see StockManagerHTTPProxy
+ */
+public class AsyncStockManagerHTTPProxy implements AsyncStockManager {
+
+	/** The client. */
+	protected HttpClient client;
+
+	/** The HTTP/2 client, null if the proxy uses HTTP/1.1. */
+	private BookStoreHTTP2Client http2Client;
+
+	/** The server address. */
+	protected String serverAddress;
+
+	/** The serializer. */
+	private static ThreadLocal<BookStoreSerializer> serializer;
+
+	/**
+	 * Initializes a new {@link AsyncStockManagerHTTPProxy}, over HTTP/2 if the
+	 * {@link BookStoreConstants#PROPERTY_KEY_HTTP2} property is true.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @throws Exception
+	 *             the exception
+	 */
+	public AsyncStockManagerHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_HTTP2));
+	}
+
+	/**
+	 * Initializes a new {@link AsyncStockManagerHTTPProxy}.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param http2
+	 *            whether the requests are multiplexed over a single HTTP/2
+	 *            connection rather than sent over HTTP/1.1 connections
+	 * @throws Exception
+	 *             the exception
+	 */
+	public AsyncStockManagerHTTPProxy(String serverAddress, boolean http2) throws Exception {
+
+		// Setup the type of serializer.
+		if (BookStoreConstants.BINARY_SERIALIZATION && BookStoreConstants.COMPACT_SERIALIZATION) {
+			serializer = ThreadLocal.withInitial(BookStoreCompactSerializer::new);
+		} else if (BookStoreConstants.BINARY_SERIALIZATION) {
+			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
+		} else {
+			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
+		}
+
+		this.serverAddress = serverAddress;
+
+		if (http2) {
+			http2Client = new BookStoreHTTP2Client(BookStoreClientConstants.CLIENT_ASYNC_THREADSPOOL_THREADS);
+			return;
+		}
+
+		client = new HttpClient();
+
+		// Max concurrent connections to every address, and the requests
+		// waiting for one.
+		client.setMaxConnectionsPerDestination(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS);
+		client.setMaxRequestsQueuedPerDestination(BookStoreClientConstants.CLIENT_MAX_QUEUED_REQUESTS_ADDRESS);
+
+		// A few threads complete every request.
+		client.setExecutor(new QueuedThreadPool(BookStoreClientConstants.CLIENT_ASYNC_THREADSPOOL_THREADS));
+
+		// Seconds timeout; if no server reply, the request expires.
+		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+
+		client.start();
+	}
+
+	/**
+	 * Gets the server address.
+	 *
+	 * @return the server address
+	 */
+	public String getServerAddress() {
+		return serverAddress;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncStockManager#addBooks(java.util.Set)
+	 */
+	@Override
+	public CompletableFuture<Void> addBooks(Set<StockBook> bookSet) {
+		return write(BookStoreMessageTag.ADDBOOKS, bookSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncStockManager#addCopies(java.util.
+	 * Set)
+	 */
+	@Override
+	public CompletableFuture<Void> addCopies(Set<BookCopy> bookCopiesSet) {
+		return write(BookStoreMessageTag.ADDCOPIES, bookCopiesSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.AsyncStockManager#getBooks()
+	 */
+	@Override
+	public CompletableFuture<List<StockBook>> getBooks() {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.LISTBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		return performHttpExchangeAsync(bookStoreRequest)
+				.thenApply(AsyncStockManagerHTTPProxy::toStockBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncStockManager#getBooksByISBN(java.
+	 * util.Set)
+	 */
+	@Override
+	public CompletableFuture<List<StockBook>> getBooksByISBN(Set<Integer> isbns) {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETSTOCKBOOKSBYISBN;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbns);
+		return performHttpExchangeAsync(bookStoreRequest)
+				.thenApply(AsyncStockManagerHTTPProxy::toStockBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.AsyncStockManager#getBooksInDemand()
+	 */
+	@Override
+	public CompletableFuture<List<StockBook>> getBooksInDemand() {
+		CompletableFuture<List<StockBook>> future = new CompletableFuture<>();
+		future.completeExceptionally(new BookStoreException());
+		return future;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncStockManager#updateEditorPicks(java.
+	 * util.Set)
+	 */
+	@Override
+	public CompletableFuture<Void> updateEditorPicks(Set<BookEditorPick> editorPicks) {
+		return write(BookStoreMessageTag.UPDATEEDITORPICKS, editorPicks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.AsyncStockManager#removeAllBooks()
+	 */
+	@Override
+	public CompletableFuture<Void> removeAllBooks() {
+		// The request is just a signal to remove all books.
+		return write(BookStoreMessageTag.REMOVEALLBOOKS, "");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.AsyncStockManager#removeBooks(java.util.
+	 * Set)
+	 */
+	@Override
+	public CompletableFuture<Void> removeBooks(Set<Integer> isbnSet) {
+		return write(BookStoreMessageTag.REMOVEBOOKS, isbnSet);
+	}
+
+	/**
+	 * Perform HTTP exchange on the transport of the proxy without blocking.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @return the future book store response
+	 */
+	private CompletableFuture<BookStoreResponse> performHttpExchangeAsync(BookStoreRequest bookStoreRequest) {
+		if (http2Client != null) {
+			return http2Client.performHttpExchangeAsync(bookStoreRequest, serializer::get);
+		}
+
+		return BookStoreUtility.performHttpExchangeAsync(client, bookStoreRequest, serializer::get);
+	}
+
+	/**
+	 * Stops the proxy.
+	 */
+	public void stop() {
+		try {
+			if (http2Client != null) {
+				http2Client.stop();
+			} else {
+				client.stop();
+			}
+		} catch (Exception ex) {
+			System.err.println("Could not stop the client: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Posts a write to the server.
+	 *
+	 * @param tag
+	 *            the tag of the write
+	 * @param inputValue
+	 *            the argument of the write
+	 * @return the future completed when the write is applied
+	 */
+	private CompletableFuture<Void> write(BookStoreMessageTag tag, Object inputValue) {
+		String urlString = serverAddress + "/" + tag;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, inputValue);
+		return performHttpExchangeAsync(bookStoreRequest)
+				.thenApply(bookStoreResponse -> null);
+	}
+
+	/**
+	 * Gets the stock books carried by a response.
+	 *
+	 * @param bookStoreResponse
+	 *            the response
+	 * @return the stock books
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<StockBook> toStockBooks(BookStoreResponse bookStoreResponse) {
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+}
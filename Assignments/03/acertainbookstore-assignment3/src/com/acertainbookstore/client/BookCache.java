@@ -0,0 +1,223 @@
+package com.acertainbookstore.client;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookCache} keeps the books most recently read by a client, so that
+ * repeated reads of popular books are served without a request to the server.
+ * <p>
+ * The title, author and price of a book only change when books are added to
+ * or removed from the catalog, which changes the catalog version of the
+ * server. The cache reads that version at most once per validation interval
+ * and drops every book when it changed, so a cached book is at most one
+ * interval staler than the server. The books missing from the cache are read
+ * in a single request, and the least recently used books are evicted beyond
+ * the capacity of the cache.
+ * <p>
+ * The cache is thread-safe, and reads the server without holding its lock.
+ */
+public class BookCache {
+
+	/**
+	 * {@link VersionReader} reads the catalog version of the server.
+	 */
+	@FunctionalInterface
+	public interface VersionReader {
+
+		/**
+		 * Reads the catalog version.
+		 *
+		 * @return the catalog version
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		long read() throws BookStoreException;
+	}
+
+	/**
+	 * {@link BookLoader} reads books from the server.
+	 */
+	@FunctionalInterface
+	public interface BookLoader {
+
+		/**
+		 * Reads the books of a set of ISBNs.
+		 *
+		 * @param isbns
+		 *            the ISBNs
+		 * @return the books
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		List<Book> load(Set<Integer> isbns) throws BookStoreException;
+	}
+
+	/** The books, by ISBN, from the least recently used. */
+	private final Map<Integer, Book> books;
+
+	/** The reader of the catalog version. */
+	private final VersionReader versionReader;
+
+	/** The loader of the books missing from the cache. */
+	private final BookLoader bookLoader;
+
+	/** The validation interval, in nanoseconds. */
+	private final long validationIntervalNanos;
+
+	/** The catalog version of the cached books. */
+	private long version;
+
+	/** The time of the last validation, in nanoseconds. */
+	private long validatedAt;
+
+	/**
+	 * Instantiates a new {@link BookCache}.
+	 *
+	 * @param maxBooks
+	 *            the capacity of the cache
+	 * @param validationIntervalMillis
+	 *            the validation interval, in milliseconds
+	 * @param versionReader
+	 *            the reader of the catalog version
+	 * @param bookLoader
+	 *            the loader of the books missing from the cache
+	 */
+	public BookCache(int maxBooks, long validationIntervalMillis, VersionReader versionReader,
+			BookLoader bookLoader) {
+		this.books = new LinkedHashMap<Integer, Book>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Book> eldest) {
+				return size() > maxBooks;
+			}
+		};
+		this.versionReader = versionReader;
+		this.bookLoader = bookLoader;
+		this.validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(validationIntervalMillis);
+		this.validatedAt = System.nanoTime() - validationIntervalNanos;
+	}
+
+	/**
+	 * Gets the books of a set of ISBNs, from the cache when it holds them and
+	 * from the server otherwise.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Book> getBooks(Set<Integer> isbns) throws BookStoreException {
+		if (isbns == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		validate();
+
+		List<Book> result = new ArrayList<>(isbns.size());
+		Set<Integer> missingISBNs = new HashSet<>();
+		long cachedVersion;
+
+		synchronized (this) {
+			cachedVersion = version;
+
+			for (Integer isbn : isbns) {
+				Book book = books.get(isbn);
+
+				if (book != null) {
+					result.add(book);
+				} else {
+					missingISBNs.add(isbn);
+				}
+			}
+		}
+
+		if (!missingISBNs.isEmpty()) {
+			List<Book> loadedBooks = bookLoader.load(missingISBNs);
+
+			synchronized (this) {
+				// Books loaded across a validation may belong to an older
+				// catalog, so they are not kept.
+				if (version == cachedVersion) {
+					for (Book book : loadedBooks) {
+						books.put(book.getISBN(), book);
+					}
+				}
+			}
+
+			result.addAll(loadedBooks);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Drops every book of the cache.
+	 */
+	public synchronized void clear() {
+		books.clear();
+	}
+
+	/**
+	 * Gets the number of books in the cache.
+	 *
+	 * @return the number of books
+	 */
+	public synchronized int size() {
+		return books.size();
+	}
+
+	/**
+	 * Reads the catalog version of the server if the last validation is older
+	 * than the validation interval, and drops the books if it changed. A
+	 * single thread validates at a time; the others use the cache meanwhile.
+	 *
+	 * @throws BookStoreException
+	 *             if the catalog version cannot be read
+	 */
+	private void validate() throws BookStoreException {
+		long now = System.nanoTime();
+		long previousValidatedAt;
+
+		synchronized (this) {
+			if (now - validatedAt < validationIntervalNanos) {
+				return;
+			}
+
+			previousValidatedAt = validatedAt;
+			validatedAt = now;
+		}
+
+		long serverVersion;
+
+		try {
+			serverVersion = versionReader.read();
+		} catch (BookStoreException ex) {
+			synchronized (this) {
+				// Let the next read validate again.
+				validatedAt = previousValidatedAt;
+			}
+
+			throw ex;
+		}
+
+		synchronized (this) {
+			if (serverVersion != version) {
+				books.clear();
+				version = serverVersion;
+			}
+		}
+	}
+}
@@ -11,12 +11,41 @@ public final class BookStoreClientConstants {
 	/** The Constant CLIENT_MAX_CONNECTION_ADDRESS. */
 	public static final int CLIENT_MAX_CONNECTION_ADDRESS = 200;
 
+	/**
+	 * The Constant CLIENT_MAX_QUEUED_REQUESTS_ADDRESS bounding the requests
+	 * waiting for a connection to an address, so that asynchronous clients can
+	 * keep many requests in flight.
+	 */
+	public static final int CLIENT_MAX_QUEUED_REQUESTS_ADDRESS = 65536;
+
+	/** The Constant CLIENT_ASYNC_THREADSPOOL_THREADS. */
+	public static final int CLIENT_ASYNC_THREADSPOOL_THREADS = 16;
+
 	/** The Constant CLIENT_MAX_THREADSPOOL_THREADS. */
 	public static final int CLIENT_MAX_THREADSPOOL_THREADS = 250;
 
+	/**
+	 * The Constant CLIENT_MAX_SHARD_REQUESTS bounding the requests that a
+	 * sharded proxy sends to every shard in parallel.
+	 */
+	public static final int CLIENT_MAX_SHARD_REQUESTS = 16;
+
+	/**
+	 * The Constant COORDINATOR_REDELIVERY_MILLISECS between the attempts of a
+	 * purchase coordinator to send again the decisions some shard did not
+	 * receive, and to compact its log.
+	 */
+	public static final long COORDINATOR_REDELIVERY_MILLISECS = 1000;
+
 	/** The Constant CLIENT_MAX_TIMEOUT_MILLISECS. */
 	public static final int CLIENT_MAX_TIMEOUT_MILLISECS = 30000;
 
+	/**
+	 * The Constant BOOK_CACHE_VALIDATION_MILLISECS bounding how long the books
+	 * cached by a proxy are served before the catalog version is checked.
+	 */
+	public static final long BOOK_CACHE_VALIDATION_MILLISECS = 1000;
+
 	/** The Constant strERR_CLIENT_REQUEST_SENDING. */
 	public static final String STR_ERR_CLIENT_REQUEST_SENDING = "ERR_CLIENT_REQUEST_SENDING";
 
@@ -3,6 +3,8 @@ package com.acertainbookstore.client;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import org.eclipse.jetty.client.HttpClient;
@@ -10,13 +12,20 @@ import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookStoreOperation;
 import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.PurchaseDecision;
+import com.acertainbookstore.business.PurchaseTransaction;
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.PurchaseParticipant;
+import com.acertainbookstore.utils.BookStoreCompactSerializer;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.interfaces.OperationExecutor;
 import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHTTP2Client;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreRequest;
 import com.acertainbookstore.utils.BookStoreResponse;
@@ -24,24 +33,41 @@ import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
  * {@link BookStoreHTTPProxy} implements the client level synchronous
- * {@link CertainBookStore} API declared in the {@link BookStore} class.
+ * {@link CertainBookStore} API declared in the {@link BookStore} class, the
+ * {@link PurchaseParticipant} API used to coordinate purchases spanning
+ * several servers, and the {@link OperationExecutor} API sending batches of
+ * operations in a single request.
  * 
  * @see BookStore
+ * @see PurchaseParticipant
+ * @see OperationExecutor
  * @see CertainBookStore
  */
-public class BookStoreHTTPProxy implements BookStore {
+public class BookStoreHTTPProxy implements BookStore, PurchaseParticipant, OperationExecutor {
 
 	/** The client. */
 	protected HttpClient client;
 
+	/** The HTTP/2 client, null if the proxy uses HTTP/1.1. */
+	private BookStoreHTTP2Client http2Client;
+
 	/** The server address. */
 	protected String serverAddress;
 
+	/** The router of the reads to the backups of the server. */
+	private ReplicaReadRouter replicaReads;
+
+	/** The cache of the books read, null if the books are not cached. */
+	private BookCache bookCache;
+
 	/** The serializer. */
 	private static ThreadLocal<BookStoreSerializer> serializer;
 
 	/**
-	 * Initializes a new {@link BookStoreHTTPProxy}.
+	 * Initializes a new {@link BookStoreHTTPProxy}, over HTTP/2 if the
+	 * {@link BookStoreConstants#PROPERTY_KEY_HTTP2} property is true, and
+	 * caching as many books as the
+	 * {@link BookStoreConstants#PROPERTY_KEY_BOOK_CACHE_SIZE} property.
 	 *
 	 * @param serverAddress
 	 *            the server address
@@ -49,15 +75,46 @@ public class BookStoreHTTPProxy implements BookStore {
 	 *             the exception
 	 */
 	public BookStoreHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_HTTP2));
+	}
+
+	/**
+	 * Initializes a new {@link BookStoreHTTPProxy}.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param http2
+	 *            whether the requests are multiplexed over a single HTTP/2
+	 *            connection rather than sent over HTTP/1.1 connections
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreHTTPProxy(String serverAddress, boolean http2) throws Exception {
 
 		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
+		if (BookStoreConstants.BINARY_SERIALIZATION && BookStoreConstants.COMPACT_SERIALIZATION) {
+			serializer = ThreadLocal.withInitial(BookStoreCompactSerializer::new);
+		} else if (BookStoreConstants.BINARY_SERIALIZATION) {
 			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
 		} else {
 			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
 		}
 
 		setServerAddress(serverAddress);
+		replicaReads = new ReplicaReadRouter(Collections.emptyList(), 0);
+
+		int bookCacheSize = Integer.getInteger(BookStoreConstants.PROPERTY_KEY_BOOK_CACHE_SIZE, 0);
+
+		if (bookCacheSize > 0) {
+			bookCache = new BookCache(bookCacheSize, BookStoreClientConstants.BOOK_CACHE_VALIDATION_MILLISECS,
+					this::getCatalogVersion, this::loadBooks);
+		}
+
+		if (http2) {
+			http2Client = new BookStoreHTTP2Client(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS);
+			return;
+		}
+
 		client = new HttpClient();
 
 		// Max concurrent connections to every address.
@@ -72,6 +129,26 @@ public class BookStoreHTTPProxy implements BookStore {
 		client.start();
 	}
 
+	/**
+	 * Initializes a new {@link BookStoreHTTPProxy} that sends its reads to the
+	 * backups of the server, as long as they are not staler than the bound,
+	 * and its writes to the server.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param replicaAddresses
+	 *            the addresses of the backups of the server
+	 * @param maxStalenessMillis
+	 *            the maximum staleness of the backups, in milliseconds
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreHTTPProxy(String serverAddress, List<String> replicaAddresses, long maxStalenessMillis)
+			throws Exception {
+		this(serverAddress);
+		replicaReads = new ReplicaReadRouter(replicaAddresses, maxStalenessMillis);
+	}
+
 	/**
 	 * Gets the server address.
 	 *
@@ -99,7 +176,7 @@ public class BookStoreHTTPProxy implements BookStore {
 	public void buyBooks(Set<BookCopy> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.BUYBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -107,12 +184,73 @@ public class BookStoreHTTPProxy implements BookStore {
 	 * 
 	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
 	 */
-	@SuppressWarnings("unchecked")
 	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (bookCache != null) {
+			return bookCache.getBooks(isbnSet);
+		}
+
+		return readBooks(isbnSet);
+	}
+
+	/**
+	 * Gets the catalog version of the server, which changes whenever books are
+	 * added or removed.
+	 *
+	 * @return the catalog version
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public long getCatalogVersion() throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETCATALOGVERSION;
+		BookStoreResponse bookStoreResponse = performHttpExchange(BookStoreRequest.newGetRequest(urlString));
+		return (Long) bookStoreResponse.getList().get(0);
+	}
+
+	/**
+	 * Gets the number of editor picks of the server or its backups.
+	 *
+	 * @return the number of editor picks
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public int getNumEditorPicks() throws BookStoreException {
+		BookStoreResponse bookStoreResponse = replicaReads.read(this::performHttpExchange, serverAddress,
+				BookStoreMessageTag.GETNUMEDITORPICKS.toString(), BookStoreRequest::newGetRequest);
+		return (Integer) bookStoreResponse.getList().get(0);
+	}
+
+	/**
+	 * Reads books from the server or its backups.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Book> readBooks(Set<Integer> isbnSet) throws BookStoreException {
+		BookStoreResponse bookStoreResponse = replicaReads.read(this::performHttpExchange, serverAddress,
+				BookStoreMessageTag.GETBOOKS.toString(),
+				urlString -> BookStoreRequest.newPostRequest(urlString, isbnSet));
+		return (List<Book>) bookStoreResponse.getList();
+	}
+
+	/**
+	 * Reads the books missing from the cache from the server, rather than from
+	 * its backups, since the catalog version validating the cache is the one
+	 * of the server.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Book> loadBooks(Set<Integer> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKS;
-		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = performHttpExchange(BookStoreRequest.newPostRequest(urlString, isbnSet));
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
@@ -127,21 +265,88 @@ public class BookStoreHTTPProxy implements BookStore {
 
 		urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
 
-		String urlString = serverAddress + "/" + BookStoreMessageTag.GETEDITORPICKS + "?"
-				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+		String path = BookStoreMessageTag.GETEDITORPICKS + "?" + BookStoreConstants.BOOK_NUM_PARAM + "="
+				+ urlEncodedNumBooks;
 
-		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = replicaReads.read(this::performHttpExchange, serverAddress, path,
+				BookStoreRequest::newGetRequest);
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.PurchaseParticipant#preparePurchase(com.
+	 * acertainbookstore.business.PurchaseTransaction)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<BookCopy> preparePurchase(PurchaseTransaction transaction) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.PREPAREPURCHASE;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, transaction);
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
+		return (List<BookCopy>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.PurchaseParticipant#decidePurchase(com.
+	 * acertainbookstore.business.PurchaseDecision)
+	 */
+	@Override
+	public void decidePurchase(PurchaseDecision decision) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.DECIDEPURCHASE;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, decision);
+		performHttpExchange(bookStoreRequest);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.OperationExecutor#executeOperations(java.
+	 * util.List)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<List<?>> executeOperations(List<BookStoreOperation> operations) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.EXECUTEOPERATIONS;
+		// Copied so that views such as Arrays.asList are sent as plain lists.
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, new ArrayList<>(operations));
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
+		return (List<List<?>>) bookStoreResponse.getList();
+	}
+
+	/**
+	 * Perform HTTP exchange on the transport of the proxy.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private BookStoreResponse performHttpExchange(BookStoreRequest bookStoreRequest) throws BookStoreException {
+		if (http2Client != null) {
+			return http2Client.performHttpExchange(bookStoreRequest, serializer.get());
+		}
+
+		return BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+	}
+
 	/**
 	 * Stops the proxy.
 	 */
 	public void stop() {
 		try {
-			client.stop();
+			if (http2Client != null) {
+				http2Client.stop();
+			} else {
+				client.stop();
+			}
 		} catch (Exception ex) {
 			System.err.println(ex.getStackTrace());
 		}
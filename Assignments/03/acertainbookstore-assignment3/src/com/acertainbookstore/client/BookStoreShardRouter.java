@@ -0,0 +1,387 @@
+package com.acertainbookstore.client;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookStoreShardRouter} routes requests to the shards of a bookstore
+ * cluster, where every shard is a server process that owns the books whose
+ * ISBN maps to it under {@link #shardOf(int, int)}.
+ * <p>
+ * Requests on a set of books are split by shard and the parts are sent in
+ * parallel, one part being sent by the calling thread. Requests on the whole
+ * catalog are broadcast to every shard. The results are returned in shard
+ * order, and the first failure is rethrown once every shard has replied.
+ * Since every shard applies its part on its own, a write that fails on one
+ * shard may still be applied by the others, unless it is coordinated like a
+ * {@link PurchaseCoordinator} does.
+ * <p>
+ * The parts are sent by a bounded pool of threads, one per shard and
+ * concurrent request, so that a burst of requests queues up instead of
+ * starting a thread for every part.
+ *
+ * @param <P>
+ *            the type of the proxies of the shards
+ */
+public class BookStoreShardRouter<P> {
+
+	/** The proxies of the shards, indexed by shard. */
+	private final List<P> shards;
+
+	/** The executor sending the parts of a request in parallel. */
+	private final ExecutorService executor;
+
+	/**
+	 * Instantiates a new {@link BookStoreShardRouter} sending up to
+	 * {@link BookStoreClientConstants#CLIENT_MAX_SHARD_REQUESTS} requests in
+	 * parallel.
+	 *
+	 * @param shards
+	 *            the proxies of the shards, indexed by shard
+	 */
+	public BookStoreShardRouter(List<P> shards) {
+		this(shards, BookStoreClientConstants.CLIENT_MAX_SHARD_REQUESTS);
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreShardRouter}.
+	 *
+	 * @param shards
+	 *            the proxies of the shards, indexed by shard
+	 * @param maxConcurrentRequests
+	 *            the number of requests sent in parallel before the parts of
+	 *            further requests wait for a thread
+	 */
+	public BookStoreShardRouter(List<P> shards, int maxConcurrentRequests) {
+		if (shards.isEmpty()) {
+			throw new IllegalArgumentException("A cluster needs at least one shard");
+		}
+
+		if (maxConcurrentRequests <= 0) {
+			throw new IllegalArgumentException("A cluster needs at least one concurrent request");
+		}
+
+		this.shards = new ArrayList<>(shards);
+
+		// The calling thread sends one part of every request itself.
+		int numThreads = Math.max(1, (shards.size() - 1) * maxConcurrentRequests);
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(numThreads, numThreads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), runnable -> {
+					Thread thread = new Thread(runnable, "BookStoreShardRouter");
+					thread.setDaemon(true);
+					return thread;
+				});
+		pool.allowCoreThreadTimeOut(true);
+		executor = pool;
+	}
+
+	/**
+	 * Gets the shard that owns the ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param numShards
+	 *            the number of shards
+	 * @return the shard
+	 */
+	public static int shardOf(int isbn, int numShards) {
+		return Math.floorMod(isbn, numShards);
+	}
+
+	/**
+	 * Gets the number of shards.
+	 *
+	 * @return the number of shards
+	 */
+	public int getNumShards() {
+		return shards.size();
+	}
+
+	/**
+	 * Gets the proxy of a shard.
+	 *
+	 * @param shard
+	 *            the shard
+	 * @return the proxy
+	 */
+	public P getShard(int shard) {
+		return shards.get(shard);
+	}
+
+	/**
+	 * Gets the proxies of all the shards.
+	 *
+	 * @return the proxies, indexed by shard
+	 */
+	public List<P> getShards() {
+		return shards;
+	}
+
+	/**
+	 * Splits the items by the shard owning their ISBN.
+	 *
+	 * @param <T>
+	 *            the type of the items
+	 * @param items
+	 *            the items
+	 * @param isbnOf
+	 *            the function giving the ISBN of an item
+	 * @return the items of every shard, indexed by shard, null for shards
+	 *         without items
+	 * @throws BookStoreException
+	 *             if the items are null
+	 */
+	public <T> List<Set<T>> split(Set<T> items, ToIntFunction<? super T> isbnOf) throws BookStoreException {
+		if (items == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		int numShards = shards.size();
+		List<Set<T>> parts = new ArrayList<>(numShards);
+
+		for (int i = 0; i < numShards; i++) {
+			parts.add(null);
+		}
+
+		for (T item : items) {
+			int shard = shardOf(isbnOf.applyAsInt(item), numShards);
+			Set<T> part = parts.get(shard);
+
+			if (part == null) {
+				part = new HashSet<>();
+				parts.set(shard, part);
+			}
+
+			part.add(item);
+		}
+
+		return parts;
+	}
+
+	/**
+	 * Splits the items by shard and sends every part to its shard in
+	 * parallel.
+	 *
+	 * @param <T>
+	 *            the type of the items
+	 * @param <R>
+	 *            the type of the results
+	 * @param items
+	 *            the items
+	 * @param isbnOf
+	 *            the function giving the ISBN of an item
+	 * @param call
+	 *            the call sending a part to a shard
+	 * @return the results of the shards that received a part, in shard order
+	 * @throws BookStoreException
+	 *             if the items are null, or the first failure of a shard
+	 */
+	public <T, R> List<R> scatter(Set<T> items, ToIntFunction<? super T> isbnOf, ScatterCall<P, T, R> call)
+			throws BookStoreException {
+		List<Set<T>> parts = split(items, isbnOf);
+		List<ShardTask<R>> tasks = new ArrayList<>();
+
+		for (int shard = 0; shard < parts.size(); shard++) {
+			Set<T> part = parts.get(shard);
+
+			if (part != null) {
+				P proxy = shards.get(shard);
+				tasks.add(() -> call.call(proxy, part));
+			}
+		}
+
+		return invokeAll(tasks);
+	}
+
+	/**
+	 * Sends a request to every shard in parallel.
+	 *
+	 * @param <R>
+	 *            the type of the results
+	 * @param call
+	 *            the call sending the request to a shard
+	 * @return the results of the shards, in shard order
+	 * @throws BookStoreException
+	 *             the first failure of a shard
+	 */
+	public <R> List<R> broadcast(BroadcastCall<P, R> call) throws BookStoreException {
+		return multicast(shards, call);
+	}
+
+	/**
+	 * Sends a request to some of the shards in parallel.
+	 *
+	 * @param <R>
+	 *            the type of the results
+	 * @param targets
+	 *            the proxies of the shards
+	 * @param call
+	 *            the call sending the request to a shard
+	 * @return the results of the shards, in the order of the targets
+	 * @throws BookStoreException
+	 *             the first failure of a shard
+	 */
+	public <R> List<R> multicast(List<P> targets, BroadcastCall<P, R> call) throws BookStoreException {
+		List<ShardTask<R>> tasks = new ArrayList<>(targets.size());
+
+		for (P proxy : targets) {
+			tasks.add(() -> call.call(proxy));
+		}
+
+		return invokeAll(tasks);
+	}
+
+	/**
+	 * Stops the executor. The proxies of the shards are not stopped.
+	 */
+	public void stop() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Runs the tasks in parallel, the first one in the calling thread, and
+	 * waits for all of them, even if the first one throws.
+	 *
+	 * @param <R>
+	 *            the type of the results
+	 * @param tasks
+	 *            the tasks
+	 * @return the results of the tasks, in order
+	 * @throws BookStoreException
+	 *             the first failure of a task
+	 */
+	private <R> List<R> invokeAll(List<ShardTask<R>> tasks) throws BookStoreException {
+		List<R> results = new ArrayList<>(tasks.size());
+
+		if (tasks.isEmpty()) {
+			return results;
+		}
+
+		List<Future<R>> futures = new ArrayList<>(tasks.size() - 1);
+
+		for (ShardTask<R> task : tasks.subList(1, tasks.size())) {
+			futures.add(executor.submit(task::run));
+		}
+
+		BookStoreException failure = null;
+		RuntimeException uncheckedFailure = null;
+
+		try {
+			results.add(tasks.get(0).run());
+		} catch (BookStoreException ex) {
+			failure = ex;
+		} catch (RuntimeException ex) {
+			uncheckedFailure = ex;
+		}
+
+		// Wait for every shard, even after a failure, so no request is left
+		// running when the call returns.
+		for (Future<R> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException ex) {
+				if (failure == null) {
+					failure = ex.getCause() instanceof BookStoreException ? (BookStoreException) ex.getCause()
+							: new BookStoreException(ex.getCause());
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+
+				if (failure == null) {
+					failure = new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+				}
+			}
+		}
+
+		if (uncheckedFailure != null) {
+			throw uncheckedFailure;
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+
+		return results;
+	}
+
+	/**
+	 * {@link ScatterCall} sends the part of a request owned by a shard.
+	 *
+	 * @param <P>
+	 *            the type of the proxies of the shards
+	 * @param <T>
+	 *            the type of the items
+	 * @param <R>
+	 *            the type of the result
+	 */
+	@FunctionalInterface
+	public interface ScatterCall<P, T, R> {
+
+		/**
+		 * Sends the part to the shard.
+		 *
+		 * @param shard
+		 *            the proxy of the shard
+		 * @param part
+		 *            the items owned by the shard
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		R call(P shard, Set<T> part) throws BookStoreException;
+	}
+
+	/**
+	 * {@link BroadcastCall} sends a request to a shard.
+	 *
+	 * @param <P>
+	 *            the type of the proxies of the shards
+	 * @param <R>
+	 *            the type of the result
+	 */
+	@FunctionalInterface
+	public interface BroadcastCall<P, R> {
+
+		/**
+		 * Sends the request to the shard.
+		 *
+		 * @param shard
+		 *            the proxy of the shard
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		R call(P shard) throws BookStoreException;
+	}
+
+	/**
+	 * {@link ShardTask} is the request to one shard.
+	 *
+	 * @param <R>
+	 *            the type of the result
+	 */
+	@FunctionalInterface
+	private interface ShardTask<R> {
+
+		/**
+		 * Sends the request.
+		 *
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		R run() throws BookStoreException;
+	}
+}
@@ -0,0 +1,90 @@
+package com.acertainbookstore.client;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link CatalogMirror} keeps a copy of the catalog of a {@link StockManager}
+ * on the client, brought up to date by applying the changes since its last
+ * refresh, so that a stock manager polling the catalog transfers only what
+ * changed rather than every book.
+ * <p>
+ * The mirror is not synchronized: it is meant to be refreshed and read by one
+ * thread.
+ *
+ * @see StockManager#getBookChanges(String)
+ */
+public class CatalogMirror {
+
+	/** The stock manager. */
+	private final StockManager stockManager;
+
+	/** The books of the copy, by ISBN. */
+	private final Map<Integer, StockBook> books = new HashMap<>();
+
+	/** The token of the version of the copy, null before the first refresh. */
+	private String token = null;
+
+	/**
+	 * Instantiates a new {@link CatalogMirror}.
+	 *
+	 * @param stockManager
+	 *            the stock manager
+	 */
+	public CatalogMirror(StockManager stockManager) {
+		this.stockManager = stockManager;
+	}
+
+	/**
+	 * Brings the copy up to date with the catalog of the stock manager.
+	 *
+	 * @return the books of the copy
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public Collection<StockBook> refresh() throws BookStoreException {
+		CatalogChanges changes = stockManager.getBookChanges(token);
+
+		if (changes.isReset()) {
+			books.clear();
+		}
+
+		for (Integer isbn : changes.getRemovedISBNs()) {
+			books.remove(isbn);
+		}
+
+		for (StockBook book : changes.getBooks()) {
+			books.put(book.getISBN(), book);
+		}
+
+		token = changes.getToken();
+		return getBooks();
+	}
+
+	/**
+	 * Gets the books of the copy, as of the last refresh.
+	 *
+	 * @return the books
+	 */
+	public Collection<StockBook> getBooks() {
+		return Collections.unmodifiableCollection(books.values());
+	}
+
+	/**
+	 * Checks whether the copy holds a book, as of the last refresh.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @return true, if the copy holds the book
+	 */
+	public boolean containsBook(int isbn) {
+		return books.containsKey(isbn);
+	}
+}
@@ -0,0 +1,394 @@
+package com.acertainbookstore.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.PurchaseDecision;
+import com.acertainbookstore.business.PurchaseTransaction;
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.PurchaseParticipant;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link PurchaseCoordinator} buys books spanning several shards of a
+ * bookstore cluster atomically, with a two-phase commit.
+ * <p>
+ * Every shard owning some of the books receives one prepare message with all
+ * of its copies, and the prepare messages are sent in parallel. Every shard
+ * validates its part; if every part is valid and in stock the copies are
+ * reserved and the purchase commits. Otherwise the purchase aborts, recording
+ * the sale misses only if every part was valid, exactly like a purchase on a
+ * single server. A purchase owned by a single shard is sent to it as a plain
+ * purchase.
+ * <p>
+ * A shard that reserved its copies waits for the decision however long it
+ * takes, so the coordinator keeps a {@link WriteAheadLog} of its purchases.
+ * The start of a purchase is forced to the log before the prepare messages
+ * are sent, and a commit before the decision is sent, so a purchase started
+ * but not committed in the log was aborted. Once every shard received the
+ * decision, the end of the purchase is appended to the log.
+ * <p>
+ * A decision that some shard did not receive is sent again to every shard by
+ * a background thread, which also drops from the log the records before the
+ * oldest purchase that has not ended. When the coordinator is restarted on
+ * its log, the decisions of the purchases that did not end are sent again;
+ * the shards ignore decisions on purchases they do not hold.
+ *
+ * @param <P>
+ *            the type of the proxies of the shards
+ */
+public class PurchaseCoordinator<P extends BookStore & PurchaseParticipant> implements Closeable {
+
+	/** The router over the proxies of the shards. */
+	private final BookStoreShardRouter<P> router;
+
+	/** The log of the purchases. */
+	private final WriteAheadLog log;
+
+	/** The decisions some shard may not have received, by transaction. */
+	private final Map<String, PurchaseDecision> undeliveredDecisions = new LinkedHashMap<>();
+
+	/**
+	 * The position in the log of the first record of the purchases that did
+	 * not end, by transaction, in the order of the log. Guards the appends to
+	 * the log.
+	 */
+	private final Map<String, Long> unfinishedPurchases = new LinkedHashMap<>();
+
+	/** The scheduler sending again the undelivered decisions. */
+	private final ScheduledExecutorService redeliveryScheduler;
+
+	/**
+	 * Instantiates a new {@link PurchaseCoordinator}, sending again the
+	 * decisions on the purchases of the log file that did not end. The log
+	 * file is emptied once every shard received them.
+	 *
+	 * @param router
+	 *            the router over the proxies of the shards
+	 * @param logFile
+	 *            the log file, created if it does not exist
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public PurchaseCoordinator(BookStoreShardRouter<P> router, Path logFile) throws IOException {
+		this.router = router;
+
+		log = new WriteAheadLog(logFile);
+
+		try {
+			log.replay(log.getStartPosition(), this::recover);
+			redeliverDecisions();
+			compactLog();
+		} catch (IOException | BookStoreException | RuntimeException ex) {
+			log.close();
+			throw ex instanceof IOException ? (IOException) ex
+					: new IOException("Could not recover the coordinator log " + logFile, ex);
+		}
+
+		redeliveryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "PurchaseCoordinator-redelivery");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		redeliveryScheduler.scheduleWithFixedDelay(() -> {
+			redeliverDecisions();
+
+			try {
+				compactLog();
+			} catch (IOException | BookStoreException ex) {
+				System.err.println("Could not compact the coordinator log " + logFile + ": " + ex.getMessage());
+			}
+		}, BookStoreClientConstants.COORDINATOR_REDELIVERY_MILLISECS,
+				BookStoreClientConstants.COORDINATOR_REDELIVERY_MILLISECS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Buys the books atomically across the shards.
+	 *
+	 * @param booksToBuy
+	 *            the books to buy
+	 * @throws BookStoreException
+	 *             if the purchase aborted, or could not be started
+	 */
+	public void buyBooks(Set<BookCopy> booksToBuy) throws BookStoreException {
+		List<Set<BookCopy>> parts = router.split(booksToBuy, BookCopy::getISBN);
+		List<P> participants = new ArrayList<>();
+		List<PurchaseTransaction> transactions = new ArrayList<>();
+		String transactionId = UUID.randomUUID().toString();
+
+		for (int shard = 0; shard < parts.size(); shard++) {
+			if (parts.get(shard) != null) {
+				participants.add(router.getShard(shard));
+				transactions.add(new PurchaseTransaction(transactionId, parts.get(shard)));
+			}
+		}
+
+		if (participants.isEmpty()) {
+			return;
+		}
+
+		if (participants.size() == 1) {
+			// A single shard is atomic on its own.
+			participants.get(0).buyBooks(transactions.get(0).getBookCopies());
+			return;
+		}
+
+		// The purchase is aborted on recovery unless it is committed.
+		PurchaseTransaction purchase = new PurchaseTransaction(transactionId, new HashSet<>(booksToBuy));
+		byte[] record = log.encode(BookStoreMessageTag.PREPAREPURCHASE, purchase);
+		long sequenceNumber;
+
+		synchronized (unfinishedPurchases) {
+			long position = log.getAppendedPosition();
+			sequenceNumber = log.append(record);
+			unfinishedPurchases.put(transactionId, position);
+		}
+
+		log.awaitDurable(sequenceNumber);
+
+		// Phase one: every shard votes on its part.
+		List<Vote<P>> votes = router.multicast(participants, participant -> {
+			PurchaseTransaction transaction = transactions.get(participants.indexOf(participant));
+
+			try {
+				return new Vote<>(participant, participant.preparePurchase(transaction), null);
+			} catch (BookStoreException ex) {
+				return new Vote<>(participant, null, ex);
+			}
+		});
+
+		BookStoreException rejection = null;
+		boolean saleMiss = false;
+
+		for (Vote<P> vote : votes) {
+			if (vote.rejection != null) {
+				rejection = rejection == null ? vote.rejection : rejection;
+			} else {
+				saleMiss |= !vote.missingCopies.isEmpty();
+			}
+		}
+
+		boolean commit = rejection == null && !saleMiss;
+		PurchaseDecision decision = new PurchaseDecision(transactionId, commit, rejection == null);
+
+		if (commit) {
+			// The purchase is committed once the decision is on disk.
+			record = log.encode(BookStoreMessageTag.DECIDEPURCHASE, decision);
+
+			synchronized (unfinishedPurchases) {
+				sequenceNumber = log.append(record);
+			}
+
+			log.awaitDurable(sequenceNumber);
+		}
+
+		// Phase two: every shard hears the decision, including the shards
+		// whose vote was lost, which may have prepared their part anyway.
+		if (deliver(decision, participants)) {
+			end(transactionId);
+		}
+
+		if (rejection != null) {
+			throw rejection;
+		}
+
+		if (saleMiss) {
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/**
+	 * Stops sending the decisions again, compacts the log and closes it. The
+	 * decisions that some shard did not receive are sent again by the next
+	 * coordinator opened on the log file.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void close() throws IOException {
+		redeliveryScheduler.shutdown();
+
+		try {
+			redeliveryScheduler.awaitTermination(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS,
+					TimeUnit.MILLISECONDS);
+			compactLog();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (BookStoreException ex) {
+			// The log is already closed, or failed and will be recovered.
+		} finally {
+			log.close();
+		}
+	}
+
+	/**
+	 * Sends a decision to the shards, and keeps it to send it again if some
+	 * shard did not receive it.
+	 *
+	 * @param decision
+	 *            the decision
+	 * @param targets
+	 *            the proxies of the shards
+	 * @return true, if every shard received the decision
+	 */
+	private boolean deliver(PurchaseDecision decision, List<P> targets) {
+		try {
+			router.multicast(targets, participant -> {
+				participant.decidePurchase(decision);
+				return null;
+			});
+			return true;
+		} catch (BookStoreException ex) {
+			synchronized (undeliveredDecisions) {
+				undeliveredDecisions.put(decision.getTransactionId(), decision);
+			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * Sends again the decisions that some shard did not receive, to every
+	 * shard, and ends the purchases whose decision was received.
+	 */
+	private void redeliverDecisions() {
+		List<PurchaseDecision> decisions;
+
+		synchronized (undeliveredDecisions) {
+			decisions = new ArrayList<>(undeliveredDecisions.values());
+			undeliveredDecisions.clear();
+		}
+
+		for (PurchaseDecision decision : decisions) {
+			if (deliver(decision, router.getShards())) {
+				end(decision.getTransactionId());
+			}
+		}
+	}
+
+	/**
+	 * Appends the end of a purchase whose decision every shard received. The
+	 * end is not forced: if it is lost, the decision is sent again.
+	 *
+	 * @param transactionId
+	 *            the transaction ID of the purchase
+	 */
+	private void end(String transactionId) {
+		try {
+			byte[] record = log.encode(BookStoreMessageTag.ENDPURCHASE, transactionId);
+
+			synchronized (unfinishedPurchases) {
+				log.append(record);
+				unfinishedPurchases.remove(transactionId);
+			}
+		} catch (BookStoreException ex) {
+			// The log is closed: the next coordinator sends the decision again.
+		}
+	}
+
+	/**
+	 * Drops from the log the records before the first record of the oldest
+	 * purchase that did not end.
+	 *
+	 * @throws BookStoreException
+	 *             if the log is closed or failed
+	 * @throws IOException
+	 *             if the log could not be compacted
+	 */
+	private void compactLog() throws BookStoreException, IOException {
+		long position;
+		long sequenceNumber;
+
+		synchronized (unfinishedPurchases) {
+			position = unfinishedPurchases.isEmpty() ? log.getAppendedPosition()
+					: unfinishedPurchases.values().iterator().next();
+			sequenceNumber = log.getLastAppended();
+		}
+
+		if (position > log.getStartPosition()) {
+			log.awaitDurable(sequenceNumber);
+			log.compact(position);
+		}
+	}
+
+	/**
+	 * Recovers a record of the log: a purchase is aborted unless its commit
+	 * was logged.
+	 *
+	 * @param tag
+	 *            the tag of the record
+	 * @param argument
+	 *            the argument of the record
+	 * @throws IOException
+	 *             if the record is not a record of a coordinator
+	 */
+	private void recover(BookStoreMessageTag tag, Object argument) throws IOException {
+		if (tag == BookStoreMessageTag.PREPAREPURCHASE && argument instanceof PurchaseTransaction) {
+			// The position of the records replayed is not known, so none of
+			// them is dropped until every recovered purchase ended.
+			String transactionId = ((PurchaseTransaction) argument).getTransactionId();
+			undeliveredDecisions.putIfAbsent(transactionId, new PurchaseDecision(transactionId, false, false));
+			unfinishedPurchases.putIfAbsent(transactionId, log.getStartPosition());
+		} else if (tag == BookStoreMessageTag.DECIDEPURCHASE && argument instanceof PurchaseDecision) {
+			PurchaseDecision decision = (PurchaseDecision) argument;
+			undeliveredDecisions.put(decision.getTransactionId(), decision);
+			unfinishedPurchases.putIfAbsent(decision.getTransactionId(), log.getStartPosition());
+		} else if (tag == BookStoreMessageTag.ENDPURCHASE && argument instanceof String) {
+			undeliveredDecisions.remove(argument);
+			unfinishedPurchases.remove(argument);
+		} else {
+			throw new IOException("Unsupported record in the coordinator log: " + tag);
+		}
+	}
+
+	/**
+	 * {@link Vote} is the answer of a shard to the prepare message.
+	 *
+	 * @param <P>
+	 *            the type of the proxies of the shards
+	 */
+	private static final class Vote<P> {
+
+		/** The proxy of the shard. */
+		private final P participant;
+
+		/** The missing copies, if the part was valid. */
+		private final List<BookCopy> missingCopies;
+
+		/** The rejection, if the part was invalid or the shard failed. */
+		private final BookStoreException rejection;
+
+		/**
+		 * Instantiates a new {@link Vote}.
+		 *
+		 * @param participant
+		 *            the proxy of the shard
+		 * @param missingCopies
+		 *            the missing copies, if the part was valid
+		 * @param rejection
+		 *            the rejection, if the part was invalid
+		 */
+		private Vote(P participant, List<BookCopy> missingCopies, BookStoreException rejection) {
+			this.participant = participant;
+			this.missingCopies = missingCopies;
+			this.rejection = rejection;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package com.acertainbookstore.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+
+/**
+ * {@link ReplicaReadRouter} sends the reads of a proxy to the backups of its
+ * server, in turn, with a bound on how stale the backup may be. A backup
+ * staler than the bound rejects the read, and the read is then sent to the
+ * primary, as is a read that fails on the backup for any other reason. Without
+ * backups every read goes to the primary.
+ */
+public class ReplicaReadRouter {
+
+	/**
+	 * {@link Exchange} performs the HTTP exchange of a request on the transport
+	 * of the proxy.
+	 */
+	@FunctionalInterface
+	public interface Exchange {
+
+		/**
+		 * Perform HTTP exchange.
+		 *
+		 * @param bookStoreRequest
+		 *            the book store request
+		 * @return the book store response
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		BookStoreResponse perform(BookStoreRequest bookStoreRequest) throws BookStoreException;
+	}
+
+	/** The addresses of the backups. */
+	private final List<String> replicaAddresses;
+
+	/** The maximum staleness of the backups, in milliseconds. */
+	private final long maxStalenessMillis;
+
+	/** The counter choosing the next backup. */
+	private final AtomicInteger nextReplica = new AtomicInteger();
+
+	/**
+	 * Instantiates a new {@link ReplicaReadRouter}.
+	 *
+	 * @param replicaAddresses
+	 *            the addresses of the backups, with the same path as the
+	 *            address of the primary
+	 * @param maxStalenessMillis
+	 *            the maximum staleness of the backups, in milliseconds
+	 */
+	public ReplicaReadRouter(List<String> replicaAddresses, long maxStalenessMillis) {
+		this.replicaAddresses = new ArrayList<>(replicaAddresses);
+		this.maxStalenessMillis = maxStalenessMillis;
+	}
+
+	/**
+	 * Sends a read to a backup, or to the primary if the backup cannot serve
+	 * it.
+	 *
+	 * @param exchange
+	 *            the exchange of the proxy
+	 * @param primaryAddress
+	 *            the address of the primary
+	 * @param path
+	 *            the path of the read, with its query string if any
+	 * @param requestOf
+	 *            the function building the request from its URL
+	 * @return the response
+	 * @throws BookStoreException
+	 *             if the primary fails the read
+	 */
+	public BookStoreResponse read(Exchange exchange, String primaryAddress, String path,
+			Function<String, BookStoreRequest> requestOf) throws BookStoreException {
+		if (!replicaAddresses.isEmpty()) {
+			String replicaAddress = replicaAddresses
+					.get(Math.floorMod(nextReplica.getAndIncrement(), replicaAddresses.size()));
+			String urlString = replicaAddress + "/" + path + (path.indexOf('?') < 0 ? "?" : "&")
+					+ BookStoreConstants.MAX_STALENESS_PARAM + "=" + maxStalenessMillis;
+
+			try {
+				return exchange.perform(requestOf.apply(urlString));
+			} catch (BookStoreException ex) {
+				// The backup is stale or unreachable, or the read is invalid;
+				// the primary decides.
+			}
+		}
+
+		return exchange.perform(requestOf.apply(primaryAddress + "/" + path));
+	}
+}
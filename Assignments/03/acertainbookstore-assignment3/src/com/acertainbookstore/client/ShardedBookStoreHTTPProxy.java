@@ -0,0 +1,194 @@
+package com.acertainbookstore.client;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ShardedBookStoreHTTPProxy} implements the {@link BookStore} API over
+ * a cluster of bookstore servers, each owning a shard of the ISBNs. Requests
+ * on sets of books are split by shard and sent to the shards in parallel
+ * through a {@link BookStoreShardRouter}. Purchases spanning several shards
+ * are atomic, and are committed by a {@link PurchaseCoordinator}.
+ *
+ * @see BookStore
+ * @see BookStoreShardRouter
+ * @see PurchaseCoordinator
+ */
+public class ShardedBookStoreHTTPProxy implements BookStore {
+
+	/** The router over the proxies of the shards. */
+	private final BookStoreShardRouter<BookStoreHTTPProxy> router;
+
+	/** The coordinator of the purchases. */
+	private final PurchaseCoordinator<BookStoreHTTPProxy> coordinator;
+
+	/**
+	 * Initializes a new {@link ShardedBookStoreHTTPProxy}.
+	 *
+	 * @param serverAddresses
+	 *            the server addresses, indexed by shard
+	 * @param coordinatorLogFile
+	 *            the log file of the coordinator of the purchases
+	 * @throws Exception
+	 *             the exception
+	 */
+	public ShardedBookStoreHTTPProxy(List<String> serverAddresses, Path coordinatorLogFile) throws Exception {
+		List<BookStoreHTTPProxy> shards = new ArrayList<>(serverAddresses.size());
+
+		for (String serverAddress : serverAddresses) {
+			shards.add(new BookStoreHTTPProxy(serverAddress));
+		}
+
+		router = new BookStoreShardRouter<>(shards);
+		coordinator = new PurchaseCoordinator<>(router, coordinatorLogFile);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	@Override
+	public void buyBooks(Set<BookCopy> booksToBuy) throws BookStoreException {
+		coordinator.buyBooks(booksToBuy);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		router.scatter(bookRating, BookRating::getISBN, (shard, part) -> {
+			shard.rateBooks(part);
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	@Override
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		List<List<Book>> results = router.scatter(isbnSet, Integer::intValue,
+				(shard, part) -> shard.getBooks(part));
+		return merge(results);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	@Override
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Every pick of the cluster is drawn with the same probability: the
+		// numBooks picks are first drawn among the shards, in proportion to
+		// their remaining picks, and every shard then draws its share.
+		List<Integer> numPicks = router.broadcast(shard -> shard.getNumEditorPicks());
+		int[] remaining = new int[numPicks.size()];
+		int[] shares = new int[numPicks.size()];
+		int total = 0;
+
+		for (int shard = 0; shard < remaining.length; shard++) {
+			remaining[shard] = numPicks.get(shard);
+			total += remaining[shard];
+		}
+
+		for (int drawn = Math.min(numBooks, total); drawn > 0; drawn--, total--) {
+			int pick = ThreadLocalRandom.current().nextInt(total);
+			int shard = 0;
+
+			while (pick >= remaining[shard]) {
+				pick -= remaining[shard];
+				shard++;
+			}
+
+			remaining[shard]--;
+			shares[shard]++;
+		}
+
+		Map<BookStoreHTTPProxy, Integer> shardShares = new HashMap<>();
+
+		for (int shard = 0; shard < shares.length; shard++) {
+			if (shares[shard] > 0) {
+				shardShares.put(router.getShard(shard), shares[shard]);
+			}
+		}
+
+		List<Book> editorPicks = merge(router.multicast(new ArrayList<>(shardShares.keySet()),
+				shard -> shard.getEditorPicks(shardShares.get(shard))));
+		Collections.shuffle(editorPicks);
+		return editorPicks;
+	}
+
+	/**
+	 * Stops the proxy.
+	 */
+	public void stop() {
+		try {
+			coordinator.close();
+		} catch (IOException ex) {
+			System.err.println("Could not close the coordinator log: " + ex.getMessage());
+		}
+
+		router.stop();
+
+		for (BookStoreHTTPProxy shard : router.getShards()) {
+			shard.stop();
+		}
+	}
+
+	/**
+	 * Concatenates the lists returned by the shards.
+	 *
+	 * @param results
+	 *            the lists
+	 * @return the concatenated list
+	 */
+	private static List<Book> merge(List<List<Book>> results) {
+		int size = 0;
+
+		for (List<Book> result : results) {
+			size += result.size();
+		}
+
+		List<Book> merged = new ArrayList<>(size);
+
+		for (List<Book> result : results) {
+			merged.addAll(result);
+		}
+
+		return merged;
+	}
+}
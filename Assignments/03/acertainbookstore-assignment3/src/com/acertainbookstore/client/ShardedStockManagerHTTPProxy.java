@@ -0,0 +1,280 @@
+package com.acertainbookstore.client;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.CatalogPage;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ShardedStockManagerHTTPProxy} implements the {@link StockManager} API
+ * over a cluster of bookstore servers, each owning a shard of the ISBNs.
+ * Requests on sets of books are split by shard and requests on the whole
+ * catalog are broadcast, in parallel, through a {@link BookStoreShardRouter}.
+ *
+ * @see StockManager
+ * @see BookStoreShardRouter
+ */
+public class ShardedStockManagerHTTPProxy implements StockManager {
+
+	/** The separator of the tokens of the shards in a changes token. */
+	private static final String SHARD_TOKEN_SEPARATOR = ",";
+
+	/** The router over the proxies of the shards. */
+	private final BookStoreShardRouter<StockManagerHTTPProxy> router;
+
+	/**
+	 * Initializes a new {@link ShardedStockManagerHTTPProxy}.
+	 *
+	 * @param serverAddresses
+	 *            the stock manager addresses of the servers, indexed by shard
+	 * @throws Exception
+	 *             the exception
+	 */
+	public ShardedStockManagerHTTPProxy(List<String> serverAddresses) throws Exception {
+		List<StockManagerHTTPProxy> shards = new ArrayList<>(serverAddresses.size());
+
+		for (String serverAddress : serverAddresses) {
+			shards.add(new StockManagerHTTPProxy(serverAddress));
+		}
+
+		router = new BookStoreShardRouter<>(shards);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	@Override
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		router.scatter(bookSet, StockBook::getISBN, (shard, part) -> {
+			shard.addBooks(part);
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	@Override
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		router.scatter(bookCopiesSet, BookCopy::getISBN, (shard, part) -> {
+			shard.addCopies(part);
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	@Override
+	public List<StockBook> getBooks() throws BookStoreException {
+		return merge(router.broadcast(shard -> shard.getBooks()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksPage(java.lang.
+	 * String, int)
+	 */
+	@Override
+	public CatalogPage getBooksPage(String pageToken, int pageSize) throws BookStoreException {
+		int size = Math.min(pageSize, BookStoreConstants.MAX_CATALOG_PAGE_SIZE);
+		List<CatalogPage> shardPages = router.broadcast(shard -> shard.getBooksPage(pageToken, size));
+
+		// Every shard returns its first books after the token, so the first
+		// books of their union are the first books of the whole catalog.
+		List<StockBook> books = new ArrayList<>();
+		boolean hasMore = false;
+
+		for (CatalogPage shardPage : shardPages) {
+			books.addAll(shardPage.getBooks());
+			hasMore |= shardPage.getNextPageToken() != null;
+		}
+
+		books.sort(Comparator.comparingInt(StockBook::getISBN));
+
+		if (books.size() > size) {
+			books = new ArrayList<>(books.subList(0, size));
+			hasMore = true;
+		}
+
+		String nextPageToken = hasMore ? CatalogPage.tokenAfter(books.get(books.size() - 1).getISBN()) : null;
+		return new CatalogPage(books, nextPageToken);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBookChanges(java.lang.
+	 * String)
+	 */
+	@Override
+	public CatalogChanges getBookChanges(String token) throws BookStoreException {
+		// The token joins the tokens of the shards, in shard order; a token of
+		// another cluster reloads the whole catalog.
+		Map<StockManagerHTTPProxy, String> shardTokens = new HashMap<>();
+		String[] tokens = token == null ? null : token.split(SHARD_TOKEN_SEPARATOR, -1);
+
+		if (tokens != null && tokens.length == router.getNumShards()) {
+			for (int shard = 0; shard < tokens.length; shard++) {
+				shardTokens.put(router.getShard(shard), tokens[shard]);
+			}
+		}
+
+		List<CatalogChanges> shardChanges = router.broadcast(shard -> shard.getBookChanges(shardTokens.get(shard)));
+		boolean anyReset = shardChanges.stream().anyMatch(CatalogChanges::isReset);
+
+		if (anyReset && !shardChanges.stream().allMatch(CatalogChanges::isReset)) {
+			// The client cannot tell the books of a shard from the others, so
+			// a reset of one shard reloads all of them.
+			shardChanges = router.broadcast(shard -> shard.getBookChanges(null));
+		}
+
+		List<StockBook> books = new ArrayList<>();
+		Set<Integer> removedISBNs = new HashSet<>();
+		StringJoiner nextToken = new StringJoiner(SHARD_TOKEN_SEPARATOR);
+
+		for (CatalogChanges changes : shardChanges) {
+			books.addAll(changes.getBooks());
+			removedISBNs.addAll(changes.getRemovedISBNs());
+			nextToken.add(changes.getToken());
+		}
+
+		return new CatalogChanges(books, removedISBNs, anyReset, nextToken.toString());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	@Override
+	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
+		return merge(router.scatter(isbns, Integer::intValue, (shard, part) -> shard.getBooksByISBN(part)));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return merge(router.broadcast(shard -> shard.getBooksInDemand()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getLeastStockedBooks(int)
+	 */
+	@Override
+	public List<StockBook> getLeastStockedBooks(int numBooks) throws BookStoreException {
+		// The least stocked books of the catalog are among the numBooks least
+		// stocked books of every shard.
+		List<StockBook> books = merge(router.broadcast(shard -> shard.getLeastStockedBooks(numBooks)));
+		books.sort(Comparator.comparingInt(StockBook::getNumCopies).thenComparingInt(StockBook::getISBN));
+		return books.size() > numBooks ? new ArrayList<>(books.subList(0, numBooks)) : books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	@Override
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		router.scatter(editorPicks, BookEditorPick::getISBN, (shard, part) -> {
+			shard.updateEditorPicks(part);
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	@Override
+	public void removeAllBooks() throws BookStoreException {
+		router.broadcast(shard -> {
+			shard.removeAllBooks();
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	@Override
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		router.scatter(isbnSet, Integer::intValue, (shard, part) -> {
+			shard.removeBooks(part);
+			return null;
+		});
+	}
+
+	/**
+	 * Stops the proxy.
+	 */
+	public void stop() {
+		router.stop();
+
+		for (StockManagerHTTPProxy shard : router.getShards()) {
+			shard.stop();
+		}
+	}
+
+	/**
+	 * Concatenates the lists returned by the shards.
+	 *
+	 * @param results
+	 *            the lists
+	 * @return the concatenated list
+	 */
+	private static List<StockBook> merge(List<List<StockBook>> results) {
+		int size = 0;
+
+		for (List<StockBook> result : results) {
+			size += result.size();
+		}
+
+		List<StockBook> merged = new ArrayList<>(size);
+
+		for (List<StockBook> result : results) {
+			merged.addAll(result);
+		}
+
+		return merged;
+	}
+}
@@ -1,5 +1,9 @@
 package com.acertainbookstore.client;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -7,14 +11,20 @@ import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookStoreOperation;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.CatalogPage;
 import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreCompactSerializer;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.interfaces.OperationExecutor;
 import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHTTP2Client;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreRequest;
 import com.acertainbookstore.utils.BookStoreResponse;
@@ -22,25 +32,34 @@ import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
  * {@link StockManagerHTTPProxy} implements the client level synchronous
- * {@link CertainBookStore} API declared in the {@link StockManager} class. Uses
- * the HTTP protocol for communication with the server.
+ * {@link CertainBookStore} API declared in the {@link StockManager} class, and
+ * the {@link OperationExecutor} API sending batches of operations in a single
+ * request. Uses the HTTP protocol for communication with the server.
  * 
  * @see CertainBookStore
  * @see StockManager
+ * @see OperationExecutor
  */
-public class StockManagerHTTPProxy implements StockManager {
+public class StockManagerHTTPProxy implements StockManager, OperationExecutor {
 
 	/** The client. */
 	protected HttpClient client;
 
+	/** The HTTP/2 client, null if the proxy uses HTTP/1.1. */
+	private BookStoreHTTP2Client http2Client;
+
 	/** The server address. */
 	protected String serverAddress;
 
+	/** The router of the reads to the backups of the server. */
+	private ReplicaReadRouter replicaReads;
+
 	/** The serializer. */
 	private static ThreadLocal<BookStoreSerializer> serializer;
 
 	/**
-	 * Initializes a new {@link StockManagerHTTPProxy}.
+	 * Initializes a new {@link StockManagerHTTPProxy}, over HTTP/2 if the
+	 * {@link BookStoreConstants#PROPERTY_KEY_HTTP2} property is true.
 	 *
 	 * @param serverAddress
 	 *            the server address
@@ -48,15 +67,39 @@ public class StockManagerHTTPProxy implements StockManager {
 	 *             the exception
 	 */
 	public StockManagerHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_HTTP2));
+	}
+
+	/**
+	 * Initializes a new {@link StockManagerHTTPProxy}.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param http2
+	 *            whether the requests are multiplexed over a single HTTP/2
+	 *            connection rather than sent over HTTP/1.1 connections
+	 * @throws Exception
+	 *             the exception
+	 */
+	public StockManagerHTTPProxy(String serverAddress, boolean http2) throws Exception {
 
 		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
+		if (BookStoreConstants.BINARY_SERIALIZATION && BookStoreConstants.COMPACT_SERIALIZATION) {
+			serializer = ThreadLocal.withInitial(BookStoreCompactSerializer::new);
+		} else if (BookStoreConstants.BINARY_SERIALIZATION) {
 			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
 		} else {
 			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
 		}
 
 		setServerAddress(serverAddress);
+		replicaReads = new ReplicaReadRouter(Collections.emptyList(), 0);
+
+		if (http2) {
+			http2Client = new BookStoreHTTP2Client(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS);
+			return;
+		}
+
 		client = new HttpClient();
 
 		// Max concurrent connections to every address.
@@ -71,6 +114,26 @@ public class StockManagerHTTPProxy implements StockManager {
 		client.start();
 	}
 
+	/**
+	 * Initializes a new {@link StockManagerHTTPProxy} that sends its reads to the
+	 * backups of the server, as long as they are not staler than the bound,
+	 * and its writes to the server.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param replicaAddresses
+	 *            the addresses of the backups of the server
+	 * @param maxStalenessMillis
+	 *            the maximum staleness of the backups, in milliseconds
+	 * @throws Exception
+	 *             the exception
+	 */
+	public StockManagerHTTPProxy(String serverAddress, List<String> replicaAddresses, long maxStalenessMillis)
+			throws Exception {
+		this(serverAddress);
+		replicaReads = new ReplicaReadRouter(replicaAddresses, maxStalenessMillis);
+	}
+
 	/**
 	 * Gets the server address.
 	 *
@@ -99,7 +162,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -111,7 +174,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDCOPIES;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookCopiesSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -121,13 +184,51 @@ public class StockManagerHTTPProxy implements StockManager {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<StockBook> getBooks() throws BookStoreException {
-		String urlString = serverAddress + "/" + BookStoreMessageTag.LISTBOOKS;
-		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = replicaReads.read(this::performHttpExchange, serverAddress,
+				BookStoreMessageTag.LISTBOOKS.toString(), BookStoreRequest::newGetRequest);
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksPage(java.lang.
+	 * String, int)
+	 */
+	public CatalogPage getBooksPage(String pageToken, int pageSize) throws BookStoreException {
+		String path = BookStoreMessageTag.LISTBOOKSPAGE + "?" + BookStoreConstants.PAGE_SIZE_PARAM + "=" + pageSize;
+
+		if (pageToken != null) {
+			path += "&" + BookStoreConstants.PAGE_TOKEN_PARAM + "="
+					+ URLEncoder.encode(pageToken, StandardCharsets.UTF_8);
+		}
+
+		BookStoreResponse bookStoreResponse = replicaReads.read(this::performHttpExchange, serverAddress, path,
+				BookStoreRequest::newGetRequest);
+		return (CatalogPage) bookStoreResponse.getList().get(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBookChanges(java.lang.
+	 * String)
+	 */
+	public CatalogChanges getBookChanges(String token) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKCHANGES;
+
+		if (token != null) {
+			urlString += "?" + BookStoreConstants.CHANGES_TOKEN_PARAM + "="
+					+ URLEncoder.encode(token, StandardCharsets.UTF_8);
+		}
+
+		// The versions of the changes are those of the primary; a backup
+		// numbers the changes it applies on its own.
+		BookStoreResponse bookStoreResponse = performHttpExchange(BookStoreRequest.newGetRequest(urlString));
+		return (CatalogChanges) bookStoreResponse.getList().get(0);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -138,7 +239,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void updateEditorPicks(Set<BookEditorPick> editorPicksValues) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.UPDATEEDITORPICKS + "?";
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, editorPicksValues);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -151,6 +252,21 @@ public class StockManagerHTTPProxy implements StockManager {
 		throw new BookStoreException("Not implemented");
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getLeastStockedBooks(int)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<StockBook> getLeastStockedBooks(int numBooks) throws BookStoreException {
+		String path = BookStoreMessageTag.GETLEASTSTOCKEDBOOKS + "?" + BookStoreConstants.BOOK_NUM_PARAM + "="
+				+ numBooks;
+		BookStoreResponse bookStoreResponse = replicaReads.read(this::performHttpExchange, serverAddress, path,
+				BookStoreRequest::newGetRequest);
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -163,7 +279,7 @@ public class StockManagerHTTPProxy implements StockManager {
 		// need to send any data; this request is just a signal to remove all
 		// books.
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, "");
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -175,7 +291,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.REMOVEBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -187,19 +303,56 @@ public class StockManagerHTTPProxy implements StockManager {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
-		String urlString = serverAddress + "/" + BookStoreMessageTag.GETSTOCKBOOKSBYISBN;
-		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbns);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = replicaReads.read(this::performHttpExchange, serverAddress,
+				BookStoreMessageTag.GETSTOCKBOOKSBYISBN.toString(),
+				urlString -> BookStoreRequest.newPostRequest(urlString, isbns));
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.OperationExecutor#executeOperations(java.
+	 * util.List)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<List<?>> executeOperations(List<BookStoreOperation> operations) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.EXECUTEOPERATIONS;
+		// Copied so that views such as Arrays.asList are sent as plain lists.
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, new ArrayList<>(operations));
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
+		return (List<List<?>>) bookStoreResponse.getList();
+	}
+
+	/**
+	 * Perform HTTP exchange on the transport of the proxy.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private BookStoreResponse performHttpExchange(BookStoreRequest bookStoreRequest) throws BookStoreException {
+		if (http2Client != null) {
+			return http2Client.performHttpExchange(bookStoreRequest, serializer.get());
+		}
+
+		return BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+	}
+
 	/**
 	 * Stops the proxy.
 	 */
 	public void stop() {
 		try {
-			client.stop();
+			if (http2Client != null) {
+				http2Client.stop();
+			} else {
+				client.stop();
+			}
 		} catch (Exception ex) {
 			System.err.println(ex.getStackTrace());
 		}
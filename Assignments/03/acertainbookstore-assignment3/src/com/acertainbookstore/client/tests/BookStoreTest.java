@@ -2,10 +2,39 @@ package com.acertainbookstore.client.tests;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.api.server.ServerSessionListener;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.http2.server.RawHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.Callback;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -14,15 +43,33 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookStoreOperation;
 import com.acertainbookstore.business.CertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.PurchaseDecision;
+import com.acertainbookstore.business.PurchaseTransaction;
 import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.client.AsyncBookStoreHTTPProxy;
+import com.acertainbookstore.client.BookCache;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.BookStoreShardRouter;
+import com.acertainbookstore.client.PurchaseCoordinator;
+import com.acertainbookstore.client.ShardedBookStoreHTTPProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.OperationExecutor;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHTTP2Client;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 
 /**
  * {@link BookStoreTest} tests the {@link BookStore} interface.
@@ -349,6 +396,692 @@ public class BookStoreTest {
 				&& booksInStorePreTest.size() == booksInStorePostTest.size());
 	}
 
+	/**
+	 * Tests that a purchase spanning two shards is all-or-nothing: a sale miss
+	 * on one shard aborts the purchase on both and records the miss, an invalid
+	 * ISBN aborts it without recording misses, and a valid purchase commits on
+	 * both.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testCoordinatedPurchaseAcrossShards() throws BookStoreException, IOException {
+		CertainBookStore evenShard = new CertainBookStore();
+		CertainBookStore oddShard = new CertainBookStore();
+		BookStoreShardRouter<CertainBookStore> router = new BookStoreShardRouter<>(
+				Arrays.asList(evenShard, oddShard));
+		Path logFile = Files.createTempFile("coordinator", ".log");
+		PurchaseCoordinator<CertainBookStore> coordinator = new PurchaseCoordinator<>(router, logFile);
+
+		try {
+			Set<StockBook> evenBooks = new HashSet<StockBook>();
+			evenBooks.add(new ImmutableStockBook(TEST_ISBN, "Even", "Author", (float) 10, NUM_COPIES, 0, 0, 0, false));
+			evenShard.addBooks(evenBooks);
+
+			Set<StockBook> oddBooks = new HashSet<StockBook>();
+			oddBooks.add(new ImmutableStockBook(TEST_ISBN + 1, "Odd", "Author", (float) 10, NUM_COPIES, 0, 0, 0, false));
+			oddShard.addBooks(oddBooks);
+
+			// Too many copies of the odd book: nothing is bought.
+			Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+			booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+			booksToBuy.add(new BookCopy(TEST_ISBN + 1, NUM_COPIES + 1));
+
+			try {
+				coordinator.buyBooks(booksToBuy);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			assertEquals(NUM_COPIES, evenShard.getBooks().get(0).getNumCopies());
+			assertEquals(NUM_COPIES, oddShard.getBooks().get(0).getNumCopies());
+			assertEquals(1, oddShard.getBooks().get(0).getNumSaleMisses());
+
+			// An invalid ISBN aborts the purchase without recording misses.
+			booksToBuy.clear();
+			booksToBuy.add(new BookCopy(TEST_ISBN + 1, NUM_COPIES + 1));
+			booksToBuy.add(new BookCopy(TEST_ISBN + 2, 1));
+
+			try {
+				coordinator.buyBooks(booksToBuy);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			assertEquals(1, oddShard.getBooks().get(0).getNumSaleMisses());
+
+			// A valid purchase commits on both shards.
+			booksToBuy.clear();
+			booksToBuy.add(new BookCopy(TEST_ISBN, 2));
+			booksToBuy.add(new BookCopy(TEST_ISBN + 1, 3));
+			coordinator.buyBooks(booksToBuy);
+
+			assertEquals(NUM_COPIES - 2, evenShard.getBooks().get(0).getNumCopies());
+			assertEquals(NUM_COPIES - 3, oddShard.getBooks().get(0).getNumCopies());
+
+			// Every purchase ended, so no decision is left in the log.
+			coordinator.close();
+
+			try (WriteAheadLog log = new WriteAheadLog(logFile)) {
+				assertEquals(0, log.replay(log.getStartPosition(), (tag, argument) -> {
+				}));
+			}
+		} finally {
+			coordinator.close();
+			router.stop();
+			Files.deleteIfExists(logFile);
+		}
+	}
+
+	/**
+	 * Tests that a shard keeps a part whose copies are reserved until the
+	 * coordinator decides, and that a coordinator restarted on its log commits
+	 * the purchases it logged as committed and aborts the others.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testCoordinatorRecoversDecisions() throws BookStoreException, IOException {
+		CertainBookStore evenShard = new CertainBookStore();
+		CertainBookStore oddShard = new CertainBookStore();
+		BookStoreShardRouter<CertainBookStore> router = new BookStoreShardRouter<>(
+				Arrays.asList(evenShard, oddShard));
+		Path logFile = Files.createTempFile("coordinator", ".log");
+
+		try {
+			Set<StockBook> evenBooks = new HashSet<StockBook>();
+			evenBooks.add(new ImmutableStockBook(TEST_ISBN, "Even", "Author", (float) 10, NUM_COPIES, 0, 0, 0, false));
+			evenShard.addBooks(evenBooks);
+
+			Set<StockBook> oddBooks = new HashSet<StockBook>();
+			oddBooks.add(new ImmutableStockBook(TEST_ISBN + 1, "Odd", "Author", (float) 10, NUM_COPIES, 0, 0, 0, false));
+			oddShard.addBooks(oddBooks);
+
+			// Both shards reserve two purchases, then the coordinator stops
+			// after logging the commit of the first one only.
+			Set<BookCopy> evenCopies = new HashSet<BookCopy>();
+			evenCopies.add(new BookCopy(TEST_ISBN, 1));
+			Set<BookCopy> oddCopies = new HashSet<BookCopy>();
+			oddCopies.add(new BookCopy(TEST_ISBN + 1, 1));
+
+			try (WriteAheadLog log = new WriteAheadLog(logFile)) {
+				log.replay(0, (tag, argument) -> {
+				});
+
+				for (String transactionId : Arrays.asList("committed", "undecided")) {
+					log.append(log.encode(BookStoreMessageTag.PREPAREPURCHASE,
+							new PurchaseTransaction(transactionId, new HashSet<>())));
+					assertTrue(evenShard.preparePurchase(new PurchaseTransaction(transactionId, evenCopies)).isEmpty());
+					assertTrue(oddShard.preparePurchase(new PurchaseTransaction(transactionId, oddCopies)).isEmpty());
+				}
+
+				log.awaitDurable(log.append(log.encode(BookStoreMessageTag.DECIDEPURCHASE,
+						new PurchaseDecision("committed", true, true))));
+			}
+
+			// The reserved copies outlive any timeout.
+			evenShard.abortExpiredPurchases(0, TimeUnit.NANOSECONDS);
+			assertEquals(NUM_COPIES - 2, evenShard.getBooks().get(0).getNumCopies());
+
+			PurchaseCoordinator<CertainBookStore> coordinator = new PurchaseCoordinator<>(router, logFile);
+			coordinator.close();
+
+			assertEquals(NUM_COPIES - 1, evenShard.getBooks().get(0).getNumCopies());
+			assertEquals(NUM_COPIES - 1, oddShard.getBooks().get(0).getNumCopies());
+
+			try (WriteAheadLog log = new WriteAheadLog(logFile)) {
+				assertEquals(0, log.replay(log.getStartPosition(), (tag, argument) -> {
+				}));
+			}
+
+			// A commit sent again after it was applied changes nothing.
+			evenShard.decidePurchase(new PurchaseDecision("committed", true, true));
+			assertEquals(NUM_COPIES - 1, evenShard.getBooks().get(0).getNumCopies());
+		} finally {
+			router.stop();
+			Files.deleteIfExists(logFile);
+		}
+	}
+
+	/**
+	 * Tests the sharded bookstore over two servers: the books of both shards
+	 * are merged, and a purchase spanning them commits on both or on neither.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testShardedBookStore() throws Exception {
+		CertainBookStore evenShard = new CertainBookStore();
+		CertainBookStore oddShard = new CertainBookStore();
+		Server evenServer = startShard(evenShard);
+		Server oddServer = startShard(oddShard);
+		Path logFile = Files.createTempFile("coordinator", ".log");
+		ShardedBookStoreHTTPProxy shardedClient = null;
+
+		try {
+			shardedClient = new ShardedBookStoreHTTPProxy(Arrays.asList(addressOf(evenServer), addressOf(oddServer)),
+					logFile);
+
+			Set<StockBook> evenBooks = new HashSet<StockBook>();
+			evenBooks.add(new ImmutableStockBook(TEST_ISBN, "Even", "Author", (float) 10, NUM_COPIES, 0, 0, 0, true));
+			evenShard.addBooks(evenBooks);
+
+			Set<StockBook> oddBooks = new HashSet<StockBook>();
+			oddBooks.add(new ImmutableStockBook(TEST_ISBN + 1, "Odd", "Author", (float) 10, NUM_COPIES, 0, 0, 0, true));
+			oddShard.addBooks(oddBooks);
+
+			List<Book> books = shardedClient.getBooks(new HashSet<>(Arrays.asList(TEST_ISBN, TEST_ISBN + 1)));
+			assertEquals(2, books.size());
+			assertTrue(books.containsAll(evenBooks) && books.containsAll(oddBooks));
+			assertEquals(2, shardedClient.getEditorPicks(2).size());
+			assertEquals(1, shardedClient.getEditorPicks(1).size());
+			assertEquals(2, shardedClient.getEditorPicks(3).size());
+
+			// Too many copies of the odd book: nothing is bought.
+			Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+			booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+			booksToBuy.add(new BookCopy(TEST_ISBN + 1, NUM_COPIES + 1));
+
+			try {
+				shardedClient.buyBooks(booksToBuy);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			assertEquals(NUM_COPIES, evenShard.getBooks().get(0).getNumCopies());
+			assertEquals(NUM_COPIES, oddShard.getBooks().get(0).getNumCopies());
+
+			booksToBuy.clear();
+			booksToBuy.add(new BookCopy(TEST_ISBN, 2));
+			booksToBuy.add(new BookCopy(TEST_ISBN + 1, 3));
+			shardedClient.buyBooks(booksToBuy);
+
+			assertEquals(NUM_COPIES - 2, evenShard.getBooks().get(0).getNumCopies());
+			assertEquals(NUM_COPIES - 3, oddShard.getBooks().get(0).getNumCopies());
+		} finally {
+			if (shardedClient != null) {
+				shardedClient.stop();
+			}
+
+			evenServer.stop();
+			oddServer.stop();
+			Files.deleteIfExists(logFile);
+		}
+	}
+
+	/**
+	 * Tests that the sharded bookstore draws every editor pick of the cluster
+	 * with the same probability, whichever shard owns it.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testShardedEditorPicksAreUniform() throws Exception {
+		CertainBookStore evenShard = new CertainBookStore();
+		CertainBookStore oddShard = new CertainBookStore();
+		Server evenServer = startShard(evenShard);
+		Server oddServer = startShard(oddShard);
+		Path logFile = Files.createTempFile("coordinator", ".log");
+		ShardedBookStoreHTTPProxy shardedClient = null;
+
+		try {
+			shardedClient = new ShardedBookStoreHTTPProxy(Arrays.asList(addressOf(evenServer), addressOf(oddServer)),
+					logFile);
+
+			// One pick on the even shard and nine on the odd one.
+			Set<StockBook> evenBooks = new HashSet<StockBook>();
+			evenBooks.add(new ImmutableStockBook(TEST_ISBN, "Even", "Author", (float) 10, NUM_COPIES, 0, 0, 0, true));
+			evenShard.addBooks(evenBooks);
+
+			Set<StockBook> oddBooks = new HashSet<StockBook>();
+
+			for (int i = 0; i < 9; i++) {
+				oddBooks.add(new ImmutableStockBook(TEST_ISBN + 2 * i + 1, "Odd", "Author", (float) 10, NUM_COPIES, 0,
+						0, 0, true));
+			}
+
+			oddShard.addBooks(oddBooks);
+
+			int evenDraws = 0;
+
+			for (int i = 0; i < 1000; i++) {
+				List<Book> editorPicks = shardedClient.getEditorPicks(1);
+				assertEquals(1, editorPicks.size());
+
+				if (editorPicks.get(0).getISBN() == TEST_ISBN) {
+					evenDraws++;
+				}
+			}
+
+			// About 100 draws are expected, and 500 if the shards were drawn
+			// evenly.
+			assertTrue("even shard drawn " + evenDraws + " times", evenDraws > 50 && evenDraws < 150);
+		} finally {
+			if (shardedClient != null) {
+				shardedClient.stop();
+			}
+
+			evenServer.stop();
+			oddServer.stop();
+			Files.deleteIfExists(logFile);
+		}
+	}
+
+	/**
+	 * Tests that the asynchronous proxy completes its futures with the results
+	 * of the synchronous proxy, and exceptionally when the server rejects a
+	 * request or cannot be reached.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testAsyncBookStoreProxy() throws Exception {
+		CertainBookStore store = new CertainBookStore();
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getDefaultBook());
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES, 0, 0, 0, true));
+		store.addBooks(booksToAdd);
+
+		Server server = startShard(store);
+		BookStoreHTTPProxy syncClient = null;
+		AsyncBookStoreHTTPProxy asyncClient = null;
+
+		try {
+			syncClient = new BookStoreHTTPProxy(addressOf(server));
+			asyncClient = new AsyncBookStoreHTTPProxy(addressOf(server), false);
+
+			Set<Integer> isbns = new HashSet<Integer>(Arrays.asList(TEST_ISBN, TEST_ISBN + 1));
+			List<Book> books = asyncClient.getBooks(isbns).get(10, TimeUnit.SECONDS);
+			List<Book> syncBooks = syncClient.getBooks(isbns);
+			assertTrue(books.containsAll(syncBooks) && books.size() == syncBooks.size());
+			assertEquals(syncClient.getEditorPicks(1).size(),
+					asyncClient.getEditorPicks(1).get(10, TimeUnit.SECONDS).size());
+
+			Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+			booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+			assertNull(asyncClient.buyBooks(booksToBuy).get(10, TimeUnit.SECONDS));
+			assertEquals(NUM_COPIES - 1,
+					store.getBooksByISBN(new HashSet<Integer>(Arrays.asList(TEST_ISBN))).get(0).getNumCopies());
+
+			// A purchase rejected by the server fails the future as it fails
+			// the synchronous call.
+			booksToBuy.clear();
+			booksToBuy.add(new BookCopy(TEST_ISBN + 2, 1));
+			BookStoreException syncFailure = null;
+
+			try {
+				syncClient.buyBooks(booksToBuy);
+				fail();
+			} catch (BookStoreException ex) {
+				syncFailure = ex;
+			}
+
+			Throwable failure = failureOf(asyncClient.buyBooks(booksToBuy));
+			assertTrue(failure instanceof BookStoreException);
+			assertEquals(syncFailure.getMessage(), failure.getMessage());
+
+			// A server that cannot be reached fails the future.
+			server.stop();
+			assertTrue(failureOf(asyncClient.getBooks(isbns)) instanceof BookStoreException);
+		} finally {
+			if (syncClient != null) {
+				syncClient.stop();
+			}
+
+			if (asyncClient != null) {
+				asyncClient.stop();
+			}
+
+			server.stop();
+		}
+	}
+
+	/**
+	 * Tests that the HTTP/2 client opens at most its number of streams to an
+	 * address, and sends the requests waiting for a stream as streams end.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testHTTP2ClientQueuesStreams() throws Exception {
+		BlockingQueue<Stream> streams = new LinkedBlockingQueue<Stream>();
+		Server server = startHTTP2Server(0, (stream, frame) -> streams.add(stream));
+		BookStoreHTTP2Client http2Client = new BookStoreHTTP2Client(4, 2);
+
+		try {
+			List<CompletableFuture<BookStoreResponse>> responses = new ArrayList<CompletableFuture<BookStoreResponse>>();
+
+			for (int i = 0; i < 5; i++) {
+				responses.add(http2Client.performHttpExchangeAsync(newHTTP2Request(server), BookStoreXStreamSerializer::new));
+			}
+
+			// Two streams are open, and the other requests wait for them.
+			List<Stream> openStreams = new ArrayList<Stream>();
+			openStreams.add(streams.poll(10, TimeUnit.SECONDS));
+			openStreams.add(streams.poll(10, TimeUnit.SECONDS));
+			assertNull(streams.poll(200, TimeUnit.MILLISECONDS));
+			assertTrue(responses.stream().noneMatch(CompletableFuture::isDone));
+
+			for (int i = 0; i < 5; i++) {
+				Stream stream = i < openStreams.size() ? openStreams.get(i) : streams.poll(10, TimeUnit.SECONDS);
+				assertNotNull(stream);
+				respond(stream);
+			}
+
+			for (CompletableFuture<BookStoreResponse> response : responses) {
+				assertNotNull(response.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			http2Client.stop();
+			server.stop();
+		}
+	}
+
+	/**
+	 * Tests that the HTTP/2 client sends a request again on a new stream when
+	 * the server refuses its stream, without holding the refused stream.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testHTTP2ClientRetriesRefusedStream() throws Exception {
+		AtomicInteger numStreams = new AtomicInteger();
+		Server server = startHTTP2Server(0, (stream, frame) -> {
+			if (numStreams.incrementAndGet() == 1) {
+				stream.reset(new ResetFrame(stream.getId(), ErrorCode.REFUSED_STREAM_ERROR.code), Callback.NOOP);
+			} else {
+				respond(stream);
+			}
+		});
+		BookStoreHTTP2Client http2Client = new BookStoreHTTP2Client(4, 1);
+
+		try {
+			assertNotNull(http2Client.performHttpExchangeAsync(newHTTP2Request(server), BookStoreXStreamSerializer::new)
+					.get(10, TimeUnit.SECONDS));
+			assertEquals(2, numStreams.get());
+
+			// The single stream was released after the retry.
+			assertNotNull(http2Client.performHttpExchangeAsync(newHTTP2Request(server), BookStoreXStreamSerializer::new)
+					.get(10, TimeUnit.SECONDS));
+			assertEquals(3, numStreams.get());
+		} finally {
+			http2Client.stop();
+			server.stop();
+		}
+	}
+
+	/**
+	 * Tests that the HTTP/2 client fails the requests of a connection that
+	 * cannot be opened, and of a stream reset after its response, and releases
+	 * their streams.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testHTTP2ClientReleasesFailedStreams() throws Exception {
+		int port;
+
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+
+		BookStoreHTTP2Client http2Client = new BookStoreHTTP2Client(4, 1);
+		Server server = null;
+
+		try {
+			String address = "http://localhost:" + port;
+			BookStoreRequest request = BookStoreRequest.newGetRequest(address + "/" + BookStoreMessageTag.GETEDITORPICKS);
+			assertTrue(failureOf(http2Client.performHttpExchangeAsync(request, BookStoreXStreamSerializer::new))
+					instanceof BookStoreException);
+
+			// The server answers before reading the large request, then resets
+			// the stream, so the request fails to be sent after the response
+			// is received.
+			server = startHTTP2Server(port, (stream, frame) -> {
+				respond(stream);
+
+				if (!frame.isEndStream()) {
+					stream.reset(new ResetFrame(stream.getId(), ErrorCode.CANCEL_STREAM_ERROR.code), Callback.NOOP);
+				}
+			});
+
+			BookStoreRequest largeRequest = BookStoreRequest.newPostRequest(address + "/" + BookStoreMessageTag.BUYBOOKS,
+					new byte[1 << 20]);
+			http2Client.performHttpExchangeAsync(largeRequest, BookStoreXStreamSerializer::new).handle((r, ex) -> r)
+					.get(10, TimeUnit.SECONDS);
+
+			// The single stream was released after both failures.
+			assertNotNull(http2Client.performHttpExchangeAsync(request, BookStoreXStreamSerializer::new)
+					.get(10, TimeUnit.SECONDS));
+		} finally {
+			http2Client.stop();
+
+			if (server != null) {
+				server.stop();
+			}
+		}
+	}
+
+	/**
+	 * Tests that a batch browsing the editor picks and buying from them runs in
+	 * one request, and that a batch with a failing operation has no effect but
+	 * the sale misses of a failing purchase.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testExecuteOperations() throws BookStoreException {
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		editorPicks.add(new BookEditorPick(TEST_ISBN, true));
+		((OperationExecutor) storeManager).executeOperations(
+				Arrays.asList(BookStoreOperation.updateEditorPicks(editorPicks)));
+
+		List<List<?>> results = ((OperationExecutor) client).executeOperations(
+				Arrays.asList(BookStoreOperation.getEditorPicks(1), BookStoreOperation.buyBooksFromPrevious(1, 2)));
+		assertEquals(2, results.size());
+		assertEquals(TEST_ISBN, ((Book) results.get(0).get(0)).getISBN());
+		assertEquals(NUM_COPIES - 2, storeManager.getBooks().get(0).getNumCopies());
+
+		// The second purchase fails, so the first one is undone.
+		Set<BookCopy> validPurchase = new HashSet<BookCopy>();
+		validPurchase.add(new BookCopy(TEST_ISBN, 1));
+		Set<BookCopy> invalidPurchase = new HashSet<BookCopy>();
+		invalidPurchase.add(new BookCopy(TEST_ISBN + 1, 1));
+
+		try {
+			((OperationExecutor) client).executeOperations(Arrays.asList(BookStoreOperation.buyBooks(validPurchase),
+					BookStoreOperation.buyBooks(invalidPurchase)));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		List<StockBook> books = storeManager.getBooks();
+		assertEquals(NUM_COPIES - 2, books.get(0).getNumCopies());
+		assertTrue(books.get(0).isEditorPick());
+
+		// The second purchase misses copies, so the first one is undone but
+		// the sale misses of the second one are kept.
+		Set<BookCopy> tooManyCopies = new HashSet<BookCopy>();
+		tooManyCopies.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+
+		try {
+			((OperationExecutor) client).executeOperations(Arrays.asList(BookStoreOperation.buyBooks(validPurchase),
+					BookStoreOperation.buyBooks(tooManyCopies)));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		books = storeManager.getBooks();
+		assertEquals(NUM_COPIES - 2, books.get(0).getNumCopies());
+		assertEquals(3, books.get(0).getNumSaleMisses());
+	}
+
+	/**
+	 * Tests that cached books are served without reading the server until
+	 * books are added or removed, and that the cache stays within its size.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testBookCache() throws BookStoreException {
+		CertainBookStore store = new CertainBookStore();
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getDefaultBook());
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language",
+				"Dennis Ritchie and Brian Kerninghan", (float) 50, NUM_COPIES, 0, 0, 0, false));
+		store.addBooks(booksToAdd);
+
+		// Validate on every read, counting the reads of books.
+		AtomicInteger loads = new AtomicInteger();
+		BookCache cache = new BookCache(2, 0, store::getCatalogVersion, isbns -> {
+			loads.incrementAndGet();
+			return store.getBooks(isbns);
+		});
+
+		Set<Integer> isbns = new HashSet<Integer>(Arrays.asList(TEST_ISBN, TEST_ISBN + 1));
+		assertEquals(2, cache.getBooks(isbns).size());
+		assertEquals(2, cache.getBooks(isbns).size());
+		assertEquals(1, loads.get());
+
+		// Changes of stock keep the cached books.
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+		store.buyBooks(booksToBuy);
+		cache.getBooks(isbns);
+		assertEquals(1, loads.get());
+
+		// A new price comes with a new book, which drops the cached ones.
+		store.removeBooks(new HashSet<Integer>(Arrays.asList(TEST_ISBN + 1)));
+		store.addBooks(new HashSet<StockBook>(Arrays.asList(new ImmutableStockBook(TEST_ISBN + 1,
+				"The Art of Computer Programming", "Donald Knuth", (float) 200, NUM_COPIES, 0, 0, 0, false))));
+		List<Book> books = cache.getBooks(new HashSet<Integer>(Arrays.asList(TEST_ISBN + 1)));
+		assertEquals(2, loads.get());
+		assertEquals(200, books.get(0).getPrice(), BookStoreConstants.EPSILON);
+
+		// The least recently used books are evicted.
+		cache.getBooks(new HashSet<Integer>(Arrays.asList(TEST_ISBN, TEST_ISBN + 2)));
+		assertEquals(2, cache.size());
+	}
+
+	/**
+	 * Waits for a future expected to fail.
+	 *
+	 * @param future
+	 *            the future
+	 * @return the failure of the future
+	 * @throws Exception
+	 *             if the future does not fail in time
+	 */
+	private static Throwable failureOf(CompletableFuture<?> future) throws Exception {
+		try {
+			future.get(10, TimeUnit.SECONDS);
+		} catch (ExecutionException ex) {
+			return ex.getCause();
+		}
+
+		fail();
+		return null;
+	}
+
+	/**
+	 * Starts an HTTP/2 server handing the streams of the requests to a
+	 * listener.
+	 *
+	 * @param port
+	 *            the port, 0 for any free port
+	 * @param onRequest
+	 *            the listener of the requests
+	 * @return the started server
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static Server startHTTP2Server(int port, BiConsumer<Stream, HeadersFrame> onRequest) throws Exception {
+		Server server = new Server();
+		ServerConnector connector = new ServerConnector(server,
+				new RawHTTP2ServerConnectionFactory(new HttpConfiguration(), new ServerSessionListener.Adapter() {
+
+					@Override
+					public Stream.Listener onNewStream(Stream stream, HeadersFrame frame) {
+						onRequest.accept(stream, frame);
+						return new Stream.Listener.Adapter();
+					}
+				}));
+		connector.setPort(port);
+		server.addConnector(connector);
+		server.start();
+		return server;
+	}
+
+	/**
+	 * Answers the request of a stream with an empty response.
+	 *
+	 * @param stream
+	 *            the stream
+	 */
+	private static void respond(Stream stream) {
+		byte[] content = new BookStoreXStreamSerializer().serialize(new BookStoreResponse());
+		MetaData.Response metaData = new MetaData.Response(HttpVersion.HTTP_2, HttpStatus.OK_200, new HttpFields());
+		stream.headers(new HeadersFrame(stream.getId(), metaData, null, false), Callback.NOOP);
+		stream.data(new DataFrame(stream.getId(), ByteBuffer.wrap(content), true), Callback.NOOP);
+	}
+
+	/**
+	 * Creates a request to an HTTP/2 server.
+	 *
+	 * @param server
+	 *            the server
+	 * @return the request
+	 */
+	private static BookStoreRequest newHTTP2Request(Server server) {
+		return BookStoreRequest.newGetRequest(addressOf(server) + "/" + BookStoreMessageTag.GETEDITORPICKS);
+	}
+
+	/**
+	 * Starts a server over a shard, on any free port.
+	 *
+	 * @param shard
+	 *            the store of the shard
+	 * @return the started server
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static Server startShard(CertainBookStore shard) throws Exception {
+		return BookStoreHTTPServerUtility.startServer(0, new BookStoreHTTPMessageHandler(shard), null);
+	}
+
+	/**
+	 * Gets the address of a started server.
+	 *
+	 * @param server
+	 *            the server
+	 * @return the address
+	 */
+	private static String addressOf(Server server) {
+		return "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+	}
+
 	/**
 	 * Tear down after class.
 	 *
@@ -2,11 +2,24 @@ package com.acertainbookstore.client.tests;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -16,15 +29,34 @@ import org.junit.Test;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookStoreOperation;
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.CatalogPage;
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.DurableCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.LogSegment;
+import com.acertainbookstore.business.PurchaseTransaction;
+import com.acertainbookstore.business.ReplicaCertainBookStore;
 import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.client.AsyncStockManagerHTTPProxy;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.BookStoreShardRouter;
+import com.acertainbookstore.client.CatalogMirror;
+import com.acertainbookstore.client.ShardedStockManagerHTTPProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.server.ResponseCache;
+import com.acertainbookstore.utils.BookStoreCompactSerializer;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreResponse;
 
 /**
  * {@StockManagerTest} tests the {@link StockManager} interface.
@@ -451,6 +483,460 @@ public class StockManagerTest {
 		assertTrue(booksToAdd.containsAll(listBooks) && booksToAdd.size() == listBooks.size());
 	}
 
+	/**
+	 * Tests that walking the catalog page by page returns every book once, in
+	 * ISBN order, even when books change between the pages.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksPage() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 1; i <= 4; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Volume " + i, "Author", (float) 10, NUM_COPIES, 0,
+					0, 0, false));
+		}
+
+		storeManager.addBooks(booksToAdd);
+
+		CatalogPage page = storeManager.getBooksPage(null, 2);
+		List<Integer> isbns = new ArrayList<Integer>();
+
+		for (StockBook book : page.getBooks()) {
+			isbns.add(book.getISBN());
+		}
+
+		assertEquals(Arrays.asList(TEST_ISBN, TEST_ISBN + 1), isbns);
+		assertNotNull(page.getNextPageToken());
+
+		// Books removed behind the cursor and added ahead of it do not shift
+		// the rest of the walk.
+		storeManager.removeBooks(new HashSet<Integer>(Arrays.asList(TEST_ISBN)));
+		storeManager.addBooks(new HashSet<StockBook>(Arrays.asList(new ImmutableStockBook(TEST_ISBN + 10,
+				"Volume 10", "Author", (float) 10, NUM_COPIES, 0, 0, 0, false))));
+
+		while (page.getNextPageToken() != null) {
+			page = storeManager.getBooksPage(page.getNextPageToken(), 2);
+			assertTrue(page.getBooks().size() <= 2);
+
+			for (StockBook book : page.getBooks()) {
+				isbns.add(book.getISBN());
+			}
+		}
+
+		assertEquals(Arrays.asList(TEST_ISBN, TEST_ISBN + 1, TEST_ISBN + 2, TEST_ISBN + 3, TEST_ISBN + 4,
+				TEST_ISBN + 10), isbns);
+
+		try {
+			storeManager.getBooksPage("not a token", 2);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that the least stocked books follow the copies added and bought.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetLeastStockedBooks() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES + 1, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language",
+				"Dennis Ritchie and Brian Kerninghan", (float) 50, NUM_COPIES + 2, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> leastStocked = storeManager.getLeastStockedBooks(2);
+		assertEquals(2, leastStocked.size());
+		assertEquals(TEST_ISBN, (Integer) leastStocked.get(0).getISBN());
+		assertEquals(TEST_ISBN + 1, leastStocked.get(1).getISBN());
+
+		// Buying copies of the most stocked book makes it the least stocked.
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN + 2, NUM_COPIES));
+		client.buyBooks(booksToBuy);
+
+		leastStocked = storeManager.getLeastStockedBooks(1);
+		assertEquals(1, leastStocked.size());
+		assertEquals(TEST_ISBN + 2, leastStocked.get(0).getISBN());
+		assertEquals(2, leastStocked.get(0).getNumCopies());
+
+		// Restocking moves it back.
+		Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+		copiesToAdd.add(new BookCopy(TEST_ISBN + 2, NUM_COPIES * 2));
+		storeManager.addCopies(copiesToAdd);
+		assertEquals(TEST_ISBN, (Integer) storeManager.getLeastStockedBooks(1).get(0).getISBN());
+		assertEquals(3, storeManager.getLeastStockedBooks(10).size());
+
+		try {
+			storeManager.getLeastStockedBooks(-1);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that the router splits the items by the floor modulo of their ISBN,
+	 * and that it waits for every shard when the shard run by the calling
+	 * thread throws an unchecked exception.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testShardRouterSplitsAndWaits() throws BookStoreException {
+		List<Integer> shards = Arrays.asList(0, 1, 2);
+		BookStoreShardRouter<Integer> router = new BookStoreShardRouter<>(shards);
+
+		try {
+			// Negative ISBNs map to a shard too, unlike with the remainder.
+			Set<Integer> isbns = new HashSet<>(Arrays.asList(-7, -1, 0, 1, 5, 9));
+			List<Set<Integer>> parts = router.split(isbns, Integer::intValue);
+			assertEquals(3, parts.size());
+			assertEquals(new HashSet<>(Arrays.asList(0, 9)), parts.get(0));
+			assertEquals(new HashSet<>(Arrays.asList(1)), parts.get(1));
+			assertEquals(new HashSet<>(Arrays.asList(-7, -1, 5)), parts.get(2));
+
+			assertNull(router.split(Collections.singleton(3), Integer::intValue).get(1));
+
+			// The first shard fails in the calling thread while the others are
+			// still running.
+			AtomicInteger finished = new AtomicInteger();
+
+			try {
+				router.broadcast(shard -> {
+					if (shard == 0) {
+						throw new IllegalStateException();
+					}
+
+					try {
+						Thread.sleep(200);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+
+					return finished.incrementAndGet();
+				});
+				fail();
+			} catch (IllegalStateException ex) {
+				assertEquals(2, finished.get());
+			}
+		} finally {
+			router.stop();
+		}
+	}
+
+	/**
+	 * Tests the sharded stock manager over two servers: the books are stored
+	 * by the shard owning their ISBN, and the lists, pages and least stocked
+	 * books of the shards are merged into those of the whole catalog.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testShardedStockManager() throws Exception {
+		CertainBookStore evenShard = new CertainBookStore();
+		CertainBookStore oddShard = new CertainBookStore();
+		Server evenServer = startShard(evenShard);
+		Server oddServer = startShard(oddShard);
+		ShardedStockManagerHTTPProxy shardedManager = null;
+
+		try {
+			shardedManager = new ShardedStockManagerHTTPProxy(
+					Arrays.asList(addressOf(evenServer) + "/stock", addressOf(oddServer) + "/stock"));
+
+			// The copies decrease with the ISBN, so the least stocked books
+			// alternate between the shards.
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+			for (int i = 0; i < 7; i++) {
+				booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Book " + i, "Author", (float) 10, 20 - i, 0, 0, 0,
+						false));
+			}
+
+			shardedManager.addBooks(booksToAdd);
+
+			for (StockBook book : evenShard.getBooks()) {
+				assertEquals(0, BookStoreShardRouter.shardOf(book.getISBN(), 2));
+			}
+
+			for (StockBook book : oddShard.getBooks()) {
+				assertEquals(1, BookStoreShardRouter.shardOf(book.getISBN(), 2));
+			}
+
+			assertEquals(7, evenShard.getBooks().size() + oddShard.getBooks().size());
+			assertTrue(!evenShard.getBooks().isEmpty() && !oddShard.getBooks().isEmpty());
+
+			List<StockBook> books = shardedManager.getBooks();
+			assertEquals(7, books.size());
+			assertTrue(books.containsAll(booksToAdd));
+			assertEquals(3, shardedManager
+					.getBooksByISBN(new HashSet<>(Arrays.asList(TEST_ISBN, TEST_ISBN + 1, TEST_ISBN + 2))).size());
+
+			// The pages of the shards are merged in ISBN order.
+			List<Integer> pagedISBNs = new ArrayList<>();
+			String pageToken = null;
+			int numPages = 0;
+
+			do {
+				CatalogPage page = shardedManager.getBooksPage(pageToken, 3);
+				assertTrue(page.getBooks().size() <= 3);
+
+				for (StockBook book : page.getBooks()) {
+					pagedISBNs.add(book.getISBN());
+				}
+
+				pageToken = page.getNextPageToken();
+				numPages++;
+			} while (pageToken != null);
+
+			assertEquals(3, numPages);
+			assertEquals(7, pagedISBNs.size());
+
+			for (int i = 0; i < 7; i++) {
+				assertEquals(TEST_ISBN + i, (int) pagedISBNs.get(i));
+			}
+
+			// The least stocked books are the last ISBNs, from both shards.
+			List<StockBook> leastStocked = shardedManager.getLeastStockedBooks(3);
+			assertEquals(3, leastStocked.size());
+			assertEquals(TEST_ISBN + 6, leastStocked.get(0).getISBN());
+			assertEquals(TEST_ISBN + 5, leastStocked.get(1).getISBN());
+			assertEquals(TEST_ISBN + 4, leastStocked.get(2).getISBN());
+			assertEquals(7, shardedManager.getLeastStockedBooks(10).size());
+		} finally {
+			if (shardedManager != null) {
+				shardedManager.stop();
+			}
+
+			evenServer.stop();
+			oddServer.stop();
+		}
+	}
+
+	/**
+	 * Tests that the asynchronous proxy completes its futures with the results
+	 * of the synchronous proxy, and exceptionally when the server rejects a
+	 * request or cannot be reached.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testAsyncStockManagerProxy() throws Exception {
+		CertainBookStore store = new CertainBookStore();
+		Server server = startShard(store);
+		StockManagerHTTPProxy syncManager = null;
+		AsyncStockManagerHTTPProxy asyncManager = null;
+
+		try {
+			syncManager = new StockManagerHTTPProxy(addressOf(server));
+			asyncManager = new AsyncStockManagerHTTPProxy(addressOf(server), false);
+
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+			booksToAdd.add(getDefaultBook());
+			assertNull(asyncManager.addBooks(booksToAdd).get(10, TimeUnit.SECONDS));
+
+			Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+			copiesToAdd.add(new BookCopy(TEST_ISBN, 2));
+			assertNull(asyncManager.addCopies(copiesToAdd).get(10, TimeUnit.SECONDS));
+
+			List<StockBook> books = asyncManager.getBooks().get(10, TimeUnit.SECONDS);
+			assertEquals(syncManager.getBooks(), books);
+			assertEquals(NUM_COPIES + 2, books.get(0).getNumCopies());
+
+			Set<Integer> isbns = new HashSet<Integer>(Arrays.asList(TEST_ISBN));
+			assertEquals(syncManager.getBooksByISBN(isbns),
+					asyncManager.getBooksByISBN(isbns).get(10, TimeUnit.SECONDS));
+
+			Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+			editorPicks.add(new BookEditorPick(TEST_ISBN, true));
+			assertNull(asyncManager.updateEditorPicks(editorPicks).get(10, TimeUnit.SECONDS));
+			assertTrue(syncManager.getBooks().get(0).isEditorPick());
+
+			// Copies of a book the server does not have fail the future as
+			// they fail the synchronous call.
+			copiesToAdd.clear();
+			copiesToAdd.add(new BookCopy(TEST_ISBN + 1, 1));
+			BookStoreException syncFailure = null;
+
+			try {
+				syncManager.addCopies(copiesToAdd);
+				fail();
+			} catch (BookStoreException ex) {
+				syncFailure = ex;
+			}
+
+			Throwable failure = failureOf(asyncManager.addCopies(copiesToAdd));
+			assertTrue(failure instanceof BookStoreException);
+			assertEquals(syncFailure.getMessage(), failure.getMessage());
+
+			assertNull(asyncManager.removeAllBooks().get(10, TimeUnit.SECONDS));
+			assertTrue(syncManager.getBooks().isEmpty());
+
+			// A server that cannot be reached fails the future.
+			server.stop();
+			assertTrue(failureOf(asyncManager.getBooks()) instanceof BookStoreException);
+		} finally {
+			if (syncManager != null) {
+				syncManager.stop();
+			}
+
+			if (asyncManager != null) {
+				asyncManager.stop();
+			}
+
+			server.stop();
+		}
+	}
+
+	/**
+	 * Waits for a future expected to fail.
+	 *
+	 * @param future
+	 *            the future
+	 * @return the failure of the future
+	 * @throws Exception
+	 *             if the future does not fail in time
+	 */
+	private static Throwable failureOf(CompletableFuture<?> future) throws Exception {
+		try {
+			future.get(10, TimeUnit.SECONDS);
+		} catch (ExecutionException ex) {
+			return ex.getCause();
+		}
+
+		fail();
+		return null;
+	}
+
+	/**
+	 * Starts a server over a shard, on any free port.
+	 *
+	 * @param shard
+	 *            the store of the shard
+	 * @return the started server
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static Server startShard(CertainBookStore shard) throws Exception {
+		return BookStoreHTTPServerUtility.startServer(0, new BookStoreHTTPMessageHandler(shard), null);
+	}
+
+	/**
+	 * Gets the address of a started server.
+	 *
+	 * @param server
+	 *            the server
+	 * @return the address
+	 */
+	private static String addressOf(Server server) {
+		return "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+	}
+
+	/**
+	 * Tests that a cached response is served until the next write to the store,
+	 * and that reads leave the version of the store unchanged.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testResponseCacheFollowsStoreVersion() throws BookStoreException {
+		CertainBookStore store = new CertainBookStore();
+		store.addBooks(new HashSet<StockBook>(Arrays.asList(getDefaultBook())));
+		ResponseCache cache = new ResponseCache();
+		ResponseCache.Key key = new ResponseCache.Key(BookStoreMessageTag.LISTBOOKS, null, new byte[0]);
+		byte[] bytes = new byte[] { 1, 2, 3 };
+
+		long version = store.getStoreVersion();
+		cache.put(key, version, bytes);
+		store.getBooks();
+		store.getBooksByISBN(new HashSet<Integer>(Arrays.asList(TEST_ISBN)));
+		assertEquals(version, store.getStoreVersion());
+		assertSame(bytes, cache.get(new ResponseCache.Key(BookStoreMessageTag.LISTBOOKS, null, new byte[0]),
+				store.getStoreVersion()));
+		assertNull(cache.get(new ResponseCache.Key(BookStoreMessageTag.GETBOOKS, null, new byte[0]),
+				store.getStoreVersion()));
+
+		// A purchase changes the stock, so the cached response is stale.
+		store.buyBooks(new HashSet<BookCopy>(Arrays.asList(new BookCopy(TEST_ISBN, 1))));
+		assertNotEquals(version, store.getStoreVersion());
+		assertNull(cache.get(key, store.getStoreVersion()));
+	}
+
+	/**
+	 * Tests that a response replaced in the cache frees its bytes, and that the
+	 * reads cached first are dropped when the cache is full.
+	 */
+	@Test
+	public void testResponseCacheEvictsOldestReads() {
+		ResponseCache cache = new ResponseCache(10);
+		ResponseCache.Key first = new ResponseCache.Key(BookStoreMessageTag.GETBOOKS, null, new byte[] { 1 });
+		ResponseCache.Key second = new ResponseCache.Key(BookStoreMessageTag.GETBOOKS, null, new byte[] { 2 });
+		ResponseCache.Key third = new ResponseCache.Key(BookStoreMessageTag.GETBOOKS, null, new byte[] { 3 });
+		byte[] bytes = new byte[4];
+
+		cache.put(first, 0, bytes);
+		cache.put(second, 0, bytes);
+
+		for (long version = 1; version <= 100; version++) {
+			cache.put(first, version, bytes);
+		}
+
+		assertSame(bytes, cache.get(first, 100));
+		assertSame(bytes, cache.get(second, 0));
+
+		cache.put(third, 100, bytes);
+		assertNull(cache.get(first, 100));
+		assertSame(bytes, cache.get(second, 0));
+		assertSame(bytes, cache.get(third, 100));
+	}
+
+	/**
+	 * Tests that a mirror of the catalog, refreshed with the changes since its
+	 * last refresh, follows the books added, updated and removed.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testCatalogMirrorAppliesChanges() throws BookStoreException {
+		CatalogMirror mirror = new CatalogMirror(storeManager);
+		assertEquals(1, mirror.refresh().size());
+
+		// Nothing changed, so nothing is sent.
+		CatalogChanges changes = storeManager.getBookChanges(storeManager.getBookChanges(null).getToken());
+		assertTrue(!changes.isReset() && changes.getBooks().isEmpty() && changes.getRemovedISBNs().isEmpty());
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		Set<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+		copiesToAdd.add(new BookCopy(TEST_ISBN + 1, 2));
+		storeManager.addCopies(copiesToAdd);
+		storeManager.removeBooks(new HashSet<Integer>(Arrays.asList(TEST_ISBN)));
+
+		mirror.refresh();
+		assertEquals(storeManager.getBooks().size(), mirror.getBooks().size());
+		assertFalse(mirror.containsBook(TEST_ISBN));
+		assertEquals(NUM_COPIES + 2, mirror.getBooks().iterator().next().getNumCopies());
+
+		// Removing every book resets the changes, and the mirror reloads.
+		storeManager.removeAllBooks();
+		assertTrue(mirror.refresh().isEmpty());
+	}
+
 	/**
 	 * Tests basic removeAllBooks functionality.
 	 *
@@ -475,6 +961,525 @@ public class StockManagerTest {
 		assertTrue(booksInStoreList.size() == 0);
 	}
 
+	/**
+	 * Tests that a store rebuilt from its write-ahead log has the state of the
+	 * store that wrote the log, including the sale misses of a failed purchase.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testWriteAheadLogReplay() throws BookStoreException, IOException {
+		Path logFile = Files.createTempFile("bookstore", ".log");
+		List<StockBook> booksBeforeRestart;
+
+		try {
+			try (DurableCertainBookStore store = new DurableCertainBookStore(logFile)) {
+				Set<StockBook> booksToAdd = new HashSet<StockBook>();
+				booksToAdd.add(getDefaultBook());
+				booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+						(float) 300, NUM_COPIES, 0, 0, 0, false));
+				store.addBooks(booksToAdd);
+
+				Set<BookCopy> copies = new HashSet<BookCopy>();
+				copies.add(new BookCopy(TEST_ISBN, 2));
+				store.addCopies(copies);
+
+				Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+				editorPicks.add(new BookEditorPick(TEST_ISBN + 1, true));
+				store.updateEditorPicks(editorPicks);
+
+				Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+				booksToBuy.add(new BookCopy(TEST_ISBN, 3));
+				store.buyBooks(booksToBuy);
+
+				booksToBuy.clear();
+				booksToBuy.add(new BookCopy(TEST_ISBN + 1, NUM_COPIES + 1));
+
+				try {
+					store.buyBooks(booksToBuy);
+					fail();
+				} catch (BookStoreException ex) {
+					;
+				}
+
+				// A batch failing in a purchase is undone but its sale misses.
+				Set<BookCopy> copiesInStock = new HashSet<BookCopy>();
+				copiesInStock.add(new BookCopy(TEST_ISBN, 1));
+
+				try {
+					store.executeOperations(
+							Arrays.asList(BookStoreOperation.buyBooks(copiesInStock), BookStoreOperation.buyBooks(booksToBuy)));
+					fail();
+				} catch (BookStoreException ex) {
+					;
+				}
+
+				booksBeforeRestart = store.getBooks();
+				StockBook boughtBook = booksBeforeRestart.get(booksBeforeRestart.indexOf(getDefaultBook()));
+				StockBook missedBook = booksBeforeRestart.get(1 - booksBeforeRestart.indexOf(getDefaultBook()));
+				assertEquals(NUM_COPIES - 1, boughtBook.getNumCopies());
+				assertEquals(2, missedBook.getNumSaleMisses());
+			}
+
+			try (DurableCertainBookStore store = new DurableCertainBookStore(logFile)) {
+				List<StockBook> booksAfterRestart = store.getBooks();
+				assertTrue(booksAfterRestart.containsAll(booksBeforeRestart)
+						&& booksAfterRestart.size() == booksBeforeRestart.size());
+
+				// Book equality ignores the counters, so compare them per ISBN.
+				for (StockBook bookBefore : booksBeforeRestart) {
+					StockBook bookAfter = booksAfterRestart.get(booksAfterRestart.indexOf(bookBefore));
+					assertEquals(bookBefore.getNumCopies(), bookAfter.getNumCopies());
+					assertEquals(bookBefore.getNumSaleMisses(), bookAfter.getNumSaleMisses());
+					assertEquals(bookBefore.isEditorPick(), bookAfter.isEditorPick());
+				}
+			}
+		} finally {
+			Files.deleteIfExists(logFile);
+		}
+	}
+
+	/**
+	 * Tests that a store restarted from a checkpoint also replays the mutations
+	 * logged after the checkpoint.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testCheckpointRecovery() throws BookStoreException, IOException {
+		Path logFile = Files.createTempFile("bookstore", ".log");
+		Path checkpointFile = logFile.resolveSibling(logFile.getFileName() + ".checkpoint");
+
+		try {
+			try (DurableCertainBookStore store = new DurableCertainBookStore(logFile)) {
+				Set<StockBook> booksToAdd = new HashSet<StockBook>();
+				booksToAdd.add(getDefaultBook());
+				store.addBooks(booksToAdd);
+
+				Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+				editorPicks.add(new BookEditorPick(TEST_ISBN, true));
+				store.updateEditorPicks(editorPicks);
+
+				store.checkpoint();
+
+				Set<BookCopy> copies = new HashSet<BookCopy>();
+				copies.add(new BookCopy(TEST_ISBN, 2));
+				store.addCopies(copies);
+			}
+
+			assertTrue(Files.exists(checkpointFile));
+
+			try (DurableCertainBookStore store = new DurableCertainBookStore(logFile)) {
+				List<StockBook> books = store.getBooks();
+				assertEquals(1, books.size());
+				assertEquals(getDefaultBook(), books.get(0));
+				assertEquals(NUM_COPIES + 2, books.get(0).getNumCopies());
+				assertTrue(books.get(0).isEditorPick());
+				assertEquals(1, store.getEditorPicks(1).size());
+			}
+		} finally {
+			Files.deleteIfExists(logFile);
+			Files.deleteIfExists(checkpointFile);
+		}
+	}
+
+	/**
+	 * Tests that a checkpoint taken while books are bought compacts the log,
+	 * that a restart recovers every purchase, and that a backup starting from
+	 * the beginning of the log receives the checkpoint instead.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCheckpointCompactsLog() throws Exception {
+		Path logFile = Files.createTempFile("bookstore", ".log");
+		Path checkpointFile = logFile.resolveSibling(logFile.getFileName() + ".checkpoint");
+		int numBooks = 3000;
+		int numPurchases = 500;
+
+		try {
+			List<StockBook> primaryBooks;
+
+			try (DurableCertainBookStore store = new DurableCertainBookStore(logFile)) {
+				for (int i = 0; i < numBooks; i++) {
+					Set<StockBook> booksToAdd = new HashSet<StockBook>();
+					booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Book " + i, "Author", (float) 10,
+							numPurchases, 0, 0, 0, false));
+					store.addBooks(booksToAdd);
+				}
+
+				long logSize = Files.size(logFile);
+
+				// Buy the last books first, so purchases overtake the copy.
+				Thread buyer = new Thread(() -> {
+					for (int i = numPurchases - 1; i >= 0; i--) {
+						Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+						booksToBuy.add(new BookCopy(TEST_ISBN + numBooks - 1 - i % numBooks, 1));
+						booksToBuy.add(new BookCopy(TEST_ISBN + i % 7, 1));
+
+						try {
+							store.buyBooks(booksToBuy);
+						} catch (BookStoreException ex) {
+							throw new IllegalStateException(ex);
+						}
+					}
+				});
+
+				buyer.start();
+				store.checkpoint();
+				buyer.join();
+
+				assertTrue(Files.size(logFile) < logSize);
+				primaryBooks = store.getBooks();
+
+				ReplicaCertainBookStore replica = new ReplicaCertainBookStore();
+				LogSegment segment = store.readLog(replica.getAppliedPosition(), Integer.MAX_VALUE);
+				assertNotNull(segment.getCheckpoint());
+				replica.applyLogSegment(segment);
+
+				do {
+					segment = store.readLog(replica.getAppliedPosition(), Integer.MAX_VALUE);
+					assertNull(segment.getCheckpoint());
+					replica.applyLogSegment(segment);
+				} while (!segment.isCaughtUp());
+
+				List<StockBook> replicaBooks = replica.getBooks();
+				assertTrue(replicaBooks.containsAll(primaryBooks) && replicaBooks.size() == numBooks);
+			}
+
+			try (DurableCertainBookStore store = new DurableCertainBookStore(logFile)) {
+				List<StockBook> books = store.getBooks();
+				assertTrue(books.containsAll(primaryBooks) && books.size() == numBooks);
+			}
+		} finally {
+			Files.deleteIfExists(logFile);
+			Files.deleteIfExists(checkpointFile);
+		}
+	}
+
+	/**
+	 * Tests that a store whose log failed rejects every later call, and that
+	 * the mutation that could not be logged is not recovered.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testWriteAheadLogFailureStopsStore() throws BookStoreException, IOException {
+		Path logFile = Files.createTempFile("bookstore", ".log");
+
+		try {
+			try (DurableCertainBookStore store = new DurableCertainBookStore(logFile)) {
+				Set<StockBook> booksToAdd = new HashSet<StockBook>();
+				booksToAdd.add(getDefaultBook());
+				store.addBooks(booksToAdd);
+
+				// Closing the log makes the next append fail.
+				store.close();
+
+				Set<BookCopy> copies = new HashSet<BookCopy>();
+				copies.add(new BookCopy(TEST_ISBN, 2));
+
+				try {
+					store.addCopies(copies);
+					fail();
+				} catch (BookStoreException ex) {
+					;
+				}
+
+				try {
+					store.getBooks();
+					fail();
+				} catch (BookStoreException ex) {
+					;
+				}
+
+				try {
+					store.getBooksByISBN(Collections.singleton(TEST_ISBN));
+					fail();
+				} catch (BookStoreException ex) {
+					;
+				}
+
+				try {
+					store.addCopies(copies);
+					fail();
+				} catch (BookStoreException ex) {
+					;
+				}
+			}
+
+			try (DurableCertainBookStore store = new DurableCertainBookStore(logFile)) {
+				List<StockBook> books = store.getBooks();
+				assertEquals(1, books.size());
+				assertEquals((int) NUM_COPIES, books.get(0).getNumCopies());
+			}
+		} finally {
+			Files.deleteIfExists(logFile);
+		}
+	}
+
+	/**
+	 * Tests that a log holding a record that is not a mutation fails the
+	 * recovery of the store, and stops a backup applying it.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testWriteAheadLogUnknownRecordFailsRecovery() throws BookStoreException, IOException {
+		Path logFile = Files.createTempFile("bookstore", ".log");
+
+		try {
+			byte[] records;
+
+			try (WriteAheadLog log = new WriteAheadLog(logFile)) {
+				log.replay(0, (tag, argument) -> {
+				});
+				log.awaitDurable(log.append(log.encode(BookStoreMessageTag.GETBOOKS, null)));
+				records = log.readRecords(0, Integer.MAX_VALUE);
+			}
+
+			try (DurableCertainBookStore store = new DurableCertainBookStore(logFile)) {
+				fail();
+			} catch (IOException ex) {
+				;
+			}
+
+			ReplicaCertainBookStore replica = new ReplicaCertainBookStore();
+
+			try {
+				replica.applyLogSegment(new LogSegment(0, records, records.length));
+				fail();
+			} catch (IOException ex) {
+				;
+			}
+
+			try {
+				replica.applyLogSegment(new LogSegment(0, new byte[0], records.length));
+				fail();
+			} catch (IOException ex) {
+				;
+			}
+		} finally {
+			Files.deleteIfExists(logFile);
+		}
+	}
+
+	/**
+	 * Tests that a backup applying the log of a primary, in segments, reaches
+	 * the state of the primary and rejects mutations.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testReplicaAppliesLogSegments() throws BookStoreException, IOException {
+		Path logFile = Files.createTempFile("bookstore", ".log");
+
+		try (DurableCertainBookStore primary = new DurableCertainBookStore(logFile)) {
+			ReplicaCertainBookStore replica = new ReplicaCertainBookStore();
+
+			try {
+				replica.checkStaleness(Long.MAX_VALUE);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			for (int i = 0; i < 10; i++) {
+				Set<StockBook> booksToAdd = new HashSet<StockBook>();
+				booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Book " + i, "Author", (float) 10, NUM_COPIES, 0, 0,
+						0, false));
+				primary.addBooks(booksToAdd);
+			}
+
+			Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+			booksToBuy.add(new BookCopy(TEST_ISBN, 2));
+			primary.buyBooks(booksToBuy);
+
+			// Small segments hold a single record each.
+			LogSegment segment;
+
+			do {
+				segment = primary.readLog(replica.getAppliedPosition(), 1);
+				replica.applyLogSegment(segment);
+			} while (!segment.isCaughtUp());
+
+			replica.checkStaleness(Long.MAX_VALUE);
+			List<StockBook> primaryBooks = primary.getBooks();
+			List<StockBook> replicaBooks = replica.getBooks();
+			assertTrue(replicaBooks.containsAll(primaryBooks) && replicaBooks.size() == primaryBooks.size());
+			assertEquals(NUM_COPIES - 2, replica.getBooksByISBN(Collections.singleton(TEST_ISBN)).get(0).getNumCopies());
+
+			try {
+				replica.buyBooks(booksToBuy);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+		} finally {
+			Files.deleteIfExists(logFile);
+		}
+	}
+
+	/**
+	 * Tests that the compact codec round-trips the stock books of a response
+	 * and the copies of a purchase, through arrays and streams.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testCompactSerializerRoundTrip() throws BookStoreException, IOException {
+		BookStoreSerializer serializer = new BookStoreCompactSerializer();
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(
+				new ImmutableStockBook(TEST_ISBN + 1, "Caf\u00e9", "Author", (float) 12.5, NUM_COPIES, 3, 2, 9, true));
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> books = storeManager.getBooks();
+		BookStoreResponse response = new BookStoreResponse();
+		response.setList(books);
+
+		BookStoreResponse decoded = (BookStoreResponse) serializer.deserialize(serializer.serialize(response));
+		assertNull(decoded.getException());
+		assertEquals(books.size(), decoded.getList().size());
+
+		for (int i = 0; i < books.size(); i++) {
+			StockBook book = books.get(i);
+			StockBook decodedBook = (StockBook) decoded.getList().get(i);
+			assertEquals(book.getISBN(), decodedBook.getISBN());
+			assertEquals(book.getTitle(), decodedBook.getTitle());
+			assertEquals(book.getAuthor(), decodedBook.getAuthor());
+			assertEquals(book.getPrice(), decodedBook.getPrice(), 0);
+			assertEquals(book.getNumCopies(), decodedBook.getNumCopies());
+			assertEquals(book.getNumSaleMisses(), decodedBook.getNumSaleMisses());
+			assertEquals(book.getNumTimesRated(), decodedBook.getNumTimesRated());
+			assertEquals(book.getTotalRating(), decodedBook.getTotalRating());
+			assertEquals(book.isEditorPick(), decodedBook.isEditorPick());
+		}
+
+		Set<BookCopy> bookCopies = new HashSet<BookCopy>();
+		bookCopies.add(new BookCopy(TEST_ISBN, 1));
+		bookCopies.add(new BookCopy(-1, Integer.MAX_VALUE));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		serializer.serialize(new PurchaseTransaction("tx", bookCopies), out);
+
+		PurchaseTransaction transaction = (PurchaseTransaction) serializer
+				.deserialize(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals("tx", transaction.getTransactionId());
+		assertEquals(bookCopies, transaction.getBookCopies());
+	}
+
+	/**
+	 * Tests that the compact codec rejects messages declaring sizes that are
+	 * negative or larger than the message, before allocating anything.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testCompactSerializerMalformedInput() throws IOException {
+		BookStoreSerializer serializer = new BookStoreCompactSerializer();
+		byte[][] emptyValues = { serializer.serialize(new ArrayList<Object>()),
+				serializer.serialize(new HashSet<Object>()), serializer.serialize(new byte[0]) };
+
+		// The sizes as variable-length numbers: the largest integer, and -1.
+		byte[][] sizes = { { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 },
+				{ (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F } };
+
+		for (byte[] emptyValue : emptyValues) {
+			for (byte[] size : sizes) {
+				byte[] message = new byte[1 + size.length];
+				message[0] = emptyValue[0];
+				System.arraycopy(size, 0, message, 1, size.length);
+
+				try {
+					serializer.deserialize(message);
+					fail();
+				} catch (IOException ex) {
+					;
+				}
+
+				try {
+					serializer.deserialize(new ByteArrayInputStream(message));
+					fail();
+				} catch (IOException ex) {
+					;
+				}
+			}
+		}
+
+		// The codec still decodes after rejecting messages.
+		assertEquals(Arrays.asList(1, 2), serializer.deserialize(serializer.serialize(Arrays.asList(1, 2))));
+	}
+
+	/**
+	 * Tests that the compact codec rejects messages nesting lists deeper than
+	 * it decodes, instead of overflowing its stack.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testCompactSerializerRejectsDeepNesting() throws IOException {
+		BookStoreSerializer serializer = new BookStoreCompactSerializer();
+		List<Object> nested = new ArrayList<Object>();
+
+		for (int depth = 1; depth < 16; depth++) {
+			nested = new ArrayList<Object>(Arrays.asList(nested));
+		}
+
+		assertEquals(nested, serializer.deserialize(serializer.serialize(nested)));
+
+		try {
+			serializer.deserialize(serializer.serialize(Arrays.asList(nested)));
+			fail();
+		} catch (IOException ex) {
+			;
+		}
+
+		// A list of one list is its tag, its size, the tag of its element and
+		// the size of the empty list: repeating the middle nests the lists.
+		byte[] listOfList = serializer.serialize(Arrays.asList(new ArrayList<Object>()));
+		assertEquals(4, listOfList.length);
+		int numLevels = 100000;
+		byte[] message = new byte[2 * numLevels + 2];
+		message[0] = listOfList[0];
+
+		for (int level = 0; level < numLevels; level++) {
+			message[1 + 2 * level] = listOfList[1];
+			message[2 + 2 * level] = listOfList[2];
+		}
+
+		message[message.length - 1] = listOfList[3];
+
+		try {
+			serializer.deserialize(message);
+			fail();
+		} catch (IOException ex) {
+			;
+		}
+
+		assertEquals(nested, serializer.deserialize(serializer.serialize(nested)));
+	}
+
 	/**
 	 * Tear down after class.
 	 *
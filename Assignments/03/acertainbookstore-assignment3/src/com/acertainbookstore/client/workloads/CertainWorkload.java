@@ -3,6 +3,7 @@
  */
 package com.acertainbookstore.client.workloads;
 
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -12,6 +13,8 @@ import com.acertainbookstore.business.CertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.ShardedBookStoreHTTPProxy;
+import com.acertainbookstore.client.ShardedStockManagerHTTPProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
@@ -53,12 +56,25 @@ public class CertainWorkload {
 		localTest = (localTestProperty != null) ? Boolean
 				.parseBoolean(localTestProperty) : localTest;
 
+		// The addresses of the shards, if the bookstore is sharded
+		String shardsProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SHARDS);
+
 		BookStore bookStore = null;
 		StockManager stockManager = null;
 		if (localTest) {
 			CertainBookStore store = new CertainBookStore();
 			bookStore = store;
 			stockManager = store;
+		} else if (shardsProperty != null) {
+			List<String> serverAddresses = Arrays.asList(shardsProperty.split(","));
+			List<String> stockAddresses = new ArrayList<String>();
+			for (String shardAddress : serverAddresses) {
+				stockAddresses.add(shardAddress + "/stock");
+			}
+			stockManager = new ShardedStockManagerHTTPProxy(stockAddresses);
+			String coordinatorLogFile = System.getProperty(BookStoreConstants.PROPERTY_KEY_COORDINATOR_LOG_FILE,
+					BookStoreConstants.DEFAULT_COORDINATOR_LOG_FILE);
+			bookStore = new ShardedBookStoreHTTPProxy(serverAddresses, Paths.get(coordinatorLogFile));
 		} else {
 			stockManager = new StockManagerHTTPProxy(serverAddress + "/stock");
 			bookStore = new BookStoreHTTPProxy(serverAddress);
@@ -86,7 +102,10 @@ public class CertainWorkload {
 		exec.shutdownNow(); // shutdown the executor
 
 		// Finished initialization, stop the clients if not localTest
-		if (!localTest) {
+		if (!localTest && shardsProperty != null) {
+			((ShardedBookStoreHTTPProxy) bookStore).stop();
+			((ShardedStockManagerHTTPProxy) stockManager).stop();
+		} else if (!localTest) {
 			((BookStoreHTTPProxy) bookStore).stop();
 			((StockManagerHTTPProxy) stockManager).stop();
 		}
@@ -9,7 +9,10 @@ import java.util.stream.Collectors;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookStoreOperation;
 import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.CatalogMirror;
+import com.acertainbookstore.interfaces.OperationExecutor;
 import com.acertainbookstore.utils.BookStoreException;
 
 /**
@@ -23,8 +26,13 @@ public class Worker implements Callable<WorkerRunResult> {
     private int numSuccessfulFrequentBookStoreInteraction = 0;
     private int numTotalFrequentBookStoreInteraction = 0;
 
+    // The copy of the catalog, refreshed with the changes since the last new
+    // stock acquisition rather than fetched whole.
+    private CatalogMirror catalog = null;
+
     public Worker(WorkloadConfiguration config) {
 		configuration = config;
+		catalog = new CatalogMirror(config.getStockManager());
     }
 
     /**
@@ -101,11 +109,10 @@ public class Worker implements Callable<WorkerRunResult> {
      * @throws BookStoreException
      */
     private void runRareStockManagerInteraction() throws BookStoreException {
-		List<StockBook> books = configuration.getStockManager().getBooks();
-		Set<Integer> booksISBNs = books.stream().map(StockBook::getISBN).collect(Collectors.toSet());
+		catalog.refresh();
 
 		Set<StockBook> newBooks = configuration.getBookSetGenerator().nextSetOfStockBooks(configuration.getNumBooksToAdd());
-		newBooks.removeIf(book -> booksISBNs.contains(book.getISBN()));
+		newBooks.removeIf(book -> catalog.containsBook(book.getISBN()));
 
 		configuration.getStockManager().addBooks(newBooks);
     }
@@ -116,12 +123,9 @@ public class Worker implements Callable<WorkerRunResult> {
      * @throws BookStoreException
      */
     private void runFrequentStockManagerInteraction() throws BookStoreException {
-		List<StockBook> books = configuration.getStockManager().getBooks();
 		//	selects the k books with smallest quantities in stock
-		List<StockBook> smallestQuantityBooks = books.stream()
-				.sorted(Comparator.comparing(StockBook::getNumCopies))
-				.collect(Collectors.toList())
-				.subList(0, Math.min(books.size(), configuration.getNumBooksWithLeastCopies()));
+		List<StockBook> smallestQuantityBooks = configuration.getStockManager()
+				.getLeastStockedBooks(configuration.getNumBooksWithLeastCopies());
 
 		Set<BookCopy> copiesToAdd = new HashSet<>();
 		for (StockBook book : smallestQuantityBooks) {
@@ -136,6 +140,17 @@ public class Worker implements Callable<WorkerRunResult> {
      * @throws BookStoreException
      */
     private void runFrequentBookStoreInteraction() throws BookStoreException {
+		if (configuration.getBookStore() instanceof OperationExecutor) {
+			// Browse and buy in a single request, the server drawing the books
+			// to buy from the editor picks it returns.
+			List<BookStoreOperation> operations = Arrays.asList(
+					BookStoreOperation.getEditorPicks(configuration.getNumEditorPicksToGet()),
+					BookStoreOperation.buyBooksFromPrevious(configuration.getNumBooksToBuy(),
+							configuration.getNumBookCopiesToBuy()));
+			((OperationExecutor) configuration.getBookStore()).executeOperations(operations);
+			return;
+		}
+
 		List<Book> editorPicks = configuration.getBookStore().getEditorPicks(configuration.getNumEditorPicksToGet());
 
 		Set<Integer> isbns = editorPicks.stream().map(Book::getISBN).collect(Collectors.toSet());
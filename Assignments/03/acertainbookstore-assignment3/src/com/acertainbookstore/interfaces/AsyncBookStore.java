@@ -0,0 +1,67 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link AsyncBookStore} declares the methods of {@link BookStore} without
+ * blocking the caller: every method sends its request and returns a future
+ * completed with the result, or completed exceptionally with a
+ * {@link BookStoreException}.
+ *
+ * @see BookStore
+ */
+public interface AsyncBookStore {
+
+	/**
+	 * Buys the sets of books specified.
+	 *
+	 * @param booksToBuy
+	 *            the books to buy
+	 * @return the future completed when the books are bought
+	 */
+	public CompletableFuture<Void> buyBooks(Set<BookCopy> booksToBuy);
+
+	/**
+	 * Applies the BookRatings in the set, i.e. rates each book with their
+	 * respective rating.
+	 *
+	 * @param bookRating
+	 *            the book rating
+	 * @return the future completed when the books are rated
+	 */
+	public CompletableFuture<Void> rateBooks(Set<BookRating> bookRating);
+
+	/**
+	 * Gets the list of books corresponding to the set of ISBNs.
+	 *
+	 * @param isbnSet
+	 *            the ISBN set
+	 * @return the future books
+	 */
+	public CompletableFuture<List<Book>> getBooks(Set<Integer> isbnSet);
+
+	/**
+	 * Gets a list of top rated numBooks books.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the future top rated books
+	 */
+	public CompletableFuture<List<Book>> getTopRatedBooks(int numBooks);
+
+	/**
+	 * Gets the list of books containing numBooks editor picks.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the future editor picks
+	 */
+	public CompletableFuture<List<Book>> getEditorPicks(int numBooks);
+}
@@ -0,0 +1,87 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link AsyncStockManager} declares the methods of {@link StockManager}
+ * without blocking the caller: every method sends its request and returns a
+ * future completed with the result, or completed exceptionally with a
+ * {@link BookStoreException}.
+ *
+ * @see StockManager
+ */
+public interface AsyncStockManager {
+
+	/**
+	 * Adds the books in bookSet to the stock.
+	 *
+	 * @param bookSet
+	 *            the book set
+	 * @return the future completed when the books are added
+	 */
+	public CompletableFuture<Void> addBooks(Set<StockBook> bookSet);
+
+	/**
+	 * Adds copies of books to the stock.
+	 *
+	 * @param bookCopiesSet
+	 *            the book copies set
+	 * @return the future completed when the copies are added
+	 */
+	public CompletableFuture<Void> addCopies(Set<BookCopy> bookCopiesSet);
+
+	/**
+	 * Gets the list of books in the bookstore.
+	 *
+	 * @return the future books
+	 */
+	public CompletableFuture<List<StockBook>> getBooks();
+
+	/**
+	 * Gets the books matching the set of ISBNs given.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the future books
+	 */
+	public CompletableFuture<List<StockBook>> getBooksByISBN(Set<Integer> isbns);
+
+	/**
+	 * Gets the list of books which has sale miss.
+	 *
+	 * @return the future books in demand
+	 */
+	public CompletableFuture<List<StockBook>> getBooksInDemand();
+
+	/**
+	 * Updates the books by mark/unmark them as editor pick.
+	 *
+	 * @param editorPicks
+	 *            the editor picks
+	 * @return the future completed when the editor picks are updated
+	 */
+	public CompletableFuture<Void> updateEditorPicks(Set<BookEditorPick> editorPicks);
+
+	/**
+	 * Cleans up the bookstore - remove all the books and the associated data.
+	 *
+	 * @return the future completed when the books are removed
+	 */
+	public CompletableFuture<Void> removeAllBooks();
+
+	/**
+	 * Cleans up the bookstore selectively for the list of provided ISBNs.
+	 *
+	 * @param isbnSet
+	 *            the ISBN set
+	 * @return the future completed when the books are removed
+	 */
+	public CompletableFuture<Void> removeBooks(Set<Integer> isbnSet);
+}
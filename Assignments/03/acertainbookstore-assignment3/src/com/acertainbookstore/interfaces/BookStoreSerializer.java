@@ -1,6 +1,8 @@
 package com.acertainbookstore.interfaces;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * {@link BookStoreSerializer} specifies the serialization and de-serialization
@@ -19,6 +21,19 @@ public interface BookStoreSerializer {
 	 */
 	byte[] serialize(Object object) throws IOException;
 
+	/**
+	 * Serializes an object directly into a stream, without building the
+	 * sequence of bytes first.
+	 *
+	 * @param object
+	 *            the object
+	 * @param out
+	 *            the stream, which is flushed but not closed
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void serialize(Object object, OutputStream out) throws IOException;
+
 	/**
 	 * De-serializes a sequence of bytes into an object.
 	 *
@@ -29,4 +44,16 @@ public interface BookStoreSerializer {
 	 *             Signals that an I/O exception has occurred.
 	 */
 	Object deserialize(byte[] bytes) throws IOException;
+
+	/**
+	 * De-serializes an object directly from a stream, without reading the
+	 * sequence of bytes first.
+	 *
+	 * @param in
+	 *            the stream, which is not closed
+	 * @return the object
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	Object deserialize(InputStream in) throws IOException;
 }
@@ -0,0 +1,27 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.List;
+
+import com.acertainbookstore.business.BookStoreOperation;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link OperationExecutor} declares the method a bookstore server exposes to
+ * execute an ordered batch of operations atomically, in a single request.
+ */
+public interface OperationExecutor {
+
+	/**
+	 * Executes the operations in order, with no other request interleaved. If
+	 * an operation fails, the operations before it are undone and the failure
+	 * is thrown, so the batch has no effect.
+	 *
+	 * @param operations
+	 *            the operations
+	 * @return the result of every operation, in order: the books returned by
+	 *         a read, an empty list for a write
+	 * @throws BookStoreException
+	 *             the failure of the first failing operation
+	 */
+	public List<List<?>> executeOperations(List<BookStoreOperation> operations) throws BookStoreException;
+}
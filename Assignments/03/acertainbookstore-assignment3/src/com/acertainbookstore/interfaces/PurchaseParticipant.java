@@ -0,0 +1,47 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.List;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.PurchaseDecision;
+import com.acertainbookstore.business.PurchaseTransaction;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link PurchaseParticipant} declares the methods a bookstore server exposes
+ * to take part in a purchase spanning several servers, committed with a
+ * two-phase commit.
+ * <p>
+ * A part whose copies are reserved stays prepared until its coordinator
+ * decides, since the coordinator may have committed it; coordinators log their
+ * decisions and send them again until every server received them. Only parts
+ * that are missing copies, which can never commit, may be aborted by the
+ * server after a timeout.
+ */
+public interface PurchaseParticipant {
+
+	/**
+	 * Prepares a part of a purchase. If every copy is in stock, the copies are
+	 * reserved until the decision. Otherwise nothing is reserved and the
+	 * missing copies are returned, to be recorded as sale misses if the
+	 * decision asks for it.
+	 *
+	 * @param transaction
+	 *            the part of the purchase
+	 * @return the missing copies, empty if the copies are reserved
+	 * @throws BookStoreException
+	 *             if the part is invalid, in which case nothing is prepared
+	 */
+	public List<BookCopy> preparePurchase(PurchaseTransaction transaction) throws BookStoreException;
+
+	/**
+	 * Applies the decision on a prepared purchase. A decision on a purchase
+	 * that is not prepared does nothing, so decisions can be sent again.
+	 *
+	 * @param decision
+	 *            the decision
+	 * @throws BookStoreException
+	 *             if a purchase to commit is missing copies
+	 */
+	public void decidePurchase(PurchaseDecision decision) throws BookStoreException;
+}
@@ -5,6 +5,8 @@ import java.util.Set;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.CatalogPage;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreException;
 
@@ -39,6 +41,37 @@ public interface StockManager {
 	 */
 	public List<StockBook> getBooks() throws BookStoreException;
 
+	/**
+	 * Gets a page of the books in the bookstore, in ISBN order, so that the
+	 * catalog can be walked page by page.
+	 *
+	 * @param pageToken
+	 *            the token of the page, returned by the previous page, or null
+	 *            for the first page
+	 * @param pageSize
+	 *            the largest number of books of the page, reduced to
+	 *            {@link com.acertainbookstore.utils.BookStoreConstants#MAX_CATALOG_PAGE_SIZE}
+	 * @return the page
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public CatalogPage getBooksPage(String pageToken, int pageSize) throws BookStoreException;
+
+	/**
+	 * Gets the changes of the books in the bookstore since the version of a
+	 * token, so that a copy of the catalog is kept up to date without fetching
+	 * it whole.
+	 *
+	 * @param token
+	 *            the token returned by the previous changes, or null for the
+	 *            whole catalog
+	 * @return the changes, holding the whole catalog if the changes since the
+	 *         token are no longer kept
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public CatalogChanges getBookChanges(String token) throws BookStoreException;
+
 	/**
 	 * Gets the books matching the set of ISBNs given, is different to getBooks
 	 * in the BookStore interface because of the return type of the books.
@@ -60,6 +93,17 @@ public interface StockManager {
 	 */
 	public List<StockBook> getBooksInDemand() throws BookStoreException;
 
+	/**
+	 * Gets the books with the fewest copies in stock, from the fewest up.
+	 *
+	 * @param numBooks
+	 *            the largest number of books
+	 * @return the least stocked books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<StockBook> getLeastStockedBooks(int numBooks) throws BookStoreException;
+
 	/**
 	 * Updates the books by mark/unmark them as editor pick.
 	 *
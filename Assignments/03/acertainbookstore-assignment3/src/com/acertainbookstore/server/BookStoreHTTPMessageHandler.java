@@ -3,6 +3,8 @@ package com.acertainbookstore.server;
 import java.io.IOException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import javax.servlet.ServletException;
@@ -14,8 +16,14 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookStoreOperation;
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.DurableCertainBookStore;
+import com.acertainbookstore.business.PurchaseDecision;
+import com.acertainbookstore.business.PurchaseTransaction;
+import com.acertainbookstore.business.ReplicaCertainBookStore;
 import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreCompactSerializer;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.utils.BookStoreXStreamSerializer;
@@ -24,7 +32,6 @@ import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreResponse;
 import com.acertainbookstore.utils.BookStoreUtility;
-import com.esotericsoftware.kryo.io.Input;
 
 /**
  * {@link BookStoreHTTPMessageHandler} implements the message handler class
@@ -38,12 +45,39 @@ import com.esotericsoftware.kryo.io.Input;
  */
 public class BookStoreHTTPMessageHandler extends AbstractHandler {
 
+	/** The maximum size of the log segments sent to the backups. */
+	private static final int MAX_LOG_SEGMENT_BYTES = 1 << 20;
+
+	/** The body of the reads sent without one. */
+	private static final byte[] NO_BODY = new byte[0];
+
 	/** The book store. */
 	private CertainBookStore myBookStore = null;
 
 	/** The serializer. */
 	private static ThreadLocal<BookStoreSerializer> serializer;
 
+	/** The serialized responses of the reads since the last write. */
+	private final ResponseCache responseCache = new ResponseCache();
+
+	/**
+	 * {@link Read} computes the result of a read from the store.
+	 */
+	@FunctionalInterface
+	private interface Read {
+
+		/**
+		 * Computes the result.
+		 *
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		List<?> compute() throws BookStoreException, IOException;
+	}
+
 	/**
 	 * Instantiates a new {@link BookStoreHTTPMessageHandler}.
 	 *
@@ -54,7 +88,9 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		myBookStore = bookStore;
 
 		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
+		if (BookStoreConstants.BINARY_SERIALIZATION && BookStoreConstants.COMPACT_SERIALIZATION) {
+			serializer = ThreadLocal.withInitial(BookStoreCompactSerializer::new);
+		} else if (BookStoreConstants.BINARY_SERIALIZATION) {
 			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
 		} else {
 			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
@@ -107,7 +143,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 				break;
 
 			case LISTBOOKS:
-				listBooks(response);
+				listBooks(request, response);
 				break;
 
 			case UPDATEEDITORPICKS:
@@ -130,6 +166,42 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 				getStockBooksByISBN(request, response);
 				break;
 
+			case PREPAREPURCHASE:
+				preparePurchase(request, response);
+				break;
+
+			case DECIDEPURCHASE:
+				decidePurchase(request, response);
+				break;
+
+			case GETLOGRECORDS:
+				getLogRecords(request, response);
+				break;
+
+			case EXECUTEOPERATIONS:
+				executeOperations(request, response);
+				break;
+
+			case LISTBOOKSPAGE:
+				listBooksPage(request, response);
+				break;
+
+			case GETBOOKCHANGES:
+				getBookChanges(request, response);
+				break;
+
+			case GETLEASTSTOCKEDBOOKS:
+				getLeastStockedBooks(request, response);
+				break;
+
+			case GETCATALOGVERSION:
+				getCatalogVersion(response);
+				break;
+
+			case GETNUMEDITORPICKS:
+				getNumEditorPicks(request, response);
+				break;
+
 			default:
 				System.err.println("Unsupported message tag.");
 				break;
@@ -152,23 +224,39 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void getStockBooksByISBN(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+		byte[] body = request.getInputStream().readAllBytes();
 
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+		serveRead(request, response, new ResponseCache.Key(BookStoreMessageTag.GETSTOCKBOOKSBYISBN, null, body),
+				() -> myBookStore.getBooksByISBN((Set<Integer>) serializer.get().deserialize(body)));
+	}
+
+	/**
+	 * Gets the editor picks.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			bookStoreResponse.setList(myBookStore.getBooksByISBN(isbnSet));
+			checkStaleness(request);
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			bookStoreResponse.setList(myBookStore.getEditorPicks(numBooks));
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
-	 * Gets the editor picks.
+	 * Gets the number of editor picks.
 	 *
 	 * @param request
 	 *            the request
@@ -177,19 +265,62 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	private void getEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
+	private void getNumEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
+			checkStaleness(request);
+			bookStoreResponse.setList(Collections.singletonList(myBookStore.getNumEditorPicks()));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		serializer.get().serialize(bookStoreResponse, response.getOutputStream());
+	}
+
+	/**
+	 * Gets the catalog version.
+	 *
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getCatalogVersion(HttpServletResponse response) throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStoreResponse.setList(Collections.singletonList(myBookStore.getCatalogVersion()));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		serializer.get().serialize(bookStoreResponse, response.getOutputStream());
+	}
+
+	/**
+	 * Gets the least stocked books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getLeastStockedBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String numBooksString = request.getParameter(BookStoreConstants.BOOK_NUM_PARAM);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			checkStaleness(request);
 			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
-			bookStoreResponse.setList(myBookStore.getEditorPicks(numBooks));
+			bookStoreResponse.setList(myBookStore.getLeastStockedBooks(numBooks));
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -204,23 +335,38 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void getBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+		byte[] body = request.getInputStream().readAllBytes();
 
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+		serveRead(request, response, new ResponseCache.Key(BookStoreMessageTag.GETBOOKS, null, body),
+				() -> myBookStore.getBooks((Set<Integer>) serializer.get().deserialize(body)));
+	}
+
+	/**
+	 * Buys books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@SuppressWarnings("unchecked")
+	private void buyBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) serializer.get().deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			bookStoreResponse.setList(myBookStore.getBooks(isbnSet));
+			myBookStore.buyBooks(bookCopiesToBuy);
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
-	 * Buys books.
+	 * Prepares a part of a purchase spanning several servers.
 	 *
 	 * @param request
 	 *            the request
@@ -229,21 +375,100 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	@SuppressWarnings("unchecked")
-	private void buyBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	private void preparePurchase(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		PurchaseTransaction transaction = (PurchaseTransaction) serializer.get().deserialize(request.getInputStream());
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStoreResponse.setList(myBookStore.preparePurchase(transaction));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
 
-		Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+		serializer.get().serialize(bookStoreResponse, response.getOutputStream());
+	}
+
+	/**
+	 * Applies the decision on a purchase spanning several servers.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void decidePurchase(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		PurchaseDecision decision = (PurchaseDecision) serializer.get().deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.buyBooks(bookCopiesToBuy);
+			myBookStore.decidePurchase(decision);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		serializer.get().serialize(bookStoreResponse, response.getOutputStream());
+	}
+
+	/**
+	 * Gets the records of the write-ahead log from a position, for a backup
+	 * replicating the store.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getLogRecords(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String positionString = URLDecoder.decode(request.getParameter(BookStoreConstants.LOG_POSITION_PARAM),
+				StandardCharsets.UTF_8);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			if (!(myBookStore instanceof DurableCertainBookStore)) {
+				throw new BookStoreException("The server has no write-ahead log to replicate");
+			}
+
+			long position = Long.parseLong(positionString);
+			bookStoreResponse.setList(Collections
+					.singletonList(((DurableCertainBookStore) myBookStore).readLog(position, MAX_LOG_SEGMENT_BYTES)));
+		} catch (NumberFormatException ex) {
+			bookStoreResponse.setException(new BookStoreException(BookStoreConstants.NULL_INPUT, ex));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		} catch (IOException ex) {
+			bookStoreResponse.setException(new BookStoreException("Could not read the write-ahead log", ex));
+		}
+
+		serializer.get().serialize(bookStoreResponse, response.getOutputStream());
+	}
+
+	/**
+	 * Executes a batch of operations atomically.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@SuppressWarnings("unchecked")
+	private void executeOperations(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		List<BookStoreOperation> operations = (List<BookStoreOperation>) serializer.get()
+				.deserialize(request.getInputStream());
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStoreResponse.setList(myBookStore.executeOperations(operations));
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -258,10 +483,8 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void updateEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
 		Set<BookEditorPick> mapEditorPicksValues = (Set<BookEditorPick>) serializer.get()
-				.deserialize(serializedRequestContent);
+				.deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -270,24 +493,65 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
 	 * Lists the books.
 	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void listBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		serveRead(request, response, new ResponseCache.Key(BookStoreMessageTag.LISTBOOKS, null, NO_BODY),
+				myBookStore::getBooks);
+	}
+
+	/**
+	 * Lists a page of the books.
+	 *
+	 * @param request
+	 *            the request
 	 * @param response
 	 *            the response
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	private void listBooks(HttpServletResponse response) throws IOException {
+	private void listBooksPage(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String pageToken = request.getParameter(BookStoreConstants.PAGE_TOKEN_PARAM);
+		String pageSizeString = request.getParameter(BookStoreConstants.PAGE_SIZE_PARAM);
+
+		serveRead(request, response,
+				new ResponseCache.Key(BookStoreMessageTag.LISTBOOKSPAGE, pageToken + "&" + pageSizeString, NO_BODY),
+				() -> Collections.singletonList(myBookStore.getBooksPage(pageToken,
+						BookStoreUtility.convertStringToInt(pageSizeString))));
+	}
+
+	/**
+	 * Gets the changes of the books since a version.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getBookChanges(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String token = request.getParameter(BookStoreConstants.CHANGES_TOKEN_PARAM);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
-		bookStoreResponse.setList(myBookStore.getBooks());
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		try {
+			bookStoreResponse.setList(Collections.singletonList(myBookStore.getBookChanges(token)));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		serializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -302,9 +566,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void addCopies(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<BookCopy> listBookCopies = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+		Set<BookCopy> listBookCopies = (Set<BookCopy>) serializer.get().deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -313,8 +575,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -329,9 +590,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void addBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<StockBook> newBooks = (Set<StockBook>) serializer.get().deserialize(serializedRequestContent);
+		Set<StockBook> newBooks = (Set<StockBook>) serializer.get().deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -340,8 +599,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -361,8 +619,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.get().serialize(bookStoreResponse, response.getOutputStream());
 	}
 
 	/**
@@ -377,9 +634,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void removeBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<Integer> bookSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+		Set<Integer> bookSet = (Set<Integer>) serializer.get().deserialize(request.getInputStream());
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -388,21 +643,78 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		serializer.get().serialize(bookStoreResponse, response.getOutputStream());
+	}
+
+	/**
+	 * Serves a read from the responses cached since the last write, or
+	 * computes, serializes and caches its response. The version of the store
+	 * is read before the response is computed, so a response computed across a
+	 * write is tagged with the version before the write and is never served
+	 * again. Failed reads are not cached.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @param key
+	 *            the read, as a key of the cache
+	 * @param read
+	 *            the computation of the result of the read
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void serveRead(HttpServletRequest request, HttpServletResponse response, ResponseCache.Key key, Read read)
+			throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		long version;
+
+		try {
+			checkStaleness(request);
+			version = myBookStore.getStoreVersion();
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+			serializer.get().serialize(bookStoreResponse, response.getOutputStream());
+			return;
+		}
+
+		byte[] bytes = responseCache.get(key, version);
+
+		if (bytes == null) {
+			try {
+				bookStoreResponse.setList(read.compute());
+				bytes = serializer.get().serialize(bookStoreResponse);
+				responseCache.put(key, version, bytes);
+			} catch (BookStoreException ex) {
+				bookStoreResponse.setException(ex);
+				bytes = serializer.get().serialize(bookStoreResponse);
+			}
+		}
+
+		response.getOutputStream().write(bytes);
 	}
 
 	/**
-	 * Gets the serialized request content.
+	 * Checks that a backup is fresh enough for a read bounding its staleness.
+	 * Reads without a bound, and reads on a primary, are always served.
 	 *
-	 * @param request the request
-	 * @return the serialized request content
-	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @param request
+	 *            the request
+	 * @throws BookStoreException
+	 *             if the backup is staler than the bound
 	 */
-	private byte[] getSerializedRequestContent(HttpServletRequest request) throws IOException {
-		Input in = new Input(request.getInputStream());
-		byte[] serializedRequestContent = in.readBytes(request.getContentLength());
-		in.close();
-		return serializedRequestContent;
+	private void checkStaleness(HttpServletRequest request) throws BookStoreException {
+		String maxStalenessString = request.getParameter(BookStoreConstants.MAX_STALENESS_PARAM);
+
+		if (maxStalenessString == null || !(myBookStore instanceof ReplicaCertainBookStore)) {
+			return;
+		}
+
+		try {
+			((ReplicaCertainBookStore) myBookStore).checkStaleness(Long.parseLong(maxStalenessString));
+		} catch (NumberFormatException ex) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT, ex);
+		}
 	}
 }
@@ -1,8 +1,16 @@
 package com.acertainbookstore.server;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.DurableCertainBookStore;
+import com.acertainbookstore.business.ReplicaCertainBookStore;
 import com.acertainbookstore.utils.BookStoreConstants;
 
 /**
@@ -15,6 +23,8 @@ public class BookStoreHTTPServer {
 	private static final int DEFAULT_PORT = 8081;
 	private static final int MIN_THREADPOOL_SIZE = 10;
 	private static final int MAX_THREADPOOL_SIZE = 100;
+	private static final long DEFAULT_CHECKPOINT_INTERVAL_SECS = 60;
+	private static final long PREPARED_PURCHASE_TIMEOUT_SECS = 60;
 
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreHTTPServer}.
@@ -30,7 +40,69 @@ public class BookStoreHTTPServer {
 	 *            the arguments
 	 */
 	public static void main(String[] args) {
-		CertainBookStore bookStore = new CertainBookStore();
+		CertainBookStore bookStore;
+		String logFileString = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOG_FILE);
+		String primaryAddress = System.getProperty(BookStoreConstants.PROPERTY_KEY_PRIMARY);
+
+		if (primaryAddress != null) {
+			// Serve the reads from a backup applying the log of the primary.
+			ReplicaCertainBookStore replica = new ReplicaCertainBookStore();
+
+			try {
+				new BookStoreReplicator(replica, primaryAddress).start();
+			} catch (Exception ex) {
+				System.err.println("Could not replicate " + primaryAddress + ": " + ex.getMessage());
+				return;
+			}
+
+			bookStore = replica;
+		} else if (logFileString != null) {
+			// Rebuild the store from the latest checkpoint and the write-ahead
+			// log before serving.
+			DurableCertainBookStore durableBookStore;
+
+			try {
+				durableBookStore = new DurableCertainBookStore(Paths.get(logFileString));
+			} catch (IOException ex) {
+				System.err.println("Could not open the write-ahead log " + logFileString + ": " + ex.getMessage());
+				return;
+			}
+
+			long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL_SECS;
+			String checkpointIntervalString = System.getProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_INTERVAL);
+
+			if (checkpointIntervalString != null) {
+				try {
+					checkpointInterval = Long.parseLong(checkpointIntervalString);
+				} catch (NumberFormatException ex) {
+					System.err.println("Unsupported checkpoint interval");
+				}
+			}
+
+			if (checkpointInterval > 0) {
+				durableBookStore.startCheckpoints(checkpointInterval, TimeUnit.SECONDS);
+			}
+
+			bookStore = durableBookStore;
+		} else {
+			bookStore = new CertainBookStore();
+		}
+
+		// Abort the purchases missing copies whose coordinator did not decide
+		// in time; purchases with reserved copies wait for their coordinator.
+		// A backup applies the aborts logged by its primary instead.
+		if (primaryAddress == null) {
+			CertainBookStore participant = bookStore;
+			ScheduledExecutorService purchaseSweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "BookStoreHTTPServer-purchase-sweeper");
+				thread.setDaemon(true);
+				return thread;
+			});
+			purchaseSweeper.scheduleWithFixedDelay(
+					() -> participant.abortExpiredPurchases(PREPARED_PURCHASE_TIMEOUT_SECS, TimeUnit.SECONDS), 1, 1,
+					TimeUnit.SECONDS);
+		}
+
 		int listenOnPort = DEFAULT_PORT;
 
 		BookStoreHTTPMessageHandler handler = new BookStoreHTTPMessageHandler(bookStore);
@@ -4,13 +4,20 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
+import com.acertainbookstore.utils.BookStoreConstants;
+
 /**
- * {@link BookStoreHTTPServerUtility} creates Jetty server instances.
+ * {@link BookStoreHTTPServerUtility} creates Jetty server instances. Their
+ * connectors speak both HTTP/1.1 and cleartext HTTP/2 (h2c), either with prior
+ * knowledge or upgraded from HTTP/1.1, so each client picks its transport.
  */
 public class BookStoreHTTPServerUtility {
 
@@ -31,27 +38,48 @@ public class BookStoreHTTPServerUtility {
 	 * @return true, if successful
 	 */
 	public static void createServer(int port, AbstractHandler handler, QueuedThreadPool threadpool) {
+		try {
+			Server server = startServer(port, handler, threadpool);
+			server.join();
+		} catch (Exception ex) {
+			System.err.println(ex.getStackTrace());
+		}
+
+	}
+
+	/**
+	 * Creates a server on the port and starts it, without blocking the calling
+	 * thread.
+	 *
+	 * @param port
+	 *            the port, 0 for any free port
+	 * @param handler
+	 *            the handler
+	 * @param threadpool
+	 *            the thread pool, null for the default one
+	 * @return the started server
+	 * @throws Exception
+	 *             if the server cannot be started
+	 */
+	public static Server startServer(int port, AbstractHandler handler, QueuedThreadPool threadpool)
+			throws Exception {
 		Server server = null;
 		if (threadpool != null) {
 			server = new Server(threadpool);
-			ServerConnector myConnector = new ServerConnector(server);
-			myConnector.setPort(port);
-			server.addConnector(myConnector);
 		} else {
-			server = new Server(port);
+			server = new Server();
 		}
 
+		ServerConnector myConnector = newConnector(server);
+		myConnector.setPort(port);
+		server.addConnector(myConnector);
+
 		if (handler != null) {
 			server.setHandler(handler);
 		}
 
-		try {
-			server.start();
-			server.join();
-		} catch (Exception ex) {
-			System.err.println(ex.getStackTrace());
-		}
-
+		server.start();
+		return server;
 	}
 
 	/**
@@ -82,7 +110,11 @@ public class BookStoreHTTPServerUtility {
 			return false;
 		}
 
-		server = new Server(address);
+		server = new Server();
+		ServerConnector connector = newConnector(server);
+		connector.setHost(address.getHostString());
+		connector.setPort(address.getPort());
+		server.addConnector(connector);
 
 		if (handler != null) {
 			server.setHandler(handler);
@@ -97,4 +129,18 @@ public class BookStoreHTTPServerUtility {
 
 		return true;
 	}
+
+	/**
+	 * Creates a connector speaking HTTP/1.1 and h2c.
+	 *
+	 * @param server
+	 *            the server
+	 * @return the connector
+	 */
+	private static ServerConnector newConnector(Server server) {
+		HttpConfiguration config = new HttpConfiguration();
+		HTTP2CServerConnectionFactory http2 = new HTTP2CServerConnectionFactory(config);
+		http2.setMaxConcurrentStreams(BookStoreConstants.HTTP2_MAX_CONCURRENT_STREAMS);
+		return new ServerConnector(server, new HttpConnectionFactory(config), http2);
+	}
 }
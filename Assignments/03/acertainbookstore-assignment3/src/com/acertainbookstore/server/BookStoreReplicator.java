@@ -0,0 +1,155 @@
+package com.acertainbookstore.server;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jetty.client.HttpClient;
+
+import com.acertainbookstore.business.LogSegment;
+import com.acertainbookstore.business.ReplicaCertainBookStore;
+import com.acertainbookstore.client.BookStoreClientConstants;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreCompactSerializer;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+
+/**
+ * {@link BookStoreReplicator} keeps a {@link ReplicaCertainBookStore} up to
+ * date with its primary server. A background thread pulls the segments of the
+ * write-ahead log of the primary from the position the backup reached, and
+ * applies them in order. It pulls again at once while the backup lags behind,
+ * and polls periodically once it is caught up.
+ */
+public class BookStoreReplicator {
+
+	/** The milliseconds between polls once the backup is caught up. */
+	private static final long POLL_INTERVAL_MILLIS = 50;
+
+	/** The milliseconds before pulling again after a failure. */
+	private static final long RETRY_INTERVAL_MILLIS = 1000;
+
+	/** The backup. */
+	private final ReplicaCertainBookStore replica;
+
+	/** The address of the primary server. */
+	private final String primaryAddress;
+
+	/** The client. */
+	private final HttpClient client;
+
+	/** The serializer. */
+	private final BookStoreSerializer serializer;
+
+	/** The thread pulling the log. */
+	private final Thread puller;
+
+	/** Whether the replicator is stopped. */
+	private volatile boolean stopped = false;
+
+	/**
+	 * Instantiates a new {@link BookStoreReplicator}.
+	 *
+	 * @param replica
+	 *            the backup
+	 * @param primaryAddress
+	 *            the address of the primary server
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreReplicator(ReplicaCertainBookStore replica, String primaryAddress) throws Exception {
+		this.replica = replica;
+		this.primaryAddress = primaryAddress;
+
+		if (BookStoreConstants.BINARY_SERIALIZATION && BookStoreConstants.COMPACT_SERIALIZATION) {
+			serializer = new BookStoreCompactSerializer();
+		} else if (BookStoreConstants.BINARY_SERIALIZATION) {
+			serializer = new BookStoreKryoSerializer();
+		} else {
+			serializer = new BookStoreXStreamSerializer();
+		}
+
+		client = new HttpClient();
+		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+		client.start();
+
+		puller = new Thread(this::pullLog, "BookStoreReplicator");
+		puller.setDaemon(true);
+	}
+
+	/**
+	 * Starts replicating the primary.
+	 */
+	public void start() {
+		puller.start();
+	}
+
+	/**
+	 * Stops replicating the primary.
+	 */
+	public void stop() {
+		stopped = true;
+		puller.interrupt();
+
+		try {
+			client.stop();
+		} catch (Exception ex) {
+			System.err.println(ex.getMessage());
+		}
+	}
+
+	/**
+	 * Pulls and applies the log of the primary until the replicator is stopped.
+	 */
+	private void pullLog() {
+		while (!stopped) {
+			long pause;
+
+			try {
+				LogSegment segment = getLogSegment(replica.getAppliedPosition());
+				replica.applyLogSegment(segment);
+				pause = segment.isCaughtUp() ? POLL_INTERVAL_MILLIS : 0;
+			} catch (BookStoreException | IOException ex) {
+				if (stopped) {
+					return;
+				}
+
+				System.err.println("Could not replicate " + primaryAddress + ": " + ex.getMessage());
+				pause = RETRY_INTERVAL_MILLIS;
+			}
+
+			if (pause > 0) {
+				try {
+					Thread.sleep(pause);
+				} catch (InterruptedException ex) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the segment of the log of the primary starting at a position.
+	 *
+	 * @param position
+	 *            the position
+	 * @return the segment
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private LogSegment getLogSegment(long position) throws BookStoreException {
+		String urlString = primaryAddress + "/" + BookStoreMessageTag.GETLOGRECORDS + "?"
+				+ BookStoreConstants.LOG_POSITION_PARAM + "="
+				+ URLEncoder.encode(Long.toString(position), StandardCharsets.UTF_8);
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer);
+		return (LogSegment) bookStoreResponse.getList().get(0);
+	}
+}
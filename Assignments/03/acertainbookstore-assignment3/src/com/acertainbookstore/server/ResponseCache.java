@@ -0,0 +1,204 @@
+package com.acertainbookstore.server;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link ResponseCache} keeps the serialized responses of reads, tagged with
+ * the version of the store they were computed at, so that the same read
+ * between two writes is answered with the same bytes without taking the lock
+ * of the store or serializing again.
+ * <p>
+ * A response is only served while the store is still at its version, and the
+ * version is read before the response is computed, so a response is never
+ * older than the version it is tagged with. The cache is bounded in bytes, and
+ * the reads cached first are dropped when a response would exceed the bound;
+ * a stale response is replaced when its read is cached again.
+ */
+public class ResponseCache {
+
+	/**
+	 * {@link Key} identifies a read by its message, its query string and its
+	 * body.
+	 */
+	public static final class Key {
+
+		/** The message tag. */
+		private final BookStoreMessageTag tag;
+
+		/** The query string, null if none. */
+		private final String query;
+
+		/** The body. */
+		private final byte[] body;
+
+		/** The hash code. */
+		private final int hashCode;
+
+		/**
+		 * Instantiates a new {@link Key}.
+		 *
+		 * @param tag
+		 *            the message tag
+		 * @param query
+		 *            the query string, null if none
+		 * @param body
+		 *            the body
+		 */
+		public Key(BookStoreMessageTag tag, String query, byte[] body) {
+			this.tag = tag;
+			this.query = query;
+			this.body = body;
+			this.hashCode = 31 * Objects.hash(tag, query) + Arrays.hashCode(body);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+
+			Key other = (Key) obj;
+			return tag == other.tag && Objects.equals(query, other.query) && Arrays.equals(body, other.body);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	/**
+	 * {@link Entry} is a serialized response and the version of the store it
+	 * was computed at.
+	 */
+	private static final class Entry {
+
+		/** The version of the store. */
+		private final long version;
+
+		/** The serialized response. */
+		private final byte[] bytes;
+
+		/**
+		 * Instantiates a new {@link Entry}.
+		 *
+		 * @param version
+		 *            the version of the store
+		 * @param bytes
+		 *            the serialized response
+		 */
+		private Entry(long version, byte[] bytes) {
+			this.version = version;
+			this.bytes = bytes;
+		}
+	}
+
+	/** The responses, by read. */
+	private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+	/** The cached reads, in the order they were first cached. */
+	private final Queue<Key> order = new ConcurrentLinkedQueue<>();
+
+	/** The bytes held by the responses. */
+	private final AtomicLong size = new AtomicLong();
+
+	/** The bound on the bytes held by the responses. */
+	private final long maxBytes;
+
+	/**
+	 * Instantiates a new {@link ResponseCache} holding up to
+	 * {@link BookStoreConstants#RESPONSE_CACHE_MAX_BYTES}.
+	 */
+	public ResponseCache() {
+		this(BookStoreConstants.RESPONSE_CACHE_MAX_BYTES);
+	}
+
+	/**
+	 * Instantiates a new {@link ResponseCache}.
+	 *
+	 * @param maxBytes
+	 *            the bound on the bytes held by the responses
+	 */
+	public ResponseCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Gets the response of a read, if it was computed at the current version
+	 * of the store.
+	 *
+	 * @param key
+	 *            the read
+	 * @param version
+	 *            the current version of the store
+	 * @return the serialized response, or null if it must be computed
+	 */
+	public byte[] get(Key key, long version) {
+		Entry entry = entries.get(key);
+		return entry != null && entry.version == version ? entry.bytes : null;
+	}
+
+	/**
+	 * Keeps the response of a read.
+	 *
+	 * @param key
+	 *            the read
+	 * @param version
+	 *            the version of the store, read before the response was
+	 *            computed
+	 * @param bytes
+	 *            the serialized response
+	 */
+	public void put(Key key, long version, byte[] bytes) {
+		if (bytes.length > maxBytes) {
+			return;
+		}
+
+		Entry previous = entries.put(key, new Entry(version, bytes));
+
+		if (previous == null) {
+			order.add(key);
+			size.addAndGet(bytes.length);
+		} else {
+			size.addAndGet(bytes.length - previous.bytes.length);
+		}
+
+		// Drop the oldest reads until the responses fit.
+		while (size.get() > maxBytes) {
+			Key oldest = order.poll();
+
+			if (oldest == null) {
+				break;
+			}
+
+			Entry entry = entries.remove(oldest);
+
+			if (entry != null) {
+				size.addAndGet(-entry.bytes.length);
+			}
+		}
+	}
+}
@@ -0,0 +1,968 @@
+package com.acertainbookstore.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookStoreOperation;
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.CatalogPage;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.LogSegment;
+import com.acertainbookstore.business.PurchaseDecision;
+import com.acertainbookstore.business.PurchaseTransaction;
+import com.acertainbookstore.business.SampledPurchase;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link BookStoreCompactSerializer} serializes the messages of the bookstore
+ * with a hand-written binary codec, without reflection.
+ * <p>
+ * Every value starts with a one-byte tag naming its type, followed by its
+ * fields in a fixed order. Integers are written as variable-length zig-zag
+ * numbers, so that small ISBNs and counts take one or two bytes. A set or list
+ * whose elements all have the same type writes that type once and then packs
+ * the fields of the elements one after another, so that a set of ISBNs or a
+ * catalog is a run of numbers and strings with no per-element overhead.
+ * <p>
+ * Exceptions keep only their message. Values nested deeper than
+ * {@link #MAX_DEPTH} are rejected, so that a malformed message cannot exhaust
+ * the stack of the decoder. A serializer is used by one thread at a time, and
+ * keeps its buffer across calls.
+ *
+ * @see BookStoreSerializer
+ */
+public final class BookStoreCompactSerializer implements BookStoreSerializer {
+
+	/** The tag of null. */
+	private static final byte NULL = 0;
+
+	/** The tag of an {@link Integer}. */
+	private static final byte INTEGER = 1;
+
+	/** The tag of a {@link Long}. */
+	private static final byte LONG = 2;
+
+	/** The tag of a {@link Boolean}. */
+	private static final byte BOOLEAN = 3;
+
+	/** The tag of a {@link String}. */
+	private static final byte STRING = 4;
+
+	/** The tag of an array of bytes. */
+	private static final byte BYTES = 5;
+
+	/** The tag of a {@link Set}. */
+	private static final byte SET = 6;
+
+	/** The tag of a {@link List}. */
+	private static final byte LIST = 7;
+
+	/** The tag of a {@link BookCopy}. */
+	private static final byte BOOK_COPY = 8;
+
+	/** The tag of a {@link BookRating}. */
+	private static final byte BOOK_RATING = 9;
+
+	/** The tag of a {@link BookEditorPick}. */
+	private static final byte BOOK_EDITOR_PICK = 10;
+
+	/** The tag of a {@link Book}. */
+	private static final byte BOOK = 11;
+
+	/** The tag of a {@link StockBook}. */
+	private static final byte STOCK_BOOK = 12;
+
+	/** The tag of a {@link BookStoreResponse}. */
+	private static final byte RESPONSE = 13;
+
+	/** The tag of a {@link BookStoreException}. */
+	private static final byte EXCEPTION = 14;
+
+	/** The tag of a {@link BookStoreOperation}. */
+	private static final byte OPERATION = 15;
+
+	/** The tag of a {@link SampledPurchase}. */
+	private static final byte SAMPLED_PURCHASE = 16;
+
+	/** The tag of a {@link PurchaseTransaction}. */
+	private static final byte PURCHASE_TRANSACTION = 17;
+
+	/** The tag of a {@link PurchaseDecision}. */
+	private static final byte PURCHASE_DECISION = 18;
+
+	/** The tag of a {@link LogSegment}. */
+	private static final byte LOG_SEGMENT = 19;
+
+	/**
+	 * The element tag of a collection whose elements do not share a type, each
+	 * of which is then written with its own tag.
+	 */
+	private static final byte MIXED = 20;
+
+	/** The tag of a {@link CatalogPage}. */
+	private static final byte CATALOG_PAGE = 21;
+
+	/** The tag of a {@link CatalogChanges}. */
+	private static final byte CATALOG_CHANGES = 22;
+
+	/** The tags of the operations, by ordinal. */
+	private static final BookStoreMessageTag[] MESSAGE_TAGS = BookStoreMessageTag.values();
+
+	/** The initial size of the buffer. */
+	private static final int BUFFER_SIZE = 4096;
+
+	/** The largest buffer kept after a call; larger ones are released. */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+
+	/** The deepest nesting of values that is decoded. */
+	private static final int MAX_DEPTH = 16;
+
+	/** The buffer, reused across calls. */
+	private byte[] buffer = new byte[BUFFER_SIZE];
+
+	/** The position in the buffer. */
+	private int position;
+
+	/** The end of the bytes to decode in the buffer. */
+	private int limit;
+
+	/** The nesting of the value being decoded. */
+	private int depth;
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object)
+	 */
+	@Override
+	public byte[] serialize(Object object) throws IOException {
+		try {
+			encode(object);
+			return Arrays.copyOf(buffer, position);
+		} finally {
+			releaseBuffer();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object, java.io.OutputStream)
+	 */
+	@Override
+	public void serialize(Object object, OutputStream out) throws IOException {
+		try {
+			encode(object);
+			out.write(buffer, 0, position);
+			out.flush();
+		} finally {
+			releaseBuffer();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(byte[])
+	 */
+	@Override
+	public Object deserialize(byte[] bytes) throws IOException {
+		byte[] ownBuffer = buffer;
+
+		try {
+			buffer = bytes;
+			return decode(bytes.length);
+		} finally {
+			buffer = ownBuffer;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(java.io.
+	 * InputStream)
+	 */
+	@Override
+	public Object deserialize(InputStream in) throws IOException {
+		try {
+			int length = 0;
+			int read;
+
+			while ((read = in.read(buffer, length, buffer.length - length)) >= 0) {
+				length += read;
+
+				if (length == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				}
+			}
+
+			return decode(length);
+		} finally {
+			releaseBuffer();
+		}
+	}
+
+	/**
+	 * Encodes an object at the start of the buffer.
+	 *
+	 * @param object
+	 *            the object
+	 * @throws IOException
+	 *             if the object holds a type the codec does not support
+	 */
+	private void encode(Object object) throws IOException {
+		position = 0;
+		writeValue(object);
+	}
+
+	/**
+	 * Decodes the object held by the start of the buffer.
+	 *
+	 * @param length
+	 *            the number of bytes holding the object
+	 * @return the object
+	 * @throws IOException
+	 *             if the bytes do not hold an object
+	 */
+	private Object decode(int length) throws IOException {
+		position = 0;
+		limit = length;
+		depth = 0;
+
+		try {
+			Object object = readValue();
+
+			if (position != limit) {
+				throw new IOException("Trailing bytes after the message");
+			}
+
+			return object;
+		} catch (ArrayIndexOutOfBoundsException | ClassCastException | IllegalArgumentException ex) {
+			throw new IOException("Malformed message", ex);
+		}
+	}
+
+	/**
+	 * Releases the buffer if a large message made it grow past the size worth
+	 * keeping.
+	 */
+	private void releaseBuffer() {
+		if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+			buffer = new byte[BUFFER_SIZE];
+		}
+	}
+
+	/**
+	 * Gets the tag of the type of a value.
+	 *
+	 * @param value
+	 *            the value
+	 * @return the tag
+	 * @throws IOException
+	 *             if the codec does not support the type
+	 */
+	private static byte tagOf(Object value) throws IOException {
+		if (value == null) {
+			return NULL;
+		} else if (value instanceof Integer) {
+			return INTEGER;
+		} else if (value instanceof Long) {
+			return LONG;
+		} else if (value instanceof Boolean) {
+			return BOOLEAN;
+		} else if (value instanceof String) {
+			return STRING;
+		} else if (value instanceof byte[]) {
+			return BYTES;
+		} else if (value instanceof Set) {
+			return SET;
+		} else if (value instanceof List) {
+			return LIST;
+		} else if (value instanceof BookCopy) {
+			return BOOK_COPY;
+		} else if (value instanceof BookRating) {
+			return BOOK_RATING;
+		} else if (value instanceof BookEditorPick) {
+			return BOOK_EDITOR_PICK;
+		} else if (value instanceof StockBook) {
+			return STOCK_BOOK;
+		} else if (value instanceof Book) {
+			return BOOK;
+		} else if (value instanceof BookStoreResponse) {
+			return RESPONSE;
+		} else if (value instanceof BookStoreException) {
+			return EXCEPTION;
+		} else if (value instanceof BookStoreOperation) {
+			return OPERATION;
+		} else if (value instanceof SampledPurchase) {
+			return SAMPLED_PURCHASE;
+		} else if (value instanceof PurchaseTransaction) {
+			return PURCHASE_TRANSACTION;
+		} else if (value instanceof PurchaseDecision) {
+			return PURCHASE_DECISION;
+		} else if (value instanceof LogSegment) {
+			return LOG_SEGMENT;
+		} else if (value instanceof CatalogPage) {
+			return CATALOG_PAGE;
+		} else if (value instanceof CatalogChanges) {
+			return CATALOG_CHANGES;
+		}
+
+		throw new IOException("Unsupported type: " + value.getClass().getName());
+	}
+
+	/**
+	 * Writes a value with its tag.
+	 *
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             if the value holds a type the codec does not support
+	 */
+	private void writeValue(Object value) throws IOException {
+		byte tag = tagOf(value);
+		writeByte(tag);
+		writeBody(tag, value);
+	}
+
+	/**
+	 * Writes the fields of a value of a given type.
+	 *
+	 * @param tag
+	 *            the tag of the type
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             if the value holds a type the codec does not support
+	 */
+	private void writeBody(byte tag, Object value) throws IOException {
+		switch (tag) {
+		case NULL:
+			break;
+
+		case INTEGER:
+			writeInt((Integer) value);
+			break;
+
+		case LONG:
+			writeLong((Long) value);
+			break;
+
+		case BOOLEAN:
+			writeBoolean((Boolean) value);
+			break;
+
+		case STRING:
+			writeString((String) value);
+			break;
+
+		case BYTES:
+			byte[] bytes = (byte[]) value;
+			writeLength(bytes.length);
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+			position += bytes.length;
+			break;
+
+		case SET:
+		case LIST:
+			writeCollection((Collection<?>) value);
+			break;
+
+		case BOOK_COPY:
+			BookCopy bookCopy = (BookCopy) value;
+			writeInt(bookCopy.getISBN());
+			writeInt(bookCopy.getNumCopies());
+			break;
+
+		case BOOK_RATING:
+			BookRating bookRating = (BookRating) value;
+			writeInt(bookRating.getISBN());
+			writeInt(bookRating.getRating());
+			break;
+
+		case BOOK_EDITOR_PICK:
+			BookEditorPick editorPick = (BookEditorPick) value;
+			writeInt(editorPick.getISBN());
+			writeBoolean(editorPick.isEditorPick());
+			break;
+
+		case BOOK:
+			writeBook((Book) value);
+			break;
+
+		case STOCK_BOOK:
+			StockBook stockBook = (StockBook) value;
+			writeBook(stockBook);
+			writeInt(stockBook.getNumCopies());
+			writeLong(stockBook.getNumSaleMisses());
+			writeLong(stockBook.getNumTimesRated());
+			writeLong(stockBook.getTotalRating());
+			writeBoolean(stockBook.isEditorPick());
+			break;
+
+		case RESPONSE:
+			BookStoreResponse response = (BookStoreResponse) value;
+			writeValue(response.getException());
+			writeValue(response.getList());
+			break;
+
+		case EXCEPTION:
+			writeString(((BookStoreException) value).getMessage());
+			break;
+
+		case OPERATION:
+			BookStoreOperation operation = (BookStoreOperation) value;
+			writeLength(operation.getTag().ordinal());
+			writeValue(operation.getArgument());
+			break;
+
+		case SAMPLED_PURCHASE:
+			SampledPurchase sampledPurchase = (SampledPurchase) value;
+			writeInt(sampledPurchase.getNumBooks());
+			writeInt(sampledPurchase.getNumCopies());
+			break;
+
+		case PURCHASE_TRANSACTION:
+			PurchaseTransaction transaction = (PurchaseTransaction) value;
+			writeString(transaction.getTransactionId());
+			writeValue(transaction.getBookCopies());
+			break;
+
+		case PURCHASE_DECISION:
+			PurchaseDecision decision = (PurchaseDecision) value;
+			writeString(decision.getTransactionId());
+			writeBoolean(decision.isCommit());
+			writeBoolean(decision.isRecordSaleMisses());
+			break;
+
+		case LOG_SEGMENT:
+			LogSegment segment = (LogSegment) value;
+			writeLong(segment.getPosition());
+			writeBody(BYTES, segment.getRecords());
+			writeLong(segment.getDurablePosition());
+			writeValue(segment.getCheckpoint());
+			break;
+
+		case CATALOG_PAGE:
+			CatalogPage page = (CatalogPage) value;
+			writeValue(page.getBooks());
+			writeString(page.getNextPageToken());
+			break;
+
+		case CATALOG_CHANGES:
+			CatalogChanges changes = (CatalogChanges) value;
+			writeValue(changes.getBooks());
+			writeValue(changes.getRemovedISBNs());
+			writeBoolean(changes.isReset());
+			writeString(changes.getToken());
+			break;
+
+		default:
+			throw new IOException("Unsupported tag: " + tag);
+		}
+	}
+
+	/**
+	 * Writes the size of a collection and its elements, packed if they all
+	 * have the same type.
+	 *
+	 * @param collection
+	 *            the collection
+	 * @throws IOException
+	 *             if an element holds a type the codec does not support
+	 */
+	private void writeCollection(Collection<?> collection) throws IOException {
+		writeLength(collection.size());
+
+		if (collection.isEmpty()) {
+			return;
+		}
+
+		byte elementTag = -1;
+
+		for (Object element : collection) {
+			byte tag = tagOf(element);
+
+			if (tag == NULL || (elementTag >= 0 && tag != elementTag)) {
+				elementTag = MIXED;
+				break;
+			}
+
+			elementTag = tag;
+		}
+
+		writeByte(elementTag);
+
+		for (Object element : collection) {
+			if (elementTag == MIXED) {
+				writeValue(element);
+			} else {
+				writeBody(elementTag, element);
+			}
+		}
+	}
+
+	/**
+	 * Writes the fields of a book.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private void writeBook(Book book) {
+		writeInt(book.getISBN());
+		writeString(book.getTitle());
+		writeString(book.getAuthor());
+		ensureCapacity(4);
+		int bits = Float.floatToIntBits(book.getPrice());
+		buffer[position++] = (byte) (bits >>> 24);
+		buffer[position++] = (byte) (bits >>> 16);
+		buffer[position++] = (byte) (bits >>> 8);
+		buffer[position++] = (byte) bits;
+	}
+
+	/**
+	 * Writes a string as its length in bytes followed by its UTF-8 bytes, or
+	 * -1 if it is null.
+	 *
+	 * @param string
+	 *            the string
+	 */
+	private void writeString(String string) {
+		if (string == null) {
+			writeInt(-1);
+			return;
+		}
+
+		int length = string.length();
+		boolean ascii = true;
+
+		for (int i = 0; i < length && ascii; i++) {
+			ascii = string.charAt(i) < 0x80;
+		}
+
+		if (ascii) {
+			writeInt(length);
+			ensureCapacity(length);
+
+			for (int i = 0; i < length; i++) {
+				buffer[position++] = (byte) string.charAt(i);
+			}
+		} else {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			writeInt(bytes.length);
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+			position += bytes.length;
+		}
+	}
+
+	/**
+	 * Writes a boolean.
+	 *
+	 * @param value
+	 *            the value
+	 */
+	private void writeBoolean(boolean value) {
+		writeByte(value ? (byte) 1 : (byte) 0);
+	}
+
+	/**
+	 * Writes an integer as a zig-zag variable-length number.
+	 *
+	 * @param value
+	 *            the value
+	 */
+	private void writeInt(int value) {
+		writeLength((value << 1) ^ (value >> 31));
+	}
+
+	/**
+	 * Writes a non-negative integer as a variable-length number.
+	 *
+	 * @param value
+	 *            the value
+	 */
+	private void writeLength(int value) {
+		ensureCapacity(5);
+
+		while ((value & ~0x7F) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		buffer[position++] = (byte) value;
+	}
+
+	/**
+	 * Writes a long as a zig-zag variable-length number.
+	 *
+	 * @param value
+	 *            the value
+	 */
+	private void writeLong(long value) {
+		long bits = (value << 1) ^ (value >> 63);
+		ensureCapacity(10);
+
+		while ((bits & ~0x7FL) != 0) {
+			buffer[position++] = (byte) ((bits & 0x7F) | 0x80);
+			bits >>>= 7;
+		}
+
+		buffer[position++] = (byte) bits;
+	}
+
+	/**
+	 * Writes a byte.
+	 *
+	 * @param value
+	 *            the value
+	 */
+	private void writeByte(byte value) {
+		ensureCapacity(1);
+		buffer[position++] = value;
+	}
+
+	/**
+	 * Grows the buffer so that it holds the given number of bytes more.
+	 *
+	 * @param length
+	 *            the number of bytes
+	 */
+	private void ensureCapacity(int length) {
+		if (buffer.length - position < length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+		}
+	}
+
+	/**
+	 * Reads a value with its tag.
+	 *
+	 * @return the value
+	 * @throws IOException
+	 *             if the bytes do not hold a value
+	 */
+	private Object readValue() throws IOException {
+		return readBody(readByte());
+	}
+
+	/**
+	 * Reads the fields of a value of a given type.
+	 *
+	 * @param tag
+	 *            the tag of the type
+	 * @return the value
+	 * @throws IOException
+	 *             if the bytes do not hold a value
+	 */
+	private Object readBody(byte tag) throws IOException {
+		if (++depth > MAX_DEPTH) {
+			throw new IOException("Message nested deeper than " + MAX_DEPTH);
+		}
+
+		try {
+			return readFields(tag);
+		} finally {
+			depth--;
+		}
+	}
+
+	/**
+	 * Reads the fields of a value of a given type, once its nesting is
+	 * checked.
+	 *
+	 * @param tag
+	 *            the tag of the type
+	 * @return the value
+	 * @throws IOException
+	 *             if the bytes do not hold a value
+	 */
+	private Object readFields(byte tag) throws IOException {
+		switch (tag) {
+		case NULL:
+			return null;
+
+		case INTEGER:
+			return readInt();
+
+		case LONG:
+			return readLong();
+
+		case BOOLEAN:
+			return readBoolean();
+
+		case STRING:
+			return readString();
+
+		case BYTES:
+			int length = readSize();
+			byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+			position += length;
+			return bytes;
+
+		case SET:
+			int setSize = readSize();
+			Set<Object> set = new HashSet<>(Math.max(16, (int) (setSize / .75f) + 1));
+			readElements(set, setSize);
+			return set;
+
+		case LIST:
+			int listSize = readSize();
+			List<Object> list = new ArrayList<>(listSize);
+			readElements(list, listSize);
+			return list;
+
+		case BOOK_COPY:
+			return new BookCopy(readInt(), readInt());
+
+		case BOOK_RATING:
+			return new BookRating(readInt(), readInt());
+
+		case BOOK_EDITOR_PICK:
+			return new BookEditorPick(readInt(), readBoolean());
+
+		case BOOK:
+			return new ImmutableBook(readInt(), readString(), readString(), readFloat());
+
+		case STOCK_BOOK:
+			return new ImmutableStockBook(readInt(), readString(), readString(), readFloat(), readInt(), readLong(),
+					readLong(), readLong(), readBoolean());
+
+		case RESPONSE:
+			BookStoreResponse response = new BookStoreResponse();
+			response.setException((BookStoreException) readValue());
+			response.setList((List<?>) readValue());
+			return response;
+
+		case EXCEPTION:
+			return new BookStoreException(readString());
+
+		case OPERATION:
+			return new BookStoreOperation(MESSAGE_TAGS[readLength()], readValue());
+
+		case SAMPLED_PURCHASE:
+			return new SampledPurchase(readInt(), readInt());
+
+		case PURCHASE_TRANSACTION:
+			return new PurchaseTransaction(readString(), readBookCopies());
+
+		case PURCHASE_DECISION:
+			return new PurchaseDecision(readString(), readBoolean(), readBoolean());
+
+		case LOG_SEGMENT:
+			return new LogSegment(readLong(), (byte[]) readBody(BYTES), readLong(), (byte[]) readValue());
+
+		case CATALOG_PAGE:
+			return new CatalogPage(readStockBooks(), readString());
+
+		case CATALOG_CHANGES:
+			return new CatalogChanges(readStockBooks(), readISBNs(), readBoolean(), readString());
+
+		default:
+			throw new IOException("Unsupported tag: " + tag);
+		}
+	}
+
+	/**
+	 * Reads the elements of a collection.
+	 *
+	 * @param collection
+	 *            the collection receiving the elements
+	 * @param size
+	 *            the number of elements
+	 * @throws IOException
+	 *             if the bytes do not hold the elements
+	 */
+	private void readElements(Collection<Object> collection, int size) throws IOException {
+		if (size == 0) {
+			return;
+		}
+
+		byte elementTag = readByte();
+
+		for (int i = 0; i < size; i++) {
+			collection.add(elementTag == MIXED ? readValue() : readBody(elementTag));
+		}
+	}
+
+	/**
+	 * Reads a set of book copies.
+	 *
+	 * @return the set
+	 * @throws IOException
+	 *             if the bytes do not hold a set
+	 */
+	@SuppressWarnings("unchecked")
+	private Set<BookCopy> readBookCopies() throws IOException {
+		return (Set<BookCopy>) readValue();
+	}
+
+	/**
+	 * Reads a set of ISBNs.
+	 *
+	 * @return the set
+	 * @throws IOException
+	 *             if the bytes do not hold a set
+	 */
+	@SuppressWarnings("unchecked")
+	private Set<Integer> readISBNs() throws IOException {
+		return (Set<Integer>) readValue();
+	}
+
+	/**
+	 * Reads a list of stock books.
+	 *
+	 * @return the list
+	 * @throws IOException
+	 *             if the bytes do not hold a list
+	 */
+	@SuppressWarnings("unchecked")
+	private List<StockBook> readStockBooks() throws IOException {
+		return (List<StockBook>) readValue();
+	}
+
+	/**
+	 * Reads a float.
+	 *
+	 * @return the float
+	 */
+	private float readFloat() {
+		checkAvailable(4);
+		int bits = (buffer[position] & 0xFF) << 24 | (buffer[position + 1] & 0xFF) << 16
+				| (buffer[position + 2] & 0xFF) << 8 | (buffer[position + 3] & 0xFF);
+		position += 4;
+		return Float.intBitsToFloat(bits);
+	}
+
+	/**
+	 * Reads a string, null if its length is -1.
+	 *
+	 * @return the string
+	 */
+	private String readString() {
+		int length = readInt();
+
+		if (length < 0) {
+			return null;
+		}
+
+		checkAvailable(length);
+		String string = new String(buffer, position, length, StandardCharsets.UTF_8);
+		position += length;
+		return string;
+	}
+
+	/**
+	 * Reads a boolean.
+	 *
+	 * @return the boolean
+	 */
+	private boolean readBoolean() {
+		return readByte() != 0;
+	}
+
+	/**
+	 * Reads an integer written as a zig-zag variable-length number.
+	 *
+	 * @return the integer
+	 */
+	private int readInt() {
+		int bits = readLength();
+		return (bits >>> 1) ^ -(bits & 1);
+	}
+
+	/**
+	 * Reads a non-negative integer written as a variable-length number.
+	 *
+	 * @return the integer
+	 */
+	private int readLength() {
+		int value = 0;
+
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = readByte();
+			value |= (b & 0x7F) << shift;
+
+			if (b >= 0) {
+				return value;
+			}
+		}
+
+		throw new ArrayIndexOutOfBoundsException("Variable-length number too long");
+	}
+
+	/**
+	 * Reads the size of a byte array or a collection, checked against the
+	 * bytes left to decode before anything is allocated: every byte or
+	 * element takes at least one byte of the message.
+	 *
+	 * @return the size
+	 */
+	private int readSize() {
+		int size = readLength();
+		checkAvailable(size);
+		return size;
+	}
+
+	/**
+	 * Reads a long written as a zig-zag variable-length number.
+	 *
+	 * @return the long
+	 */
+	private long readLong() {
+		long bits = 0;
+
+		for (int shift = 0; shift < 70; shift += 7) {
+			byte b = readByte();
+			bits |= (long) (b & 0x7F) << shift;
+
+			if (b >= 0) {
+				return (bits >>> 1) ^ -(bits & 1);
+			}
+		}
+
+		throw new ArrayIndexOutOfBoundsException("Variable-length number too long");
+	}
+
+	/**
+	 * Reads a byte.
+	 *
+	 * @return the byte
+	 */
+	private byte readByte() {
+		checkAvailable(1);
+		return buffer[position++];
+	}
+
+	/**
+	 * Checks that the bytes to decode hold the given number of bytes more.
+	 *
+	 * @param length
+	 *            the number of bytes
+	 */
+	private void checkAvailable(int length) {
+		if (length < 0 || limit - position < length) {
+			throw new ArrayIndexOutOfBoundsException("Truncated message");
+		}
+	}
+}
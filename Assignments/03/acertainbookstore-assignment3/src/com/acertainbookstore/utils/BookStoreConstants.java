@@ -11,6 +11,12 @@ public final class BookStoreConstants {
 	 */
 	public static final boolean BINARY_SERIALIZATION = false;
 
+	/**
+	 * The Constant COMPACT_SERIALIZATION decides whether binary serialization
+	 * uses the hand-written {@link BookStoreCompactSerializer} rather than Kryo.
+	 */
+	public static final boolean COMPACT_SERIALIZATION = false;
+
 	// Constants used when creating URLs
 
 	/** The Constant BOOKISBN_PARAMs. */
@@ -22,6 +28,21 @@ public final class BookStoreConstants {
 	/** The Constant XMLSTRINGLEN_PARAM. */
 	public static final String XMLSTRINGLEN_PARAM = "len";
 
+	/** The Constant LOG_POSITION_PARAM. */
+	public static final String LOG_POSITION_PARAM = "position";
+
+	/** The Constant MAX_STALENESS_PARAM, in milliseconds. */
+	public static final String MAX_STALENESS_PARAM = "staleness";
+
+	/** The Constant PAGE_TOKEN_PARAM. */
+	public static final String PAGE_TOKEN_PARAM = "page_token";
+
+	/** The Constant PAGE_SIZE_PARAM. */
+	public static final String PAGE_SIZE_PARAM = "page_size";
+
+	/** The Constant CHANGES_TOKEN_PARAM. */
+	public static final String CHANGES_TOKEN_PARAM = "since";
+
 	/**
 	 * The Constant INVALID_PARAMS used as error code when converting numbers to
 	 * integer.
@@ -51,6 +72,27 @@ public final class BookStoreConstants {
 	/** The Constant RATING. */
 	public static final String RATING = "The rating: ";
 
+	/** The Constant PAGE_TOKEN. */
+	public static final String PAGE_TOKEN = "The page token: ";
+
+	/** The Constant PAGE_SIZE. */
+	public static final String PAGE_SIZE = "The page size: ";
+
+	/** The Constant CHANGES_TOKEN. */
+	public static final String CHANGES_TOKEN = "The changes token: ";
+
+	/** The Constant TRANSACTION. */
+	public static final String TRANSACTION = "The transaction: ";
+
+	/** The Constant READ_ONLY when a mutation is sent to a backup. */
+	public static final String READ_ONLY = "The backup is read-only";
+
+	/** The Constant STALE when a backup lags behind the requested bound. */
+	public static final String STALE = "The backup is stale";
+
+	/** The Constant MALFORMED_OPERATION when an argument has the wrong type. */
+	public static final String MALFORMED_OPERATION = " has a malformed argument";
+
 	/** The Constant NULL_INPUT. */
 	public static final String NULL_INPUT = "null input parameters";
 
@@ -60,6 +102,73 @@ public final class BookStoreConstants {
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
+	/** The Constant PROPERTY_KEY_LOG_FILE naming the write-ahead log file. */
+	public static final String PROPERTY_KEY_LOG_FILE = "logfile";
+
+	/**
+	 * The Constant PROPERTY_KEY_CHECKPOINT_INTERVAL naming the seconds between
+	 * checkpoints.
+	 */
+	public static final String PROPERTY_KEY_CHECKPOINT_INTERVAL = "checkpointinterval";
+
+	/**
+	 * The Constant PROPERTY_KEY_SHARDS naming the comma-separated addresses of
+	 * the servers of a sharded bookstore, in shard order.
+	 */
+	public static final String PROPERTY_KEY_SHARDS = "shards";
+
+	/**
+	 * The Constant PROPERTY_KEY_COORDINATOR_LOG_FILE naming the log file of the
+	 * coordinator of the purchases spanning several shards.
+	 */
+	public static final String PROPERTY_KEY_COORDINATOR_LOG_FILE = "coordinatorlogfile";
+
+	/** The Constant DEFAULT_COORDINATOR_LOG_FILE. */
+	public static final String DEFAULT_COORDINATOR_LOG_FILE = "coordinator.log";
+
+	/**
+	 * The Constant PROPERTY_KEY_PRIMARY naming the address of the primary
+	 * server, which makes the server a backup replicating it.
+	 */
+	public static final String PROPERTY_KEY_PRIMARY = "primary";
+
+	/**
+	 * The Constant PROPERTY_KEY_HTTP2 deciding whether the proxies send their
+	 * requests over HTTP/2 rather than HTTP/1.1.
+	 */
+	public static final String PROPERTY_KEY_HTTP2 = "http2";
+
+	/**
+	 * The Constant PROPERTY_KEY_BOOK_CACHE_SIZE naming the number of books the
+	 * proxies cache, 0 disabling the cache.
+	 */
+	public static final String PROPERTY_KEY_BOOK_CACHE_SIZE = "bookcachesize";
+
+	/**
+	 * The Constant HTTP2_MAX_CONCURRENT_STREAMS bounding the requests in flight
+	 * on an HTTP/2 connection.
+	 */
+	public static final int HTTP2_MAX_CONCURRENT_STREAMS = 1024;
+
+	/**
+	 * The Constant MAX_CATALOG_PAGE_SIZE bounding the books of a page of the
+	 * catalog; larger requested sizes are reduced to it.
+	 */
+	public static final int MAX_CATALOG_PAGE_SIZE = 1000;
+
+	/**
+	 * The Constant CHANGE_LOG_CAPACITY bounding the changes of books a store
+	 * keeps for the clients fetching deltas of its catalog; it must be a power
+	 * of two.
+	 */
+	public static final int CHANGE_LOG_CAPACITY = 1 << 16;
+
+	/**
+	 * The Constant RESPONSE_CACHE_MAX_BYTES bounding the serialized responses
+	 * of reads a server keeps between two writes.
+	 */
+	public static final int RESPONSE_CACHE_MAX_BYTES = 32 << 20;
+
 	/** The Constant EPSILON used for floating point number comparison */
 	public static final float EPSILON = 0.000001F;
 
@@ -0,0 +1,491 @@
+package com.acertainbookstore.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.Promise;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.acertainbookstore.client.BookStoreClientConstants;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link BookStoreHTTP2Client} performs the HTTP exchanges of the bookstore
+ * clients over cleartext HTTP/2 (h2c, with prior knowledge). Every request to
+ * an address is a stream of a single connection, opened on the first request
+ * and reopened once closed, so any number of concurrent requests share one
+ * socket and a slow response does not hold back the others. Requests beyond
+ * the streams a server accepts at once wait for a stream to end.
+ */
+public final class BookStoreHTTP2Client {
+
+	/** The client. */
+	private final HTTP2Client client;
+
+	/** The destinations, by address. */
+	private final ConcurrentMap<InetSocketAddress, Destination> destinations = new ConcurrentHashMap<>();
+
+	/** The maximum number of open streams to an address. */
+	private final int maxConcurrentStreams;
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTP2Client}, opening at most
+	 * {@link BookStoreConstants#HTTP2_MAX_CONCURRENT_STREAMS} streams to an
+	 * address.
+	 *
+	 * @param threads
+	 *            the number of threads reading the responses
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreHTTP2Client(int threads) throws Exception {
+		this(threads, BookStoreConstants.HTTP2_MAX_CONCURRENT_STREAMS);
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTP2Client}.
+	 *
+	 * @param threads
+	 *            the number of threads reading the responses
+	 * @param maxConcurrentStreams
+	 *            the maximum number of open streams to an address
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreHTTP2Client(int threads, int maxConcurrentStreams) throws Exception {
+		this.maxConcurrentStreams = maxConcurrentStreams;
+		client = new HTTP2Client();
+		client.setExecutor(new QueuedThreadPool(threads));
+		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+		client.start();
+	}
+
+	/**
+	 * Stops the client, closing its connections.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	public void stop() throws Exception {
+		client.stop();
+	}
+
+	/**
+	 * Perform HTTP exchange.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreResponse performHttpExchange(BookStoreRequest bookStoreRequest, BookStoreSerializer serializer)
+			throws BookStoreException {
+		byte[] content;
+
+		try {
+			content = exchange(bookStoreRequest, serializer).get();
+		} catch (InterruptedException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (ExecutionException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex.getCause());
+		}
+
+		return BookStoreUtility.readResponse(content, serializer);
+	}
+
+	/**
+	 * Perform HTTP exchange without blocking, as
+	 * {@link BookStoreUtility#performHttpExchangeAsync}.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the supplier of the serializer of the current thread
+	 * @return the future book store response, completed exceptionally with a
+	 *         {@link BookStoreException} if the exchange fails
+	 */
+	public CompletableFuture<BookStoreResponse> performHttpExchangeAsync(BookStoreRequest bookStoreRequest,
+			Supplier<BookStoreSerializer> serializer) {
+		CompletableFuture<BookStoreResponse> future = new CompletableFuture<>();
+		CompletableFuture<byte[]> content;
+
+		try {
+			content = exchange(bookStoreRequest, serializer.get());
+		} catch (BookStoreException ex) {
+			future.completeExceptionally(ex);
+			return future;
+		}
+
+		content.whenComplete((bytes, failure) -> {
+			if (failure != null) {
+				future.completeExceptionally(
+						new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, failure));
+				return;
+			}
+
+			try {
+				future.complete(BookStoreUtility.readResponse(bytes, serializer.get()));
+			} catch (BookStoreException ex) {
+				future.completeExceptionally(ex);
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Sends a request on a new stream of the connection to its address.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer of the request
+	 * @return the future content of the response
+	 * @throws BookStoreException
+	 *             if the request cannot be serialized
+	 */
+	private CompletableFuture<byte[]> exchange(BookStoreRequest bookStoreRequest, BookStoreSerializer serializer)
+			throws BookStoreException {
+		HttpURI uri = new HttpURI(bookStoreRequest.getURLString());
+		HttpFields fields = new HttpFields();
+		byte[] content = null;
+
+		switch (bookStoreRequest.getMethod()) {
+		case GET:
+			break;
+
+		case POST:
+			try {
+				content = serializer.serialize(bookStoreRequest.getInputValue());
+			} catch (IOException ex) {
+				throw new BookStoreException("Serialization error", ex);
+			}
+
+			fields.putLongField(HttpHeader.CONTENT_LENGTH, content.length);
+			break;
+
+		default:
+			throw new IllegalArgumentException("HTTP Method not supported.");
+		}
+
+		MetaData.Request metaData = new MetaData.Request(bookStoreRequest.getMethod().asString(), uri,
+				HttpVersion.HTTP_2, fields);
+		Destination destination = destinations.computeIfAbsent(new InetSocketAddress(uri.getHost(), uri.getPort()),
+				Destination::new);
+		CompletableFuture<byte[]> response = new CompletableFuture<>();
+		HeadersFrame headers = new HeadersFrame(metaData, null, content == null);
+		destination.send(new Exchange(destination, headers, content, response));
+		return response;
+	}
+
+	/**
+	 * {@link Destination} holds the connection to an address and the requests
+	 * waiting for a stream.
+	 */
+	private final class Destination {
+
+		/** The address. */
+		private final InetSocketAddress address;
+
+		/** The future connection. */
+		private Promise.Completable<Session> session;
+
+		/** The number of open streams. */
+		private int openStreams = 0;
+
+		/** The exchanges waiting for a stream. */
+		private final Queue<Exchange> waitingExchanges = new ArrayDeque<>();
+
+		/**
+		 * Instantiates a new {@link Destination}.
+		 *
+		 * @param address
+		 *            the address
+		 */
+		private Destination(InetSocketAddress address) {
+			this.address = address;
+		}
+
+		/**
+		 * Gets the connection, opening it if there is none or it is closed.
+		 *
+		 * @return the future connection
+		 */
+		private synchronized CompletableFuture<Session> getSession() {
+			if (session == null || session.isCompletedExceptionally() || (session.isDone() && session.join().isClosed())) {
+				session = new Promise.Completable<>();
+				client.connect(address, new Session.Listener.Adapter(), session);
+			}
+
+			return session;
+		}
+
+		/**
+		 * Sends an exchange on a new stream, or queues it if the server accepts
+		 * no more streams.
+		 *
+		 * @param exchange
+		 *            the exchange
+		 */
+		private void send(Exchange exchange) {
+			synchronized (this) {
+				if (openStreams >= maxConcurrentStreams) {
+					waitingExchanges.add(exchange);
+					return;
+				}
+
+				openStreams++;
+			}
+
+			exchange.start();
+		}
+
+		/**
+		 * Releases the stream of an ended exchange to the next waiting
+		 * exchange, if any.
+		 */
+		private void release() {
+			Exchange next;
+
+			synchronized (this) {
+				next = waitingExchanges.poll();
+
+				if (next == null) {
+					openStreams--;
+					return;
+				}
+			}
+
+			client.getExecutor().execute(next::start);
+		}
+	}
+
+	/**
+	 * {@link Exchange} is a request sent on a stream and its response.
+	 */
+	private final class Exchange extends Stream.Listener.Adapter {
+
+		/** The destination. */
+		private final Destination destination;
+
+		/** The headers of the request. */
+		private final HeadersFrame headers;
+
+		/** The content of the request, null if it has none. */
+		private final byte[] content;
+
+		/** The content of the response. */
+		private final ByteArrayOutputStream responseContent = new ByteArrayOutputStream();
+
+		/** The future content of the response. */
+		private final CompletableFuture<byte[]> response;
+
+		/**
+		 * The number of events before the stream is closed on both sides: the
+		 * request is sent and the response is received. The stream is released
+		 * by the event bringing it to zero, or by the failure setting it
+		 * negative, so exactly once. Negative once the exchange failed or was
+		 * sent again.
+		 */
+		private final AtomicInteger pendingEvents = new AtomicInteger(2);
+
+		/**
+		 * Instantiates a new {@link Exchange}.
+		 *
+		 * @param destination
+		 *            the destination
+		 * @param headers
+		 *            the headers of the request
+		 * @param content
+		 *            the content of the request, null if it has none
+		 * @param response
+		 *            the future content of the response
+		 */
+		private Exchange(Destination destination, HeadersFrame headers, byte[] content,
+				CompletableFuture<byte[]> response) {
+			this.destination = destination;
+			this.headers = headers;
+			this.content = content;
+			this.response = response;
+		}
+
+		/**
+		 * Opens the stream and sends the request.
+		 */
+		private void start() {
+			destination.getSession().whenComplete((session, failure) -> {
+				if (failure != null) {
+					fail(failure);
+					return;
+				}
+
+				session.newStream(headers, new Promise<Stream>() {
+
+					@Override
+					public void succeeded(Stream stream) {
+						stream.setIdleTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+
+						if (content == null) {
+							end();
+							return;
+						}
+
+						stream.data(new DataFrame(stream.getId(), ByteBuffer.wrap(content), true), new Callback() {
+
+							@Override
+							public void succeeded() {
+								end();
+							}
+
+							@Override
+							public void failed(Throwable failure) {
+								fail(failure);
+							}
+						});
+					}
+
+					@Override
+					public void failed(Throwable failure) {
+						fail(failure);
+					}
+				}, this);
+			});
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.eclipse.jetty.http2.api.Stream.Listener#onHeaders(org.eclipse.
+		 * jetty.http2.api.Stream, org.eclipse.jetty.http2.frames.HeadersFrame)
+		 */
+		@Override
+		public void onHeaders(Stream stream, HeadersFrame frame) {
+			MetaData metaData = frame.getMetaData();
+
+			if (metaData.isResponse() && ((MetaData.Response) metaData).getStatus() != HttpStatus.OK_200) {
+				fail(new IOException("HTTP status " + ((MetaData.Response) metaData).getStatus()));
+			} else if (frame.isEndStream()) {
+				receive();
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.eclipse.jetty.http2.api.Stream.Listener#onData(org.eclipse.jetty.
+		 * http2.api.Stream, org.eclipse.jetty.http2.frames.DataFrame,
+		 * org.eclipse.jetty.util.Callback)
+		 */
+		@Override
+		public void onData(Stream stream, DataFrame frame, Callback callback) {
+			ByteBuffer data = frame.getData();
+			byte[] bytes = new byte[data.remaining()];
+			data.get(bytes);
+			responseContent.write(bytes, 0, bytes.length);
+			callback.succeeded();
+
+			if (frame.isEndStream()) {
+				receive();
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.eclipse.jetty.http2.api.Stream.Listener#onReset(org.eclipse.jetty.
+		 * http2.api.Stream, org.eclipse.jetty.http2.frames.ResetFrame)
+		 */
+		@Override
+		public void onReset(Stream stream, ResetFrame frame) {
+			if (frame.getError() == ErrorCode.REFUSED_STREAM_ERROR.code && pendingEvents.getAndSet(-1) > 0) {
+				// The server refused the stream without processing the request,
+				// which is sent again.
+				destination.release();
+				destination.send(new Exchange(destination, headers, content, response));
+				return;
+			}
+
+			fail(new IOException("Stream reset by the server: " + ErrorCode.from(frame.getError())));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.eclipse.jetty.http2.api.Stream.Listener#onIdleTimeout(org.eclipse.
+		 * jetty.http2.api.Stream, java.lang.Throwable)
+		 */
+		@Override
+		public boolean onIdleTimeout(Stream stream, Throwable failure) {
+			fail(failure);
+			return true;
+		}
+
+		/**
+		 * Completes the exchange with the received response.
+		 */
+		private void receive() {
+			if (pendingEvents.get() > 0) {
+				response.complete(responseContent.toByteArray());
+				end();
+			}
+		}
+
+		/**
+		 * Fails the exchange, and releases its stream unless it is already
+		 * released. The response may already be received, if the request
+		 * failed to be sent after the server answered it, and then stays
+		 * completed.
+		 *
+		 * @param failure
+		 *            the failure
+		 */
+		private void fail(Throwable failure) {
+			if (pendingEvents.getAndSet(-1) > 0) {
+				response.completeExceptionally(failure);
+				destination.release();
+			}
+		}
+
+		/**
+		 * Releases the stream once both the request is sent and the response
+		 * received, when the server has closed it too.
+		 */
+		private void end() {
+			if (pendingEvents.decrementAndGet() == 0) {
+				destination.release();
+			}
+		}
+	}
+}
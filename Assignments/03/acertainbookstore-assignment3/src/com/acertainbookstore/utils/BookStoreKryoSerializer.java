@@ -1,62 +1,179 @@
 package com.acertainbookstore.utils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookStoreOperation;
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.CatalogPage;
+import com.acertainbookstore.business.ImmutableBook;
 import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.LogSegment;
+import com.acertainbookstore.business.PurchaseDecision;
+import com.acertainbookstore.business.PurchaseTransaction;
+import com.acertainbookstore.business.SampledPurchase;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.JavaSerializer;
 import org.objenesis.strategy.StdInstantiatorStrategy;
 
 /**
  * {@link BookStoreKryoSerializer} serializes objects to arrays of bytes
  * representing strings using the Kryo library.
- * 
+ * <p>
+ * A serializer is used by one thread at a time, so it keeps its buffers across
+ * calls, and the classes of the messages are registered up front so that they
+ * are written as small identifiers rather than by name.
+ *
  * @see BookStoreSerializer
  */
 public final class BookStoreKryoSerializer implements BookStoreSerializer {
 
+	/** The initial size of the buffers. */
+	private static final int BUFFER_SIZE = 4096;
+
+	/** The largest buffer kept after a call; larger ones are released. */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+
+	/** The empty array detaching the input from the last array read. */
+	private static final byte[] NO_BYTES = new byte[0];
+
 	/** The binary stream. */
 	private final Kryo binaryStream;
 
+	/** The output, reused across calls. */
+	private Output output = new Output(BUFFER_SIZE, -1);
+
+	/** The input reading streams, reused across calls. */
+	private final Input streamInput = new Input(BUFFER_SIZE);
+
+	/** The input reading arrays, reused across calls. */
+	private final Input arrayInput = new Input();
+
 	/**
 	 * Instantiates a new {@link BookStoreKryoSerializer}.
 	 */
 	public BookStoreKryoSerializer() {
 		binaryStream = new Kryo();
 		binaryStream.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+
+		// The identifiers follow the order of registration, which must not
+		// change; new classes go last, so that the write-ahead logs remain
+		// readable. Exceptions hold JDK internals that Kryo cannot rebuild
+		// field by field, so they go through Java serialization.
 		binaryStream.register(ImmutableStockBook.class);
+		binaryStream.register(ImmutableBook.class);
+		binaryStream.register(BookCopy.class);
+		binaryStream.register(BookRating.class);
+		binaryStream.register(BookEditorPick.class);
+		binaryStream.register(HashSet.class);
+		binaryStream.register(ArrayList.class);
+		binaryStream.register(BookStoreResponse.class);
+		binaryStream.register(BookStoreException.class, new JavaSerializer());
+		binaryStream.register(BookStoreMessageTag.class);
+		binaryStream.register(BookStoreOperation.class);
+		binaryStream.register(SampledPurchase.class);
+		binaryStream.register(PurchaseTransaction.class);
+		binaryStream.register(PurchaseDecision.class);
+		binaryStream.register(LogSegment.class);
+		binaryStream.register(byte[].class);
+		binaryStream.register(CatalogPage.class);
+		binaryStream.register(CatalogChanges.class);
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see
 	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
 	 * Object)
 	 */
 	@Override
 	public byte[] serialize(Object object) throws IOException {
-		try (ByteArrayOutputStream outStream = new ByteArrayOutputStream(); Output out = new Output(outStream)) {
-			binaryStream.writeClassAndObject(out, object);
-			out.flush();
-			return outStream.toByteArray();
+		try {
+			output.clear();
+			binaryStream.writeClassAndObject(output, object);
+			return output.toBytes();
+		} catch (KryoException ex) {
+			throw new IOException(ex);
+		} finally {
+			releaseOutput();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object, java.io.OutputStream)
+	 */
+	@Override
+	public void serialize(Object object, OutputStream out) throws IOException {
+		try {
+			output.setOutputStream(out);
+			binaryStream.writeClassAndObject(output, object);
+			output.flush();
+		} catch (KryoException ex) {
+			throw new IOException(ex);
+		} finally {
+			output.setOutputStream(null);
+			releaseOutput();
 		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(byte[])
 	 */
 	@Override
 	public Object deserialize(byte[] bytes) throws IOException {
-		try (InputStream inStream = new ByteArrayInputStream(bytes); Input in = new Input(inStream)) {
-			return binaryStream.readClassAndObject(in);
+		try {
+			arrayInput.setBuffer(bytes);
+			return binaryStream.readClassAndObject(arrayInput);
+		} catch (KryoException ex) {
+			throw new IOException(ex);
+		} finally {
+			arrayInput.setBuffer(NO_BYTES);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(java.io.
+	 * InputStream)
+	 */
+	@Override
+	public Object deserialize(InputStream in) throws IOException {
+		try {
+			streamInput.setInputStream(in);
+			return binaryStream.readClassAndObject(streamInput);
+		} catch (KryoException ex) {
+			throw new IOException(ex);
+		} finally {
+			streamInput.setInputStream(null);
+		}
+	}
+
+	/**
+	 * Releases the buffer of the output if a large object made it grow past
+	 * the size worth keeping.
+	 */
+	private void releaseOutput() {
+		if (output.getBuffer().length > MAX_RETAINED_BUFFER_SIZE) {
+			output = new Output(BUFFER_SIZE, -1);
 		}
 	}
 }
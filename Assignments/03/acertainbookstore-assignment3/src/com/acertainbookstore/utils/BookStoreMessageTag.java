@@ -34,5 +34,41 @@ public enum BookStoreMessageTag {
 	REMOVEBOOKS,
 
 	/** The tag for the get stock books by ISBN message. */
-	GETSTOCKBOOKSBYISBN;
+	GETSTOCKBOOKSBYISBN,
+
+	/** The tag for the rate books message. */
+	RATEBOOKS,
+
+	/** The tag for the prepare purchase message of a two-phase commit. */
+	PREPAREPURCHASE,
+
+	/** The tag for the decide purchase message of a two-phase commit. */
+	DECIDEPURCHASE,
+
+	/** The tag for the get log records message of the replication. */
+	GETLOGRECORDS,
+
+	/** The tag for the execute operations message carrying a batch. */
+	EXECUTEOPERATIONS,
+
+	/** The tag for the list books page message. */
+	LISTBOOKSPAGE,
+
+	/** The tag for the get book changes message. */
+	GETBOOKCHANGES,
+
+	/** The tag for the get least stocked books message. */
+	GETLEASTSTOCKEDBOOKS,
+
+	/** The tag for the get catalog version message. */
+	GETCATALOGVERSION,
+
+	/** The tag for the get number of editor picks message. */
+	GETNUMEDITORPICKS,
+
+	/**
+	 * The tag for the end of a purchase, once every shard received its
+	 * decision, in the log of a two-phase commit coordinator.
+	 */
+	ENDPURCHASE;
 }
@@ -1,5 +1,10 @@
 package com.acertainbookstore.utils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.io.xml.StaxDriver;
@@ -24,8 +29,21 @@ public final class BookStoreXStreamSerializer implements BookStoreSerializer {
 	 */
 	@Override
 	public byte[] serialize(Object object) {
-		String xml = xmlStream.toXML(object);
-		return xml.getBytes();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		xmlStream.toXML(object, out);
+		return out.toByteArray();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object, java.io.OutputStream)
+	 */
+	@Override
+	public void serialize(Object object, OutputStream out) {
+		xmlStream.toXML(object, out);
 	}
 
 	/*
@@ -36,7 +54,18 @@ public final class BookStoreXStreamSerializer implements BookStoreSerializer {
 	 */
 	@Override
 	public Object deserialize(byte[] bytes) {
-		String xml = new String(bytes);
-		return xmlStream.fromXML(xml);
+		return xmlStream.fromXML(new ByteArrayInputStream(bytes));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(java.io.
+	 * InputStream)
+	 */
+	@Override
+	public Object deserialize(InputStream in) {
+		return xmlStream.fromXML(in);
 	}
 }